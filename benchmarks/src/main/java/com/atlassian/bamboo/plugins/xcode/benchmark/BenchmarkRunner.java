@@ -0,0 +1,48 @@
+package com.atlassian.bamboo.plugins.xcode.benchmark;
+
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the benchmarks with the GC profiler attached, so that every score comes with the bytes allocated per operation
+ * ({@code gc.alloc.rate.norm}). Accepts the usual JMH command line, e.g. a regular expression selecting benchmarks.
+ * <p>
+ * Each benchmark mode is run on its own, so that each is reported in a unit of its own unless one is given with
+ * {@code -tu}: throughput in operations per second, times in nanoseconds per operation. Without {@code -bm} both
+ * throughput and average time are measured.
+ */
+public final class BenchmarkRunner
+{
+    private BenchmarkRunner()
+    {
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException
+    {
+        final CommandLineOptions commandLine = new CommandLineOptions(args);
+        final List<Mode> modes = commandLine.getBenchModes().isEmpty() ? Lists.newArrayList(Mode.Throughput, Mode.AverageTime)
+                                                                       : Lists.newArrayList(commandLine.getBenchModes());
+        for (Mode mode : modes)
+        {
+            final ChainedOptionsBuilder options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .addProfiler(GCProfiler.class)
+                    .mode(mode);
+            if (!commandLine.getTimeUnit().hasValue())
+            {
+                options.timeUnit(mode == Mode.Throughput ? TimeUnit.SECONDS : TimeUnit.NANOSECONDS);
+            }
+            new Runner(options.build()).run();
+        }
+    }
+}
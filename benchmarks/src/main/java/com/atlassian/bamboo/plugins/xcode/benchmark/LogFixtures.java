@@ -0,0 +1,71 @@
+package com.atlassian.bamboo.plugins.xcode.benchmark;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Log fixtures of the plugin tests, scaled up to benchmark sized inputs
+ */
+public final class LogFixtures
+{
+    public static final String OCUNIT_LOG = "/com/atlassian/bamboo/plugins/xcode/tests/testlog.txt";
+    public static final String XCTEST_LOG = "/com/atlassian/bamboo/plugins/xcode/tests/xctest-consecutive-identical-test-names.txt";
+    public static final String QUICK_LOG = "/com/atlassian/bamboo/plugins/xcode/tests/xctest-quick-results.txt";
+
+    /**
+     * Number of lines every scaled fixture holds, benchmarks report their scores per line using this value
+     */
+    public static final int LINE_COUNT = 1 << 20;
+
+    private LogFixtures()
+    {
+    }
+
+    public static List<String> readLines(String resource) throws IOException
+    {
+        final InputStream logStream = LogFixtures.class.getResourceAsStream(resource);
+        if (logStream == null)
+        {
+            throw new IOException("Could not find fixture '" + resource + "'");
+        }
+
+        try
+        {
+            return IOUtils.readLines(logStream);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(logStream);
+        }
+    }
+
+    /**
+     * Repeats the lines of the fixture until there are {@link #LINE_COUNT} of them
+     */
+    public static List<String> scaledLines(String resource) throws IOException
+    {
+        return scale(readLines(resource));
+    }
+
+    public static <T> List<T> scale(List<T> items)
+    {
+        return scale(items, LINE_COUNT);
+    }
+
+    /**
+     * Repeats the items until there are {@code count} of them
+     */
+    public static <T> List<T> scale(List<T> items, int count)
+    {
+        final List<T> scaled = Lists.newArrayListWithCapacity(count);
+        while (scaled.size() < count)
+        {
+            scaled.addAll(items.subList(0, Math.min(items.size(), count - scaled.size())));
+        }
+        return scaled;
+    }
+}
@@ -0,0 +1,69 @@
+package com.atlassian.bamboo.plugins.xcode.build;
+
+import com.atlassian.bamboo.build.LogEntry;
+import com.atlassian.bamboo.build.SimpleLogEntry;
+import com.atlassian.bamboo.plugins.xcode.benchmark.LogFixtures;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes {@link LogFixtures#LINE_COUNT} log entries of testlog.txt to the xcodebuild logfile. Scores are per line.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XCodeBuildLogInterceptorBenchmark
+{
+    private List<LogEntry> logEntries;
+    private File logfile;
+    private XCodeBuildLogInterceptor interceptor;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        logEntries = Lists.newArrayListWithCapacity(LogFixtures.LINE_COUNT);
+        for (String line : LogFixtures.scaledLines(LogFixtures.OCUNIT_LOG))
+        {
+            logEntries.add(new SimpleLogEntry(line));
+        }
+        logfile = File.createTempFile("xcodebuild", ".log");
+        logfile.deleteOnExit();
+    }
+
+    @Setup(Level.Invocation)
+    public void openLogfile() throws IOException
+    {
+        interceptor = new XCodeBuildLogInterceptor();
+        interceptor.open(logfile.getAbsolutePath(), false);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeLogfile()
+    {
+        interceptor.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LogFixtures.LINE_COUNT)
+    public void intercept()
+    {
+        for (LogEntry logEntry : logEntries)
+        {
+            interceptor.intercept(logEntry);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.atlassian.bamboo.plugins.xcode.build;
+
+import com.atlassian.bamboo.build.LogEntry;
+import com.atlassian.bamboo.build.SimpleLogEntry;
+import com.atlassian.bamboo.build.logger.LogInterceptor;
+import com.atlassian.bamboo.build.logger.interceptors.ErrorMemorisingInterceptor;
+import com.atlassian.bamboo.plugins.xcode.benchmark.LogFixtures;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestParserLogInterceptor;
+import com.atlassian.bamboo.plugins.xcode.tests.ocunit.OCUnitTestParser;
+import com.atlassian.bamboo.plugins.xcode.tests.xctest.XCTestParser;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Feeds {@link LogFixtures#LINE_COUNT} log entries through the interceptors {@code XCodeTaskType} installs while its
+ * test command runs: as separate interceptors on the stack, and behind an {@link XCodeLogMultiplexer}. Scores are per
+ * line.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XCodeLogMultiplexerBenchmark
+{
+    private List<LogEntry> ocUnitEntries;
+    private List<LogEntry> xcTestEntries;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        ocUnitEntries = toLogEntries(LogFixtures.scaledLines(LogFixtures.OCUNIT_LOG));
+        xcTestEntries = toLogEntries(LogFixtures.scaledLines(LogFixtures.XCTEST_LOG));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LogFixtures.LINE_COUNT)
+    public List<LogInterceptor> separateOCUnit()
+    {
+        return interceptSeparately(ocUnitEntries);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LogFixtures.LINE_COUNT)
+    public List<LogInterceptor> separateXCTest()
+    {
+        return interceptSeparately(xcTestEntries);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LogFixtures.LINE_COUNT)
+    public XCodeLogMultiplexer multiplexedOCUnit()
+    {
+        return interceptMultiplexed(ocUnitEntries);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LogFixtures.LINE_COUNT)
+    public XCodeLogMultiplexer multiplexedXCTest()
+    {
+        return interceptMultiplexed(xcTestEntries);
+    }
+
+    /**
+     * The interceptor stack calls every interceptor for every line
+     */
+    private static List<LogInterceptor> interceptSeparately(List<LogEntry> logEntries)
+    {
+        final List<LogInterceptor> interceptors = Lists.<LogInterceptor>newArrayList(
+                new TestParserLogInterceptor(new OCUnitTestParser()),
+                ErrorMemorisingInterceptor.newInterceptor(),
+                new TestParserLogInterceptor(new XCTestParser()));
+        for (LogEntry logEntry : logEntries)
+        {
+            for (LogInterceptor interceptor : interceptors)
+            {
+                interceptor.intercept(logEntry);
+            }
+        }
+        return interceptors;
+    }
+
+    private static XCodeLogMultiplexer interceptMultiplexed(List<LogEntry> logEntries)
+    {
+        final XCodeLogMultiplexer multiplexer = newMultiplexer();
+        for (LogEntry logEntry : logEntries)
+        {
+            multiplexer.intercept(logEntry);
+        }
+        return multiplexer;
+    }
+
+    private static XCodeLogMultiplexer newMultiplexer()
+    {
+        final XCodeLogMultiplexer multiplexer = new XCodeLogMultiplexer();
+        multiplexer.setOCUnitInterceptor(new TestParserLogInterceptor(new OCUnitTestParser()));
+        multiplexer.setErrorInterceptor(ErrorMemorisingInterceptor.newInterceptor());
+        multiplexer.setXCTestInterceptor(new TestParserLogInterceptor(new XCTestParser()));
+        return multiplexer;
+    }
+
+    private static List<LogEntry> toLogEntries(List<String> lines)
+    {
+        final List<LogEntry> logEntries = Lists.newArrayListWithCapacity(lines.size());
+        for (String line : lines)
+        {
+            logEntries.add(new SimpleLogEntry(line));
+        }
+        return logEntries;
+    }
+}
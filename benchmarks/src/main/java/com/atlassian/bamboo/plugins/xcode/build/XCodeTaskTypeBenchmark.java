@@ -0,0 +1,36 @@
+package com.atlassian.bamboo.plugins.xcode.build;
+
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+
+/**
+ * Splits custom xcodebuild parameters the way {@link XCodeTaskType} does for each command it runs
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XCodeTaskTypeBenchmark
+{
+    @Param({
+            "-derivedDataPath build",
+            "-derivedDataPath \"build/Derived Data\" ONLY_ACTIVE_ARCH=NO CODE_SIGN_IDENTITY='iPhone Developer: Bamboo Agent (ABCDE12345)' -quiet",
+    })
+    public String customParameters;
+
+    @Benchmark
+    public List<String> addArgumentsSplit()
+    {
+        final List<String> arguments = Lists.newArrayList();
+        XCodeTaskType.addArgumentsSplit(arguments, customParameters);
+        return arguments;
+    }
+}
@@ -0,0 +1,98 @@
+package com.atlassian.bamboo.plugins.xcode.tests.api;
+
+import com.atlassian.bamboo.build.LogEntry;
+import com.atlassian.bamboo.build.SimpleLogEntry;
+import com.atlassian.bamboo.plugins.xcode.benchmark.LogFixtures;
+import com.atlassian.bamboo.plugins.xcode.tests.ocunit.OCUnitTestParser;
+import com.atlassian.bamboo.plugins.xcode.tests.xctest.XCTestParser;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Feeds {@link LogFixtures#LINE_COUNT} log entries through the interceptors {@code XCodeTaskType} installs for test
+ * parsing. Scores are per line.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TestParserLogInterceptorBenchmark
+{
+    private List<LogEntry> ocUnitEntries;
+    private List<LogEntry> xcTestEntries;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        ocUnitEntries = toLogEntries(LogFixtures.scaledLines(LogFixtures.OCUNIT_LOG));
+        xcTestEntries = toLogEntries(LogFixtures.scaledLines(LogFixtures.XCTEST_LOG));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LogFixtures.LINE_COUNT)
+    public TestParserLogInterceptor interceptOCUnit()
+    {
+        return intercept(new TestParserLogInterceptor(new OCUnitTestParser()), ocUnitEntries);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LogFixtures.LINE_COUNT)
+    public TestParserLogInterceptor interceptXCTest()
+    {
+        return intercept(new TestParserLogInterceptor(new XCTestParser()), xcTestEntries);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LogFixtures.LINE_COUNT)
+    public TestParserLogInterceptor interceptOCUnitAsync()
+    {
+        return interceptAndAwait(TestParserLogInterceptor.newAsyncInterceptor(new OCUnitTestParser()), ocUnitEntries);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LogFixtures.LINE_COUNT)
+    public TestParserLogInterceptor interceptXCTestAsync()
+    {
+        return interceptAndAwait(TestParserLogInterceptor.newAsyncInterceptor(new XCTestParser()), xcTestEntries);
+    }
+
+    /**
+     * Includes waiting for the parser thread, so that the score covers parsing and not just queueing
+     */
+    private static TestParserLogInterceptor interceptAndAwait(TestParserLogInterceptor interceptor, List<LogEntry> logEntries)
+    {
+        intercept(interceptor, logEntries);
+        interceptor.getFailingTestResults();
+        interceptor.close();
+        return interceptor;
+    }
+
+    private static TestParserLogInterceptor intercept(TestParserLogInterceptor interceptor, List<LogEntry> logEntries)
+    {
+        for (LogEntry logEntry : logEntries)
+        {
+            interceptor.intercept(logEntry);
+        }
+        return interceptor;
+    }
+
+    private static List<LogEntry> toLogEntries(List<String> lines)
+    {
+        final List<LogEntry> logEntries = Lists.newArrayListWithCapacity(lines.size());
+        for (String line : lines)
+        {
+            logEntries.add(new SimpleLogEntry(line));
+        }
+        return logEntries;
+    }
+}
@@ -0,0 +1,45 @@
+package com.atlassian.bamboo.plugins.xcode.tests.ocunit;
+
+import com.atlassian.bamboo.plugins.xcode.benchmark.LogFixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Parses testlog.txt scaled to {@link LogFixtures#LINE_COUNT} lines. Scores are per line: lines/s in throughput mode,
+ * ns/line in average time mode.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OCUnitTestParserBenchmark
+{
+    private List<String> lines;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        lines = LogFixtures.scaledLines(LogFixtures.OCUNIT_LOG);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LogFixtures.LINE_COUNT)
+    public OCUnitTestParser processLines()
+    {
+        final OCUnitTestParser parser = new OCUnitTestParser();
+        for (String line : lines)
+        {
+            parser.processLine(line);
+        }
+        return parser;
+    }
+}
@@ -0,0 +1,60 @@
+package com.atlassian.bamboo.plugins.xcode.tests.ocunit;
+
+import com.atlassian.bamboo.plugins.xcode.benchmark.LogFixtures;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputLimits;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestResultsFile;
+import com.atlassian.bamboo.plugins.xcode.tests.api.XcodeTestParser;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Collates the results of testlog.txt scaled to {@link LogFixtures#LINE_COUNT} lines, once by parsing the log the
+ * way {@code OCUnitTestTaskType} does and once by reading the results file written next to it. Scores are per
+ * collation.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TestResultsFileBenchmark
+{
+    private File logFile;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        logFile = File.createTempFile("ocunit", ".log");
+        FileUtils.writeLines(logFile, LogFixtures.scaledLines(LogFixtures.OCUNIT_LOG));
+        final XcodeTestParser parser = parseLog();
+        TestResultsFile.write(logFile, parser.getSuccessfulTestResults(), parser.getFailingTestResults());
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        FileUtils.deleteQuietly(TestResultsFile.forLog(logFile));
+        FileUtils.deleteQuietly(logFile);
+    }
+
+    @Benchmark
+    public XcodeTestParser parseLog() throws IOException
+    {
+        return new OCUnitLogFileParser(TestOutputLimits.DEFAULT, Runtime.getRuntime().availableProcessors()).parse(logFile);
+    }
+
+    @Benchmark
+    public TestResultsFile readResultsFile() throws IOException
+    {
+        return TestResultsFile.read(logFile);
+    }
+}
@@ -0,0 +1,143 @@
+package com.atlassian.bamboo.plugins.xcode.tests.xctest;
+
+import com.atlassian.bamboo.plugins.xcode.benchmark.LogFixtures;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decodes the Quick test names of xctest-quick-results.txt, repeated to {@link #SPEC_COUNT} specs, the way
+ * {@link XCTestParser} and Bamboo use them: validate, parse, and read the pretty name once when the result is stored
+ * and once when it is collected. The regular expression based decoder the plugin used before is kept as a baseline.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class QuickSpecNameBenchmark
+{
+    private static final int SPEC_COUNT = 50000;
+
+    private List<String> testNames;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        final List<String> names = Lists.newArrayList();
+        for (String line : LogFixtures.readLines(LogFixtures.QUICK_LOG))
+        {
+            final int start = line.indexOf(' ', line.indexOf("'-[")) + 1;
+            final int end = line.indexOf("]'");
+            if (line.startsWith("Test Case") && line.endsWith("started.") && start > 0 && end > start)
+            {
+                names.add(line.substring(start, end));
+            }
+        }
+        testNames = LogFixtures.scale(names, SPEC_COUNT);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SPEC_COUNT)
+    public void decodeNamesWithPattern(Blackhole blackhole)
+    {
+        for (String testName : testNames)
+        {
+            if (PatternQuickSpecName.isValidName(testName))
+            {
+                final PatternQuickSpecName quickSpecName = new PatternQuickSpecName(testName);
+                blackhole.consume(quickSpecName.getPrettyName());
+                blackhole.consume(quickSpecName.getPrettyName());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SPEC_COUNT)
+    public void decodeNames(Blackhole blackhole)
+    {
+        for (String testName : testNames)
+        {
+            final QuickSpecName quickSpecName = QuickSpecName.decode(testName);
+            if (quickSpecName != null)
+            {
+                blackhole.consume(quickSpecName.getPrettyName());
+                blackhole.consume(quickSpecName.getPrettyName());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SPEC_COUNT)
+    public void decodeNamesMemoized(Blackhole blackhole)
+    {
+        final Map<String, QuickSpecName> quickSpecNames = Maps.newHashMap();
+        for (String testName : testNames)
+        {
+            QuickSpecName quickSpecName = quickSpecNames.get(testName);
+            if (quickSpecName == null)
+            {
+                quickSpecName = QuickSpecName.decode(testName);
+                if (quickSpecName != null)
+                {
+                    quickSpecNames.put(testName, quickSpecName);
+                }
+            }
+            if (quickSpecName != null)
+            {
+                blackhole.consume(quickSpecName.getPrettyName());
+                blackhole.consume(quickSpecName.getPrettyName());
+            }
+        }
+    }
+
+    /**
+     * The decoder before it was rewritten without regular expressions
+     */
+    private static final class PatternQuickSpecName
+    {
+        private static final Pattern quickSpecNamePattern = Pattern.compile("^(.+?)__(.+)(_+.+_\\d+)$");
+
+        final String specKey;
+        final String describes;
+        final String behaviour;
+
+        static boolean isValidName(String testName)
+        {
+            return quickSpecNamePattern.matcher(testName).matches();
+        }
+
+        PatternQuickSpecName(String methodName)
+        {
+            final Matcher nameMatcher = quickSpecNamePattern.matcher(methodName);
+            if (!nameMatcher.matches())
+            {
+                throw new IllegalArgumentException("'" + methodName + "' is not a valid Quick spec name");
+            }
+
+            this.specKey = nameMatcher.group(1) + "__" + nameMatcher.group(2).trim();
+            this.describes = nameMatcher.group(1).replaceAll("_+", " ");
+            this.behaviour = nameMatcher.group(2).replaceAll("_+", " ");
+        }
+
+        String getPrettyName()
+        {
+            String wordsSeparated = this.specKey.replaceAll("\\p{Lu}", " $0").replace('_', ' ').replaceAll("\\s+", " ").toLowerCase().trim();
+            return StringUtils.isBlank(wordsSeparated) ? this.specKey : wordsSeparated.substring(0, 1).toUpperCase() + wordsSeparated.substring(1);
+        }
+    }
+}
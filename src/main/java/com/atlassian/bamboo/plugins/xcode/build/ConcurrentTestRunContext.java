@@ -0,0 +1,123 @@
+package com.atlassian.bamboo.plugins.xcode.build;
+
+import com.atlassian.bamboo.build.BuildOutputLogEntry;
+import com.atlassian.bamboo.build.ErrorLogEntry;
+import com.atlassian.bamboo.build.LogEntry;
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import com.atlassian.bamboo.build.logger.LogInterceptor;
+import com.atlassian.bamboo.task.TaskContext;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * The task context one of several xcodebuild runs at the same time is executed with. Its build logger hands each line
+ * to the run's own interceptor, then logs it unchanged to the build logger of the task.
+ * <p>
+ * The process service logs a process's output through the build logger of the context it is given, so this is how
+ * the output of each run reaches the parser of that run. Everything else is left to the task's own context, which
+ * keeps the process tied to the build for stopping and timeouts. Both are proxies, so that they forward whatever the
+ * Bamboo interfaces declare.
+ */
+final class ConcurrentTestRunContext
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    private static final String GET_BUILD_LOGGER = "getBuildLogger";
+    private static final String ADD_BUILD_LOG_ENTRY = "addBuildLogEntry";
+    private static final String ADD_ERROR_LOG_ENTRY = "addErrorLogEntry";
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private ConcurrentTestRunContext()
+    {
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * @param runInterceptor gets every output and error line of the processes executed with the context
+     */
+    @NotNull
+    static TaskContext newRunContext(@NotNull final TaskContext taskContext, @NotNull LogInterceptor runInterceptor)
+    {
+        final BuildLogger runLogger = newRunLogger(taskContext.getBuildLogger(), runInterceptor);
+        return newProxy(TaskContext.class, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                if (GET_BUILD_LOGGER.equals(method.getName()) && method.getParameterTypes().length == 0)
+                {
+                    return runLogger;
+                }
+                return forward(taskContext, method, args);
+            }
+        });
+    }
+
+    @NotNull
+    static BuildLogger newRunLogger(@NotNull final BuildLogger buildLogger, @NotNull final LogInterceptor runInterceptor)
+    {
+        return newProxy(BuildLogger.class, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+                final boolean output = ADD_BUILD_LOG_ENTRY.equals(method.getName());
+                final boolean error = ADD_ERROR_LOG_ENTRY.equals(method.getName());
+                if ((output || error) && args != null && args.length > 0)
+                {
+                    final LogEntry logEntry = toLogEntry(args[0], error);
+                    if (logEntry != null && error)
+                    {
+                        runInterceptor.interceptError(logEntry);
+                    }
+                    else if (logEntry != null)
+                    {
+                        runInterceptor.intercept(logEntry);
+                    }
+                }
+                return forward(buildLogger, method, args);
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    @Nullable
+    private static LogEntry toLogEntry(@Nullable Object entry, boolean error)
+    {
+        if (entry instanceof LogEntry)
+        {
+            return (LogEntry) entry;
+        }
+        if (entry instanceof String)
+        {
+            return error ? new ErrorLogEntry((String) entry) : new BuildOutputLogEntry((String) entry);
+        }
+        return null;
+    }
+
+    private static Object forward(@NotNull Object target, @NotNull Method method, Object[] args) throws Throwable
+    {
+        try
+        {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    @NotNull
+    private static <T> T newProxy(@NotNull Class<T> type, @NotNull InvocationHandler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+}
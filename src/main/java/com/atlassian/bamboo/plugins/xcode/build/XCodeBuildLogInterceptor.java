@@ -24,7 +24,7 @@ public final class XCodeBuildLogInterceptor implements LogInterceptor
     {
     }
 
-    private void processLine(@NotNull final String line)
+    private synchronized void processLine(@NotNull final String line)
     {
         if (bw == null)
         {
@@ -2,6 +2,10 @@ package com.atlassian.bamboo.plugins.xcode.build;
 
 import com.atlassian.bamboo.build.Job;
 import com.atlassian.bamboo.collections.ActionParametersMap;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputLimits;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputSpill;
+import com.atlassian.bamboo.plugins.xcode.tests.checkpoint.TestCheckpoint;
+import com.atlassian.bamboo.plugins.xcode.tests.history.TestHistoryStore;
 import com.atlassian.bamboo.task.AbstractTaskConfigurator;
 import com.atlassian.bamboo.task.BuildTaskRequirementSupport;
 import com.atlassian.bamboo.task.TaskDefinition;
@@ -54,6 +58,24 @@ public class XCodeConfigurator extends AbstractTaskConfigurator implements Build
     public static final String DEFAULT_DISTRIBUTION_METHOD = "development";
     public static final String INCLUDE_SYMBOLS = "includeSymbols";
     public static final String INCLUDE_BITCODE = "includeBitcode";
+    public static final String TEST_OUTPUT_HEAD_KB = TestOutputLimits.OUTPUT_HEAD_KB;
+    public static final String TEST_OUTPUT_TAIL_KB = TestOutputLimits.OUTPUT_TAIL_KB;
+    public static final String SPILL_TEST_OUTPUT = TestOutputSpill.SPILL_TEST_OUTPUT;
+    public static final String PARSE_TESTS_IN_BACKGROUND = "parseTestsInBackground";
+    public static final String TEST_HISTORY = TestHistoryStore.TEST_HISTORY;
+    public static final String SHARD_TESTS = "shardTests";
+    public static final String TEST_TARGET = "testTarget";
+    public static final String TEST_SHARD_DESTINATIONS = "testShardDestinations";
+    public static final String TEST_SHARD_INDEX = "testShardIndex";
+    public static final String TEST_SHARD_COUNT = "testShardCount";
+    public static final String TEST_DESTINATIONS = "testDestinations";
+    public static final String TEST_DESTINATION_CONCURRENCY = "testDestinationConcurrency";
+    public static final String RETRY_FAILED_TESTS = "retryFailedTests";
+    public static final String FAIL_FAST_TESTS = "failFastTests";
+    public static final String STOP_AFTER_TEST_FAILURES = "stopAfterTestFailures";
+    public static final String CHECKPOINT_TESTS = TestCheckpoint.CHECKPOINT_TESTS;
+    public static final String PARALLEL_TESTING = "parallelTesting";
+    public static final String PARALLEL_TESTING_WORKERS = "parallelTestingWorkers";
 
     private static final String CTX_UI_CONFIG_BEAN = "uiConfigBean";
 
@@ -86,6 +108,24 @@ public class XCodeConfigurator extends AbstractTaskConfigurator implements Build
             .add(DISTRIBUTION_METHOD)
             .add(INCLUDE_SYMBOLS) 
             .add(INCLUDE_BITCODE)
+            .add(TEST_OUTPUT_HEAD_KB)
+            .add(TEST_OUTPUT_TAIL_KB)
+            .add(SPILL_TEST_OUTPUT)
+            .add(PARSE_TESTS_IN_BACKGROUND)
+            .add(TEST_HISTORY)
+            .add(SHARD_TESTS)
+            .add(TEST_TARGET)
+            .add(TEST_SHARD_DESTINATIONS)
+            .add(TEST_SHARD_INDEX)
+            .add(TEST_SHARD_COUNT)
+            .add(TEST_DESTINATIONS)
+            .add(TEST_DESTINATION_CONCURRENCY)
+            .add(RETRY_FAILED_TESTS)
+            .add(FAIL_FAST_TESTS)
+            .add(STOP_AFTER_TEST_FAILURES)
+            .add(CHECKPOINT_TESTS)
+            .add(PARALLEL_TESTING)
+            .add(PARALLEL_TESTING_WORKERS)
             .build();
 
     protected TextProvider textProvider;
@@ -107,6 +147,8 @@ public class XCodeConfigurator extends AbstractTaskConfigurator implements Build
         context.put(DISTRIBUTION_METHOD, DEFAULT_DISTRIBUTION_METHOD);
         context.put(ALL_TARGETS, true);
         context.put(CLEAN, true);
+        context.put(TEST_OUTPUT_HEAD_KB, TestOutputLimits.DEFAULT_HEAD_KB);
+        context.put(TEST_OUTPUT_TAIL_KB, TestOutputLimits.DEFAULT_TAIL_KB);
     }
 
     @NotNull
@@ -160,6 +202,98 @@ public class XCodeConfigurator extends AbstractTaskConfigurator implements Build
         {
             errorCollection.addError(PROVISIONING_PROFILE, textProvider.getText("xcode.provisioning_profile.error"));
         }
+
+        final String retries = StringUtils.trim(params.getString(RETRY_FAILED_TESTS));
+        if (StringUtils.isNotEmpty(retries) && !isNumberAtLeast(retries, 0))
+        {
+            errorCollection.addError(RETRY_FAILED_TESTS, textProvider.getText("xcode.retryFailedTests.error"));
+        }
+
+        final boolean retryFailedTests = StringUtils.isNotEmpty(retries) && isNumberAtLeast(retries, 1);
+        if ((params.getBoolean(SHARD_TESTS) || params.getBoolean(FAIL_FAST_TESTS) || params.getBoolean(CHECKPOINT_TESTS) || retryFailedTests)
+            && StringUtils.isBlank(params.getString(TEST_TARGET)))
+        {
+            errorCollection.addError(TEST_TARGET, textProvider.getText("xcode.testTarget.error"));
+        }
+
+        final String stopAfterFailures = StringUtils.trim(params.getString(STOP_AFTER_TEST_FAILURES));
+        if (params.getBoolean(FAIL_FAST_TESTS) && StringUtils.isNotEmpty(stopAfterFailures) && !isNumberAtLeast(stopAfterFailures, 1))
+        {
+            errorCollection.addError(STOP_AFTER_TEST_FAILURES, textProvider.getText("xcode.stopAfterTestFailures.error"));
+        }
+
+        final String parallelTestingWorkers = StringUtils.trim(params.getString(PARALLEL_TESTING_WORKERS));
+        if (params.getBoolean(PARALLEL_TESTING) && StringUtils.isNotEmpty(parallelTestingWorkers) && !isNumberAtLeast(parallelTestingWorkers, 1))
+        {
+            errorCollection.addError(PARALLEL_TESTING_WORKERS, textProvider.getText("xcode.parallelTestingWorkers.error"));
+        }
+
+        if (params.getBoolean(SHARD_TESTS))
+        {
+            if (StringUtils.isBlank(params.getString(TEST_SHARD_DESTINATIONS)))
+            {
+                errorCollection.addError(TEST_SHARD_DESTINATIONS, textProvider.getText("xcode.testShardDestinations.error"));
+            }
+            if (!isValidJobShard(params.getString(TEST_SHARD_INDEX), params.getString(TEST_SHARD_COUNT)))
+            {
+                errorCollection.addError(TEST_SHARD_INDEX, textProvider.getText("xcode.testShardJob.error"));
+            }
+        }
+
+        final String concurrency = StringUtils.trim(params.getString(TEST_DESTINATION_CONCURRENCY));
+        if (StringUtils.isNotEmpty(concurrency) && !isNumberAtLeast(concurrency, 1))
+        {
+            errorCollection.addError(TEST_DESTINATION_CONCURRENCY, textProvider.getText("xcode.testDestinationConcurrency.error"));
+        }
+
+        for (String field : new String[] {TEST_OUTPUT_HEAD_KB, TEST_OUTPUT_TAIL_KB})
+        {
+            if (!TestOutputLimits.isValidSize(params.getString(field)))
+            {
+                errorCollection.addError(field, textProvider.getText("test.output.size.error"));
+            }
+        }
+    }
+
+    private static boolean isNumberAtLeast(@NotNull String value, int minimum)
+    {
+        try
+        {
+            return Integer.parseInt(value) >= minimum;
+        }
+        catch (NumberFormatException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * The job shard and the number of job shards are both left empty, or each is a number or a variable substituted
+     * when the task runs
+     */
+    private static boolean isValidJobShard(@Nullable String index, @Nullable String count)
+    {
+        if (StringUtils.isBlank(index) && StringUtils.isBlank(count))
+        {
+            return true;
+        }
+        if (StringUtils.isBlank(index) || StringUtils.isBlank(count))
+        {
+            return false;
+        }
+        if (StringUtils.contains(index, "${") || StringUtils.contains(count, "${"))
+        {
+            return true;
+        }
+        try
+        {
+            final int shardIndex = Integer.parseInt(index.trim());
+            return shardIndex >= 0 && shardIndex < Integer.parseInt(count.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            return false;
+        }
     }
 
     @NotNull
@@ -0,0 +1,279 @@
+package com.atlassian.bamboo.plugins.xcode.build;
+
+import com.atlassian.bamboo.build.LogEntry;
+import com.atlassian.bamboo.build.logger.LogInterceptor;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestParserLogInterceptor;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The single interceptor {@link XCodeTaskType} puts on the interceptor stack. Every line is scanned once and handed
+ * only to the consumers that need it:
+ * <ul>
+ *     <li>the xcodebuild logfile gets every output line</li>
+ *     <li>error capture gets every error line</li>
+ *     <li>the test parsers get test suite, test case and test error lines, and any line logged while a test case
+ *     runs; the rest of the build output never reaches them. With parallel testing several test cases run at
+ *     once, so their lines are forwarded until the last of them has finished. Once the clones of the test runner
+ *     report on their own, every line is forwarded until the test run finishes, as their tests are only counted by
+ *     the parser.</li>
+ * </ul>
+ * OCUnit and XCTest print the same test case lines, so while both are being parsed each test would be reported twice.
+ * The test bundle suite names and Swift module qualified test classes tell the formats apart, and once one is
+ * recognised the other parser is no longer fed.
+ * <p>
+ * Several xcodebuild runs at the same time each hand their lines to the multiplexer of the run first, through the build
+ * logger of a {@link ConcurrentTestRunContext}. While they run, this multiplexer still writes their lines to the logfile
+ * and error capture as they are, but no longer hands them to its own test parsers.
+ */
+public final class XCodeLogMultiplexer implements LogInterceptor
+{
+    private static final Logger log = Logger.getLogger(XCodeLogMultiplexer.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    enum TestFormat
+    {
+        OCUNIT,
+        XCTEST
+    }
+
+    private static final String TEST_SUITE = "Test Suite '";
+    private static final String TEST_CASE = "Test Case '-[";
+    private static final String TEST_CASE_STARTED = "]' started.";
+    private static final String TEST_CASE_FINISHED = " seconds).";
+    // Parallel testing reports each test and suite on the clone of the test runner that ran it
+    private static final String PARALLEL_TEST_SUITE = "Test suite '";
+    private static final String PARALLEL_TEST_CASE = "Test case '";
+    private static final String TEST_ERROR = ": error: -[";
+    private static final String TEST_ARCHITECTURE = "Run unit tests for architecture '";
+    private static final String TEST_RUN_FINISHED = "** TEST ";
+
+    private static final String OCUNIT_BUNDLE = ".octest(Tests)'";
+    private static final String SENTESTINGKIT_BUNDLE = "/SenTestingKit.framework(Tests)'";
+    private static final String XCTEST_BUNDLE = ".xctest'";
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private volatile XCodeBuildLogInterceptor logfileWriter;
+    private volatile LogInterceptor errorInterceptor;
+    private volatile TestParserLogInterceptor ocUnitInterceptor;
+    private volatile TestParserLogInterceptor xcTestInterceptor;
+    private volatile boolean concurrentRuns;
+
+    private TestFormat detectedFormat;
+    private int runningTestCases;
+    private boolean parallelTestOutput;
+
+    // ----------------------------------------------------------------------------------------------- Interface Methods
+
+    @Override
+    public void intercept(@NotNull final LogEntry logEntry)
+    {
+        final XCodeBuildLogInterceptor logfileWriter = this.logfileWriter;
+        if (logfileWriter != null)
+        {
+            logfileWriter.intercept(logEntry);
+        }
+        if (!concurrentRuns)
+        {
+            dispatchToTestParsers(logEntry, false);
+        }
+    }
+
+    @Override
+    public void interceptError(@NotNull final LogEntry logEntry)
+    {
+        final LogInterceptor errorInterceptor = this.errorInterceptor;
+        if (errorInterceptor != null)
+        {
+            errorInterceptor.interceptError(logEntry);
+        }
+        if (!concurrentRuns)
+        {
+            dispatchToTestParsers(logEntry, true);
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------- Action Methods
+
+    /**
+     * Classifies the line and hands it to the test parsers that are interested. Output and error lines arrive on
+     * different threads, the test case state they share is guarded by the multiplexer.
+     */
+    private synchronized void dispatchToTestParsers(@NotNull final LogEntry logEntry, final boolean error)
+    {
+        final TestParserLogInterceptor ocUnit = ocUnitInterceptor;
+        final TestParserLogInterceptor xcTest = xcTestInterceptor;
+        if (ocUnit == null && xcTest == null)
+        {
+            return;
+        }
+
+        if (!classifyTestLine(logEntry.getLog()) && runningTestCases == 0 && !parallelTestOutput)
+        {
+            return;
+        }
+
+        if (ocUnit != null && detectedFormat != TestFormat.XCTEST)
+        {
+            dispatch(ocUnit, logEntry, error);
+        }
+        if (xcTest != null && detectedFormat != TestFormat.OCUNIT)
+        {
+            dispatch(xcTest, logEntry, error);
+        }
+    }
+
+    private static void dispatch(TestParserLogInterceptor interceptor, LogEntry logEntry, boolean error)
+    {
+        if (error)
+        {
+            interceptor.interceptError(logEntry);
+        }
+        else
+        {
+            interceptor.intercept(logEntry);
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    /**
+     * Scans the line once for the markers of test output, tracking how many test cases are running and which test
+     * format is being printed
+     *
+     * @return true if the line is test output any test parser needs to see
+     */
+    private boolean classifyTestLine(@NotNull final String line)
+    {
+        if (line.startsWith(TEST_ARCHITECTURE))
+        {
+            detectFormat(TestFormat.OCUNIT);
+            return true;
+        }
+        if (line.startsWith(TEST_RUN_FINISHED))
+        {
+            runningTestCases = 0;
+            parallelTestOutput = false;
+            return true;
+        }
+
+        boolean testLine = false;
+        final int length = line.length();
+        for (int i = 0; i < length; i++)
+        {
+            final char c = line.charAt(i);
+            if (c == 'T')
+            {
+                if (line.startsWith(TEST_CASE, i))
+                {
+                    if (line.endsWith(TEST_CASE_STARTED))
+                    {
+                        runningTestCases++;
+                    }
+                    else if (line.endsWith(TEST_CASE_FINISHED) && runningTestCases > 0)
+                    {
+                        runningTestCases--;
+                    }
+                    if (detectedFormat == null && isSwiftTestClass(line, i + TEST_CASE.length()))
+                    {
+                        detectFormat(TestFormat.XCTEST);
+                    }
+                    return true;
+                }
+                if (line.startsWith(TEST_SUITE, i))
+                {
+                    if (line.indexOf(OCUNIT_BUNDLE, i) > 0 || line.indexOf(SENTESTINGKIT_BUNDLE, i) > 0)
+                    {
+                        detectFormat(TestFormat.OCUNIT);
+                    }
+                    else if (line.indexOf(XCTEST_BUNDLE, i) > 0)
+                    {
+                        detectFormat(TestFormat.XCTEST);
+                    }
+                    return true;
+                }
+                if (line.startsWith(PARALLEL_TEST_CASE, i) || line.startsWith(PARALLEL_TEST_SUITE, i))
+                {
+                    // Only XCTest runs tests in parallel
+                    detectFormat(TestFormat.XCTEST);
+                    parallelTestOutput = true;
+                    return true;
+                }
+            }
+            else if (c == ':' && !testLine)
+            {
+                testLine = line.startsWith(TEST_ERROR, i);
+            }
+        }
+        return testLine;
+    }
+
+    /**
+     * Swift test classes are qualified by their module, which only XCTest can run
+     */
+    private static boolean isSwiftTestClass(@NotNull final String line, final int classStart)
+    {
+        for (int i = classStart; i < line.length(); i++)
+        {
+            final char c = line.charAt(i);
+            if (c == '.')
+            {
+                return true;
+            }
+            if (c == ' ' || c == ']')
+            {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private void detectFormat(@NotNull TestFormat format)
+    {
+        if (detectedFormat == null)
+        {
+            detectedFormat = format;
+            log.debug("Detected " + format + " test output");
+        }
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    public void setLogfileWriter(@Nullable XCodeBuildLogInterceptor logfileWriter)
+    {
+        this.logfileWriter = logfileWriter;
+    }
+
+    public void setErrorInterceptor(@Nullable LogInterceptor errorInterceptor)
+    {
+        this.errorInterceptor = errorInterceptor;
+    }
+
+    public void setOCUnitInterceptor(@Nullable TestParserLogInterceptor ocUnitInterceptor)
+    {
+        this.ocUnitInterceptor = ocUnitInterceptor;
+    }
+
+    public void setXCTestInterceptor(@Nullable TestParserLogInterceptor xcTestInterceptor)
+    {
+        this.xcTestInterceptor = xcTestInterceptor;
+    }
+
+    /**
+     * Keeps the test parsers of this multiplexer from the lines of several xcodebuild runs at the same time, which are
+     * parsed by the multiplexers of their runs
+     */
+    public void setConcurrentRuns(boolean concurrentRuns)
+    {
+        this.concurrentRuns = concurrentRuns;
+    }
+
+    @Nullable
+    TestFormat getDetectedFormat()
+    {
+        return detectedFormat;
+    }
+}
@@ -7,34 +7,69 @@ import com.atlassian.bamboo.build.test.TestCollectionResult;
 import com.atlassian.bamboo.build.test.TestCollectionResultBuilder;
 import com.atlassian.bamboo.build.test.TestReportProvider;
 import com.atlassian.bamboo.configuration.ConfigurationMap;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestNameTable;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputLimits;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputSpill;
 import com.atlassian.bamboo.plugins.xcode.tests.api.TestParserLogInterceptor;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestResultStore;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestTimings;
+import com.atlassian.bamboo.plugins.xcode.tests.api.XcodeTestParser;
+import com.atlassian.bamboo.plugins.xcode.tests.checkpoint.TestCheckpoint;
+import com.atlassian.bamboo.plugins.xcode.tests.checkpoint.TestCheckpointPager;
+import com.atlassian.bamboo.plugins.xcode.tests.history.FailFastOrder;
+import com.atlassian.bamboo.plugins.xcode.tests.history.ParallelWorkerTuner;
+import com.atlassian.bamboo.plugins.xcode.tests.history.TestHistoryStore;
 import com.atlassian.bamboo.plugins.xcode.tests.ocunit.OCUnitTestParser;
+import com.atlassian.bamboo.plugins.xcode.tests.sharding.TestClassEnumeration;
+import com.atlassian.bamboo.plugins.xcode.tests.sharding.TestShard;
+import com.atlassian.bamboo.plugins.xcode.tests.sharding.TestShardPlanner;
+import com.atlassian.bamboo.plugins.xcode.tests.sharding.TestShardResults;
+import com.atlassian.bamboo.plugins.xcode.tests.xctest.AbstractXCTestParser;
+import com.atlassian.bamboo.plugins.xcode.tests.xctest.ParallelXCTestParser;
 import com.atlassian.bamboo.plugins.xcode.tests.xctest.XCTestParser;
+import com.atlassian.bamboo.plugins.xcode.tests.xctest.XCTestRun;
 import com.atlassian.bamboo.process.EnvironmentVariableAccessor;
 import com.atlassian.bamboo.process.ExternalProcessBuilder;
 import com.atlassian.bamboo.process.ProcessService;
+import com.atlassian.bamboo.results.tests.TestResults;
 import com.atlassian.bamboo.task.TaskContext;
 import com.atlassian.bamboo.task.TaskException;
 import com.atlassian.bamboo.task.TaskResult;
 import com.atlassian.bamboo.task.TaskResultBuilder;
 import com.atlassian.bamboo.task.TaskState;
 import com.atlassian.bamboo.task.TaskType;
+import com.atlassian.bamboo.v2.build.BuildContext;
 import com.atlassian.bamboo.v2.build.agent.capability.CapabilityContext;
 import com.atlassian.bamboo.v2.build.agent.capability.CapabilityDefaultsHelper;
+import com.atlassian.utils.process.ExternalProcess;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,6 +81,9 @@ public class XCodeTaskType implements TaskType
     public static final String XCTEST_PATH = "/usr/bin/xcodebuild";
     private static final String XCWORKSPACE_EXTENSION = ".xcworkspace";
     private static final String XCODEPROJ_EXTENSION =  ".xcodeproj";
+    private static final String FLAKY_TESTS_METADATA = "xcode.tests.flaky";
+    private static final String PARALLEL_TESTING_ENABLED = "-parallel-testing-enabled";
+    private static final String PARALLEL_TESTING_WORKER_COUNT = "-parallel-testing-worker-count";
 
     private final ProcessService processService;
     private final EnvironmentVariableAccessor environmentVariableAccessor;
@@ -63,16 +101,36 @@ public class XCodeTaskType implements TaskType
     @NotNull
     public TaskResult execute(@NotNull TaskContext taskContext) throws TaskException
     {
-        final TestParserLogInterceptor ocUnitLogInterceptor = new TestParserLogInterceptor(new OCUnitTestParser());
-        final TestParserLogInterceptor xcTestParserLogInterceptor = new TestParserLogInterceptor(new XCTestParser());
+        final ConfigurationMap configurationMap = taskContext.getConfigurationMap();
+        final TestOutputLimits testOutputLimits = TestOutputLimits.fromConfiguration(configurationMap);
+        final boolean parseTestsInBackground = configurationMap.getAsBoolean(XCodeConfigurator.PARSE_TESTS_IN_BACKGROUND);
+        final TestNameTable testNames = new TestNameTable();
+        final OCUnitTestParser ocUnitTestParser = new OCUnitTestParser(testOutputLimits, testNames);
+        // The test runner clones of parallel testing print the lines of their tests interleaved
+        final boolean parallelTesting = configurationMap.getAsBoolean(XCodeConfigurator.PARALLEL_TESTING);
+        final ParallelXCTestParser parallelTestParser = parallelTesting ? new ParallelXCTestParser(testOutputLimits, testNames) : null;
+        final AbstractXCTestParser xcTestParser = parallelTestParser != null ? parallelTestParser : new XCTestParser(testOutputLimits, testNames);
+        final TestTimings testTimings = new TestTimings();
+        ocUnitTestParser.setTimings(testTimings);
+        xcTestParser.setTimings(testTimings);
+        final TestParserLogInterceptor ocUnitLogInterceptor = newTestParserLogInterceptor(ocUnitTestParser,
+                parseTestsInBackground && configurationMap.getAsBoolean(XCodeConfigurator.OCUNIT));
+        final TestParserLogInterceptor xcTestParserLogInterceptor = newTestParserLogInterceptor(xcTestParser,
+                parseTestsInBackground && configurationMap.getAsBoolean(XCodeConfigurator.XCUNIT));
+        // Every parser of the run, including the ones of test shards once they are started
+        final List<TestParserLogInterceptor> testParserInterceptors = Lists.newArrayList(ocUnitLogInterceptor, xcTestParserLogInterceptor);
         final ErrorMemorisingInterceptor errorLogInterceptor = ErrorMemorisingInterceptor.newInterceptor();
         final XCodeBuildLogInterceptor xcodebuildLogger = new XCodeBuildLogInterceptor();
+        final XCodeLogMultiplexer logMultiplexer = new XCodeLogMultiplexer();
+        logMultiplexer.setErrorInterceptor(errorLogInterceptor);
 
         final TaskResultBuilder resultBuilder = TaskResultBuilder.newBuilder(taskContext);
         final BuildLogger buildLogger = taskContext.getBuildLogger();
+        TestOutputSpill testOutputSpill = null;
+        TestHistoryStore testHistory = null;
+        buildLogger.getInterceptorStack().add(logMultiplexer);
         try
         {
-            final ConfigurationMap configurationMap = taskContext.getConfigurationMap();
             String project = configurationMap.get(XCodeConfigurator.PROJECT);
             String workspace = configurationMap.get(XCodeConfigurator.WORKSPACE);
             final String scheme = configurationMap.get(XCodeConfigurator.SCHEME);
@@ -110,7 +168,7 @@ public class XCodeTaskType implements TaskType
                 try
                 {
                     xcodebuildLogger.open(logfilePath, !cleanLogfile);
-                    buildLogger.getInterceptorStack().add(xcodebuildLogger);
+                    logMultiplexer.setLogfileWriter(xcodebuildLogger);
                 }
                 catch (IOException e)
                 {
@@ -166,55 +224,201 @@ public class XCodeTaskType implements TaskType
 
             final Map<String, String> environment = environmentVariableAccessor.splitEnvironmentAssignments(configurationMap.get(XCodeConfigurator.ENVIRONMENT));
 
-            if (parseOcUnitResults)
+            if ((parseOcUnitResults || parseXcUnitResults) && configurationMap.getAsBoolean(XCodeConfigurator.SPILL_TEST_OUTPUT))
             {
-                buildLogger.getInterceptorStack().add(ocUnitLogInterceptor);
+                try
+                {
+                    testOutputSpill = TestOutputSpill.create();
+                    ocUnitTestParser.setOutputSpill(testOutputSpill);
+                    xcTestParser.setOutputSpill(testOutputSpill);
+                }
+                catch (IOException e)
+                {
+                    buildLogger.addBuildLogEntry("Cannot create test output spill file, keeping test output in memory: " + e);
+                }
             }
 
-            buildLogger.getInterceptorStack().add(errorLogInterceptor);
+            if (parseOcUnitResults)
+            {
+                logMultiplexer.setOCUnitInterceptor(ocUnitLogInterceptor);
+            }
 
-            resultBuilder.checkReturnCode(processService.executeExternalProcess(
-                    taskContext,
-                    new ExternalProcessBuilder()
-                            .command(arguments)
-                            .env(environment)
-                            .workingDirectory(workingDirectory)));
+            resultBuilder.checkReturnCode(executeProcess(taskContext, arguments, environment, workingDirectory));
 
             if (resultBuilder.getTaskState() == TaskState.SUCCESS && parseXcUnitResults)
             {
-                buildLogger.getInterceptorStack().add(xcTestParserLogInterceptor);
-                final List<String> testCommand = Lists.newArrayList(XCTEST_PATH, "test");
-                addBuildConfigurationArgs(testCommand, project, workspace, scheme);
-                if (runInSim)
+                // Sharding needs the durations of earlier runs, and running the tests likely to fail first their outcomes
+                final boolean shardTests = configurationMap.getAsBoolean(XCodeConfigurator.SHARD_TESTS);
+                final boolean failFastTests = configurationMap.getAsBoolean(XCodeConfigurator.FAIL_FAST_TESTS);
+                if (configurationMap.getAsBoolean(XCodeConfigurator.TEST_HISTORY) || shardTests || failFastTests)
                 {
-                    testCommand.add("-destination");
-                    testCommand.add(testSim);
+                    testHistory = openTestHistory(taskContext);
                 }
 
-                if (StringUtils.isNotEmpty(customParameters))
+                final XCTestSession session = new XCTestSession(taskContext, resultBuilder, xcTestParser, xcTestParserLogInterceptor, testParserInterceptors,
+                                                                logMultiplexer, testOutputLimits, testNames);
+
+                // A job running one shard of the test classes of several jobs keeps its results to share with the others
+                final boolean shardJobs = shardTests && (StringUtils.isNotBlank(configurationMap.get(XCodeConfigurator.TEST_SHARD_INDEX))
+                                                         || StringUtils.isNotBlank(configurationMap.get(XCodeConfigurator.TEST_SHARD_COUNT)));
+                final int jobShardIndex = shardJobs ? parseJobShardField(configurationMap, XCodeConfigurator.TEST_SHARD_INDEX, "job shard") : 0;
+                final int jobShardCount = shardJobs ? parseJobShardField(configurationMap, XCodeConfigurator.TEST_SHARD_COUNT, "number of job shards") : 1;
+                if (jobShardIndex < 0 || jobShardIndex >= jobShardCount)
+                {
+                    throw new TaskException("The job shard " + jobShardIndex + " must be from 0 to one less than the number of job shards, " + jobShardCount);
+                }
+                final TestShardResults jobShardResults = shardJobs ? new TestShardResults() : null;
+
+                final String testTarget = StringUtils.trim(configurationMap.get(XCodeConfigurator.TEST_TARGET));
+                final String testRetriesStr = StringUtils.trim(configurationMap.get(XCodeConfigurator.RETRY_FAILED_TESTS));
+                final int testRetries = StringUtils.isNotEmpty(testRetriesStr) ? Integer.parseInt(testRetriesStr) : 0;
+                Preconditions.checkArgument(testRetries >= 0, "The number of retries of failed tests cannot be negative");
+                Preconditions.checkArgument(testRetries == 0 || StringUtils.isNotEmpty(testTarget), "Retrying failed tests needs a test target");
+
+                // Tests passed by an earlier attempt at the build are skipped, and their results reported again. Each
+                // destination of a run on several keeps its own results, so those are all tested again.
+                final TestCheckpoint testCheckpoint = configurationMap.getAsBoolean(XCodeConfigurator.CHECKPOINT_TESTS) ? openTestCheckpoint(taskContext) : null;
+                final List<String> testDestinations = splitLines(configurationMap.get(XCodeConfigurator.TEST_DESTINATIONS));
+                if (testCheckpoint != null)
                 {
-                    addArgumentsSplit(testCommand, customParameters);
+                    resumeFromCheckpoint(session, testCheckpoint, shardTests || testDestinations.isEmpty());
                 }
 
-                resultBuilder.checkReturnCode(processService.executeExternalProcess(
-                        taskContext,
-                        new ExternalProcessBuilder()
-                                .workingDirectory(workingDirectory)
-                                .command(testCommand)));
+                // A single run on one simulator has the agent to itself, and is where the number of workers is tuned
+                final boolean tuneWorkers = parallelTesting && !shardTests && testDestinations.isEmpty()
+                                            && StringUtils.isEmpty(StringUtils.trim(configurationMap.get(XCodeConfigurator.PARALLEL_TESTING_WORKERS)));
+                final ParallelWorkerTuner workerTuner = tuneWorkers ? openWorkerTuner(taskContext) : null;
+                final int parallelWorkers = addParallelTestingArguments(session, workerTuner);
+
+                // Results of finished suites are checkpointed while the tests run, all of them are collated once they end
+                if (testCheckpoint != null)
+                {
+                    final TestCheckpointPager checkpointPager = newCheckpointPager(taskContext, testCheckpoint);
+                    ocUnitTestParser.setCheckpointPager(checkpointPager);
+                    xcTestParser.setCheckpointPager(checkpointPager);
+                }
+
+                final List<XCTestRun> xcTestRuns = session.xcTestRuns;
+                boolean stoppedAfterFailures = false;
+                if (shardTests)
+                {
+                    runTestShards(session, testHistory, shardJobs, jobShardIndex, jobShardCount);
+                }
+                else if (!testDestinations.isEmpty())
+                {
+                    runTestsOnDestinations(session, testDestinations);
+                }
+                else
+                {
+                    logMultiplexer.setXCTestInterceptor(xcTestParserLogInterceptor);
+
+                    final List<String> testCommand = Lists.newArrayList(XCTEST_PATH, "test");
+                    addBuildConfigurationArgs(testCommand, project, workspace, scheme);
+                    if (runInSim)
+                    {
+                        testCommand.add("-destination");
+                        testCommand.add(testSim);
+                    }
+                    testCommand.addAll(session.parallelTestingArguments);
+
+                    if (StringUtils.isNotEmpty(customParameters))
+                    {
+                        addArgumentsSplit(testCommand, customParameters);
+                    }
+
+                    final String destination = runInSim ? configurationMap.get(XCodeConfigurator.TEST_SIM) : null;
+                    final XCTestRun testRun = new XCTestRun(xcTestParserLogInterceptor, destination);
+                    xcTestRuns.add(testRun);
+
+                    final List<String> failFastSuites = failFastTests && testHistory != null
+                                                        ? FailFastOrder.riskiestSuites(testHistory.getTestHistories())
+                                                        : Collections.<String>emptyList();
+                    if (failFastSuites.isEmpty())
+                    {
+                        testCommand.addAll(session.resumeArguments);
+                        final ExternalProcess testProcess = executeProcess(taskContext, testCommand, null, workingDirectory);
+                        resultBuilder.checkReturnCode(testProcess);
+                        testRun.setProcessFailed(!succeeded(taskContext, testProcess));
+                    }
+                    else
+                    {
+                        stoppedAfterFailures = runTestsFailingFast(session, testRun, failFastSuites);
+                    }
+
+                    if (workerTuner != null && !stoppedAfterFailures)
+                    {
+                        xcTestParserLogInterceptor.awaitParsed();
+                        recordParallelThroughput(taskContext, workerTuner, parallelWorkers, parallelTestParser);
+                    }
+                }
+
+                // Tests not run after stopping cannot be made up for by retrying the failed ones
+                if (testRetries > 0 && !xcTestRuns.isEmpty() && !stoppedAfterFailures)
+                {
+                    final int flakyTestCount = retryFailedTests(session, testRetries, !shardTests && !testDestinations.isEmpty());
+                    taskContext.getBuildContext().getBuildResult().getCustomBuildData().put(FLAKY_TESTS_METADATA, String.valueOf(flakyTestCount));
+                }
 
+                final TestOutputSpill spilledOutput = testOutputSpill;
+                final TestHistoryStore historyOfRun = testHistory;
                 testCollationService.collateTestResults(taskContext, new TestReportProvider() {
                     @NotNull
                     @Override
                     public TestCollectionResult getTestCollectionResult()
                     {
+                        // Reading the results first waits for any background parsing to finish
+                        final TestResultStore failedTestResults = new TestResultStore();
+                        final TestResultStore successfulTestResults = new TestResultStore();
+                        for (TestParserLogInterceptor testParserInterceptor : testParserInterceptors)
+                        {
+                            for (TestResults failure : testParserInterceptor.getFailingTestResults())
+                            {
+                                if (!isFlaky(xcTestRuns, failure))
+                                {
+                                    failedTestResults.add(failure);
+                                }
+                            }
+                            successfulTestResults.addAll(testParserInterceptor.getSuccessfulTestResults());
+                        }
+                        for (XCTestRun xcTestRun : xcTestRuns)
+                        {
+                            successfulTestResults.addAll(xcTestRun.getFlakyTestResults());
+                        }
+                        if (spilledOutput != null)
+                        {
+                            try
+                            {
+                                spilledOutput.materialize();
+                            }
+                            catch (IOException e)
+                            {
+                                buildLogger.addErrorLogEntry("Cannot read test output back from the spill file", e);
+                            }
+                        }
+                        recordTestHistory(taskContext, historyOfRun, successfulTestResults.asSet(), failedTestResults.asSet());
+                        if (testCheckpoint != null)
+                        {
+                            writeTestCheckpoint(taskContext, testCheckpoint, successfulTestResults.asSet(), failedTestResults.asSet());
+                            successfulTestResults.addAll(testCheckpoint.getResumedTestResults());
+                        }
+                        if (jobShardResults != null)
+                        {
+                            jobShardResults.addAll(successfulTestResults.asSet(), failedTestResults.asSet());
+                            writeJobShardResults(taskContext, jobShardResults, jobShardIndex, jobShardCount);
+                        }
                         return new TestCollectionResultBuilder()
-                                .addFailedTestResults(Sets.union(ocUnitLogInterceptor.getFailingTestResults(), xcTestParserLogInterceptor.getFailingTestResults()))
-                                .addSuccessfulTestResults(Sets.union(ocUnitLogInterceptor.getSuccessfulTestResults(), xcTestParserLogInterceptor.getSuccessfulTestResults()))
+                                .addFailedTestResults(failedTestResults.asSet())
+                                .addSuccessfulTestResults(successfulTestResults.asSet())
                                 .build();
                     }
                 });
 
+                testTimings.publishTo(taskContext);
                 resultBuilder.checkTestFailures();
+                if (testCheckpoint != null && resultBuilder.getTaskState() == TaskState.SUCCESS)
+                {
+                    testCheckpoint.delete();
+                }
             }
 
             if (resultBuilder.getTaskState() == TaskState.SUCCESS && configurationMap.getAsBoolean(XCodeConfigurator.BUILD_IPA))
@@ -265,11 +469,7 @@ public class XCodeTaskType implements TaskType
                                                                         "-exportOptionsPlist", exportOptionsPlist,
                                                                         "-exportPath", outputPath);
                 
-                resultBuilder.checkReturnCode(processService.executeExternalProcess( 
-                    taskContext, 
-                    new ExternalProcessBuilder()
-                        .workingDirectory(workingDirectory)
-                        .command(archiveCommand)));
+                resultBuilder.checkReturnCode(executeProcess(taskContext, archiveCommand, null, workingDirectory));
 
                 if (resultBuilder.getTaskState() == TaskState.SUCCESS) 
                 {
@@ -277,11 +477,7 @@ public class XCodeTaskType implements TaskType
                     
                     writeExportOptionsPlist(exportOptionsPlist, devTeam, distribMethod, uploadSymbols, uploadBitcode, provisioningProfile, bundleIdentifier);
 
-                    resultBuilder.checkReturnCode(processService.executeExternalProcess(
-                            taskContext,
-                            new ExternalProcessBuilder()
-                                    .workingDirectory(workingDirectory)
-                                    .command(exportCommand)));
+                    resultBuilder.checkReturnCode(executeProcess(taskContext, exportCommand, null, workingDirectory));
 
                     if (resultBuilder.getTaskState() == TaskState.SUCCESS)
                     {
@@ -303,15 +499,693 @@ public class XCodeTaskType implements TaskType
         }
         finally
         {
-            buildLogger.getInterceptorStack().remove(ocUnitLogInterceptor);
-            buildLogger.getInterceptorStack().remove(xcodebuildLogger);
+            buildLogger.getInterceptorStack().remove(logMultiplexer);
+            for (TestParserLogInterceptor testParserInterceptor : testParserInterceptors)
+            {
+                testParserInterceptor.close();
+            }
             xcodebuildLogger.close();
+            IOUtils.closeQuietly(testOutputSpill);
+            IOUtils.closeQuietly(testHistory);
+        }
+    }
+
+    /**
+     * Skips the tests passed by an earlier attempt at the build, if the tests can be selected
+     */
+    private static void resumeFromCheckpoint(@NotNull XCTestSession session, @NotNull TestCheckpoint testCheckpoint, boolean resumable)
+    {
+        if (testCheckpoint.getPassedTestCount() > 0 && resumable)
+        {
+            Preconditions.checkArgument(StringUtils.isNotEmpty(session.testTarget), "Resuming tests needs a test target");
+            testCheckpoint.addSkipArguments(session.resumeArguments, session.testTarget);
+            session.taskContext.getBuildLogger().addBuildLogEntry("Resuming an earlier attempt at this build, skipping the "
+                                                                  + testCheckpoint.getPassedTestCount() + " tests it passed");
+        }
+    }
+
+    /**
+     * Adds the parallel testing arguments of every test command, with the configured number of workers or else the
+     * one the tuner picks
+     *
+     * @return the number of workers, 0 if left to xcodebuild
+     */
+    private static int addParallelTestingArguments(@NotNull XCTestSession session, @Nullable ParallelWorkerTuner workerTuner)
+    {
+        if (!session.parallelTesting)
+        {
+            return 0;
+        }
+
+        session.parallelTestingArguments.add(PARALLEL_TESTING_ENABLED);
+        session.parallelTestingArguments.add("YES");
+        int parallelWorkers = 0;
+        final String parallelWorkersStr = StringUtils.trim(session.taskContext.getConfigurationMap().get(XCodeConfigurator.PARALLEL_TESTING_WORKERS));
+        if (StringUtils.isNotEmpty(parallelWorkersStr))
+        {
+            parallelWorkers = Integer.parseInt(parallelWorkersStr);
+            Preconditions.checkArgument(parallelWorkers > 0, "The number of parallel testing workers must be positive");
+        }
+        else if (workerTuner != null)
+        {
+            final int maxWorkers = ParallelWorkerTuner.getAgentMaxWorkers();
+            parallelWorkers = workerTuner.chooseWorkerCount(maxWorkers);
+            final Double testsPerSecond = workerTuner.getTestsPerSecond(parallelWorkers);
+            session.taskContext.getBuildLogger().addBuildLogEntry("Parallel testing with " + parallelWorkers + " workers, of at most " + maxWorkers
+                                                                  + " for the cores and memory of the agent"
+                                                                  + (testsPerSecond != null ? String.format(Locale.ROOT, ", which averaged %.2f tests per second", testsPerSecond)
+                                                                                            : ", which have not been measured yet"));
+        }
+        if (parallelWorkers > 0)
+        {
+            session.parallelTestingArguments.add(PARALLEL_TESTING_WORKER_COUNT);
+            session.parallelTestingArguments.add(String.valueOf(parallelWorkers));
+        }
+        return parallelWorkers;
+    }
+
+    /**
+     * Builds the tests once, then runs the test classes in shards balanced by their past durations, one per simulator
+     * at the same time. A job shard only runs its own slice of the test classes.
+     */
+    private void runTestShards(@NotNull XCTestSession session,
+                               @Nullable TestHistoryStore testHistory,
+                               boolean shardJobs,
+                               int jobShardIndex,
+                               int jobShardCount) throws TaskException
+    {
+        final TaskContext taskContext = session.taskContext;
+        final TaskResultBuilder resultBuilder = session.resultBuilder;
+        final BuildLogger buildLogger = taskContext.getBuildLogger();
+        final List<String> destinations = splitLines(taskContext.getConfigurationMap().get(XCodeConfigurator.TEST_SHARD_DESTINATIONS));
+        Preconditions.checkArgument(!destinations.isEmpty() && StringUtils.isNotEmpty(session.testTarget), "Sharding tests needs a test target and simulators");
+
+        final List<String> buildCommand = session.newCommand("build-for-testing");
+        addDestination(buildCommand, destinations.get(0));
+        session.addCustomParameters(buildCommand);
+
+        resultBuilder.checkReturnCode(executeProcess(taskContext, buildCommand, null, session.workingDirectory));
+
+        List<TestShard> shards = Collections.emptyList();
+        final Map<String, Long> testClassMillis = testHistory != null ? testHistory.getSuiteMillis() : Collections.<String, Long>emptyMap();
+        if (resultBuilder.getTaskState() == TaskState.SUCCESS && shardJobs)
+        {
+            // Every job lists the same test classes from the test bundle, and picks its own by their name
+            final List<String> enumerationCommand = session.newCommand("test-without-building");
+            addDestination(enumerationCommand, destinations.get(0));
+            session.addCustomParameters(enumerationCommand);
+            final Set<String> testClasses = enumerateTestClasses(taskContext, resultBuilder, enumerationCommand, session.testTarget, session.workingDirectory);
+            if (testClasses != null)
+            {
+                final List<String> jobTestClasses = TestShardPlanner.slice(testClasses, jobShardIndex, jobShardCount);
+                buildLogger.addBuildLogEntry("Job shard " + jobShardIndex + " of " + jobShardCount + " runs " + jobTestClasses.size()
+                                             + " of " + testClasses.size() + " test classes");
+                if (!jobTestClasses.isEmpty())
+                {
+                    shards = TestShardPlanner.balance(TestShardPlanner.expectedMillis(jobTestClasses, testClassMillis), destinations.size(), false);
+                }
+            }
+        }
+        else if (resultBuilder.getTaskState() == TaskState.SUCCESS)
+        {
+            shards = TestShardPlanner.balance(testClassMillis, destinations.size());
+        }
+
+        if (shards.isEmpty())
+        {
+            return;
+        }
+
+        final List<XCTestRun> shardRuns = Lists.newArrayList();
+        final List<List<String>> shardCommands = Lists.newArrayList();
+        final List<XCodeLogMultiplexer> shardMultiplexers = Lists.newArrayList();
+        for (TestShard shard : shards)
+        {
+            final String destination = destinations.get(shard.getIndex());
+            final XCTestRun shardRun = session.newConcurrentTestRun(session.newXCTestParser(), destination);
+            shardRuns.add(shardRun);
+            shardMultiplexers.add(newConcurrentTestMultiplexer(shardRun.getInterceptor()));
+
+            final List<String> shardCommand = session.newCommand("test-without-building");
+            addDestination(shardCommand, destination);
+            shard.addTestSelection(shardCommand, session.testTarget, shards);
+            shardCommand.addAll(session.resumeArguments);
+            shardCommand.addAll(session.parallelTestingArguments);
+            session.addCustomParameters(shardCommand);
+            shardCommands.add(shardCommand);
+
+            buildLogger.addBuildLogEntry("Test shard " + (shard.getIndex() + 1) + " of " + shards.size() + " on '" + destination + "': "
+                                         + shard.getTestClasses().size() + " test classes expected to take " + shard.getExpectedMillis() + " ms"
+                                         + (shard.isRunningUnknownTests() ? ", and every test class without history" : ""));
+        }
+
+        setProcessResults(taskContext, shardRuns,
+                          runConcurrentTests(taskContext, resultBuilder, shardCommands, session.logMultiplexer, shardMultiplexers, session.workingDirectory, shardCommands.size()));
+    }
+
+    /**
+     * Builds the tests once for every destination, then runs all of them on each destination, as many at the same
+     * time as configured
+     */
+    private void runTestsOnDestinations(@NotNull XCTestSession session, @NotNull List<String> testDestinations)
+    {
+        final TaskContext taskContext = session.taskContext;
+        final TaskResultBuilder resultBuilder = session.resultBuilder;
+        final List<String> buildCommand = session.newCommand("build-for-testing");
+        for (String destination : testDestinations)
+        {
+            addDestination(buildCommand, destination);
+        }
+        session.addCustomParameters(buildCommand);
+
+        resultBuilder.checkReturnCode(executeProcess(taskContext, buildCommand, null, session.workingDirectory));
+        if (resultBuilder.getTaskState() != TaskState.SUCCESS)
+        {
+            return;
+        }
+
+        final List<XCTestRun> destinationRuns = Lists.newArrayList();
+        final List<List<String>> testCommands = Lists.newArrayList();
+        final List<XCodeLogMultiplexer> testMultiplexers = Lists.newArrayList();
+        for (String destination : testDestinations)
+        {
+            final AbstractXCTestParser destinationParser = session.newXCTestParser();
+            destinationParser.setDestination(destination);
+            final XCTestRun destinationRun = session.newConcurrentTestRun(destinationParser, destination);
+            destinationRuns.add(destinationRun);
+            testMultiplexers.add(newConcurrentTestMultiplexer(destinationRun.getInterceptor()));
+
+            final List<String> testCommand = session.newCommand("test-without-building");
+            addDestination(testCommand, destination);
+            testCommand.addAll(session.parallelTestingArguments);
+            session.addCustomParameters(testCommand);
+            testCommands.add(testCommand);
+        }
+
+        final String concurrencyStr = StringUtils.trim(taskContext.getConfigurationMap().get(XCodeConfigurator.TEST_DESTINATION_CONCURRENCY));
+        final int concurrency = StringUtils.isNotEmpty(concurrencyStr) ? Integer.parseInt(concurrencyStr) : testDestinations.size();
+        Preconditions.checkArgument(concurrency > 0, "The number of destinations to test on at the same time must be positive");
+        taskContext.getBuildLogger().addBuildLogEntry("Testing on " + testDestinations.size() + " destinations, " + Math.min(concurrency, testDestinations.size()) + " at a time");
+
+        setProcessResults(taskContext, destinationRuns,
+                          runConcurrentTests(taskContext, resultBuilder, testCommands, session.logMultiplexer, testMultiplexers, session.workingDirectory, concurrency));
+    }
+
+    /**
+     * xcodebuild runs selected tests in its own order, so the suites likely to fail are run on their own first. The
+     * other tests are not run once as many tests as configured have failed.
+     *
+     * @return whether the other tests were not run
+     */
+    private boolean runTestsFailingFast(@NotNull XCTestSession session, @NotNull XCTestRun testRun, @NotNull List<String> failFastSuites)
+    {
+        final TaskContext taskContext = session.taskContext;
+        final TaskResultBuilder resultBuilder = session.resultBuilder;
+        final BuildLogger buildLogger = taskContext.getBuildLogger();
+        Preconditions.checkArgument(StringUtils.isNotEmpty(session.testTarget), "Running the tests likely to fail first needs a test target");
+        final String stopAfterStr = StringUtils.trim(taskContext.getConfigurationMap().get(XCodeConfigurator.STOP_AFTER_TEST_FAILURES));
+        final int stopAfterFailures = StringUtils.isNotEmpty(stopAfterStr) ? Integer.parseInt(stopAfterStr) : 0;
+        final Set<String> failFastTestIdentifiers = Sets.newLinkedHashSet();
+        for (String suite : failFastSuites)
+        {
+            failFastTestIdentifiers.add(TestShard.testIdentifier(session.testTarget, StringUtils.substringBefore(suite, " (")));
+        }
+
+        final List<String> buildCommand = session.newCommand("build-for-testing");
+        if (testRun.getDestination() != null)
+        {
+            addDestination(buildCommand, testRun.getDestination());
+        }
+        session.addCustomParameters(buildCommand);
+        resultBuilder.checkReturnCode(executeProcess(taskContext, buildCommand, null, session.workingDirectory));
+
+        boolean stoppedAfterFailures = false;
+        boolean testProcessFailed = resultBuilder.getTaskState() != TaskState.SUCCESS;
+        if (!testProcessFailed)
+        {
+            buildLogger.addBuildLogEntry("Testing the " + failFastTestIdentifiers.size() + " test classes most likely to fail first: "
+                                         + StringUtils.join(failFastTestIdentifiers, ", "));
+            final List<String> failFastCommand = newTestSelectionCommand(buildCommand, "-only-testing:", failFastTestIdentifiers);
+            failFastCommand.addAll(session.resumeArguments);
+            failFastCommand.addAll(session.parallelTestingArguments);
+            final ExternalProcess failFastProcess = executeProcess(taskContext, failFastCommand, null, session.workingDirectory);
+            resultBuilder.checkReturnCode(failFastProcess);
+            testProcessFailed = !succeeded(taskContext, failFastProcess);
+
+            session.xcTestParserLogInterceptor.awaitParsed();
+            final int failedTestCount = session.xcTestParser.getFailedTestCount();
+            if (stopAfterFailures > 0 && failedTestCount >= stopAfterFailures)
+            {
+                buildLogger.addErrorLogEntry(failedTestCount + " tests failed, not testing the other test classes");
+                stoppedAfterFailures = true;
+            }
+            else
+            {
+                final List<String> otherTestsCommand = newTestSelectionCommand(buildCommand, "-skip-testing:", failFastTestIdentifiers);
+                otherTestsCommand.addAll(session.resumeArguments);
+                otherTestsCommand.addAll(session.parallelTestingArguments);
+                final ExternalProcess otherTestsProcess = executeProcess(taskContext, otherTestsCommand, null, session.workingDirectory);
+                resultBuilder.checkReturnCode(otherTestsProcess);
+                testProcessFailed |= !succeeded(taskContext, otherTestsProcess);
+            }
+        }
+        testRun.setProcessFailed(testProcessFailed);
+        return stoppedAfterFailures;
+    }
+
+    private ExternalProcess executeProcess(@NotNull TaskContext taskContext,
+                                           @NotNull List<String> command,
+                                           @Nullable Map<String, String> environment,
+                                           @NotNull File workingDirectory)
+    {
+        final ExternalProcessBuilder processBuilder = new ExternalProcessBuilder()
+                .command(command)
+                .workingDirectory(workingDirectory);
+        if (environment != null)
+        {
+            processBuilder.env(environment);
+        }
+        return processService.executeExternalProcess(taskContext, processBuilder);
+    }
+
+    /**
+     * Runs the test commands at most the given number at a time through the process service, and waits for all of them
+     * to finish. Each command is executed with a task context of its own, whose build logger hands the command's output
+     * to the command's own multiplexer before logging it.
+     *
+     * @return the process of each command, or null for any which could not be run
+     */
+    @NotNull
+    private List<ExternalProcess> runConcurrentTests(@NotNull TaskContext taskContext,
+                                                     @NotNull TaskResultBuilder resultBuilder,
+                                                     @NotNull List<List<String>> testCommands,
+                                                     @NotNull XCodeLogMultiplexer logMultiplexer,
+                                                     @NotNull List<XCodeLogMultiplexer> testMultiplexers,
+                                                     @NotNull final File workingDirectory,
+                                                     int concurrency)
+    {
+        final BuildLogger buildLogger = taskContext.getBuildLogger();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, testCommands.size()),
+                new ThreadFactoryBuilder().setNameFormat("Xcode test run %d").setDaemon(true).build());
+        final List<ExternalProcess> processes = Lists.newArrayList(Collections.<ExternalProcess>nCopies(testCommands.size(), null));
+        logMultiplexer.setConcurrentRuns(true);
+        try
+        {
+            final List<Future<ExternalProcess>> testProcesses = Lists.newArrayList();
+            for (int i = 0; i < testCommands.size(); i++)
+            {
+                final TaskContext runContext = ConcurrentTestRunContext.newRunContext(taskContext, testMultiplexers.get(i));
+                final List<String> testCommand = testCommands.get(i);
+                testProcesses.add(executor.submit(new Callable<ExternalProcess>()
+                {
+                    @Override
+                    public ExternalProcess call()
+                    {
+                        return executeProcess(runContext, testCommand, null, workingDirectory);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < testProcesses.size(); i++)
+            {
+                try
+                {
+                    processes.set(i, testProcesses.get(i).get());
+                    resultBuilder.checkReturnCode(processes.get(i));
+                }
+                catch (ExecutionException e)
+                {
+                    buildLogger.addErrorLogEntry("A test run could not be started", e.getCause());
+                    resultBuilder.failed();
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            buildLogger.addErrorLogEntry("Interrupted while waiting for the tests to finish");
+            resultBuilder.failed();
         }
+        finally
+        {
+            executor.shutdownNow();
+            logMultiplexer.setConcurrentRuns(false);
+        }
+        return processes;
+    }
+
+    /**
+     * Runs the tests still failing in each test run again, on the run's own destination, until they pass or the retries
+     * run out. The task no longer fails for test runs whose failed tests all passed on a retry.
+     *
+     * @return the number of flaky tests, which failed and then passed
+     */
+    private int retryFailedTests(@NotNull XCTestSession session, int retries, boolean taggedByDestination)
+    {
+        final TaskContext taskContext = session.taskContext;
+        final List<XCTestRun> testRuns = session.xcTestRuns;
+        final List<String> retryCommand = session.newCommand("test-without-building");
+        retryCommand.addAll(session.parallelTestingArguments);
+        session.addCustomParameters(retryCommand);
+
+        final BuildLogger buildLogger = taskContext.getBuildLogger();
+        int flakyTestCount = 0;
+        for (int attempt = 1; attempt <= retries; attempt++)
+        {
+            final List<XCTestRun> failingRuns = Lists.newArrayList();
+            int failingTestCount = 0;
+            for (XCTestRun testRun : testRuns)
+            {
+                if (!testRun.getFailingTestResults().isEmpty())
+                {
+                    failingRuns.add(testRun);
+                    failingTestCount += testRun.getFailingTestResults().size();
+                }
+            }
+            if (failingRuns.isEmpty())
+            {
+                break;
+            }
+
+            // Retries keep their output in memory, so that the flaky tests' own output is not replaced by the spill's
+            final List<TestParserLogInterceptor> retryInterceptors = Lists.newArrayList();
+            final List<XCodeLogMultiplexer> retryMultiplexers = Lists.newArrayList();
+            final List<List<String>> retryCommands = Lists.newArrayList();
+            for (XCTestRun failingRun : failingRuns)
+            {
+                final AbstractXCTestParser retryParser = session.newXCTestParser();
+                if (taggedByDestination)
+                {
+                    retryParser.setDestination(failingRun.getDestination());
+                }
+                final TestParserLogInterceptor retryInterceptor = new TestParserLogInterceptor(retryParser);
+                retryInterceptors.add(retryInterceptor);
+                retryMultiplexers.add(newConcurrentTestMultiplexer(retryInterceptor));
+
+                final List<String> runRetryCommand = Lists.newArrayList(retryCommand);
+                if (failingRun.getDestination() != null)
+                {
+                    addDestination(runRetryCommand, failingRun.getDestination());
+                }
+                failingRun.addTestSelection(runRetryCommand, session.testTarget);
+                retryCommands.add(runRetryCommand);
+            }
+
+            buildLogger.addBuildLogEntry("Retry " + attempt + " of " + retries + ": running " + failingTestCount + " failed tests again");
+            try
+            {
+                final List<ExternalProcess> retryProcesses = runConcurrentTests(taskContext, TaskResultBuilder.newBuilder(taskContext), retryCommands,
+                                                                                session.logMultiplexer, retryMultiplexers, session.workingDirectory, retryCommands.size());
+                for (int i = 0; i < failingRuns.size(); i++)
+                {
+                    final XCTestRun failingRun = failingRuns.get(i);
+                    flakyTestCount += failingRun.retried(attempt, retryInterceptors.get(i).getSuccessfulTestResults());
+                    failingRun.setProcessFailed(!succeeded(taskContext, retryProcesses.get(i)));
+                }
+            }
+            finally
+            {
+                for (TestParserLogInterceptor retryInterceptor : retryInterceptors)
+                {
+                    retryInterceptor.close();
+                }
+            }
+        }
+
+        boolean failedByTestsOnly = true;
+        for (XCTestRun testRun : testRuns)
+        {
+            for (TestResults flakyTest : testRun.getFlakyTestResults())
+            {
+                buildLogger.addBuildLogEntry("Flaky test: " + flakyTest.getClassName() + " " + flakyTest.getActualMethodName() + " failed, then passed on a retry");
+            }
+            failedByTestsOnly &= testRun.getFailingTestResults().isEmpty() && !testRun.isFailedWithoutTestFailures();
+        }
+        if (flakyTestCount > 0 && failedByTestsOnly)
+        {
+            buildLogger.addBuildLogEntry(flakyTestCount + " flaky tests failed, then passed on a retry. No other test failed.");
+            session.resultBuilder.success();
+        }
+        return flakyTestCount;
+    }
+
+    /**
+     * Records whether the process of each test run, in the same order, failed
+     */
+    private static void setProcessResults(@NotNull TaskContext taskContext, @NotNull List<XCTestRun> testRuns, @NotNull List<ExternalProcess> processes)
+    {
+        for (int i = 0; i < testRuns.size(); i++)
+        {
+            testRuns.get(i).setProcessFailed(!succeeded(taskContext, processes.get(i)));
+        }
+    }
+
+    /**
+     * Turns a build-for-testing command into a test-without-building one with the given tests selected or skipped
+     */
+    @NotNull
+    private static List<String> newTestSelectionCommand(@NotNull List<String> buildCommand, @NotNull String selectionOption, @NotNull Set<String> testIdentifiers)
+    {
+        final List<String> testCommand = Lists.newArrayList(buildCommand);
+        testCommand.set(testCommand.indexOf("build-for-testing"), "test-without-building");
+        for (String testIdentifier : testIdentifiers)
+        {
+            testCommand.add(selectionOption + testIdentifier);
+        }
+        return testCommand;
+    }
+
+    private static boolean succeeded(@NotNull TaskContext taskContext, @Nullable ExternalProcess process)
+    {
+        return process != null && TaskResultBuilder.newBuilder(taskContext).checkReturnCode(process).getTaskState() == TaskState.SUCCESS;
+    }
+
+    private static boolean isFlaky(@NotNull List<XCTestRun> testRuns, @NotNull TestResults failure)
+    {
+        for (XCTestRun testRun : testRuns)
+        {
+            if (testRun.isFlaky(failure))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens the test history of the plan on this agent, or returns null if this build cannot use it
+     */
+    @Nullable
+    private static TestHistoryStore openTestHistory(@NotNull TaskContext taskContext)
+    {
+        final String planKey = taskContext.getBuildContext().getPlanResultKey().getPlanKey().getKey();
+        try
+        {
+            return TestHistoryStore.open(TestHistoryStore.getAgentDirectory(planKey));
+        }
+        catch (IOException e)
+        {
+            taskContext.getBuildLogger().addBuildLogEntry("Not recording the test history: " + e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static ParallelWorkerTuner openWorkerTuner(@NotNull TaskContext taskContext)
+    {
+        final String planKey = taskContext.getBuildContext().getPlanResultKey().getPlanKey().getKey();
+        try
+        {
+            return ParallelWorkerTuner.open(TestHistoryStore.getAgentDirectory(planKey));
+        }
+        catch (IOException e)
+        {
+            taskContext.getBuildLogger().addBuildLogEntry("Not tuning the number of parallel testing workers: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Logs the throughput of a run with parallel testing and adds it to the ones the next number of workers is picked from
+     */
+    private static void recordParallelThroughput(@NotNull TaskContext taskContext,
+                                                 @NotNull ParallelWorkerTuner workerTuner,
+                                                 int workers,
+                                                 @NotNull ParallelXCTestParser parser)
+    {
+        final int testCount = parser.getFinishedTestCount();
+        final long testingMillis = parser.getTestingMillis();
+        if (testCount == 0 || testingMillis <= 0)
+        {
+            return;
+        }
+        try
+        {
+            final double testsPerSecond = workerTuner.record(workers, testCount, testingMillis);
+            taskContext.getBuildLogger().addBuildLogEntry(String.format(Locale.ROOT, "%d workers ran %d tests in %.1f s: %.2f tests per second, %.2f per worker",
+                                                                        workers, testCount, testingMillis / 1000.0, testsPerSecond, testsPerSecond / workers));
+        }
+        catch (IOException e)
+        {
+            taskContext.getBuildLogger().addBuildLogEntry("Cannot record the parallel testing throughput: " + e);
+        }
+    }
+
+    private static void recordTestHistory(@NotNull TaskContext taskContext,
+                                          @Nullable TestHistoryStore testHistory,
+                                          @NotNull Set<TestResults> successfulTestResults,
+                                          @NotNull Set<TestResults> failingTestResults)
+    {
+        if (testHistory == null)
+        {
+            return;
+        }
+        try
+        {
+            testHistory.record(taskContext.getBuildContext().getBuildNumber(), successfulTestResults, failingTestResults);
+        }
+        catch (IOException e)
+        {
+            taskContext.getBuildLogger().addBuildLogEntry("Could not record the test history: " + e);
+        }
+    }
+
+    /**
+     * Lists the test classes of the test target, or returns null if they could not be listed
+     */
+    @Nullable
+    private Set<String> enumerateTestClasses(@NotNull TaskContext taskContext,
+                                             @NotNull TaskResultBuilder resultBuilder,
+                                             @NotNull List<String> command,
+                                             @NotNull String testTarget,
+                                             @NotNull File workingDirectory) throws TaskException
+    {
+        File enumerationFile = null;
+        try
+        {
+            enumerationFile = File.createTempFile("xcode-tests", ".txt");
+            TestClassEnumeration.addEnumerationArguments(command, enumerationFile);
+            resultBuilder.checkReturnCode(executeProcess(taskContext, command, null, workingDirectory));
+            return resultBuilder.getTaskState() == TaskState.SUCCESS ? TestClassEnumeration.readTestClasses(enumerationFile, testTarget) : null;
+        }
+        catch (IOException e)
+        {
+            throw new TaskException("Could not list the test classes to shard", e);
+        }
+        finally
+        {
+            FileUtils.deleteQuietly(enumerationFile);
+        }
+    }
+
+    /**
+     * Reads the job shard or the number of job shards. Either is usually a variable, so it is only known to be a number
+     * once the variable has been substituted.
+     */
+    private static int parseJobShardField(@NotNull ConfigurationMap configurationMap, @NotNull String field, @NotNull String fieldName) throws TaskException
+    {
+        final String value = StringUtils.trim(configurationMap.get(field));
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new TaskException("The " + fieldName + " '" + StringUtils.defaultString(value) + "' is not a number", e);
+        }
+    }
+
+    /**
+     * Opens the checkpoint of this build in the working directory, or returns null if this build cannot use one
+     */
+    @Nullable
+    private static TestCheckpoint openTestCheckpoint(@NotNull TaskContext taskContext)
+    {
+        try
+        {
+            return TestCheckpoint.open(taskContext.getWorkingDirectory(), taskContext.getBuildContext().getBuildNumber());
+        }
+        catch (IOException e)
+        {
+            taskContext.getBuildLogger().addBuildLogEntry("Not checkpointing the test results: " + e);
+            return null;
+        }
+    }
+
+    private static void writeTestCheckpoint(@NotNull TaskContext taskContext,
+                                            @NotNull TestCheckpoint testCheckpoint,
+                                            @NotNull Collection<TestResults> successfulTestResults,
+                                            @NotNull Collection<TestResults> failingTestResults)
+    {
+        try
+        {
+            testCheckpoint.write(successfulTestResults, failingTestResults);
+        }
+        catch (IOException e)
+        {
+            taskContext.getBuildLogger().addBuildLogEntry("Could not checkpoint the test results: " + e);
+        }
+    }
+
+    private static void writeJobShardResults(@NotNull TaskContext taskContext,
+                                             @NotNull TestShardResults jobShardResults,
+                                             int shardIndex,
+                                             int shardCount)
+    {
+        try
+        {
+            // Every job of the build shares the result key of the build, rather than its own
+            final BuildContext buildContext = taskContext.getBuildContext();
+            final BuildContext runBuildContext = MoreObjects.firstNonNull(buildContext.getParentBuildContext(), buildContext);
+            final File resultsFile = jobShardResults.write(taskContext.getWorkingDirectory(), runBuildContext.getPlanResultKey().getKey(), shardIndex, shardCount);
+            taskContext.getBuildLogger().addBuildLogEntry("Test results of the job shard written to '" + resultsFile.getAbsolutePath() + "'");
+        }
+        catch (IOException e)
+        {
+            taskContext.getBuildLogger().addErrorLogEntry("Could not write the test results of the job shard", e);
+        }
+    }
+
+    @NotNull
+    private static TestCheckpointPager newCheckpointPager(@NotNull final TaskContext taskContext, @NotNull final TestCheckpoint testCheckpoint)
+    {
+        return new TestCheckpointPager(new TestCheckpointPager.PageHandler()
+        {
+            @Override
+            public void handlePage(@NotNull List<TestResults> successfulTestResults, @NotNull List<TestResults> failingTestResults)
+            {
+                writeTestCheckpoint(taskContext, testCheckpoint, successfulTestResults, failingTestResults);
+            }
+        }, TestCheckpoint.PAGE_SIZE);
+    }
+
+    @NotNull
+    private static AbstractXCTestParser newXCTestParser(boolean parallelTesting, @NotNull TestOutputLimits testOutputLimits, @NotNull TestNameTable testNames)
+    {
+        return parallelTesting ? new ParallelXCTestParser(testOutputLimits, testNames) : new XCTestParser(testOutputLimits, testNames);
+    }
+
+    /**
+     * The multiplexer of one of several xcodebuild runs at the same time only feeds the run's parser, the logfile and
+     * the error interceptor get its output through the build logger
+     */
+    @NotNull
+    private static XCodeLogMultiplexer newConcurrentTestMultiplexer(@NotNull TestParserLogInterceptor interceptor)
+    {
+        final XCodeLogMultiplexer multiplexer = new XCodeLogMultiplexer();
+        multiplexer.setXCTestInterceptor(interceptor);
+        return multiplexer;
+    }
+
+    private static TestParserLogInterceptor newTestParserLogInterceptor(XcodeTestParser parser, boolean parseInBackground)
+    {
+        return parseInBackground ? TestParserLogInterceptor.newAsyncInterceptor(parser) : new TestParserLogInterceptor(parser);
     }
 
     private static final Pattern PAT_ARGS = Pattern.compile("[^\\s\"']+|\"([^\"]*)\"|'([^']*)'");
 
-    private static void addArgumentsSplit(final List<String> arguments, final String customParameters)
+    @VisibleForTesting
+    static void addArgumentsSplit(final List<String> arguments, final String customParameters)
     {
         final Matcher matcher = PAT_ARGS.matcher(customParameters);
         while (matcher.find()) {
@@ -319,6 +1193,26 @@ public class XCodeTaskType implements TaskType
         }
     }
 
+    private static void addDestination(@NotNull List<String> arguments, @NotNull String destination)
+    {
+        arguments.add("-destination");
+        arguments.add("\'" + destination + "\'");
+    }
+
+    @NotNull
+    private static List<String> splitLines(@Nullable String lines)
+    {
+        final List<String> nonBlankLines = Lists.newArrayList();
+        for (String line : StringUtils.split(StringUtils.defaultString(lines), "\r\n"))
+        {
+            if (StringUtils.isNotBlank(line))
+            {
+                nonBlankLines.add(line.trim());
+            }
+        }
+        return nonBlankLines;
+    }
+
     private static void addBuildConfigurationArgs(final  List<String> arguments, String project, String workspace, final String scheme)
     {
         if (StringUtils.isNotEmpty(project))
@@ -388,4 +1282,102 @@ public class XCodeTaskType implements TaskType
             throw new TaskException("failed to generate and/or write xcodebuild export options plist", e);
         }
     }
+
+    /**
+     * What the XCTest runs of one execution of the task share: what they build, the parsers their results go to, and
+     * the arguments every test command gets
+     */
+    private static final class XCTestSession
+    {
+        private final TaskContext taskContext;
+        private final TaskResultBuilder resultBuilder;
+        private final String project;
+        private final String workspace;
+        private final String scheme;
+        private final String customParameters;
+        private final String testTarget;
+        private final File workingDirectory;
+        private final boolean parallelTesting;
+        private final boolean parseTestsInBackground;
+        private final TestOutputLimits testOutputLimits;
+        private final TestNameTable testNames;
+        private final AbstractXCTestParser xcTestParser;
+        private final TestParserLogInterceptor xcTestParserLogInterceptor;
+        private final List<TestParserLogInterceptor> testParserInterceptors;
+        private final XCodeLogMultiplexer logMultiplexer;
+
+        // Skip the tests an earlier attempt at the build passed
+        private final List<String> resumeArguments = Lists.newArrayList();
+        private final List<String> parallelTestingArguments = Lists.newArrayList();
+        // Every xcodebuild run of XCTest tests, with the destination its failed tests are retried on
+        private final List<XCTestRun> xcTestRuns = Lists.newArrayList();
+
+        private XCTestSession(@NotNull TaskContext taskContext,
+                              @NotNull TaskResultBuilder resultBuilder,
+                              @NotNull AbstractXCTestParser xcTestParser,
+                              @NotNull TestParserLogInterceptor xcTestParserLogInterceptor,
+                              @NotNull List<TestParserLogInterceptor> testParserInterceptors,
+                              @NotNull XCodeLogMultiplexer logMultiplexer,
+                              @NotNull TestOutputLimits testOutputLimits,
+                              @NotNull TestNameTable testNames)
+        {
+            final ConfigurationMap configurationMap = taskContext.getConfigurationMap();
+            this.taskContext = taskContext;
+            this.resultBuilder = resultBuilder;
+            this.project = configurationMap.get(XCodeConfigurator.PROJECT);
+            this.workspace = configurationMap.get(XCodeConfigurator.WORKSPACE);
+            this.scheme = configurationMap.get(XCodeConfigurator.SCHEME);
+            this.customParameters = configurationMap.get(XCodeConfigurator.CUSTOM_PARAMETERS);
+            this.testTarget = StringUtils.trim(configurationMap.get(XCodeConfigurator.TEST_TARGET));
+            this.workingDirectory = taskContext.getWorkingDirectory();
+            this.parallelTesting = configurationMap.getAsBoolean(XCodeConfigurator.PARALLEL_TESTING);
+            this.parseTestsInBackground = configurationMap.getAsBoolean(XCodeConfigurator.PARSE_TESTS_IN_BACKGROUND);
+            this.testOutputLimits = testOutputLimits;
+            this.testNames = testNames;
+            this.xcTestParser = xcTestParser;
+            this.xcTestParserLogInterceptor = xcTestParserLogInterceptor;
+            this.testParserInterceptors = testParserInterceptors;
+            this.logMultiplexer = logMultiplexer;
+        }
+
+        /**
+         * An xcodebuild command with the action, for the project or workspace and scheme of the build
+         */
+        @NotNull
+        private List<String> newCommand(@NotNull String action)
+        {
+            final List<String> command = Lists.newArrayList(XCTEST_PATH, action);
+            addBuildConfigurationArgs(command, project, workspace, scheme);
+            return command;
+        }
+
+        private void addCustomParameters(@NotNull List<String> command)
+        {
+            if (StringUtils.isNotEmpty(customParameters))
+            {
+                addArgumentsSplit(command, customParameters);
+            }
+        }
+
+        @NotNull
+        private AbstractXCTestParser newXCTestParser()
+        {
+            return XCodeTaskType.newXCTestParser(parallelTesting, testOutputLimits, testNames);
+        }
+
+        /**
+         * Sets up the parsing of one of several xcodebuild runs at the same time. The parser shares the names, timings,
+         * checkpoint pager and output spill of the run's own XCTest parser.
+         */
+        @NotNull
+        private XCTestRun newConcurrentTestRun(@NotNull AbstractXCTestParser parser, @Nullable String destination)
+        {
+            parser.shareRunWith(xcTestParser);
+            final TestParserLogInterceptor interceptor = newTestParserLogInterceptor(parser, parseTestsInBackground);
+            testParserInterceptors.add(interceptor);
+            final XCTestRun testRun = new XCTestRun(interceptor, destination);
+            xcTestRuns.add(testRun);
+            return testRun;
+        }
+    }
 }
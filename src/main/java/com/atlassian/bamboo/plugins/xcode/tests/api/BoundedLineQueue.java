@@ -0,0 +1,109 @@
+package com.atlassian.bamboo.plugins.xcode.tests.api;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded lock-free queue of log lines for many producers and a single consumer.
+ * <p>
+ * Each slot carries a sequence number telling whose turn it is: producers claim a position with a compare-and-set
+ * and publish the line by advancing the slot's sequence, the consumer frees the slot by advancing it a lap further.
+ */
+final class BoundedLineQueue
+{
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final int mask;
+    private final String[] lines;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+
+    // Only read and written by the consumer
+    private long head;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    /**
+     * @param capacity a power of two
+     */
+    BoundedLineQueue(int capacity)
+    {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1)
+        {
+            throw new IllegalArgumentException("Capacity must be a power of two, was " + capacity);
+        }
+        mask = capacity - 1;
+        lines = new String[capacity];
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+        {
+            sequences.set(i, i);
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------- Action Methods
+
+    /**
+     * @return false if the queue is full
+     */
+    boolean offer(@NotNull String line)
+    {
+        long position = tail.get();
+        while (true)
+        {
+            final int index = (int) position & mask;
+            final long lag = sequences.get(index) - position;
+            if (lag == 0)
+            {
+                if (tail.compareAndSet(position, position + 1))
+                {
+                    lines[index] = line;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            }
+            else if (lag < 0)
+            {
+                return false;
+            }
+            else
+            {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Must only be called by the consumer
+     *
+     * @return the oldest line, or null if none has been published yet
+     */
+    @Nullable
+    String poll()
+    {
+        final int index = (int) head & mask;
+        if (sequences.get(index) != head + 1)
+        {
+            return null;
+        }
+        final String line = lines[index];
+        lines[index] = null;
+        sequences.set(index, head + mask + 1);
+        head++;
+        return line;
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    /**
+     * @return the number of lines producers have claimed a place for, including ones still being published
+     */
+    long getOfferedCount()
+    {
+        return tail.get();
+    }
+}
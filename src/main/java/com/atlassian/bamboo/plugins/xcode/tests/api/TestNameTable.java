@@ -0,0 +1,72 @@
+package com.atlassian.bamboo.plugins.xcode.tests.api;
+
+import com.google.common.collect.Maps;
+import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns the suite names, test names and error messages of the tests parsed in one run, so that the results of a
+ * suite share a single copy of its name and an error repeated for every architecture is stored once. Architecture
+ * qualified suite names are built once per suite and architecture rather than once per test.
+ * <p>
+ * A table may be shared by the parsers of one run, including ones running on different threads.
+ */
+public final class TestNameTable
+{
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final ConcurrentMap<String, String> strings = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, ConcurrentMap<String, String>> suiteNamesByArchitecture = Maps.newConcurrentMap();
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * @return the table's copy of the name or message
+     */
+    @Nullable
+    public String intern(@Nullable String string)
+    {
+        if (string == null)
+        {
+            return null;
+        }
+
+        final String interned = strings.putIfAbsent(string, string);
+        return interned != null ? interned : string;
+    }
+
+    /**
+     * @return the suite name, followed by the architecture in brackets if there is one
+     */
+    @Nullable
+    public String suiteName(@Nullable String suiteName, @Nullable String architecture)
+    {
+        if (StringUtils.isEmpty(architecture))
+        {
+            return intern(suiteName);
+        }
+
+        ConcurrentMap<String, String> suiteNames = suiteNamesByArchitecture.get(architecture);
+        if (suiteNames == null)
+        {
+            final ConcurrentMap<String, String> newSuiteNames = Maps.newConcurrentMap();
+            suiteNames = suiteNamesByArchitecture.putIfAbsent(architecture, newSuiteNames);
+            if (suiteNames == null)
+            {
+                suiteNames = newSuiteNames;
+            }
+        }
+
+        final String key = String.valueOf(suiteName);
+        String qualifiedName = suiteNames.get(key);
+        if (qualifiedName == null)
+        {
+            qualifiedName = intern(key + " (" + architecture + ")");
+            suiteNames.putIfAbsent(key, qualifiedName);
+        }
+        return qualifiedName;
+    }
+}
@@ -0,0 +1,172 @@
+package com.atlassian.bamboo.plugins.xcode.tests.api;
+
+import com.atlassian.bamboo.results.tests.TestResults;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * Collects the output of one test within {@link TestOutputLimits}. Lines are kept whole in the head until it is full,
+ * after which only the most recent lines are kept; the lines dropped in between are counted. A single line longer
+ * than the whole tail keeps only its end.
+ * <p>
+ * The captured lines are held by reference, so capturing costs no copying beyond the head buffer.
+ */
+public final class TestOutputCapture
+{
+    private static final Logger log = Logger.getLogger(TestOutputCapture.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    // Head buffers larger than this are dropped rather than reused once their test completes
+    private static final int MAX_RETAINED_HEAD_CAPACITY = 64 * 1024;
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final int headLength;
+    private final int tailLength;
+    private final String lineSeparator;
+
+    private StringBuilder head = new StringBuilder();
+    private boolean headFull;
+    private final ArrayDeque<String> tail = new ArrayDeque<String>();
+    private long tailSize;
+    private long elidedLines;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    TestOutputCapture(int headLength, int tailLength, @NotNull String lineSeparator)
+    {
+        this.headLength = headLength;
+        this.tailLength = tailLength;
+        this.lineSeparator = lineSeparator;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Action Methods
+
+    public void appendLine(@NotNull String line)
+    {
+        final int size = line.length() + lineSeparator.length();
+        if (!headFull && head.length() + size <= headLength)
+        {
+            head.append(line).append(lineSeparator);
+            return;
+        }
+        headFull = true;
+
+        if (size > tailLength)
+        {
+            elidedLines += tail.size();
+            tail.clear();
+            tailSize = 0;
+            if (tailLength <= lineSeparator.length())
+            {
+                elidedLines++;
+                return;
+            }
+            line = line.substring(line.length() - (tailLength - lineSeparator.length()));
+        }
+
+        tail.addLast(line);
+        tailSize += line.length() + lineSeparator.length();
+        while (tailSize > tailLength)
+        {
+            tailSize -= tail.removeFirst().length() + lineSeparator.length();
+            elidedLines++;
+        }
+    }
+
+    /**
+     * Sets the captured output as the system out of the test result, through the spill if there is one
+     */
+    public void reportTo(@NotNull TestResults testResults, @Nullable TestOutputSpill spill)
+    {
+        if (spill != null)
+        {
+            try
+            {
+                spill.record(testResults, this);
+                return;
+            }
+            catch (IOException e)
+            {
+                log.warn("Could not spill the output of test '" + testResults.getMethodName() + "', keeping it in memory", e);
+            }
+        }
+        testResults.setSystemOut(toString());
+    }
+
+    /**
+     * Forgets all captured output so that the capture can be used for the next test
+     */
+    public void reset()
+    {
+        if (head.capacity() > MAX_RETAINED_HEAD_CAPACITY)
+        {
+            head = new StringBuilder();
+        }
+        else
+        {
+            head.setLength(0);
+        }
+        headFull = false;
+        tail.clear();
+        tailSize = 0;
+        elidedLines = 0;
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    public long getElidedLines()
+    {
+        return elidedLines;
+    }
+
+    /**
+     * @return the head, a note of the number of elided lines if there are any, and the tail
+     */
+    @Override
+    public String toString()
+    {
+        if (tail.isEmpty() && elidedLines == 0)
+        {
+            return head.toString();
+        }
+
+        final StringBuilder output = new StringBuilder((int) (head.length() + tailSize + 64));
+        try
+        {
+            writeTo(output);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        return output.toString();
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    /**
+     * Writes the same text as {@link #toString()} without building it first
+     */
+    void writeTo(@NotNull Appendable output) throws IOException
+    {
+        output.append(head);
+        if (elidedLines > 0)
+        {
+            if (head.length() > 0 && head.charAt(head.length() - 1) != '\n')
+            {
+                output.append('\n');
+            }
+            output.append("[... " + elidedLines + (elidedLines == 1 ? " line" : " lines") + " elided ...]\n");
+        }
+        for (String line : tail)
+        {
+            output.append(line).append(lineSeparator);
+        }
+    }
+}
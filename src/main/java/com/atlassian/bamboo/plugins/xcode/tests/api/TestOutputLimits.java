@@ -0,0 +1,93 @@
+package com.atlassian.bamboo.plugins.xcode.tests.api;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+
+/**
+ * How much of the output of a single test is kept: the first {@link #getHeadLength()} and the last
+ * {@link #getTailLength()} characters, with the lines in between replaced by a count.
+ */
+public final class TestOutputLimits
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    public static final String OUTPUT_HEAD_KB = "testOutputHeadKb";
+    public static final String OUTPUT_TAIL_KB = "testOutputTailKb";
+
+    public static final int DEFAULT_HEAD_KB = 64;
+    public static final int DEFAULT_TAIL_KB = 64;
+
+    public static final TestOutputLimits DEFAULT = new TestOutputLimits(DEFAULT_HEAD_KB * 1024, DEFAULT_TAIL_KB * 1024);
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final int headLength;
+    private final int tailLength;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    public TestOutputLimits(int headLength, int tailLength)
+    {
+        this.headLength = headLength;
+        this.tailLength = tailLength;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Reads the limits from a task configuration, using the defaults for any that are not set
+     */
+    @NotNull
+    public static TestOutputLimits fromConfiguration(@NotNull Map<String, String> configuration)
+    {
+        final String headKb = configuration.get(OUTPUT_HEAD_KB);
+        final String tailKb = configuration.get(OUTPUT_TAIL_KB);
+        if (StringUtils.isBlank(headKb) && StringUtils.isBlank(tailKb))
+        {
+            return DEFAULT;
+        }
+        return new TestOutputLimits(toLength(headKb, DEFAULT_HEAD_KB), toLength(tailKb, DEFAULT_TAIL_KB));
+    }
+
+    /**
+     * @return true if the configured value is empty or a size in KB the limits can hold
+     */
+    public static boolean isValidSize(@Nullable String kb)
+    {
+        if (StringUtils.isBlank(kb))
+        {
+            return true;
+        }
+        final String trimmed = kb.trim();
+        return NumberUtils.isDigits(trimmed) && trimmed.length() < 7;
+    }
+
+    @NotNull
+    public TestOutputCapture newCapture(@NotNull String lineSeparator)
+    {
+        return new TestOutputCapture(headLength, tailLength, lineSeparator);
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    public int getHeadLength()
+    {
+        return headLength;
+    }
+
+    public int getTailLength()
+    {
+        return tailLength;
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    private static int toLength(@Nullable String kb, int defaultKb)
+    {
+        return (isValidSize(kb) && StringUtils.isNotBlank(kb) ? Integer.parseInt(kb.trim()) : defaultKb) * 1024;
+    }
+}
@@ -0,0 +1,238 @@
+package com.atlassian.bamboo.plugins.xcode.tests.api;
+
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the output of parsed tests out of the heap until the results are collated. Output is appended to a memory
+ * mapped spill file, and only its position is remembered for each test; {@link #materialize()} reads it back into the
+ * test results.
+ * <p>
+ * The spill file is deleted when the spill is closed. Instances are thread safe, so the parsers of the pieces of a
+ * log parsed in parallel can share one.
+ */
+public final class TestOutputSpill implements Closeable
+{
+    private static final Logger log = Logger.getLogger(TestOutputSpill.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    public static final String SPILL_TEST_OUTPUT = "spillTestOutput";
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int ENCODE_BUFFER_SIZE = 8 * 1024;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final File file;
+    private final int segmentSize;
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> segments = Lists.newArrayList();
+    private long size;
+
+    private final Map<TestResults, Extent> spilledResults = Maps.newIdentityHashMap();
+
+    private final CharsetEncoder encoder = CHARSET.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer encodeBuffer = ByteBuffer.allocate(ENCODE_BUFFER_SIZE);
+    private final SpillWriter writer = new SpillWriter();
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    @VisibleForTesting
+    TestOutputSpill(File file, int segmentSize) throws IOException
+    {
+        this.file = file;
+        this.segmentSize = segmentSize;
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    /**
+     * Creates a spill backed by a new temporary file
+     */
+    @NotNull
+    public static TestOutputSpill create() throws IOException
+    {
+        final File file = File.createTempFile("test-output", ".spill");
+        try
+        {
+            return new TestOutputSpill(file, SEGMENT_SIZE);
+        }
+        catch (IOException e)
+        {
+            if (!file.delete())
+            {
+                log.warn("Could not delete spill file '" + file + "'");
+            }
+            throw e;
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------- Action Methods
+
+    /**
+     * Spills the captured output, to be set as the system out of the test result once it is materialized
+     */
+    public synchronized void record(@NotNull TestResults testResults, @NotNull TestOutputCapture capture) throws IOException
+    {
+        final long start = size;
+        capture.writeTo(writer);
+        spilledResults.put(testResults, new Extent(start, size - start));
+    }
+
+    /**
+     * Reads the output of every recorded test back from the spill file and sets it on the test result
+     */
+    public synchronized void materialize() throws IOException
+    {
+        for (Map.Entry<TestResults, Extent> entry : spilledResults.entrySet())
+        {
+            entry.getKey().setSystemOut(read(entry.getValue()));
+        }
+        spilledResults.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        spilledResults.clear();
+        segments.clear();
+        try
+        {
+            channel.close();
+        }
+        finally
+        {
+            if (!file.delete())
+            {
+                log.warn("Could not delete spill file '" + file + "'");
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    private void write(CharSequence text) throws IOException
+    {
+        encoder.reset();
+        final CharBuffer chars = CharBuffer.wrap(text);
+        while (encoder.encode(chars, encodeBuffer, true).isOverflow())
+        {
+            drainEncodeBuffer();
+        }
+        while (encoder.flush(encodeBuffer).isOverflow())
+        {
+            drainEncodeBuffer();
+        }
+        drainEncodeBuffer();
+    }
+
+    private void drainEncodeBuffer() throws IOException
+    {
+        encodeBuffer.flip();
+        write(encodeBuffer);
+        encodeBuffer.clear();
+    }
+
+    private void write(ByteBuffer bytes) throws IOException
+    {
+        while (bytes.hasRemaining())
+        {
+            final ByteBuffer segment = segmentAt(size);
+            final int count = Math.min(bytes.remaining(), segment.remaining());
+            final int limit = bytes.limit();
+            bytes.limit(bytes.position() + count);
+            segment.put(bytes);
+            bytes.limit(limit);
+            size += count;
+        }
+    }
+
+    private String read(Extent extent) throws IOException
+    {
+        final byte[] bytes = new byte[(int) extent.length];
+        int read = 0;
+        while (read < bytes.length)
+        {
+            final ByteBuffer segment = segmentAt(extent.offset + read).duplicate();
+            final int count = Math.min(bytes.length - read, segment.remaining());
+            segment.get(bytes, read, count);
+            read += count;
+        }
+        return new String(bytes, CHARSET);
+    }
+
+    /**
+     * @return a buffer positioned at the offset, which runs to the end of the segment containing it
+     */
+    private ByteBuffer segmentAt(long offset) throws IOException
+    {
+        final int index = (int) (offset / segmentSize);
+        while (segments.size() <= index)
+        {
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * segmentSize, segmentSize));
+        }
+        final MappedByteBuffer segment = segments.get(index);
+        segment.position((int) (offset % segmentSize));
+        return segment;
+    }
+
+    private static final class Extent
+    {
+        private final long offset;
+        private final long length;
+
+        private Extent(long offset, long length)
+        {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Lets a {@link TestOutputCapture} write straight into the spill file
+     */
+    private final class SpillWriter implements Appendable
+    {
+        @Override
+        public Appendable append(CharSequence csq) throws IOException
+        {
+            write(csq);
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException
+        {
+            write(csq.subSequence(start, end));
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException
+        {
+            write(String.valueOf(c));
+            return this;
+        }
+    }
+}
@@ -3,35 +3,119 @@ package com.atlassian.bamboo.plugins.xcode.tests.api;
 import com.atlassian.bamboo.build.LogEntry;
 import com.atlassian.bamboo.build.logger.LogInterceptor;
 import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.Closeable;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
-public final class TestParserLogInterceptor implements LogInterceptor
+/**
+ * Feeds build output and error lines to a test parser, in the order they are intercepted.
+ * <p>
+ * By default lines are parsed on the thread that logs them. An interceptor created by {@link #newAsyncInterceptor}
+ * instead hands them to a dedicated parser thread through a bounded queue, so that parsing only slows the build down
+ * once the parser falls a whole queue behind. Reading the results waits for every line intercepted so far to be
+ * parsed.
+ */
+public final class TestParserLogInterceptor implements LogInterceptor, Closeable
 {
+    private static final Logger log = Logger.getLogger(TestParserLogInterceptor.class);
+
     // ------------------------------------------------------------------------------------------------------- Constants
+
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final long WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
     // ------------------------------------------------------------------------------------------------- Type Properties
 
     private final XcodeTestParser xcodeTestParser;
 
+    // Only set for asynchronous interceptors
+    private final BoundedLineQueue queue;
+    private final Thread parserThread;
+    private volatile boolean parserWaiting;
+    private volatile long parsedCount;
+    private volatile boolean closed;
+
     // ---------------------------------------------------------------------------------------------------- Dependencies
     // ---------------------------------------------------------------------------------------------------- Constructors
 
     public TestParserLogInterceptor(XcodeTestParser xcodeTestParser)
     {
         this.xcodeTestParser = xcodeTestParser;
+        this.queue = null;
+        this.parserThread = null;
+    }
+
+    private TestParserLogInterceptor(XcodeTestParser xcodeTestParser, int queueCapacity)
+    {
+        this.xcodeTestParser = xcodeTestParser;
+        this.queue = new BoundedLineQueue(queueCapacity);
+        this.parserThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                parseQueuedLines();
+            }
+        }, "Xcode test parser");
+        this.parserThread.setDaemon(true);
+    }
+
+    /**
+     * Creates an interceptor which parses on its own thread, until it is {@link #close() closed}
+     */
+    @NotNull
+    public static TestParserLogInterceptor newAsyncInterceptor(XcodeTestParser xcodeTestParser)
+    {
+        return newAsyncInterceptor(xcodeTestParser, QUEUE_CAPACITY);
+    }
+
+    @VisibleForTesting
+    @NotNull
+    static TestParserLogInterceptor newAsyncInterceptor(XcodeTestParser xcodeTestParser, int queueCapacity)
+    {
+        final TestParserLogInterceptor interceptor = new TestParserLogInterceptor(xcodeTestParser, queueCapacity);
+        interceptor.parserThread.start();
+        return interceptor;
     }
 
     // ----------------------------------------------------------------------------------------------- Interface Methods
 
     public void intercept(@NotNull final LogEntry logEntry)
     {
-        xcodeTestParser.processLine(logEntry.getLog());
+        processLine(logEntry.getLog());
     }
 
     public void interceptError(@NotNull final LogEntry logEntry)
     {
-        xcodeTestParser.processLine(logEntry.getLog());
+        processLine(logEntry.getLog());
+    }
+
+    /**
+     * Stops the parser thread once it has parsed every line intercepted so far. Must only be called after the
+     * interceptor has been removed from the interceptor stack.
+     */
+    @Override
+    public void close()
+    {
+        if (parserThread == null || closed)
+        {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(parserThread);
+        try
+        {
+            parserThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
     }
 
     // -------------------------------------------------------------------------------------------------- Action Methods
@@ -39,13 +123,100 @@ public final class TestParserLogInterceptor implements LogInterceptor
 
     public Set<TestResults> getFailingTestResults()
     {
+        awaitParsed();
         return xcodeTestParser.getFailingTestResults();
     }
 
     public Set<TestResults> getSuccessfulTestResults()
     {
+        awaitParsed();
         return xcodeTestParser.getSuccessfulTestResults();
     }
 
+    /**
+     * Waits until every line intercepted before the call has been parsed
+     */
+    public void awaitParsed()
+    {
+        if (queue == null)
+        {
+            return;
+        }
+
+        final long offered = queue.getOfferedCount();
+        while (parsedCount < offered && parserThread.isAlive())
+        {
+            LockSupport.parkNanos(WAIT_NANOS);
+            if (Thread.currentThread().isInterrupted())
+            {
+                log.warn("Interrupted while waiting for test output to be parsed, results may be incomplete");
+                return;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    private void processLine(String line)
+    {
+        if (queue == null)
+        {
+            // Output and error lines are logged from different threads
+            synchronized (xcodeTestParser)
+            {
+                xcodeTestParser.processLine(line);
+            }
+            return;
+        }
+
+        while (!queue.offer(line))
+        {
+            LockSupport.parkNanos(WAIT_NANOS);
+        }
+        if (parserWaiting)
+        {
+            LockSupport.unpark(parserThread);
+        }
+    }
+
+    private void parseQueuedLines()
+    {
+        long parsed = 0;
+        while (true)
+        {
+            String line = queue.poll();
+            if (line == null)
+            {
+                if (closed && parsed == queue.getOfferedCount())
+                {
+                    return;
+                }
+
+                // Producers unpark the parser after publishing a line if they see it waiting
+                parserWaiting = true;
+                line = queue.poll();
+                if (line == null)
+                {
+                    LockSupport.park(this);
+                }
+                parserWaiting = false;
+                if (line == null)
+                {
+                    continue;
+                }
+            }
+
+            try
+            {
+                xcodeTestParser.processLine(line);
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Could not parse line '" + line + "'", e);
+            }
+            parsedCount = ++parsed;
+        }
+    }
+
     // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
-}
\ No newline at end of file
+}
@@ -0,0 +1,178 @@
+package com.atlassian.bamboo.plugins.xcode.tests.api;
+
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.base.Objects;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Test results in the order they were parsed, keyed by suite, test name and the ordinal of the test among the ones
+ * with the same suite and name. Results are never hashed themselves, so tests that share a name, like ones run once
+ * per architecture or consecutive runs of the same test, are all kept.
+ */
+public final class TestResultStore
+{
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final Map<TestId, TestResults> results = Maps.newLinkedHashMap();
+    private final Map<TestId, Integer> counts = Maps.newHashMap();
+    private final Set<TestResults> view = new ResultSet();
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    public TestResultStore()
+    {
+    }
+
+    // -------------------------------------------------------------------------------------------------- Action Methods
+
+    public void add(@NotNull TestResults testResults)
+    {
+        final TestId name = new TestId(testResults.getClassName(), testResults.getMethodName(), 0);
+        final Integer count = counts.get(name);
+        final int ordinal = count != null ? count : 0;
+        counts.put(name, ordinal + 1);
+        results.put(ordinal == 0 ? name : new TestId(name.suiteName, name.testName, ordinal), testResults);
+    }
+
+    /**
+     * Copies the results in, so that results from several parsers are merged once rather than on every iteration
+     */
+    public void addAll(@NotNull Iterable<TestResults> testResults)
+    {
+        for (TestResults testResult : testResults)
+        {
+            add(testResult);
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * @param ordinal 0 for the first test parsed with the suite and name, 1 for the second and so on
+     */
+    @Nullable
+    public TestResults get(@Nullable String suiteName, @Nullable String testName, int ordinal)
+    {
+        return results.get(new TestId(suiteName, testName, ordinal));
+    }
+
+    /**
+     * @return the results added after the first {@code index} ones, in the order they were added
+     */
+    @NotNull
+    public List<TestResults> getResultsFrom(int index)
+    {
+        return Lists.newArrayList(Iterables.skip(results.values(), index));
+    }
+
+    public int size()
+    {
+        return results.size();
+    }
+
+    /**
+     * @return a live view of the results in the order they were added
+     */
+    @NotNull
+    public Set<TestResults> asSet()
+    {
+        return view;
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    private static final class TestId
+    {
+        private final String suiteName;
+        private final String testName;
+        private final int ordinal;
+
+        private TestId(@Nullable String suiteName, @Nullable String testName, int ordinal)
+        {
+            this.suiteName = suiteName;
+            this.testName = testName;
+            this.ordinal = ordinal;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof TestId))
+            {
+                return false;
+            }
+            final TestId testId = (TestId) o;
+            return ordinal == testId.ordinal
+                   && Objects.equal(suiteName, testId.suiteName)
+                   && Objects.equal(testName, testId.testName);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(suiteName, testName, ordinal);
+        }
+    }
+
+    /**
+     * The results as a set of distinct instances, which is what the Bamboo test collection APIs take
+     */
+    private final class ResultSet extends AbstractSet<TestResults>
+    {
+        @Override
+        public Iterator<TestResults> iterator()
+        {
+            return Collections.unmodifiableCollection(results.values()).iterator();
+        }
+
+        @Override
+        public int size()
+        {
+            return results.size();
+        }
+
+        @Override
+        public boolean add(TestResults testResults)
+        {
+            TestResultStore.this.add(testResults);
+            return true;
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            if (!(o instanceof TestResults))
+            {
+                return false;
+            }
+            final TestResults testResults = (TestResults) o;
+            for (int ordinal = 0; ; ordinal++)
+            {
+                final TestResults candidate = get(testResults.getClassName(), testResults.getMethodName(), ordinal);
+                if (candidate == null)
+                {
+                    return false;
+                }
+                if (candidate == testResults)
+                {
+                    return true;
+                }
+            }
+        }
+    }
+}
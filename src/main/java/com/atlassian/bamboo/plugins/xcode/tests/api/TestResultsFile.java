@@ -0,0 +1,436 @@
+package com.atlassian.bamboo.plugins.xcode.tests.api;
+
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.atlassian.bamboo.resultsummary.tests.TestCaseResultError;
+import com.atlassian.bamboo.resultsummary.tests.TestCaseResultErrorImpl;
+import com.atlassian.bamboo.resultsummary.tests.TestState;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compact binary copy of the test results parsed from a log, kept next to the log so that collating the same log
+ * again loads the results instead of parsing it again.
+ * <p>
+ * The log is identified by its length and modification time, a results file written for any other log is ignored.
+ * Results files written on their own, such as the results of one test shard, are not tied to a log, and may carry
+ * properties identifying them.
+ * Every distinct suite name, test name, state, error message and property is stored once in a dictionary, each test is
+ * a fixed width record of dictionary indexes and offsets into the errors and the test output. Successful tests come
+ * first:
+ * <pre>
+ * header   magic, version, log length, log last modified (both -1 without a log), string count, error count, output length,
+ *          successful record count, failing record count, property count
+ * strings  (byte length, UTF-8 bytes) per string
+ * props    name string index, value string index per property
+ * errors   string index per error
+ * output   UTF-8 bytes
+ * records  suite, method, actual method, state, duration in milliseconds, output offset, output length, first error,
+ *          error count
+ * </pre>
+ * The method is the name the test is reported by and the actual method the one xcodebuild selects it by, which differ
+ * for Quick specs.
+ */
+public final class TestResultsFile
+{
+    private static final Logger log = Logger.getLogger(TestResultsFile.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    public static final String CACHE_TEST_RESULTS = "cacheTestResults";
+
+    private static final String EXTENSION = ".testresults";
+    private static final int MAGIC = 0x58545253; // XTRS
+    private static final int VERSION = 3;
+    private static final int NONE = -1;
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final Set<TestResults> successfulTestResults;
+    private final Set<TestResults> failingTestResults;
+    private final Map<String, String> properties;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private TestResultsFile(Set<TestResults> successfulTestResults, Set<TestResults> failingTestResults, Map<String, String> properties)
+    {
+        this.successfulTestResults = successfulTestResults;
+        this.failingTestResults = failingTestResults;
+        this.properties = properties;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * @return where the results parsed from the log are kept
+     */
+    @NotNull
+    public static File forLog(@NotNull File logFile)
+    {
+        return new File(logFile.getPath() + EXTENSION);
+    }
+
+    /**
+     * Writes the results parsed from the log next to it, replacing any results written before
+     */
+    public static void write(@NotNull File logFile,
+                             @NotNull Collection<TestResults> successfulTestResults,
+                             @NotNull Collection<TestResults> failingTestResults) throws IOException
+    {
+        write(logFile, Collections.<String, String>emptyMap(), successfulTestResults, failingTestResults);
+    }
+
+    /**
+     * Writes the results parsed from the log next to it with the properties, replacing any results written before
+     */
+    public static void write(@NotNull File logFile,
+                             @NotNull Map<String, String> properties,
+                             @NotNull Collection<TestResults> successfulTestResults,
+                             @NotNull Collection<TestResults> failingTestResults) throws IOException
+    {
+        write(forLog(logFile), logFile.length(), logFile.lastModified(), properties, successfulTestResults, failingTestResults);
+    }
+
+    /**
+     * Writes results which do not come from a log file to the given file, replacing it
+     */
+    public static void writeResults(@NotNull File resultsFile,
+                                    @NotNull Collection<TestResults> successfulTestResults,
+                                    @NotNull Collection<TestResults> failingTestResults) throws IOException
+    {
+        writeResults(resultsFile, Collections.<String, String>emptyMap(), successfulTestResults, failingTestResults);
+    }
+
+    /**
+     * Writes results which do not come from a log file to the given file with the properties, replacing it
+     */
+    public static void writeResults(@NotNull File resultsFile,
+                                    @NotNull Map<String, String> properties,
+                                    @NotNull Collection<TestResults> successfulTestResults,
+                                    @NotNull Collection<TestResults> failingTestResults) throws IOException
+    {
+        write(resultsFile, NONE, NONE, properties, successfulTestResults, failingTestResults);
+    }
+
+    /**
+     * @return the results written for the log, or null if there are none or the log has changed since
+     */
+    @Nullable
+    public static TestResultsFile read(@NotNull File logFile) throws IOException
+    {
+        return read(forLog(logFile), logFile.length(), logFile.lastModified());
+    }
+
+    /**
+     * @return the results written with {@link #writeResults}, or null if the file is missing or not a results file
+     */
+    @Nullable
+    public static TestResultsFile readResults(@NotNull File resultsFile) throws IOException
+    {
+        return read(resultsFile, NONE, NONE);
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    private static void write(@NotNull File resultsFile,
+                              long logLength,
+                              long logLastModified,
+                              @NotNull Map<String, String> properties,
+                              @NotNull Collection<TestResults> successfulTestResults,
+                              @NotNull Collection<TestResults> failingTestResults) throws IOException
+    {
+        final List<TestResults> testResults = Lists.newArrayListWithCapacity(successfulTestResults.size() + failingTestResults.size());
+        testResults.addAll(successfulTestResults);
+        testResults.addAll(failingTestResults);
+
+        final Map<String, Integer> strings = Maps.newLinkedHashMap();
+        for (Map.Entry<String, String> property : properties.entrySet())
+        {
+            intern(strings, property.getKey());
+            intern(strings, property.getValue());
+        }
+        final List<byte[]> outputs = Lists.newArrayListWithCapacity(testResults.size());
+        int errorCount = 0;
+        long outputLength = 0;
+        for (TestResults testResult : testResults)
+        {
+            intern(strings, testResult.getClassName());
+            intern(strings, testResult.getMethodName());
+            intern(strings, testResult.getActualMethodName());
+            intern(strings, stateName(testResult));
+            for (TestCaseResultError error : testResult.getErrors())
+            {
+                intern(strings, error.getContent());
+                errorCount++;
+            }
+
+            final String systemOut = testResult.getSystemOut();
+            final byte[] output = systemOut != null ? systemOut.getBytes(StandardCharsets.UTF_8) : null;
+            outputs.add(output);
+            outputLength += output != null ? output.length : 0;
+        }
+
+        final File partFile = new File(resultsFile.getPath() + ".part");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partFile)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(logLength);
+            out.writeLong(logLastModified);
+            out.writeInt(strings.size());
+            out.writeInt(errorCount);
+            out.writeLong(outputLength);
+            out.writeInt(successfulTestResults.size());
+            out.writeInt(failingTestResults.size());
+            out.writeInt(properties.size());
+
+            for (String string : strings.keySet())
+            {
+                final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            for (Map.Entry<String, String> property : properties.entrySet())
+            {
+                out.writeInt(index(strings, property.getKey()));
+                out.writeInt(index(strings, property.getValue()));
+            }
+
+            for (TestResults testResult : testResults)
+            {
+                for (TestCaseResultError error : testResult.getErrors())
+                {
+                    out.writeInt(index(strings, error.getContent()));
+                }
+            }
+
+            for (byte[] output : outputs)
+            {
+                if (output != null)
+                {
+                    out.write(output);
+                }
+            }
+
+            long outputOffset = 0;
+            int firstError = 0;
+            for (int i = 0; i < testResults.size(); i++)
+            {
+                final TestResults testResult = testResults.get(i);
+                final byte[] output = outputs.get(i);
+                final int errors = testResult.getErrors().size();
+                out.writeInt(index(strings, testResult.getClassName()));
+                out.writeInt(index(strings, testResult.getMethodName()));
+                out.writeInt(index(strings, testResult.getActualMethodName()));
+                out.writeInt(index(strings, stateName(testResult)));
+                out.writeLong(testResult.getDuration());
+                out.writeLong(output != null ? outputOffset : NONE);
+                out.writeInt(output != null ? output.length : NONE);
+                out.writeInt(firstError);
+                out.writeInt(errors);
+                outputOffset += output != null ? output.length : 0;
+                firstError += errors;
+            }
+            out.close();
+        }
+        finally
+        {
+            IOUtils.closeQuietly(out);
+        }
+
+        FileUtils.deleteQuietly(resultsFile);
+        if (!partFile.renameTo(resultsFile))
+        {
+            FileUtils.deleteQuietly(partFile);
+            throw new IOException("Could not move test results to '" + resultsFile.getAbsolutePath() + "'");
+        }
+    }
+
+    @Nullable
+    private static TestResultsFile read(@NotNull File resultsFile, long logLength, long logLastModified) throws IOException
+    {
+        if (!resultsFile.isFile())
+        {
+            return null;
+        }
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(resultsFile)));
+        try
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            {
+                log.info("Ignoring test results in an unknown format in '" + resultsFile.getAbsolutePath() + "'");
+                return null;
+            }
+            if (in.readLong() != logLength || in.readLong() != logLastModified)
+            {
+                return null;
+            }
+
+            final String[] strings = new String[in.readInt()];
+            final int[] errors = new int[in.readInt()];
+            final long outputLength = in.readLong();
+            final int successfulCount = in.readInt();
+            final int failingCount = in.readInt();
+            final int propertyCount = in.readInt();
+            if (outputLength > Integer.MAX_VALUE)
+            {
+                return null;
+            }
+
+            for (int i = 0; i < strings.length; i++)
+            {
+                final byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            final Map<String, String> properties = Maps.newLinkedHashMap();
+            for (int i = 0; i < propertyCount; i++)
+            {
+                properties.put(lookup(strings, in.readInt()), lookup(strings, in.readInt()));
+            }
+
+            for (int i = 0; i < errors.length; i++)
+            {
+                errors[i] = in.readInt();
+            }
+
+            final byte[] output = new byte[(int) outputLength];
+            in.readFully(output);
+
+            final TestResultStore successfulTestResults = new TestResultStore();
+            final TestResultStore failingTestResults = new TestResultStore();
+            for (int i = 0; i < successfulCount + failingCount; i++)
+            {
+                final String suiteName = lookup(strings, in.readInt());
+                final String testName = lookup(strings, in.readInt());
+                final String actualTestName = lookup(strings, in.readInt());
+                final String state = lookup(strings, in.readInt());
+                final Long duration = in.readLong();
+                final TestResults testResults = actualTestName == null || actualTestName.equals(testName)
+                                                ? new TestResults(suiteName, testName, duration)
+                                                : new RenamedTestResults(suiteName, actualTestName, testName, duration);
+                testResults.setState(state != null ? TestState.valueOf(state) : null);
+
+                final int outputOffset = (int) in.readLong();
+                final int testOutputLength = in.readInt();
+                if (testOutputLength != NONE)
+                {
+                    testResults.setSystemOut(new String(output, outputOffset, testOutputLength, StandardCharsets.UTF_8));
+                }
+
+                final int firstError = in.readInt();
+                final int errorCount = in.readInt();
+                for (int error = firstError; error < firstError + errorCount; error++)
+                {
+                    testResults.addError(new TestCaseResultErrorImpl(lookup(strings, errors[error])));
+                }
+
+                final TestResultStore resultStore = i < successfulCount ? successfulTestResults : failingTestResults;
+                resultStore.add(testResults);
+            }
+            return new TestResultsFile(successfulTestResults.asSet(), failingTestResults.asSet(), properties);
+        }
+        catch (EOFException e)
+        {
+            log.info("Ignoring truncated test results in '" + resultsFile.getAbsolutePath() + "'");
+            return null;
+        }
+        finally
+        {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    @Nullable
+    private static String stateName(@NotNull TestResults testResults)
+    {
+        final TestState state = testResults.getState();
+        return state != null ? state.name() : null;
+    }
+
+    private static void intern(@NotNull Map<String, Integer> strings, @Nullable String string)
+    {
+        if (string != null && !strings.containsKey(string))
+        {
+            strings.put(string, strings.size());
+        }
+    }
+
+    @Nullable
+    private static String lookup(@NotNull String[] strings, int index)
+    {
+        return index != NONE ? strings[index] : null;
+    }
+
+    private static int index(@NotNull Map<String, Integer> strings, @Nullable String string)
+    {
+        return string != null ? strings.get(string) : NONE;
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    @NotNull
+    public Set<TestResults> getSuccessfulTestResults()
+    {
+        return successfulTestResults;
+    }
+
+    @NotNull
+    public Set<TestResults> getFailingTestResults()
+    {
+        return failingTestResults;
+    }
+
+    /**
+     * @return the properties the results were written with
+     */
+    @NotNull
+    public Map<String, String> getProperties()
+    {
+        return properties;
+    }
+
+    /**
+     * A test reported by another name than its method's, such as a Quick spec
+     */
+    private static final class RenamedTestResults extends TestResults
+    {
+        private final String methodName;
+
+        private RenamedTestResults(String className, String actualMethodName, String methodName, Long duration)
+        {
+            super(className, actualMethodName, duration);
+            this.methodName = methodName;
+        }
+
+        @Override
+        public String getMethodName()
+        {
+            return methodName;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package com.atlassian.bamboo.plugins.xcode.tests.api;
+
+import com.atlassian.bamboo.task.TaskContext;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The durations of the tests and suites of one run, summarised per suite as the median, 95th percentile and maximum
+ * test duration. A summary is written to a report file in the working directory, where an artifact definition can
+ * pick it up, and the totals and slowest suites are kept as result metadata.
+ * <p>
+ * Timings may be shared by the parsers of one run, including ones running on different threads.
+ */
+public final class TestTimings
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    public static final String REPORT_FILE = "xcode-test-timings.csv";
+
+    static final String METADATA_PREFIX = "xcode.tests.";
+    private static final String WALL_TIME_PREFIX = "wallTimeMillis.";
+    private static final int SLOWEST_SUITES = 5;
+    private static final long UNKNOWN = -1;
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final Map<String, SuiteTimes> suites = Maps.newLinkedHashMap();
+
+    // -------------------------------------------------------------------------------------------------- Action Methods
+
+    public synchronized void testFinished(@Nullable String suiteName, long durationMillis)
+    {
+        suiteTimes(suiteName).add(durationMillis);
+    }
+
+    /**
+     * @param wallTimeMillis the time between the suite's start and finish lines
+     */
+    public synchronized void suiteFinished(@Nullable String suiteName, long wallTimeMillis)
+    {
+        suiteTimes(suiteName).wallTimeMillis = wallTimeMillis;
+    }
+
+    /**
+     * Adds the timings recorded separately for another part of the same run
+     */
+    public void addAll(@NotNull TestTimings timings)
+    {
+        final Map<String, SuiteTimes> suites;
+        synchronized (timings)
+        {
+            suites = Maps.newLinkedHashMap(timings.suites);
+        }
+        synchronized (this)
+        {
+            for (Map.Entry<String, SuiteTimes> suite : suites.entrySet())
+            {
+                final SuiteTimes suiteTimes = suiteTimes(suite.getKey());
+                suiteTimes.addAll(suite.getValue());
+                if (suite.getValue().wallTimeMillis != UNKNOWN)
+                {
+                    suiteTimes.wallTimeMillis = suite.getValue().wallTimeMillis;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the suite wall times kept with results written to a file, whose test durations are added one by one
+     *
+     * @param properties as returned by {@link #toWallTimeProperties()} when the results were written
+     */
+    public synchronized void addWallTimes(@NotNull Map<String, String> properties)
+    {
+        for (Map.Entry<String, String> property : properties.entrySet())
+        {
+            if (property.getKey().startsWith(WALL_TIME_PREFIX))
+            {
+                final String suiteName = property.getKey().substring(WALL_TIME_PREFIX.length());
+                suiteTimes(suiteName).wallTimeMillis = Long.parseLong(property.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes the report to the directory and adds the summary to the result metadata
+     *
+     * @return the report file
+     */
+    @NotNull
+    public File publish(@NotNull File directory, @NotNull Map<String, String> resultMetadata) throws IOException
+    {
+        resultMetadata.putAll(toResultMetadata());
+        final File reportFile = new File(directory, REPORT_FILE);
+        writeReport(reportFile);
+        return reportFile;
+    }
+
+    /**
+     * Writes the report to the working directory of the task and keeps the summary as result metadata, logging where
+     * the report went or why it could not be written
+     */
+    public void publishTo(@NotNull TaskContext taskContext)
+    {
+        try
+        {
+            final File reportFile = publish(taskContext.getWorkingDirectory(), taskContext.getBuildContext().getBuildResult().getCustomBuildData());
+            taskContext.getBuildLogger().addBuildLogEntry("Test timings written to '" + reportFile.getAbsolutePath() + "'");
+        }
+        catch (IOException e)
+        {
+            taskContext.getBuildLogger().addBuildLogEntry("Could not write the test timings report: " + e);
+        }
+    }
+
+    /**
+     * Writes one line per suite, slowest first
+     */
+    public void writeReport(@NotNull File reportFile) throws IOException
+    {
+        final StringBuilder report = new StringBuilder("suite,tests,total_ms,p50_ms,p95_ms,max_ms,wall_ms\n");
+        for (SuiteTiming timing : getSuiteTimings())
+        {
+            report.append(StringEscapeUtils.escapeCsv(timing.getSuiteName())).append(',')
+                    .append(timing.getTestCount()).append(',')
+                    .append(timing.getTotalMillis()).append(',')
+                    .append(timing.getP50Millis()).append(',')
+                    .append(timing.getP95Millis()).append(',')
+                    .append(timing.getMaxMillis()).append(',')
+                    .append(timing.getWallTimeMillis() != UNKNOWN ? String.valueOf(timing.getWallTimeMillis()) : "")
+                    .append('\n');
+        }
+        FileUtils.writeStringToFile(reportFile, report.toString(), StandardCharsets.UTF_8.name());
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * @return the timings of every suite with tests or a known wall time, slowest first
+     */
+    @NotNull
+    public synchronized List<SuiteTiming> getSuiteTimings()
+    {
+        final List<SuiteTiming> timings = Lists.newArrayListWithCapacity(suites.size());
+        for (Map.Entry<String, SuiteTimes> suite : suites.entrySet())
+        {
+            timings.add(suite.getValue().summarise(suite.getKey()));
+        }
+        Collections.sort(timings, new Comparator<SuiteTiming>()
+        {
+            @Override
+            public int compare(SuiteTiming first, SuiteTiming second)
+            {
+                return Long.compare(second.getTotalMillis(), first.getTotalMillis());
+            }
+        });
+        return timings;
+    }
+
+    /**
+     * @return the run's test count and durations over all tests, and a summary of its slowest suites
+     */
+    @NotNull
+    public Map<String, String> toResultMetadata()
+    {
+        final List<SuiteTiming> timings = getSuiteTimings();
+        final SuiteTimes allTests = new SuiteTimes();
+        synchronized (this)
+        {
+            for (SuiteTimes suite : suites.values())
+            {
+                allTests.addAll(suite);
+            }
+        }
+        final SuiteTiming overall = allTests.summarise("");
+
+        final Map<String, String> metadata = Maps.newLinkedHashMap();
+        metadata.put(METADATA_PREFIX + "count", String.valueOf(overall.getTestCount()));
+        metadata.put(METADATA_PREFIX + "totalMillis", String.valueOf(overall.getTotalMillis()));
+        metadata.put(METADATA_PREFIX + "p50Millis", String.valueOf(overall.getP50Millis()));
+        metadata.put(METADATA_PREFIX + "p95Millis", String.valueOf(overall.getP95Millis()));
+        metadata.put(METADATA_PREFIX + "maxMillis", String.valueOf(overall.getMaxMillis()));
+        for (int i = 0; i < Math.min(SLOWEST_SUITES, timings.size()) && timings.get(i).getTestCount() > 0; i++)
+        {
+            final SuiteTiming timing = timings.get(i);
+            metadata.put(METADATA_PREFIX + "slowestSuite." + (i + 1), timing.getSuiteName()
+                                                                     + " tests=" + timing.getTestCount()
+                                                                     + " total=" + timing.getTotalMillis() + "ms"
+                                                                     + " p50=" + timing.getP50Millis() + "ms"
+                                                                     + " p95=" + timing.getP95Millis() + "ms"
+                                                                     + " max=" + timing.getMaxMillis() + "ms");
+        }
+        return metadata;
+    }
+
+    /**
+     * @return the known suite wall times, to be kept with results written to a file
+     */
+    @NotNull
+    public synchronized Map<String, String> toWallTimeProperties()
+    {
+        final Map<String, String> properties = Maps.newLinkedHashMap();
+        for (Map.Entry<String, SuiteTimes> suite : suites.entrySet())
+        {
+            if (suite.getValue().wallTimeMillis != UNKNOWN)
+            {
+                properties.put(WALL_TIME_PREFIX + suite.getKey(), String.valueOf(suite.getValue().wallTimeMillis));
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * @return the timestamp following the last {@code " at "} of a suite line, or -1 if there is none
+     */
+    public static long parseSuiteTimestamp(@NotNull String line)
+    {
+        final int at = line.lastIndexOf(" at ");
+        return at >= 0 ? parseTimestamp(line, at + 4) : UNKNOWN;
+    }
+
+    /**
+     * Reads a suite timestamp, {@code yyyy-MM-dd HH:mm:ss} with optional milliseconds and an optional
+     * {@code +hhmm} zone, as printed after {@code started at} and {@code finished at}
+     *
+     * @return the timestamp in milliseconds, or -1 if the line holds none at the index
+     */
+    public static long parseTimestamp(@NotNull String line, int start)
+    {
+        int i = start;
+        while (i < line.length() && line.charAt(i) == ' ')
+        {
+            i++;
+        }
+
+        final int year = number(line, i, 4);
+        final int month = number(line, i + 5, 2);
+        final int day = number(line, i + 8, 2);
+        final int hour = number(line, i + 11, 2);
+        final int minute = number(line, i + 14, 2);
+        final int second = number(line, i + 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || minute < 0 || second < 0
+            || line.charAt(i + 4) != '-' || line.charAt(i + 7) != '-' || line.charAt(i + 10) != ' '
+            || line.charAt(i + 13) != ':' || line.charAt(i + 16) != ':')
+        {
+            return UNKNOWN;
+        }
+        i += 19;
+
+        int millis = 0;
+        if (i < line.length() && line.charAt(i) == '.')
+        {
+            int scale = 100;
+            for (i++; i < line.length() && isDigit(line.charAt(i)); i++)
+            {
+                millis += (line.charAt(i) - '0') * scale;
+                scale /= 10;
+            }
+        }
+
+        int zoneMinutes = 0;
+        if (i + 6 <= line.length() && line.charAt(i) == ' ' && (line.charAt(i + 1) == '+' || line.charAt(i + 1) == '-'))
+        {
+            final int zone = number(line, i + 2, 4);
+            if (zone >= 0)
+            {
+                zoneMinutes = (zone / 100 * 60 + zone % 100) * (line.charAt(i + 1) == '-' ? -1 : 1);
+            }
+        }
+
+        final long days = daysFromCivil(year, month, day);
+        return ((days * 24 + hour) * 60 + minute - zoneMinutes) * 60000L + second * 1000L + millis;
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    @NotNull
+    private SuiteTimes suiteTimes(@Nullable String suiteName)
+    {
+        final String key = String.valueOf(suiteName);
+        SuiteTimes suiteTimes = suites.get(key);
+        if (suiteTimes == null)
+        {
+            suiteTimes = new SuiteTimes();
+            suites.put(key, suiteTimes);
+        }
+        return suiteTimes;
+    }
+
+    private static int number(@NotNull String line, int start, int digits)
+    {
+        if (start < 0 || start + digits > line.length())
+        {
+            return -1;
+        }
+
+        int value = 0;
+        for (int i = start; i < start + digits; i++)
+        {
+            final char c = line.charAt(i);
+            if (!isDigit(c))
+            {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date
+     */
+    private static long daysFromCivil(int year, int month, int day)
+    {
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = (y >= 0 ? y : y - 399) / 400;
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    /**
+     * The test durations of one suite, in a growing array rather than boxed
+     */
+    private static final class SuiteTimes
+    {
+        private long[] durations = new long[8];
+        private int count;
+        private long wallTimeMillis = UNKNOWN;
+
+        private void add(long durationMillis)
+        {
+            if (count == durations.length)
+            {
+                durations = Arrays.copyOf(durations, count * 2);
+            }
+            durations[count++] = durationMillis;
+        }
+
+        private void addAll(@NotNull SuiteTimes suiteTimes)
+        {
+            for (int i = 0; i < suiteTimes.count; i++)
+            {
+                add(suiteTimes.durations[i]);
+            }
+        }
+
+        @NotNull
+        private SuiteTiming summarise(@NotNull String suiteName)
+        {
+            final long[] sorted = Arrays.copyOf(durations, count);
+            Arrays.sort(sorted);
+            long total = 0;
+            for (long duration : sorted)
+            {
+                total += duration;
+            }
+            return new SuiteTiming(suiteName, count, total, percentile(sorted, 50), percentile(sorted, 95),
+                                   count > 0 ? sorted[count - 1] : 0, wallTimeMillis);
+        }
+
+        /**
+         * The nearest rank percentile
+         */
+        private static long percentile(@NotNull long[] sorted, int percentile)
+        {
+            if (sorted.length == 0)
+            {
+                return 0;
+            }
+            final int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+            return sorted[Math.max(rank, 1) - 1];
+        }
+    }
+
+    public static final class SuiteTiming
+    {
+        private final String suiteName;
+        private final int testCount;
+        private final long totalMillis;
+        private final long p50Millis;
+        private final long p95Millis;
+        private final long maxMillis;
+        private final long wallTimeMillis;
+
+        private SuiteTiming(String suiteName, int testCount, long totalMillis, long p50Millis, long p95Millis,
+                            long maxMillis, long wallTimeMillis)
+        {
+            this.suiteName = suiteName;
+            this.testCount = testCount;
+            this.totalMillis = totalMillis;
+            this.p50Millis = p50Millis;
+            this.p95Millis = p95Millis;
+            this.maxMillis = maxMillis;
+            this.wallTimeMillis = wallTimeMillis;
+        }
+
+        @NotNull
+        public String getSuiteName()
+        {
+            return suiteName;
+        }
+
+        public int getTestCount()
+        {
+            return testCount;
+        }
+
+        public long getTotalMillis()
+        {
+            return totalMillis;
+        }
+
+        public long getP50Millis()
+        {
+            return p50Millis;
+        }
+
+        public long getP95Millis()
+        {
+            return p95Millis;
+        }
+
+        public long getMaxMillis()
+        {
+            return maxMillis;
+        }
+
+        /**
+         * @return the time between the suite's start and finish lines, or -1 if it is not known
+         */
+        public long getWallTimeMillis()
+        {
+            return wallTimeMillis;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.atlassian.bamboo.plugins.xcode.tests.checkpoint;
+
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestResultsFile;
+import com.atlassian.bamboo.plugins.xcode.tests.sharding.TestShard;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The test results of a build written to disk while its tests run, so that another attempt at the same build, after
+ * the simulator crashed or the agent restarted, skips the tests which already passed and reports their results.
+ * <p>
+ * Each page of results is written to a {@link TestResultsFile} of its own in a directory named after the build, which
+ * is renamed into place once complete. Checkpoints of other builds are deleted when a build opens its own.
+ */
+public final class TestCheckpoint
+{
+    private static final Logger log = Logger.getLogger(TestCheckpoint.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    public static final String CHECKPOINT_TESTS = "checkpointTests";
+
+    /**
+     * The number of results written at a time as suites finish, as a result is only on disk once written
+     */
+    public static final int PAGE_SIZE = 50;
+
+    private static final String DIRECTORY = "xcode-test-checkpoint";
+    private static final Pattern PAGE_FILE = Pattern.compile("page-(\\d+)\\.testresults");
+    private static final String SKIP_TESTING = "-skip-testing:";
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final File directory;
+    private final Map<String, TestResults> passedTestResults;
+    private final Set<String> testedKeys = Sets.newHashSet();
+    private final Set<TestResults> writtenTestResults = Sets.newIdentityHashSet();
+    private int pageCount;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private TestCheckpoint(@NotNull File directory, @NotNull Map<String, TestResults> passedTestResults, int pageCount)
+    {
+        this.directory = directory;
+        this.passedTestResults = passedTestResults;
+        this.pageCount = pageCount;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Opens the checkpoint of the build in the working directory, with the tests passed by earlier attempts at it
+     */
+    @NotNull
+    public static TestCheckpoint open(@NotNull File workingDirectory, int buildNumber) throws IOException
+    {
+        final File checkpointsDirectory = new File(workingDirectory, DIRECTORY);
+        final File directory = new File(checkpointsDirectory, "build-" + buildNumber);
+        final File[] checkpoints = checkpointsDirectory.listFiles();
+        if (checkpoints != null)
+        {
+            for (File checkpoint : checkpoints)
+            {
+                if (!checkpoint.equals(directory))
+                {
+                    FileUtils.deleteQuietly(checkpoint);
+                }
+            }
+        }
+        FileUtils.forceMkdir(directory);
+
+        // Pages are read in the order they were written
+        final SortedMap<Integer, File> pageFiles = Maps.newTreeMap();
+        final File[] files = directory.listFiles();
+        for (File file : files != null ? files : new File[0])
+        {
+            final Matcher matcher = PAGE_FILE.matcher(file.getName());
+            if (matcher.matches())
+            {
+                pageFiles.put(Integer.valueOf(matcher.group(1)), file);
+            }
+        }
+
+        final Map<String, TestResults> passedTestResults = Maps.newLinkedHashMap();
+        for (File pageFile : pageFiles.values())
+        {
+            final TestResultsFile page = TestResultsFile.readResults(pageFile);
+            if (page == null)
+            {
+                log.warn("Ignoring '" + pageFile.getAbsolutePath() + "', which does not hold test results");
+                continue;
+            }
+            for (TestResults passed : page.getSuccessfulTestResults())
+            {
+                passedTestResults.put(testKey(passed), passed);
+            }
+        }
+        return new TestCheckpoint(directory, passedTestResults, pageFiles.isEmpty() ? 0 : pageFiles.lastKey() + 1);
+    }
+
+    /**
+     * Writes a page of results of this attempt, leaving out the ones already written
+     */
+    public synchronized void write(@NotNull Collection<TestResults> successfulTestResults, @NotNull Collection<TestResults> failingTestResults) throws IOException
+    {
+        final List<TestResults> successfulPage = getUnwritten(successfulTestResults);
+        final List<TestResults> failingPage = getUnwritten(failingTestResults);
+        if (successfulPage.isEmpty() && failingPage.isEmpty())
+        {
+            return;
+        }
+        TestResultsFile.writeResults(new File(directory, "page-" + pageCount + ".testresults"), successfulPage, failingPage);
+        pageCount++;
+        for (TestResults testResults : successfulPage)
+        {
+            writtenTestResults.add(testResults);
+            testedKeys.add(testKey(testResults));
+        }
+        for (TestResults testResults : failingPage)
+        {
+            writtenTestResults.add(testResults);
+            testedKeys.add(testKey(testResults));
+        }
+    }
+
+    /**
+     * Adds the identifiers of the tests passed by earlier attempts to an xcodebuild command, to skip them
+     */
+    public void addSkipArguments(@NotNull List<String> command, @NotNull String testTarget)
+    {
+        final Set<String> testIdentifiers = Sets.newLinkedHashSet();
+        for (TestResults passed : passedTestResults.values())
+        {
+            // Leaves out the destination appended to suite names when testing on several at once
+            final String testClass = StringUtils.substringBefore(passed.getClassName(), " (");
+            testIdentifiers.add(TestShard.testIdentifier(testTarget, testClass) + "/" + passed.getActualMethodName());
+        }
+        for (String testIdentifier : testIdentifiers)
+        {
+            command.add(SKIP_TESTING + testIdentifier);
+        }
+    }
+
+    /**
+     * @return the tests passed by earlier attempts which were not run again by this one, as written so far
+     */
+    @NotNull
+    public synchronized List<TestResults> getResumedTestResults()
+    {
+        final List<TestResults> resumedTestResults = Lists.newArrayList();
+        for (Map.Entry<String, TestResults> passed : passedTestResults.entrySet())
+        {
+            if (!testedKeys.contains(passed.getKey()))
+            {
+                resumedTestResults.add(passed.getValue());
+            }
+        }
+        return resumedTestResults;
+    }
+
+    /**
+     * Deletes the checkpoint, once the build no longer needs to be resumed
+     */
+    public synchronized void delete()
+    {
+        FileUtils.deleteQuietly(directory.getParentFile());
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    @NotNull
+    private List<TestResults> getUnwritten(@NotNull Collection<TestResults> testResults)
+    {
+        final List<TestResults> unwritten = Lists.newArrayList();
+        for (TestResults testResult : testResults)
+        {
+            if (!writtenTestResults.contains(testResult))
+            {
+                unwritten.add(testResult);
+            }
+        }
+        return unwritten;
+    }
+
+    @NotNull
+    private static String testKey(@NotNull TestResults testResults)
+    {
+        return testResults.getClassName() + "#" + testResults.getActualMethodName();
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    /**
+     * @return the number of tests passed by earlier attempts at the build
+     */
+    public int getPassedTestCount()
+    {
+        return passedTestResults.size();
+    }
+}
@@ -0,0 +1,98 @@
+package com.atlassian.bamboo.plugins.xcode.tests.checkpoint;
+
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestResultStore;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.collect.Maps;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands the results of a running test process on to the {@link TestCheckpoint} in pages as suites finish, so that they
+ * are on disk while later tests still run. A page is handed on when a suite finishes with at least a page of results
+ * added since the last one. The parsers keep every result, they are collated once the process has exited.
+ * <p>
+ * A pager may be shared by the parsers of one run, pages are handed on one at a time.
+ */
+public final class TestCheckpointPager
+{
+    private static final Logger log = Logger.getLogger(TestCheckpointPager.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    public interface PageHandler
+    {
+        void handlePage(@NotNull List<TestResults> successfulTestResults, @NotNull List<TestResults> failingTestResults);
+    }
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final PageHandler pageHandler;
+    private final int pageSize;
+
+    /**
+     * The number of results of each store handed on so far
+     */
+    private final Map<TestResultStore, Integer> pagedCounts = Maps.newIdentityHashMap();
+    private int pageCount;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    /**
+     * @param pageSize the number of new results held back before a finished suite hands them on
+     */
+    public TestCheckpointPager(@NotNull PageHandler pageHandler, int pageSize)
+    {
+        this.pageHandler = pageHandler;
+        this.pageSize = pageSize;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Action Methods
+
+    /**
+     * Called by a parser when a suite has finished
+     */
+    public synchronized void suiteFinished(@NotNull TestResultStore successfulTestResults, @NotNull TestResultStore failingTestResults)
+    {
+        final int pagedSuccessful = getPagedCount(successfulTestResults);
+        final int pagedFailing = getPagedCount(failingTestResults);
+        if (successfulTestResults.size() - pagedSuccessful + failingTestResults.size() - pagedFailing < pageSize)
+        {
+            return;
+        }
+
+        final List<TestResults> successfulPage = successfulTestResults.getResultsFrom(pagedSuccessful);
+        final List<TestResults> failingPage = failingTestResults.getResultsFrom(pagedFailing);
+        pagedCounts.put(successfulTestResults, pagedSuccessful + successfulPage.size());
+        pagedCounts.put(failingTestResults, pagedFailing + failingPage.size());
+        pageCount++;
+        try
+        {
+            pageHandler.handlePage(successfulPage, failingPage);
+        }
+        catch (RuntimeException e)
+        {
+            log.error("Could not hand on a page of " + (successfulPage.size() + failingPage.size()) + " test results", e);
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * @return the number of pages handed on so far
+     */
+    public synchronized int getPageCount()
+    {
+        return pageCount;
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    private int getPagedCount(@NotNull TestResultStore testResults)
+    {
+        final Integer pagedCount = pagedCounts.get(testResults);
+        return pagedCount != null ? pagedCount : 0;
+    }
+}
@@ -0,0 +1,83 @@
+package com.atlassian.bamboo.plugins.xcode.tests.history;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks the suites to test first so that a broken build fails early, from the test history of the plan: suites with
+ * a test which failed in its last run, then the ones whose tests failed most often in their recent runs or flipped
+ * between passing and failing most often.
+ */
+public final class FailFastOrder
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    /**
+     * Tests which have not failed in this many of their most recent runs are not worth running first
+     */
+    @VisibleForTesting
+    static final int RECENT_RUNS = 10;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private FailFastOrder()
+    {
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * @return the suites with a test which failed recently, the ones most likely to fail first
+     */
+    @NotNull
+    public static List<String> riskiestSuites(@NotNull Iterable<TestHistory> testHistories)
+    {
+        final Map<String, Double> suiteRisks = Maps.newHashMap();
+        for (TestHistory testHistory : testHistories)
+        {
+            final double risk = risk(testHistory);
+            final Double suiteRisk = suiteRisks.get(testHistory.getSuiteName());
+            if (risk > 0 && (suiteRisk == null || risk > suiteRisk))
+            {
+                suiteRisks.put(testHistory.getSuiteName(), risk);
+            }
+        }
+
+        final List<String> suites = Lists.newArrayList(suiteRisks.keySet());
+        Collections.sort(suites, new Comparator<String>()
+        {
+            @Override
+            public int compare(String suite, String otherSuite)
+            {
+                final int byRisk = Double.compare(suiteRisks.get(otherSuite), suiteRisks.get(suite));
+                return byRisk != 0 ? byRisk : suite.compareTo(otherSuite);
+            }
+        });
+        return suites;
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    /**
+     * A test which failed in its last run outranks any which did not, which rank by their share of recent failures and
+     * of flips
+     */
+    @VisibleForTesting
+    static double risk(@NotNull TestHistory testHistory)
+    {
+        final int recentFailures = testHistory.getRecentFailureCount(RECENT_RUNS);
+        if (recentFailures == 0)
+        {
+            return 0;
+        }
+        final double flipRate = (double) testHistory.getFlipCount() / testHistory.getRunCount();
+        return (testHistory.isLastRunFailed() ? 2 : 0) + (double) recentFailures / RECENT_RUNS + Math.min(flipRate, 1);
+    }
+}
@@ -0,0 +1,216 @@
+package com.atlassian.bamboo.plugins.xcode.tests.history;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Picks the number of test runner clones for xcodebuild's parallel testing, from the cores and physical memory of the
+ * agent and the throughput of earlier runs of the plan with each number of workers. macOS keeps little memory free, as
+ * it uses what is not taken for caches it gives back on demand, so the limit is from the total memory instead.
+ * <p>
+ * Without measurements it starts halfway to the most workers the agent can take. After that it climbs: the worker
+ * counts next to the one with the best throughput so far are each tried once, and the best one is kept once both are
+ * known. Throughput is a moving average per worker count, so that the choice follows the plan as its tests change.
+ * <pre>
+ * parallel-workers  worker count, tests per second, run count; one line per worker count tried
+ * </pre>
+ */
+public final class ParallelWorkerTuner
+{
+    private static final Logger log = Logger.getLogger(ParallelWorkerTuner.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    private static final String FILE = "parallel-workers";
+
+    /**
+     * The memory a simulator clone and the tests running in it take
+     */
+    @VisibleForTesting
+    static final long MEMORY_PER_WORKER = 1024L * 1024 * 1024;
+
+    /**
+     * The memory left to macOS, Xcode and the simulator service before any workers
+     */
+    @VisibleForTesting
+    static final long RESERVED_MEMORY = 2 * MEMORY_PER_WORKER;
+
+    /**
+     * The weight of the latest run in the moving average of the throughput
+     */
+    private static final double LATEST_RUN_WEIGHT = 0.3;
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final File file;
+    private final SortedMap<Integer, Throughput> throughputs;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private ParallelWorkerTuner(@NotNull File file, @NotNull SortedMap<Integer, Throughput> throughputs)
+    {
+        this.file = file;
+        this.throughputs = throughputs;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Opens the throughputs kept in the directory, a history directory of the plan
+     */
+    @NotNull
+    public static ParallelWorkerTuner open(@NotNull File directory) throws IOException
+    {
+        FileUtils.forceMkdir(directory);
+        final File file = new File(directory, FILE);
+        final SortedMap<Integer, Throughput> throughputs = Maps.newTreeMap();
+        if (file.isFile())
+        {
+            final List<String> lines = FileUtils.readLines(file, StandardCharsets.UTF_8.name());
+            for (String line : lines)
+            {
+                final String[] fields = StringUtils.split(line);
+                try
+                {
+                    throughputs.put(Integer.valueOf(fields[0]), new Throughput(Double.parseDouble(fields[1]), Integer.parseInt(fields[2])));
+                }
+                catch (RuntimeException e)
+                {
+                    log.warn("Ignoring the parallel testing throughput '" + line + "' in '" + file.getAbsolutePath() + "'");
+                }
+            }
+        }
+        return new ParallelWorkerTuner(file, throughputs);
+    }
+
+    /**
+     * @return the most workers the agent can run at the same time, one per core as long as there is memory for them
+     */
+    public static int getAgentMaxWorkers()
+    {
+        return maxWorkers(Runtime.getRuntime().availableProcessors(), ManagementFactory.getOperatingSystemMXBean());
+    }
+
+    /**
+     * @return the number of workers to test with next, at least 1 and at most {@code maxWorkers}
+     */
+    public synchronized int chooseWorkerCount(int maxWorkers)
+    {
+        Integer best = null;
+        for (Map.Entry<Integer, Throughput> throughput : throughputs.entrySet())
+        {
+            if (throughput.getKey() <= maxWorkers && (best == null || throughput.getValue().testsPerSecond > throughputs.get(best).testsPerSecond))
+            {
+                best = throughput.getKey();
+            }
+        }
+        if (best == null)
+        {
+            return Math.max(1, (maxWorkers + 1) / 2);
+        }
+
+        if (best < maxWorkers && !throughputs.containsKey(best + 1))
+        {
+            return best + 1;
+        }
+        if (best > 1 && !throughputs.containsKey(best - 1))
+        {
+            return best - 1;
+        }
+        return best;
+    }
+
+    /**
+     * Adds a run with the number of workers to its moving average, and writes the throughputs
+     *
+     * @return the tests per second of the run
+     */
+    public synchronized double record(int workers, int testCount, long millis) throws IOException
+    {
+        final double testsPerSecond = millis > 0 ? testCount * 1000.0 / millis : 0;
+        final Throughput throughput = throughputs.get(workers);
+        if (throughput == null)
+        {
+            throughputs.put(workers, new Throughput(testsPerSecond, 1));
+        }
+        else
+        {
+            throughput.testsPerSecond += LATEST_RUN_WEIGHT * (testsPerSecond - throughput.testsPerSecond);
+            throughput.runCount++;
+        }
+        write();
+        return testsPerSecond;
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    @VisibleForTesting
+    static int maxWorkers(int cores, @NotNull OperatingSystemMXBean operatingSystem)
+    {
+        if (operatingSystem instanceof com.sun.management.OperatingSystemMXBean)
+        {
+            return maxWorkers(cores, ((com.sun.management.OperatingSystemMXBean) operatingSystem).getTotalPhysicalMemorySize());
+        }
+        return cores;
+    }
+
+    @VisibleForTesting
+    static int maxWorkers(int cores, long totalMemory)
+    {
+        return (int) Math.max(1, Math.min(cores, (totalMemory - RESERVED_MEMORY) / MEMORY_PER_WORKER));
+    }
+
+    private void write() throws IOException
+    {
+        final StringBuilder lines = new StringBuilder();
+        for (Map.Entry<Integer, Throughput> throughput : throughputs.entrySet())
+        {
+            lines.append(String.format(Locale.ROOT, "%d %.3f %d%n", throughput.getKey(), throughput.getValue().testsPerSecond, throughput.getValue().runCount));
+        }
+
+        final File partFile = new File(file.getParentFile(), FILE + ".part");
+        FileUtils.writeStringToFile(partFile, lines.toString(), StandardCharsets.UTF_8.name());
+        Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    /**
+     * @return the average tests per second of the runs with the number of workers, or null if there were none
+     */
+    @Nullable
+    public synchronized Double getTestsPerSecond(int workers)
+    {
+        final Throughput throughput = throughputs.get(workers);
+        return throughput != null ? throughput.testsPerSecond : null;
+    }
+
+    private static final class Throughput
+    {
+        private double testsPerSecond;
+        private int runCount;
+
+        private Throughput(double testsPerSecond, int runCount)
+        {
+            this.testsPerSecond = testsPerSecond;
+            this.runCount = runCount;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.atlassian.bamboo.plugins.xcode.tests.history;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The recorded runs of one test of a plan, as summarised by {@link TestHistoryStore}. Runs are counted since the
+ * store was last compacted, which keeps the most recent runs of each test.
+ */
+public final class TestHistory
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    /**
+     * The number of most recent runs whose outcome is kept
+     */
+    public static final int RECENT_RUNS = 64;
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final String suiteName;
+    private final String testName;
+    private final int runCount;
+    private final int failureCount;
+    private final long totalMillis;
+    private final int lastMillis;
+    private final int lastBuildNumber;
+    private final int lastFailedBuildNumber;
+    private final int flipCount;
+    private final long recentFailures;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    TestHistory(@NotNull String suiteName, @NotNull String testName, int runCount, int failureCount, long totalMillis,
+                int lastMillis, int lastBuildNumber, int lastFailedBuildNumber, int flipCount, long recentFailures)
+    {
+        this.suiteName = suiteName;
+        this.testName = testName;
+        this.runCount = runCount;
+        this.failureCount = failureCount;
+        this.totalMillis = totalMillis;
+        this.lastMillis = lastMillis;
+        this.lastBuildNumber = lastBuildNumber;
+        this.lastFailedBuildNumber = lastFailedBuildNumber;
+        this.flipCount = flipCount;
+        this.recentFailures = recentFailures;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    public long getAverageMillis()
+    {
+        return runCount > 0 ? totalMillis / runCount : 0;
+    }
+
+    public double getFailureRate()
+    {
+        return runCount > 0 ? (double) failureCount / runCount : 0;
+    }
+
+    public boolean isLastRunFailed()
+    {
+        return runCount > 0 && (recentFailures & 1) != 0;
+    }
+
+    /**
+     * @return how many of the given number of most recent runs failed, counting at most {@link #RECENT_RUNS} runs
+     */
+    public int getRecentFailureCount(int runs)
+    {
+        final int counted = Math.min(Math.min(runs, runCount), RECENT_RUNS);
+        if (counted <= 0)
+        {
+            return 0;
+        }
+        final long mask = counted == RECENT_RUNS ? -1L : (1L << counted) - 1;
+        return Long.bitCount(recentFailures & mask);
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    @NotNull
+    public String getSuiteName()
+    {
+        return suiteName;
+    }
+
+    @NotNull
+    public String getTestName()
+    {
+        return testName;
+    }
+
+    public int getRunCount()
+    {
+        return runCount;
+    }
+
+    public int getFailureCount()
+    {
+        return failureCount;
+    }
+
+    public long getTotalMillis()
+    {
+        return totalMillis;
+    }
+
+    public int getLastMillis()
+    {
+        return lastMillis;
+    }
+
+    public int getLastBuildNumber()
+    {
+        return lastBuildNumber;
+    }
+
+    /**
+     * @return the number of the last build the test failed in, or 0 if it has not failed
+     */
+    public int getLastFailedBuildNumber()
+    {
+        return lastFailedBuildNumber;
+    }
+
+    /**
+     * @return how often the test passed after failing or failed after passing, a measure of how fragile it is
+     */
+    public int getFlipCount()
+    {
+        return flipCount;
+    }
+}
@@ -0,0 +1,813 @@
+package com.atlassian.bamboo.plugins.xcode.tests.history;
+
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.atlassian.bamboo.resultsummary.tests.TestState;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An agent local history of the test runs of one plan, so that tasks can make timing aware decisions about the tests
+ * they run. Every run of a test is appended as a fixed width record; a memory mapped index holds a summary per test,
+ * so that opening the store only reads the test names, whatever the number of runs.
+ * <p>
+ * Once there are twice as many runs as are kept per test, the store is compacted: the most recent runs of each test
+ * are kept, fewer if they would not fit the disk budget, and tests which have not run for a while are forgotten.
+ * Compacted files are written as a new generation, which the {@code CURRENT} file is switched to once complete.
+ * <pre>
+ * CURRENT  the generation of the files below
+ * names.n  (byte length, UTF-8 bytes) of the suite name and test name per test, in the order they were first seen
+ * runs.n   test index, build number, duration in milliseconds shifted left by one with the failed bit, per run
+ * index.n  magic, version, length of the runs covered, then a summary per test: run count, failure count, total
+ *          milliseconds, last milliseconds, last build, last failed build, flip count, recent failure bits
+ * </pre>
+ * The index covers a length of the runs, which is marked dirty while it is updated; an index which does not cover
+ * the runs is rebuilt from them. A store is locked while it is open, and is safe to use from several threads.
+ */
+public final class TestHistoryStore implements Closeable
+{
+    private static final Logger log = Logger.getLogger(TestHistoryStore.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    public static final String TEST_HISTORY = "testHistory";
+
+    private static final String DIRECTORY = "xcode-test-history";
+    private static final String BAMBOO_HOME = "bamboo.home";
+    private static final String CURRENT = "CURRENT";
+    private static final String LOCK = "lock";
+    private static final String NAMES = "names.";
+    private static final String RUNS = "runs.";
+    private static final String INDEX = "index.";
+
+    private static final int MAGIC = 0x58544849; // XTHI
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int HEADER_INDEXED_LENGTH = 8;
+    private static final long DIRTY = -1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int RECORD_SIZE = 12;
+    private static final int MAX_DURATION_MILLIS = Integer.MAX_VALUE >> 1;
+
+    private static final int ENTRY_RUNS = 0;
+    private static final int ENTRY_FAILURES = 4;
+    private static final int ENTRY_TOTAL_MILLIS = 8;
+    private static final int ENTRY_LAST_MILLIS = 16;
+    private static final int ENTRY_LAST_BUILD = 20;
+    private static final int ENTRY_LAST_FAILED_BUILD = 24;
+    private static final int ENTRY_FLIPS = 28;
+    private static final int ENTRY_RECENT_FAILURES = 32;
+    private static final int ENTRY_SIZE = 40;
+
+    private static final int MAX_RUNS_PER_TEST = TestHistory.RECENT_RUNS;
+    private static final int MAX_IDLE_BUILDS = 500;
+    private static final long MAX_RUNS_BYTES = 48L * 1024 * 1024;
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final File directory;
+    private final int maxRunsPerTest;
+    private final int maxIdleBuilds;
+    private final long maxRunsBytes;
+    private final FileChannel lockChannel;
+
+    private int generation;
+    private FileChannel namesChannel;
+    private FileChannel runsChannel;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int indexCapacity;
+    private long runCount;
+
+    private final List<String> suiteNames = Lists.newArrayList();
+    private final List<String> testNames = Lists.newArrayList();
+    private final Map<String, Map<String, Integer>> testIndexes = Maps.newLinkedHashMap();
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private TestHistoryStore(File directory, int maxRunsPerTest, int maxIdleBuilds, long maxRunsBytes, FileChannel lockChannel)
+    {
+        this.directory = directory;
+        this.maxRunsPerTest = maxRunsPerTest;
+        this.maxIdleBuilds = maxIdleBuilds;
+        this.maxRunsBytes = maxRunsBytes;
+        this.lockChannel = lockChannel;
+    }
+
+    /**
+     * Opens the history kept in the directory, creating it if there is none
+     *
+     * @throws IOException if the history is in use by another build, or cannot be read
+     */
+    @NotNull
+    public static TestHistoryStore open(@NotNull File directory) throws IOException
+    {
+        return open(directory, MAX_RUNS_PER_TEST, MAX_IDLE_BUILDS, MAX_RUNS_BYTES);
+    }
+
+    @VisibleForTesting
+    @NotNull
+    static TestHistoryStore open(@NotNull File directory, int maxRunsPerTest, int maxIdleBuilds, long maxRunsBytes) throws IOException
+    {
+        FileUtils.forceMkdir(directory);
+        final FileChannel lockChannel = new RandomAccessFile(new File(directory, LOCK), "rw").getChannel();
+        TestHistoryStore store = null;
+        try
+        {
+            if (tryLock(lockChannel) == null)
+            {
+                throw new IOException("The test history in '" + directory.getAbsolutePath() + "' is in use by another build");
+            }
+            store = new TestHistoryStore(directory, maxRunsPerTest, maxIdleBuilds, maxRunsBytes, lockChannel);
+            store.openGeneration(store.readGeneration());
+            store.deleteOtherGenerations();
+            return store;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            if (store != null)
+            {
+                IOUtils.closeQuietly(store);
+            }
+            else
+            {
+                IOUtils.closeQuietly(lockChannel);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return where the history of the plan is kept on this agent, under the Bamboo home directory
+     */
+    @NotNull
+    public static File getAgentDirectory(@NotNull String planKey)
+    {
+        final String home = System.getProperty(BAMBOO_HOME, System.getProperty("user.home"));
+        return new File(new File(home, DIRECTORY), planKey);
+    }
+
+    // -------------------------------------------------------------------------------------------------- Action Methods
+
+    /**
+     * Appends a run of each of the tests of a build, skipped tests are not recorded
+     */
+    public synchronized void record(int buildNumber,
+                                    @NotNull Iterable<TestResults> successfulTestResults,
+                                    @NotNull Iterable<TestResults> failingTestResults) throws IOException
+    {
+        final ByteArrayOutputStream newNames = new ByteArrayOutputStream();
+        final List<String[]> pendingNames = Lists.newArrayList();
+        final Map<String, Integer> pendingIndexes = Maps.newHashMap();
+        ByteBuffer records = ByteBuffer.allocate(RECORD_SIZE * 256);
+
+        for (int failed = 0; failed <= 1; failed++)
+        {
+            for (TestResults testResults : failed == 0 ? successfulTestResults : failingTestResults)
+            {
+                final String suiteName = testResults.getClassName();
+                final String testName = testResults.getMethodName();
+                if (suiteName == null || testName == null || testResults.getState() == TestState.SKIPPED)
+                {
+                    continue;
+                }
+
+                Integer test = indexOf(suiteName, testName);
+                if (test == null)
+                {
+                    final String pendingKey = suiteName + '\n' + testName;
+                    test = pendingIndexes.get(pendingKey);
+                    if (test == null)
+                    {
+                        test = testNames.size() + pendingNames.size();
+                        pendingIndexes.put(pendingKey, test);
+                        pendingNames.add(new String[] {suiteName, testName});
+                        writeString(newNames, suiteName);
+                        writeString(newNames, testName);
+                    }
+                }
+
+                if (!records.hasRemaining())
+                {
+                    final ByteBuffer grown = ByteBuffer.allocate(records.capacity() * 2);
+                    records.flip();
+                    records = grown.put(records);
+                }
+                final long duration = Math.max(0, Math.min(testResults.getDuration(), MAX_DURATION_MILLIS));
+                records.putInt(test).putInt(buildNumber).putInt((int) duration << 1 | failed);
+            }
+        }
+        records.flip();
+        if (!records.hasRemaining())
+        {
+            return;
+        }
+
+        // Names go first, so that every run refers to a test that is known
+        writeFully(namesChannel, ByteBuffer.wrap(newNames.toByteArray()), namesChannel.size());
+        for (String[] names : pendingNames)
+        {
+            addName(names[0], names[1]);
+        }
+        ensureCapacity(testNames.size() - 1);
+
+        final long runsLength = runCount * RECORD_SIZE;
+        if (runsChannel.size() != runsLength)
+        {
+            runsChannel.truncate(runsLength);
+        }
+        writeFully(runsChannel, records.duplicate(), runsLength);
+
+        markIndexDirty();
+        while (records.hasRemaining())
+        {
+            applyRun(records.getInt(), records.getInt(), records.getInt());
+            runCount++;
+        }
+        markIndexed();
+
+        if (runCount * RECORD_SIZE > maxRunsBytes || runCount > 2L * maxRunsPerTest * testNames.size())
+        {
+            compact();
+        }
+    }
+
+    /**
+     * Keeps the most recent runs of each test that has run recently, as few as fit in half the disk budget
+     */
+    public synchronized void compact() throws IOException
+    {
+        final int testCount = testNames.size();
+        int latestBuild = 0;
+        for (int test = 0; test < testCount; test++)
+        {
+            latestBuild = Math.max(latestBuild, entryInt(test, ENTRY_LAST_BUILD));
+        }
+
+        // Tests which have not run for a while are forgotten
+        final int[] newIndexes = new int[testCount];
+        int liveCount = 0;
+        for (int test = 0; test < testCount; test++)
+        {
+            final boolean live = entryInt(test, ENTRY_RUNS) > 0 && entryInt(test, ENTRY_LAST_BUILD) >= latestBuild - maxIdleBuilds;
+            newIndexes[test] = live ? liveCount++ : -1;
+        }
+
+        int keepPerTest = maxRunsPerTest;
+        while (keepPerTest > 1 && keptRuns(newIndexes, keepPerTest) * RECORD_SIZE > maxRunsBytes / 2)
+        {
+            keepPerTest /= 2;
+        }
+
+        final int nextGeneration = generation + 1;
+        final File namesFile = new File(directory, NAMES + nextGeneration);
+        final FileOutputStream namesOut = new FileOutputStream(namesFile);
+        try
+        {
+            final ByteArrayOutputStream names = new ByteArrayOutputStream();
+            for (int test = 0; test < testCount; test++)
+            {
+                if (newIndexes[test] >= 0)
+                {
+                    writeString(names, suiteNames.get(test));
+                    writeString(names, testNames.get(test));
+                }
+            }
+            names.writeTo(namesOut);
+            namesOut.getFD().sync();
+        }
+        finally
+        {
+            IOUtils.closeQuietly(namesOut);
+        }
+
+        // The most recent runs of each test are found from the end, and written in their original order
+        final int records = (int) runCount;
+        final ByteBuffer runs = runsChannel.map(FileChannel.MapMode.READ_ONLY, 0, (long) records * RECORD_SIZE);
+        final BitSet kept = new BitSet(records);
+        final int[] keptCounts = new int[testCount];
+        for (int record = records - 1; record >= 0; record--)
+        {
+            final int test = runs.getInt(record * RECORD_SIZE);
+            if (newIndexes[test] >= 0 && keptCounts[test] < keepPerTest)
+            {
+                keptCounts[test]++;
+                kept.set(record);
+            }
+        }
+
+        final File runsFile = new File(directory, RUNS + nextGeneration);
+        final FileOutputStream runsOut = new FileOutputStream(runsFile);
+        try
+        {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(runsOut));
+            for (int record = kept.nextSetBit(0); record >= 0; record = kept.nextSetBit(record + 1))
+            {
+                final int offset = record * RECORD_SIZE;
+                out.writeInt(newIndexes[runs.getInt(offset)]);
+                out.writeInt(runs.getInt(offset + 4));
+                out.writeInt(runs.getInt(offset + 8));
+            }
+            out.flush();
+            runsOut.getFD().sync();
+        }
+        finally
+        {
+            IOUtils.closeQuietly(runsOut);
+        }
+
+        log.info("Compacting the test history in '" + directory.getAbsolutePath() + "' from " + runCount + " runs of "
+                 + testCount + " tests to " + kept.cardinality() + " runs of " + liveCount + " tests");
+
+        writeGeneration(nextGeneration);
+        closeGeneration();
+        openGeneration(nextGeneration);
+        deleteOtherGenerations();
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        try
+        {
+            closeGeneration();
+        }
+        finally
+        {
+            // Closing the channel releases the lock
+            lockChannel.close();
+        }
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * @return the history of the test, or null if it has not been recorded
+     */
+    @Nullable
+    public synchronized TestHistory getTestHistory(@NotNull String suiteName, @NotNull String testName)
+    {
+        final Integer test = indexOf(suiteName, testName);
+        return test != null && entryInt(test, ENTRY_RUNS) > 0 ? history(test) : null;
+    }
+
+    /**
+     * @return the history of every recorded test, in the order they were first recorded
+     */
+    @NotNull
+    public synchronized List<TestHistory> getTestHistories()
+    {
+        final List<TestHistory> histories = Lists.newArrayListWithCapacity(testNames.size());
+        for (int test = 0; test < testNames.size(); test++)
+        {
+            if (entryInt(test, ENTRY_RUNS) > 0)
+            {
+                histories.add(history(test));
+            }
+        }
+        return histories;
+    }
+
+    /**
+     * @return the history of every recorded test of the suite
+     */
+    @NotNull
+    public synchronized List<TestHistory> getTestHistories(@NotNull String suiteName)
+    {
+        final Map<String, Integer> tests = testIndexes.get(suiteName);
+        if (tests == null)
+        {
+            return Collections.emptyList();
+        }
+        final List<TestHistory> histories = Lists.newArrayListWithCapacity(tests.size());
+        for (int test : tests.values())
+        {
+            if (entryInt(test, ENTRY_RUNS) > 0)
+            {
+                histories.add(history(test));
+            }
+        }
+        return histories;
+    }
+
+    /**
+     * @return the expected duration of each suite with recorded tests, the sum of its tests' average durations
+     */
+    @NotNull
+    public synchronized Map<String, Long> getSuiteMillis()
+    {
+        final Map<String, Long> suiteMillis = Maps.newLinkedHashMap();
+        for (Map.Entry<String, Map<String, Integer>> suite : testIndexes.entrySet())
+        {
+            long millis = 0;
+            boolean recorded = false;
+            for (int test : suite.getValue().values())
+            {
+                final int runs = entryInt(test, ENTRY_RUNS);
+                if (runs > 0)
+                {
+                    millis += entryLong(test, ENTRY_TOTAL_MILLIS) / runs;
+                    recorded = true;
+                }
+            }
+            if (recorded)
+            {
+                suiteMillis.put(suite.getKey(), millis);
+            }
+        }
+        return suiteMillis;
+    }
+
+    public synchronized int getTestCount()
+    {
+        return testNames.size();
+    }
+
+    public synchronized long getRunCount()
+    {
+        return runCount;
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    @Nullable
+    private static FileLock tryLock(@NotNull FileChannel lockChannel) throws IOException
+    {
+        try
+        {
+            return lockChannel.tryLock();
+        }
+        catch (OverlappingFileLockException e)
+        {
+            return null;
+        }
+    }
+
+    private int readGeneration() throws IOException
+    {
+        final File currentFile = new File(directory, CURRENT);
+        if (!currentFile.isFile())
+        {
+            return 0;
+        }
+        final String current = FileUtils.readFileToString(currentFile, StandardCharsets.UTF_8.name()).trim();
+        try
+        {
+            return Integer.parseInt(current);
+        }
+        catch (NumberFormatException e)
+        {
+            log.warn("Starting a new test history, '" + currentFile.getAbsolutePath() + "' does not name a generation: " + current);
+            return 0;
+        }
+    }
+
+    private void writeGeneration(int nextGeneration) throws IOException
+    {
+        final File partFile = new File(directory, CURRENT + ".part");
+        FileUtils.writeStringToFile(partFile, String.valueOf(nextGeneration), StandardCharsets.UTF_8.name());
+        Files.move(partFile.toPath(), new File(directory, CURRENT).toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes what is left of earlier generations, and of compactions that did not complete
+     */
+    private void deleteOtherGenerations()
+    {
+        final File[] files = directory.listFiles();
+        if (files == null)
+        {
+            return;
+        }
+        for (File file : files)
+        {
+            final String name = file.getName();
+            final boolean generationFile = name.startsWith(NAMES) || name.startsWith(RUNS) || name.startsWith(INDEX);
+            if ((generationFile && !name.endsWith("." + generation)) || name.equals(CURRENT + ".part"))
+            {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+    }
+
+    private void openGeneration(int generation) throws IOException
+    {
+        this.generation = generation;
+        suiteNames.clear();
+        testNames.clear();
+        testIndexes.clear();
+
+        namesChannel = new RandomAccessFile(new File(directory, NAMES + generation), "rw").getChannel();
+        runsChannel = new RandomAccessFile(new File(directory, RUNS + generation), "rw").getChannel();
+        indexChannel = new RandomAccessFile(new File(directory, INDEX + generation), "rw").getChannel();
+
+        readNames();
+
+        // A run that was only partly written is dropped
+        final long runsLength = runsChannel.size() - runsChannel.size() % RECORD_SIZE;
+        if (runsLength != runsChannel.size())
+        {
+            runsChannel.truncate(runsLength);
+        }
+        runCount = runsLength / RECORD_SIZE;
+
+        mapIndex(Math.max(INITIAL_CAPACITY, Math.max(testNames.size(), (int) ((indexChannel.size() - HEADER_SIZE) / ENTRY_SIZE))));
+        long indexedLength = index.getInt(0) == MAGIC && index.getInt(4) == VERSION ? index.getLong(HEADER_INDEXED_LENGTH) : DIRTY;
+        if (indexedLength < 0 || indexedLength > runsLength || indexedLength % RECORD_SIZE != 0)
+        {
+            if (runsLength > 0)
+            {
+                log.info("Rebuilding the test history index in '" + directory.getAbsolutePath() + "'");
+            }
+            index = null;
+            indexChannel.truncate(0);
+            mapIndex(Math.max(INITIAL_CAPACITY, testNames.size()));
+            index.putInt(0, MAGIC);
+            index.putInt(4, VERSION);
+            indexedLength = 0;
+        }
+
+        if (indexedLength < runsLength)
+        {
+            markIndexDirty();
+            replayRuns(indexedLength / RECORD_SIZE);
+            markIndexed();
+        }
+    }
+
+    private void closeGeneration() throws IOException
+    {
+        index = null;
+        try
+        {
+            closeChannel(namesChannel);
+            closeChannel(runsChannel);
+        }
+        finally
+        {
+            closeChannel(indexChannel);
+        }
+    }
+
+    private static void closeChannel(@Nullable FileChannel channel) throws IOException
+    {
+        if (channel != null)
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads the names of every test, dropping a name that was only partly written
+     */
+    private void readNames() throws IOException
+    {
+        final long size = namesChannel.size();
+        if (size > Integer.MAX_VALUE)
+        {
+            throw new IOException("The test names in '" + directory.getAbsolutePath() + "' are too large to read");
+        }
+        final ByteBuffer names = ByteBuffer.allocate((int) size);
+        while (names.hasRemaining() && namesChannel.read(names, names.position()) >= 0)
+        {
+            // Read until the buffer is full
+        }
+        names.flip();
+
+        int complete = 0;
+        while (true)
+        {
+            final String suiteName = readString(names);
+            final String testName = suiteName != null ? readString(names) : null;
+            if (testName == null)
+            {
+                break;
+            }
+            addName(suiteName, testName);
+            complete = names.position();
+        }
+        if (complete != size)
+        {
+            namesChannel.truncate(complete);
+        }
+    }
+
+    /**
+     * Brings the index up to date with the runs from the given record, dropping runs of tests that are not known
+     */
+    private void replayRuns(long fromRecord) throws IOException
+    {
+        final ByteBuffer runs = ByteBuffer.allocate(RECORD_SIZE * 4096);
+        long record = fromRecord;
+        while (record < runCount)
+        {
+            runs.clear();
+            runs.limit((int) Math.min(runs.capacity(), (runCount - record) * RECORD_SIZE));
+            readRunsFully(runs, record * RECORD_SIZE);
+            runs.flip();
+            while (runs.hasRemaining())
+            {
+                final int test = runs.getInt();
+                final int buildNumber = runs.getInt();
+                final int durationAndFailed = runs.getInt();
+                if (test < 0 || test >= testNames.size())
+                {
+                    log.info("Dropping " + (runCount - record) + " test runs of unknown tests from '" + directory.getAbsolutePath() + "'");
+                    runCount = record;
+                    runsChannel.truncate(record * RECORD_SIZE);
+                    return;
+                }
+                applyRun(test, buildNumber, durationAndFailed);
+                record++;
+            }
+        }
+    }
+
+    private void readRunsFully(@NotNull ByteBuffer runs, long position) throws IOException
+    {
+        while (runs.hasRemaining())
+        {
+            if (runsChannel.read(runs, position + runs.position()) < 0)
+            {
+                throw new IOException("Unexpected end of the test runs in '" + directory.getAbsolutePath() + "'");
+            }
+        }
+    }
+
+    private void applyRun(int test, int buildNumber, int durationAndFailed)
+    {
+        final int entry = HEADER_SIZE + test * ENTRY_SIZE;
+        final int durationMillis = durationAndFailed >>> 1;
+        final boolean failed = (durationAndFailed & 1) != 0;
+
+        final int runs = index.getInt(entry + ENTRY_RUNS);
+        final long recentFailures = index.getLong(entry + ENTRY_RECENT_FAILURES);
+        if (runs > 0 && ((recentFailures & 1) != 0) != failed)
+        {
+            index.putInt(entry + ENTRY_FLIPS, index.getInt(entry + ENTRY_FLIPS) + 1);
+        }
+        if (failed)
+        {
+            index.putInt(entry + ENTRY_FAILURES, index.getInt(entry + ENTRY_FAILURES) + 1);
+            index.putInt(entry + ENTRY_LAST_FAILED_BUILD, buildNumber);
+        }
+        index.putInt(entry + ENTRY_RUNS, runs + 1);
+        index.putLong(entry + ENTRY_TOTAL_MILLIS, index.getLong(entry + ENTRY_TOTAL_MILLIS) + durationMillis);
+        index.putInt(entry + ENTRY_LAST_MILLIS, durationMillis);
+        index.putInt(entry + ENTRY_LAST_BUILD, buildNumber);
+        index.putLong(entry + ENTRY_RECENT_FAILURES, recentFailures << 1 | (failed ? 1 : 0));
+    }
+
+    /**
+     * Marks the index as not covering the runs until {@link #markIndexed()}, and makes sure that is on disk before
+     * any entry changes
+     */
+    private void markIndexDirty()
+    {
+        index.putLong(HEADER_INDEXED_LENGTH, DIRTY);
+        index.force();
+    }
+
+    private void markIndexed()
+    {
+        index.putLong(HEADER_INDEXED_LENGTH, runCount * RECORD_SIZE);
+    }
+
+    private void mapIndex(int capacity) throws IOException
+    {
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * ENTRY_SIZE);
+        indexCapacity = capacity;
+    }
+
+    private void ensureCapacity(int test) throws IOException
+    {
+        if (test >= indexCapacity)
+        {
+            mapIndex(Math.max(test + 1, indexCapacity * 2));
+        }
+    }
+
+    private int entryInt(int test, int field)
+    {
+        return test < indexCapacity ? index.getInt(HEADER_SIZE + test * ENTRY_SIZE + field) : 0;
+    }
+
+    private long entryLong(int test, int field)
+    {
+        return test < indexCapacity ? index.getLong(HEADER_SIZE + test * ENTRY_SIZE + field) : 0;
+    }
+
+    @NotNull
+    private TestHistory history(int test)
+    {
+        return new TestHistory(suiteNames.get(test),
+                               testNames.get(test),
+                               entryInt(test, ENTRY_RUNS),
+                               entryInt(test, ENTRY_FAILURES),
+                               entryLong(test, ENTRY_TOTAL_MILLIS),
+                               entryInt(test, ENTRY_LAST_MILLIS),
+                               entryInt(test, ENTRY_LAST_BUILD),
+                               entryInt(test, ENTRY_LAST_FAILED_BUILD),
+                               entryInt(test, ENTRY_FLIPS),
+                               entryLong(test, ENTRY_RECENT_FAILURES));
+    }
+
+    private long keptRuns(@NotNull int[] newIndexes, int keepPerTest)
+    {
+        long kept = 0;
+        for (int test = 0; test < newIndexes.length; test++)
+        {
+            if (newIndexes[test] >= 0)
+            {
+                kept += Math.min(entryInt(test, ENTRY_RUNS), keepPerTest);
+            }
+        }
+        return kept;
+    }
+
+    @Nullable
+    private Integer indexOf(@NotNull String suiteName, @NotNull String testName)
+    {
+        final Map<String, Integer> tests = testIndexes.get(suiteName);
+        return tests != null ? tests.get(testName) : null;
+    }
+
+    private void addName(@NotNull String suiteName, @NotNull String testName)
+    {
+        Map<String, Integer> tests = testIndexes.get(suiteName);
+        if (tests == null)
+        {
+            tests = Maps.newLinkedHashMap();
+            testIndexes.put(suiteName, tests);
+        }
+        tests.put(testName, testNames.size());
+        suiteNames.add(suiteName);
+        testNames.add(testName);
+    }
+
+    private static void writeString(@NotNull ByteArrayOutputStream out, @NotNull String string)
+    {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes.length >>> 24);
+        out.write(bytes.length >>> 16);
+        out.write(bytes.length >>> 8);
+        out.write(bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @return the next string, or null if the buffer does not hold a complete one
+     */
+    @Nullable
+    private static String readString(@NotNull ByteBuffer buffer)
+    {
+        if (buffer.remaining() < 4)
+        {
+            return null;
+        }
+        final int length = buffer.getInt(buffer.position());
+        if (length < 0 || length > buffer.remaining() - 4)
+        {
+            return null;
+        }
+        final String string = new String(buffer.array(), buffer.position() + 4, length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + 4 + length);
+        return string;
+    }
+
+    private static void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer bytes, long position) throws IOException
+    {
+        long written = position;
+        while (bytes.hasRemaining())
+        {
+            written += channel.write(bytes, written);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Line grammar derived from the regexes in https://github.com/jenkinsci/xcode-plugin/blob/master/src/main/java/au/com/rayh/XCodeBuildOutputParser.java
+ *
+ * The MIT License
+ *
+ * Copyright (c) 2011 Ray Yamamoto Hilton
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.atlassian.bamboo.plugins.xcode.tests.ocunit;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Classifies lines of OCUnit output in time linear to the line length.
+ * <p>
+ * A literal prefilter rejects every line that does not contain one of the OCUnit markers in a single scan, so
+ * compiler invocations and exported build settings are dismissed without further work. The remaining lines are
+ * matched by hand against the grammar below, which is the one the parser used to express as regular expressions:
+ * <pre>
+ * ARCHITECTURE    Run unit tests for architecture '(\S+)'.*
+ * SUITE_STARTED   ^.*Test Suite '(\S+)'.*started at\s+(.*)$
+ * SUITE_FINISHED  ^.*Test Suite '(\S+)'.*finished at\s+(.*).$
+ * TEST_STARTED    ^.*Test Case '-\[\S+\s+(\S+)\]' started.$
+ * TEST_PASSED     ^.*Test Case '-\[\S+\s+(\S+)\]' passed \((.*) seconds\).$
+ * TEST_FAILED     ^.*Test Case '-\[\S+ (\S+)\]' failed \((\S+) seconds\).$
+ * TEST_ERROR      ^.*(.*): error: -\[(\S+) (\S+)\] : (.*)$
+ * </pre>
+ * Each line gets exactly one kind; should a line satisfy several rules the first one listed wins.
+ * <p>
+ * Instances are reusable and not thread safe, the accessors describe the most recently classified line.
+ */
+final class OCUnitLineClassifier
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    enum Kind
+    {
+        OUTPUT,
+        ARCHITECTURE,
+        SUITE_STARTED,
+        SUITE_FINISHED,
+        TEST_STARTED,
+        TEST_PASSED,
+        TEST_FAILED,
+        TEST_ERROR
+    }
+
+    private static final String ARCHITECTURE_PREFIX = "Run unit tests for architecture '";
+    private static final String SUITE_MARKER = "Test Suite '";
+    private static final String CASE_MARKER = "Test Case '-[";
+    private static final String ERROR_MARKER = ": error: -[";
+
+    private static final String SUITE_STARTED = "started at";
+    private static final String SUITE_FINISHED = "finished at";
+    private static final String CASE_STARTED = "]' started";
+    private static final String CASE_PASSED = " passed (";
+    private static final String CASE_FAILED = " failed (";
+    private static final String CASE_SECONDS = " seconds)";
+    private static final String ERROR_SEPARATOR = " : ";
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private String architecture;
+    private String suiteName;
+    private String testName;
+    private String duration;
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    @NotNull
+    Kind classify(@NotNull final String line)
+    {
+        architecture = null;
+        suiteName = null;
+        testName = null;
+        duration = null;
+
+        if (line.startsWith(ARCHITECTURE_PREFIX))
+        {
+            if (matchArchitecture(line))
+            {
+                return Kind.ARCHITECTURE;
+            }
+        }
+
+        boolean hasSuite = false;
+        boolean hasCase = false;
+        boolean hasError = false;
+        final int length = line.length();
+        for (int i = 0; i < length; i++)
+        {
+            final char c = line.charAt(i);
+            if (c == 'T')
+            {
+                hasSuite |= line.startsWith(SUITE_MARKER, i);
+                hasCase |= line.startsWith(CASE_MARKER, i);
+            }
+            else if (c == ':')
+            {
+                hasError |= line.startsWith(ERROR_MARKER, i);
+            }
+        }
+
+        if (hasSuite)
+        {
+            if (matchSuite(line, SUITE_STARTED, 1))
+            {
+                return Kind.SUITE_STARTED;
+            }
+            if (matchSuite(line, SUITE_FINISHED, 2))
+            {
+                return Kind.SUITE_FINISHED;
+            }
+        }
+
+        if (hasCase)
+        {
+            final Kind kind = matchTestCase(line);
+            if (kind != Kind.OUTPUT)
+            {
+                return kind;
+            }
+        }
+
+        if (hasError && matchError(line))
+        {
+            return Kind.TEST_ERROR;
+        }
+
+        return Kind.OUTPUT;
+    }
+
+    String getArchitecture()
+    {
+        return architecture;
+    }
+
+    String getSuiteName()
+    {
+        return suiteName;
+    }
+
+    String getTestName()
+    {
+        return testName;
+    }
+
+    String getDuration()
+    {
+        return duration;
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    private boolean matchArchitecture(final String line)
+    {
+        final int start = ARCHITECTURE_PREFIX.length();
+        final int quote = lastQuoteInToken(line, start);
+        if (quote < 0)
+        {
+            return false;
+        }
+        architecture = line.substring(start, quote);
+        return true;
+    }
+
+    /**
+     * Matches a suite line ending in the keyword, followed by whitespace and at least trailing - 1 more characters.
+     * Like the greedy regex, the rightmost suite marker that can be satisfied provides the name.
+     */
+    private boolean matchSuite(final String line, final String keyword, final int trailing)
+    {
+        final int keywordIndex = lastKeyword(line, keyword, trailing);
+        if (keywordIndex < 0)
+        {
+            return false;
+        }
+
+        for (int i = line.lastIndexOf(SUITE_MARKER); i >= 0; i = line.lastIndexOf(SUITE_MARKER, i - 1))
+        {
+            final int start = i + SUITE_MARKER.length();
+            final int quote = lastQuoteInToken(line, start);
+            if (quote >= 0 && quote < keywordIndex)
+            {
+                suiteName = line.substring(start, quote);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int lastKeyword(final String line, final String keyword, final int trailing)
+    {
+        for (int i = line.lastIndexOf(keyword); i >= 0; i = line.lastIndexOf(keyword, i - 1))
+        {
+            final int end = i + keyword.length();
+            if (end + trailing <= line.length() && isSpace(line.charAt(end)))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Kind matchTestCase(final String line)
+    {
+        final int length = line.length();
+
+        // The outcome is fixed by the end of the line, only the case marker it belongs to needs searching
+        final Kind kind;
+        final int seconds = length - CASE_SECONDS.length() - 1;
+        if (length > CASE_STARTED.length() && line.startsWith(CASE_STARTED, length - CASE_STARTED.length() - 1))
+        {
+            kind = Kind.TEST_STARTED;
+        }
+        else if (seconds >= 0 && line.startsWith(CASE_SECONDS, seconds))
+        {
+            kind = Kind.TEST_PASSED;
+        }
+        else
+        {
+            return Kind.OUTPUT;
+        }
+
+        for (int i = line.lastIndexOf(CASE_MARKER); i >= 0; i = line.lastIndexOf(CASE_MARKER, i - 1))
+        {
+            final int classStart = i + CASE_MARKER.length();
+            final int classEnd = tokenEnd(line, classStart);
+            if (classEnd == classStart || classEnd == length)
+            {
+                continue;
+            }
+
+            final int methodStart = spaceEnd(line, classEnd);
+            final int methodEnd = tokenEnd(line, methodStart);
+            if (methodEnd - methodStart < 3 || line.charAt(methodEnd - 2) != ']' || line.charAt(methodEnd - 1) != '\'')
+            {
+                continue;
+            }
+
+            if (kind == Kind.TEST_STARTED)
+            {
+                if (methodEnd == length - CASE_STARTED.length() + 1)
+                {
+                    testName = line.substring(methodStart, methodEnd - 2);
+                    return Kind.TEST_STARTED;
+                }
+                continue;
+            }
+
+            final int durationStart = methodEnd + CASE_PASSED.length();
+            if (durationStart <= seconds && line.startsWith(CASE_PASSED, methodEnd))
+            {
+                testName = line.substring(methodStart, methodEnd - 2);
+                duration = line.substring(durationStart, seconds);
+                return Kind.TEST_PASSED;
+            }
+
+            if (durationStart < seconds
+                && methodStart == classEnd + 1 && line.charAt(classEnd) == ' '
+                && line.startsWith(CASE_FAILED, methodEnd)
+                && tokenEnd(line, durationStart) == seconds)
+            {
+                testName = line.substring(methodStart, methodEnd - 2);
+                duration = line.substring(durationStart, seconds);
+                return Kind.TEST_FAILED;
+            }
+        }
+        return Kind.OUTPUT;
+    }
+
+    private static boolean matchError(final String line)
+    {
+        final int length = line.length();
+        for (int i = line.indexOf(ERROR_MARKER); i >= 0; i = line.indexOf(ERROR_MARKER, i + 1))
+        {
+            final int classStart = i + ERROR_MARKER.length();
+            final int classEnd = tokenEnd(line, classStart);
+            if (classEnd == classStart || classEnd == length || line.charAt(classEnd) != ' ')
+            {
+                continue;
+            }
+
+            final int methodEnd = tokenEnd(line, classEnd + 1);
+            if (methodEnd - classEnd > 2 && line.charAt(methodEnd - 1) == ']' && line.startsWith(ERROR_SEPARATOR, methodEnd))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return index of the last quote in the token starting at start, provided the quote leaves a non-empty name
+     * before it, otherwise -1
+     */
+    private static int lastQuoteInToken(final String line, final int start)
+    {
+        final int end = tokenEnd(line, start);
+        for (int i = end - 1; i > start; i--)
+        {
+            if (line.charAt(i) == '\'')
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int tokenEnd(final String line, int index)
+    {
+        final int length = line.length();
+        while (index < length && !isSpace(line.charAt(index)))
+        {
+            index++;
+        }
+        return index;
+    }
+
+    private static int spaceEnd(final String line, int index)
+    {
+        final int length = line.length();
+        while (index < length && isSpace(line.charAt(index)))
+        {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Same character class as the regex {@code \s}
+     */
+    private static boolean isSpace(final char c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
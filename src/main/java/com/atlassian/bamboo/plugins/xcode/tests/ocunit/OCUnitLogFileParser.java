@@ -0,0 +1,399 @@
+package com.atlassian.bamboo.plugins.xcode.tests.ocunit;
+
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestNameTable;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputLimits;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputSpill;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestTimings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parses OCUnit log files. Logs larger than a threshold are split at the lines starting test suites and the pieces
+ * are parsed in parallel, each by its own {@link OCUnitTestParser}.
+ * <p>
+ * The only parser state which survives a suite start is the test architecture, so every piece is seeded with the
+ * architecture announced last before it. Suites enclosing a boundary get their wall time from the start time carried
+ * over from the piece they started in. Should a piece nevertheless end in the middle of a test, the log is parsed
+ * again sequentially: the results are always the ones a single parser reading every line would produce.
+ */
+class OCUnitLogFileParser
+{
+    private static final Logger log = Logger.getLogger(OCUnitLogFileParser.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    static final long DEFAULT_PARALLEL_THRESHOLD = 32 * 1024 * 1024;
+
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+    private static final byte[] ARCHITECTURE_PREFIX = "Run unit tests for architecture '".getBytes(Charset.forName("US-ASCII"));
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final TestOutputLimits outputLimits;
+    private final int parallelism;
+    private final long parallelThreshold;
+    private final Charset charset = Charset.defaultCharset();
+    private TestOutputSpill outputSpill;
+    private TestTimings timings;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    OCUnitLogFileParser(@NotNull TestOutputLimits outputLimits, int parallelism)
+    {
+        this(outputLimits, parallelism, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    OCUnitLogFileParser(@NotNull TestOutputLimits outputLimits, int parallelism, long parallelThreshold)
+    {
+        this.outputLimits = outputLimits;
+        this.parallelism = parallelism;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    @NotNull
+    OCUnitTestParser parse(@NotNull File logFile) throws IOException
+    {
+        final long length = logFile.length();
+        if (parallelism > 1 && length > parallelThreshold && isLineOriented(charset))
+        {
+            final List<Long> boundaries = findSuiteBoundaries(logFile, length);
+            if (boundaries.size() > 2)
+            {
+                final OCUnitTestParser parser = parseInParallel(logFile, boundaries);
+                if (parser != null)
+                {
+                    return parser;
+                }
+                log.info("A test case in '" + logFile + "' spans test suites, parsing it sequentially");
+            }
+        }
+
+        final OCUnitTestParser parser = new OCUnitTestParser(outputLimits);
+        parser.setOutputSpill(outputSpill);
+        parser.setTimings(timings);
+        parseRange(logFile, 0, length, parser);
+        return parser;
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    void setOutputSpill(@Nullable TestOutputSpill outputSpill)
+    {
+        this.outputSpill = outputSpill;
+    }
+
+    void setTimings(@Nullable TestTimings timings)
+    {
+        this.timings = timings;
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    /**
+     * @return the parsed results, or null when the pieces could not be parsed independently
+     */
+    @Nullable
+    private OCUnitTestParser parseInParallel(final File logFile, final List<Long> boundaries) throws IOException
+    {
+        final int pieces = boundaries.size() - 1;
+        final ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, pieces));
+        try
+        {
+            final List<Callable<String>> architectureScans = Lists.newArrayList();
+            for (int i = 0; i < pieces; i++)
+            {
+                final long start = boundaries.get(i);
+                final long end = boundaries.get(i + 1);
+                architectureScans.add(new Callable<String>()
+                {
+                    @Override
+                    public String call() throws IOException
+                    {
+                        return findLastArchitecture(logFile, start, end);
+                    }
+                });
+            }
+            final List<String> lastArchitectures = getAll(pool.invokeAll(architectureScans));
+
+            // The pieces share their names, as one parser would
+            final TestNameTable names = new TestNameTable();
+            final List<Callable<OCUnitTestParser>> parses = Lists.newArrayList();
+            // Timings are only kept once every piece could be parsed independently
+            final List<TestTimings> pieceTimings = Lists.newArrayList();
+            String architecture = null;
+            for (int i = 0; i < pieces; i++)
+            {
+                final long start = boundaries.get(i);
+                final long end = boundaries.get(i + 1);
+                final String initialArchitecture = architecture;
+                final TestTimings timingsOfPiece = timings != null ? new TestTimings() : null;
+                pieceTimings.add(timingsOfPiece);
+                parses.add(new Callable<OCUnitTestParser>()
+                {
+                    @Override
+                    public OCUnitTestParser call() throws IOException
+                    {
+                        final OCUnitTestParser parser = new OCUnitTestParser(outputLimits, names, initialArchitecture);
+                        parser.setOutputSpill(outputSpill);
+                        parser.setTimings(timingsOfPiece);
+                        parseRange(logFile, start, end, parser);
+                        return parser;
+                    }
+                });
+                if (lastArchitectures.get(i) != null)
+                {
+                    architecture = lastArchitectures.get(i);
+                }
+            }
+            final List<OCUnitTestParser> parsers = getAll(pool.invokeAll(parses));
+
+            final OCUnitTestParser merged = parsers.get(0);
+            for (int i = 1; i < pieces; i++)
+            {
+                if (!parsers.get(i - 1).isBetweenTests())
+                {
+                    return null;
+                }
+                merged.addResults(parsers.get(i));
+            }
+            if (timings != null)
+            {
+                // Outer suites start in one piece and finish in a later one
+                final Map<String, Long> openSuiteStartTimes = Maps.newHashMap();
+                for (OCUnitTestParser parser : parsers)
+                {
+                    parser.finishSuitesStartedEarlier(openSuiteStartTimes);
+                }
+                for (TestTimings timingsOfPiece : pieceTimings)
+                {
+                    timings.addAll(timingsOfPiece);
+                }
+            }
+            return merged;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing '" + logFile + "'", e);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    private static <T> List<T> getAll(List<Future<T>> futures) throws IOException, InterruptedException
+    {
+        final List<T> results = Lists.newArrayListWithCapacity(futures.size());
+        for (Future<T> future : futures)
+        {
+            try
+            {
+                results.add(future.get());
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof IOException)
+                {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Splits the file into roughly equal pieces, each starting at a line which starts a test suite
+     *
+     * @return offsets of the pieces, starting with 0 and ending with the length of the file
+     */
+    private List<Long> findSuiteBoundaries(File logFile, long length) throws IOException
+    {
+        final OCUnitLineClassifier classifier = new OCUnitLineClassifier();
+        final List<Long> boundaries = Lists.newArrayList(0L);
+        for (int i = 1; i < parallelism; i++)
+        {
+            final long target = length * i / parallelism;
+            final long limit = length * (i + 1) / parallelism;
+            if (target <= boundaries.get(boundaries.size() - 1))
+            {
+                continue;
+            }
+
+            final InputStream in = openRange(logFile, target - 1, limit);
+            try
+            {
+                // Only look at complete lines, the byte before the target tells whether one starts there
+                long offset = target - 1;
+                final ByteArrayOutputStream line = new ByteArrayOutputStream();
+                boolean complete = false;
+                for (int b = in.read(); b != -1; b = in.read())
+                {
+                    offset++;
+                    if (b != '\n')
+                    {
+                        line.write(b);
+                        continue;
+                    }
+
+                    if (complete && isSuiteStart(classifier, line))
+                    {
+                        boundaries.add(offset - line.size() - 1);
+                        break;
+                    }
+                    complete = true;
+                    line.reset();
+                }
+            }
+            finally
+            {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        boundaries.add(length);
+        return boundaries;
+    }
+
+    private boolean isSuiteStart(OCUnitLineClassifier classifier, ByteArrayOutputStream bytes) throws IOException
+    {
+        String line = bytes.toString(charset.name());
+        if (line.endsWith("\r"))
+        {
+            line = line.substring(0, line.length() - 1);
+        }
+        // A carriage return inside would make the reader see two lines
+        return line.indexOf('\r') == -1 && classifier.classify(line) == OCUnitLineClassifier.Kind.SUITE_STARTED;
+    }
+
+    /**
+     * Scans the range for architecture announcements without decoding any other line
+     */
+    @Nullable
+    private String findLastArchitecture(File logFile, long start, long end) throws IOException
+    {
+        final OCUnitLineClassifier classifier = new OCUnitLineClassifier();
+        String architecture = null;
+
+        final InputStream in = openRange(logFile, start, end);
+        try
+        {
+            final byte[] buffer = new byte[READ_BUFFER_SIZE];
+            final ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int matched = 0;
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer))
+            {
+                for (int i = 0; i < read; i++)
+                {
+                    final byte b = buffer[i];
+                    if (b == '\n' || b == '\r')
+                    {
+                        if (matched == ARCHITECTURE_PREFIX.length)
+                        {
+                            architecture = classifyArchitecture(classifier, line, architecture);
+                        }
+                        matched = 0;
+                        line.reset();
+                    }
+                    else if (matched == ARCHITECTURE_PREFIX.length)
+                    {
+                        line.write(b);
+                    }
+                    else if (matched >= 0 && b == ARCHITECTURE_PREFIX[matched])
+                    {
+                        line.write(b);
+                        matched++;
+                    }
+                    else
+                    {
+                        matched = -1;
+                    }
+                }
+            }
+
+            if (matched == ARCHITECTURE_PREFIX.length)
+            {
+                architecture = classifyArchitecture(classifier, line, architecture);
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly(in);
+        }
+        return architecture;
+    }
+
+    private String classifyArchitecture(OCUnitLineClassifier classifier, ByteArrayOutputStream line, String architecture)
+            throws IOException
+    {
+        if (classifier.classify(line.toString(charset.name())) == OCUnitLineClassifier.Kind.ARCHITECTURE)
+        {
+            return classifier.getArchitecture();
+        }
+        return architecture;
+    }
+
+    private void parseRange(File logFile, long start, long end, OCUnitTestParser parser) throws IOException
+    {
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new InputStreamReader(openRange(logFile, start, end), charset), READ_BUFFER_SIZE);
+            for (String line = reader.readLine(); line != null; line = reader.readLine())
+            {
+                parser.processLine(line);
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    private static InputStream openRange(File logFile, long start, long end) throws IOException
+    {
+        final FileInputStream in = new FileInputStream(logFile);
+        try
+        {
+            in.getChannel().position(start);
+        }
+        catch (IOException e)
+        {
+            IOUtils.closeQuietly(in);
+            throw e;
+        }
+        return new BufferedInputStream(new BoundedInputStream(in, end - start), READ_BUFFER_SIZE);
+    }
+
+    /**
+     * Splitting at newline bytes only works for charsets that encode line breaks as a single byte of their own
+     */
+    private static boolean isLineOriented(Charset charset)
+    {
+        return Arrays.equals("\n\r".getBytes(charset), new byte[] {'\n', '\r'});
+    }
+}
@@ -26,119 +26,209 @@
 
 package com.atlassian.bamboo.plugins.xcode.tests.ocunit;
 
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputCapture;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputLimits;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestNameTable;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputSpill;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestResultStore;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestTimings;
 import com.atlassian.bamboo.plugins.xcode.tests.api.XcodeTestParser;
+import com.atlassian.bamboo.plugins.xcode.tests.checkpoint.TestCheckpointPager;
 import com.atlassian.bamboo.results.tests.TestResults;
 import com.atlassian.bamboo.resultsummary.tests.TestCaseResultErrorImpl;
 import com.atlassian.bamboo.resultsummary.tests.TestState;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
- * Test parser for OCUnit
+ * Test parser for OCUnit. Lines are classified by {@link OCUnitLineClassifier}, which keeps the cost per line linear
+ * even for the multi-kilobyte build setting lines xcodebuild prints.
  */
 public class OCUnitTestParser implements XcodeTestParser
 {
     private static final Logger log = Logger.getLogger(OCUnitTestParser.class);
 
     // ------------------------------------------------------------------------------------------------------- Constants
-
-    private static final Pattern TEST_ARCHITECTURE = Pattern.compile("Run unit tests for architecture '(\\S+)'.*");
-
-    private static final Pattern START_SUITE = Pattern.compile("^.*Test Suite '(\\S+)'.*started at\\s+(.*)$");
-    private static final Pattern END_SUITE = Pattern.compile("^.*Test Suite '(\\S+)'.*finished at\\s+(.*).$");
-    private static final Pattern START_TESTCASE = Pattern.compile("^.*Test Case '-\\[\\S+\\s+(\\S+)\\]' started.$");
-    private static final Pattern SUCCESSFUL_TESTCASE = Pattern.compile("^.*Test Case '-\\[\\S+\\s+(\\S+)\\]' passed \\((.*) seconds\\).$");
-    private static final Pattern FAILED_TESTCASE = Pattern.compile("^.*Test Case '-\\[\\S+ (\\S+)\\]' failed \\((\\S+) seconds\\).$");
-    private static final Pattern ERROR_TESTCASE = Pattern.compile("^.*(.*): error: -\\[(\\S+) (\\S+)\\] : (.*)$");
-
     // ------------------------------------------------------------------------------------------------- Type Properties
 
-    private final Set<TestResults> successfulTestResults = Sets.newHashSet();
-    private final Set<TestResults> failingTestResults = Sets.newHashSet();
+    private final OCUnitLineClassifier classifier = new OCUnitLineClassifier();
+    private final TestNameTable names;
+
+    private final TestResultStore successfulTestResults = new TestResultStore();
+    private final TestResultStore failingTestResults = new TestResultStore();
 
     private String currentArchitecture;
     private String currentSuiteName;
     private String currentTestName;
     private String currentTestDuration;
-    private StringBuilder currentTestOutput = new StringBuilder();
+    private final TestOutputCapture currentTestOutput;
+    private TestOutputSpill outputSpill;
+    private volatile TestCheckpointPager checkpointPager;
+    private volatile TestTimings timings;
+    private final Map<String, Long> suiteStartTimes = Maps.newHashMap();
+    private final Map<String, Long> unmatchedSuiteFinishTimes = Maps.newLinkedHashMap();
     private List<String> currentTestErrors = Lists.newLinkedList();
 
     // ---------------------------------------------------------------------------------------------------- Dependencies
     // ---------------------------------------------------------------------------------------------------- Constructors
+
+    public OCUnitTestParser()
+    {
+        this(TestOutputLimits.DEFAULT);
+    }
+
+    public OCUnitTestParser(@NotNull TestOutputLimits outputLimits)
+    {
+        this(outputLimits, new TestNameTable());
+    }
+
+    /**
+     * @param names shared with the other parsers of the same run
+     */
+    public OCUnitTestParser(@NotNull TestOutputLimits outputLimits, @NotNull TestNameTable names)
+    {
+        this(outputLimits, names, null);
+    }
+
+    /**
+     * Creates a parser for a part of a log, which starts out with the architecture announced earlier in that log
+     */
+    OCUnitTestParser(@NotNull TestOutputLimits outputLimits, @NotNull TestNameTable names, @Nullable String currentArchitecture)
+    {
+        this.currentTestOutput = outputLimits.newCapture("\n");
+        this.names = names;
+        this.currentArchitecture = currentArchitecture;
+    }
+
     // ----------------------------------------------------------------------------------------------- Interface Methods
     // -------------------------------------------------------------------------------------------------- Action Methods
+
+    /**
+     * Adds the results another parser collected from a later part of the same log
+     */
+    void addResults(@NotNull OCUnitTestParser parser)
+    {
+        successfulTestResults.addAll(parser.successfulTestResults.asSet());
+        failingTestResults.addAll(parser.failingTestResults.asSet());
+    }
+
+    /**
+     * Records the wall times of the suites which finished in this part of the log but started in an earlier one, then
+     * carries the suites still running at the end of this part on to the next
+     *
+     * @param openSuiteStartTimes the start times of the suites still running after the earlier parts
+     */
+    void finishSuitesStartedEarlier(@NotNull Map<String, Long> openSuiteStartTimes)
+    {
+        for (Map.Entry<String, Long> suiteFinish : unmatchedSuiteFinishTimes.entrySet())
+        {
+            final Long startTime = openSuiteStartTimes.remove(suiteFinish.getKey());
+            if (startTime != null && startTime >= 0 && suiteFinish.getValue() >= startTime)
+            {
+                timings.suiteFinished(suiteFinish.getKey(), suiteFinish.getValue() - startTime);
+            }
+        }
+        openSuiteStartTimes.putAll(suiteStartTimes);
+    }
+
     // -------------------------------------------------------------------------------------------------- Public Methods
 
     @Override
     public Set<TestResults> getSuccessfulTestResults()
     {
-        return successfulTestResults;
+        return successfulTestResults.asSet();
     }
 
     @Override
     public Set<TestResults> getFailingTestResults()
     {
-        return failingTestResults;
+        return failingTestResults.asSet();
     }
 
     // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
 
-    @Override
-    public void processLine(@NotNull String line)
+    /**
+     * Keeps the output of parsed tests in the spill until it is materialized, rather than on the heap
+     */
+    public void setOutputSpill(@Nullable TestOutputSpill outputSpill)
     {
-        final Matcher architectureMatcher = TEST_ARCHITECTURE.matcher(line);
-        if (architectureMatcher.matches())
-        {
-            currentArchitecture = architectureMatcher.group(1);
-            log.debug("Found test architecture '" + currentArchitecture + "'");
-        }
-
-        final Matcher startSuiteMatcher = START_SUITE.matcher(line);
-        if (startSuiteMatcher.matches())
-        {
-            currentSuiteName = startSuiteMatcher.group(1);
-        }
-
-        final Matcher endSuiteMatcher = END_SUITE.matcher(line);
-        if (endSuiteMatcher.matches())
-        {
-            endTestSuite();
-        }
+        this.outputSpill = outputSpill;
+    }
 
-        final Matcher startTestCaseMatcher = START_TESTCASE.matcher(line);
-        if (startTestCaseMatcher.matches())
-        {
-            currentTestName = startTestCaseMatcher.group(1);
-        }
+    /**
+     * Records the durations of tests and suites while parsing
+     */
+    public void setTimings(@Nullable TestTimings timings)
+    {
+        this.timings = timings;
+    }
 
-        final Matcher successfulTestCase = SUCCESSFUL_TESTCASE.matcher(line);
-        if (successfulTestCase.matches())
-        {
-            currentTestDuration = successfulTestCase.group(2);
-            recordRestResult(TestState.SUCCESS);
-            endTestCase();
-        }
+    /**
+     * Hands the results of finished suites on to the checkpoint in pages while parsing, as well as keeping them
+     */
+    public void setCheckpointPager(@Nullable TestCheckpointPager checkpointPager)
+    {
+        this.checkpointPager = checkpointPager;
+    }
 
-        final Matcher failedTestCaseMatcher = FAILED_TESTCASE.matcher(line);
-        if (failedTestCaseMatcher.matches())
-        {
-            currentTestDuration = failedTestCaseMatcher.group(2);
-            recordRestResult(TestState.FAILED);
-            endTestCase();
-        }
+    /**
+     * @return true when no test case is in progress and no error lines are waiting for one, meaning the next line
+     * can be parsed with nothing but the architecture carried over
+     */
+    boolean isBetweenTests()
+    {
+        return currentTestName == null && currentTestErrors.isEmpty();
+    }
 
-        final Matcher testCaseErrorMatcher = ERROR_TESTCASE.matcher(line);
-        if (testCaseErrorMatcher.matches())
+    @Override
+    public void processLine(@NotNull String line)
+    {
+        switch (classifier.classify(line))
         {
-            currentTestErrors.add(line);
+            case ARCHITECTURE:
+                currentArchitecture = classifier.getArchitecture();
+                log.debug("Found test architecture '" + currentArchitecture + "'");
+                break;
+            case SUITE_STARTED:
+                currentSuiteName = classifier.getSuiteName();
+                if (timings != null)
+                {
+                    suiteStartTimes.put(names.suiteName(currentSuiteName, currentArchitecture), TestTimings.parseSuiteTimestamp(line));
+                }
+                break;
+            case SUITE_FINISHED:
+                if (timings != null)
+                {
+                    recordSuiteTime(names.suiteName(classifier.getSuiteName(), currentArchitecture), line);
+                }
+                endTestSuite();
+                break;
+            case TEST_STARTED:
+                currentTestName = names.intern(classifier.getTestName());
+                break;
+            case TEST_PASSED:
+                currentTestDuration = classifier.getDuration();
+                recordRestResult(TestState.SUCCESS);
+                endTestCase();
+                break;
+            case TEST_FAILED:
+                currentTestDuration = classifier.getDuration();
+                recordRestResult(TestState.FAILED);
+                endTestCase();
+                break;
+            case TEST_ERROR:
+                currentTestErrors.add(line);
+                break;
+            default:
+                break;
         }
 
         recordTestOutput(line);
@@ -146,9 +236,9 @@ public class OCUnitTestParser implements XcodeTestParser
 
     private void recordRestResult(@NotNull TestState testState)
     {
-        final String suiteName = StringUtils.isNotEmpty(currentArchitecture) ? currentSuiteName + " (" + currentArchitecture + ")" : currentSuiteName;
+        final String suiteName = names.suiteName(currentSuiteName, currentArchitecture);
         final TestResults testResult = new TestResults(suiteName, currentTestName, currentTestDuration);
-        testResult.setSystemOut(currentTestOutput.toString());
+        currentTestOutput.reportTo(testResult, outputSpill);
 
         testResult.setState(testState);
 
@@ -160,30 +250,53 @@ public class OCUnitTestParser implements XcodeTestParser
         {
             for (String errorLine : currentTestErrors)
             {
-                testResult.addError(new TestCaseResultErrorImpl(errorLine));
+                testResult.addError(new TestCaseResultErrorImpl(names.intern(errorLine)));
             }
             failingTestResults.add(testResult);
         }
+
+        if (timings != null)
+        {
+            timings.testFinished(suiteName, testResult.getDuration());
+        }
+    }
+
+    private void recordSuiteTime(@Nullable String suiteName, @NotNull String finishLine)
+    {
+        final Long startTime = suiteStartTimes.remove(suiteName);
+        final long finishTime = TestTimings.parseSuiteTimestamp(finishLine);
+        if (startTime == null)
+        {
+            // Started in an earlier part of the log
+            unmatchedSuiteFinishTimes.put(suiteName, finishTime);
+        }
+        else if (startTime >= 0 && finishTime >= startTime)
+        {
+            timings.suiteFinished(suiteName, finishTime - startTime);
+        }
     }
 
     private void recordTestOutput(@NotNull String line)
     {
         if (StringUtils.isNotEmpty(currentSuiteName) && StringUtils.isNotEmpty(currentTestName))
         {
-            currentTestOutput.append(line);
-            currentTestOutput.append('\n');
+            currentTestOutput.appendLine(line);
         }
     }
 
     private void endTestSuite()
     {
         currentSuiteName = null;
+        if (checkpointPager != null)
+        {
+            checkpointPager.suiteFinished(successfulTestResults, failingTestResults);
+        }
     }
 
     private void endTestCase()
     {
         currentTestName = null;
-        currentTestOutput = new StringBuilder();
+        currentTestOutput.reset();
         currentTestErrors = Lists.newLinkedList();
     }
 }
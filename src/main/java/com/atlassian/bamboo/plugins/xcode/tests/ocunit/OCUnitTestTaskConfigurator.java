@@ -1,6 +1,9 @@
 package com.atlassian.bamboo.plugins.xcode.tests.ocunit;
 
 import com.atlassian.bamboo.collections.ActionParametersMap;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputLimits;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputSpill;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestResultsFile;
 import com.atlassian.bamboo.task.AbstractTaskConfigurator;
 import com.atlassian.bamboo.task.TaskDefinition;
 import com.atlassian.bamboo.task.TaskTestResultsSupport;
@@ -17,8 +20,12 @@ public class OCUnitTestTaskConfigurator extends AbstractTaskConfigurator impleme
 {
 
     public static final String LOG_FILE = "log_file";
+    public static final String TEST_OUTPUT_HEAD_KB = TestOutputLimits.OUTPUT_HEAD_KB;
+    public static final String TEST_OUTPUT_TAIL_KB = TestOutputLimits.OUTPUT_TAIL_KB;
+    public static final String SPILL_TEST_OUTPUT = TestOutputSpill.SPILL_TEST_OUTPUT;
+    public static final String CACHE_TEST_RESULTS = TestResultsFile.CACHE_TEST_RESULTS;
 
-    private static final Set<String> FIELDS = Sets.newHashSet(LOG_FILE);
+    private static final Set<String> FIELDS = Sets.newHashSet(LOG_FILE, TEST_OUTPUT_HEAD_KB, TEST_OUTPUT_TAIL_KB, SPILL_TEST_OUTPUT, CACHE_TEST_RESULTS);
 
     @NotNull
     @Override
@@ -33,6 +40,8 @@ public class OCUnitTestTaskConfigurator extends AbstractTaskConfigurator impleme
     public void populateContextForCreate(@NotNull final Map<String, Object> context)
     {
         super.populateContextForCreate(context);
+        context.put(TEST_OUTPUT_HEAD_KB, TestOutputLimits.DEFAULT_HEAD_KB);
+        context.put(TEST_OUTPUT_TAIL_KB, TestOutputLimits.DEFAULT_TAIL_KB);
     }
 
     @Override
@@ -50,6 +59,14 @@ public class OCUnitTestTaskConfigurator extends AbstractTaskConfigurator impleme
         if (StringUtils.isEmpty(params.getString(LOG_FILE))) {
             errorCollection.addError(LOG_FILE, getI18nBean().getText("test.logFile.error"));
         }
+
+        for (String field : new String[] {TEST_OUTPUT_HEAD_KB, TEST_OUTPUT_TAIL_KB})
+        {
+            if (!TestOutputLimits.isValidSize(params.getString(field)))
+            {
+                errorCollection.addError(field, getI18nBean().getText("test.output.size.error"));
+            }
+        }
     }
 
     @Override
@@ -3,21 +3,25 @@ package com.atlassian.bamboo.plugins.xcode.tests.ocunit;
 import com.atlassian.bamboo.build.logger.BuildLogger;
 import com.atlassian.bamboo.build.test.TestCollationService;
 import com.atlassian.bamboo.configuration.ConfigurationMap;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputLimits;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputSpill;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestResultsFile;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestTimings;
 import com.atlassian.bamboo.plugins.xcode.tests.api.XcodeTestParser;
+import com.atlassian.bamboo.results.tests.TestResults;
 import com.atlassian.bamboo.task.TaskContext;
 import com.atlassian.bamboo.task.TaskException;
 import com.atlassian.bamboo.task.TaskResult;
 import com.atlassian.bamboo.task.TaskResultBuilder;
 import com.atlassian.bamboo.task.TaskType;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Iterables;
 import org.apache.commons.io.IOUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 
 public class OCUnitTestTaskType implements TaskType {
 
@@ -44,19 +48,59 @@ public class OCUnitTestTaskType implements TaskType {
             return taskResultBuilder.failed().build();
         }
 
-        XcodeTestParser parser = new OCUnitTestParser();
-        InputStream is = null;
+        final boolean cacheTestResults = config.getAsBoolean(OCUnitTestTaskConfigurator.CACHE_TEST_RESULTS);
+        if (cacheTestResults)
+        {
+            final TestResultsFile cachedTestResults = readCachedTestResults(logFile, buildLogger);
+            if (cachedTestResults != null)
+            {
+                buildLogger.addBuildLogEntry("Using the test results already parsed from '" + logFile.getAbsolutePath() + "'");
+                taskContext.getBuildContext().getBuildResult().setTestResults(cachedTestResults.getSuccessfulTestResults(), cachedTestResults.getFailingTestResults());
+                cachedTimings(cachedTestResults).publishTo(taskContext);
+                taskResultBuilder.checkTestFailures();
+                return taskResultBuilder.build();
+            }
+        }
+
+        TestOutputSpill testOutputSpill = null;
+        if (config.getAsBoolean(OCUnitTestTaskConfigurator.SPILL_TEST_OUTPUT))
+        {
+            try
+            {
+                testOutputSpill = TestOutputSpill.create();
+            }
+            catch (IOException e)
+            {
+                buildLogger.addBuildLogEntry("Cannot create test output spill file, keeping test output in memory: " + e);
+            }
+        }
 
         try
         {
-            is = new FileInputStream(logFile);
+            final OCUnitLogFileParser logFileParser = new OCUnitLogFileParser(TestOutputLimits.fromConfiguration(config), Runtime.getRuntime().availableProcessors());
+            logFileParser.setOutputSpill(testOutputSpill);
+            final TestTimings testTimings = new TestTimings();
+            logFileParser.setTimings(testTimings);
+            final XcodeTestParser parser = logFileParser.parse(logFile);
+            if (testOutputSpill != null)
+            {
+                testOutputSpill.materialize();
+            }
 
-            for (String line : IOUtils.readLines(is))
+            if (cacheTestResults)
             {
-                parser.processLine(line);
+                try
+                {
+                    TestResultsFile.write(logFile, testTimings.toWallTimeProperties(), parser.getSuccessfulTestResults(), parser.getFailingTestResults());
+                }
+                catch (IOException e)
+                {
+                    buildLogger.addBuildLogEntry("Cannot keep the parsed test results next to the log file: " + e);
+                }
             }
 
-            taskContext.getBuildContext().getBuildResult().setTestResults(Sets.newHashSet(parser.getSuccessfulTestResults()), Sets.newHashSet(parser.getFailingTestResults()));
+            taskContext.getBuildContext().getBuildResult().setTestResults(parser.getSuccessfulTestResults(), parser.getFailingTestResults());
+            testTimings.publishTo(taskContext);
             taskResultBuilder.checkTestFailures();
         }
         catch (FileNotFoundException e)
@@ -71,16 +115,38 @@ public class OCUnitTestTaskType implements TaskType {
         }
         finally
         {
-            if (is != null) {
-                try {
-                    is.close();
-                } catch (Exception ex) {
-                    ex.printStackTrace();
-                }
-            }
+            IOUtils.closeQuietly(testOutputSpill);
         }
 
         return taskResultBuilder.build();
     }
 
+    /**
+     * The timings of the cached results, as they were recorded when the log was parsed
+     */
+    @NotNull
+    private static TestTimings cachedTimings(@NotNull TestResultsFile cachedTestResults)
+    {
+        final TestTimings testTimings = new TestTimings();
+        for (TestResults testResults : Iterables.concat(cachedTestResults.getSuccessfulTestResults(), cachedTestResults.getFailingTestResults()))
+        {
+            testTimings.testFinished(testResults.getClassName(), testResults.getDuration());
+        }
+        testTimings.addWallTimes(cachedTestResults.getProperties());
+        return testTimings;
+    }
+
+    @Nullable
+    private static TestResultsFile readCachedTestResults(@NotNull File logFile, @NotNull BuildLogger buildLogger)
+    {
+        try
+        {
+            return TestResultsFile.read(logFile);
+        }
+        catch (IOException e)
+        {
+            buildLogger.addBuildLogEntry("Cannot read the test results already parsed from the log file, parsing it again: " + e);
+            return null;
+        }
+    }
 }
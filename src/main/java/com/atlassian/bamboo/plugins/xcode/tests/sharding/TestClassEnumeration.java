@@ -0,0 +1,72 @@
+package com.atlassian.bamboo.plugins.xcode.tests.sharding;
+
+import com.google.common.collect.Sets;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lists the test classes of a built test bundle with {@code xcodebuild test-without-building -enumerate-tests}, so
+ * that every job of a sharded run picks its test classes from the same list.
+ */
+public final class TestClassEnumeration
+{
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private TestClassEnumeration()
+    {
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Adds the arguments writing the tests of a {@code test-without-building} command to a file instead of running them
+     */
+    public static void addEnumerationArguments(@NotNull List<String> command, @NotNull File outputFile)
+    {
+        command.add("-enumerate-tests");
+        command.add("-test-enumeration-style");
+        command.add("flat");
+        command.add("-test-enumeration-format");
+        command.add("text");
+        command.add("-test-enumeration-output-path");
+        command.add(outputFile.getAbsolutePath());
+    }
+
+    /**
+     * @return the names of the test classes of the target listed in the enumeration output, sorted
+     */
+    @NotNull
+    public static SortedSet<String> readTestClasses(@NotNull File outputFile, @NotNull String testTarget) throws IOException
+    {
+        return parseTestClasses(FileUtils.readLines(outputFile, StandardCharsets.UTF_8), testTarget);
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    /**
+     * Tests are listed by identifier, {@code Target/Class/method}, whatever else surrounds them on a line
+     */
+    @NotNull
+    static SortedSet<String> parseTestClasses(@NotNull Iterable<String> lines, @NotNull String testTarget)
+    {
+        final Pattern testIdentifier = Pattern.compile("(?<![\\w.])" + Pattern.quote(testTarget) + "/([A-Za-z_]\\w*)/");
+        final SortedSet<String> testClasses = Sets.newTreeSet();
+        for (String line : lines)
+        {
+            final Matcher matcher = testIdentifier.matcher(line);
+            while (matcher.find())
+            {
+                testClasses.add(matcher.group(1));
+            }
+        }
+        return testClasses;
+    }
+}
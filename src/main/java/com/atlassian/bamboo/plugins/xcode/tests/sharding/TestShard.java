@@ -0,0 +1,123 @@
+package com.atlassian.bamboo.plugins.xcode.tests.sharding;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The test classes one {@code xcodebuild test-without-building} run is expected to run, selected with
+ * {@code -only-testing}. Test classes without history are not known up front, one shard runs them by skipping the
+ * classes of every other shard instead.
+ */
+public final class TestShard
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    private static final String ONLY_TESTING = "-only-testing:";
+    private static final String SKIP_TESTING = "-skip-testing:";
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final int index;
+    private final List<String> testClasses = Lists.newArrayList();
+    private long expectedMillis;
+    private boolean runningUnknownTests;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    TestShard(int index)
+    {
+        this.index = index;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Action Methods
+
+    void add(@NotNull String testClass, long millis)
+    {
+        testClasses.add(testClass);
+        expectedMillis += millis;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Adds the arguments selecting the tests of this shard to an xcodebuild command
+     *
+     * @param testTarget the target building the test bundle
+     * @param shards     every shard of the run, including this one
+     */
+    public void addTestSelection(@NotNull List<String> command, @NotNull String testTarget, @NotNull List<TestShard> shards)
+    {
+        if (!runningUnknownTests)
+        {
+            for (String testClass : testClasses)
+            {
+                command.add(ONLY_TESTING + testIdentifier(testTarget, testClass));
+            }
+            return;
+        }
+
+        for (TestShard shard : shards)
+        {
+            if (shard != this)
+            {
+                for (String testClass : shard.testClasses)
+                {
+                    command.add(SKIP_TESTING + testIdentifier(testTarget, testClass));
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    /**
+     * Test classes are selected by the target and their name without any Swift module
+     */
+    @NotNull
+    public static String testIdentifier(@NotNull String testTarget, @NotNull String testClass)
+    {
+        final String className = testClass.indexOf('.') > 0 ? StringUtils.substringAfterLast(testClass, ".") : testClass;
+        return testTarget + "/" + className;
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    /**
+     * @return the position of the shard in its run, from 0
+     */
+    public int getIndex()
+    {
+        return index;
+    }
+
+    @NotNull
+    public List<String> getTestClasses()
+    {
+        return Collections.unmodifiableList(testClasses);
+    }
+
+    /**
+     * @return the sum of the average durations of the shard's test classes
+     */
+    public long getExpectedMillis()
+    {
+        return expectedMillis;
+    }
+
+    /**
+     * @return whether the shard also runs every test class which is not in any shard
+     */
+    public boolean isRunningUnknownTests()
+    {
+        return runningUnknownTests;
+    }
+
+    void setRunningUnknownTests(boolean runningUnknownTests)
+    {
+        this.runningUnknownTests = runningUnknownTests;
+    }
+}
@@ -0,0 +1,41 @@
+package com.atlassian.bamboo.plugins.xcode.tests.sharding;
+
+import com.atlassian.bamboo.collections.ActionParametersMap;
+import com.atlassian.bamboo.task.AbstractTaskConfigurator;
+import com.atlassian.bamboo.task.TaskDefinition;
+import com.atlassian.bamboo.task.TaskTestResultsSupport;
+import com.google.common.collect.Sets;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.Set;
+
+public class TestShardMergeTaskConfigurator extends AbstractTaskConfigurator implements TaskTestResultsSupport
+{
+    public static final String RESULTS_DIRECTORY = "shardResultsDirectory";
+
+    private static final Set<String> FIELDS = Sets.newHashSet(RESULTS_DIRECTORY);
+
+    @NotNull
+    @Override
+    public Map<String, String> generateTaskConfigMap(@NotNull final ActionParametersMap params, @Nullable final TaskDefinition previousTaskDefinition)
+    {
+        final Map<String, String> config = super.generateTaskConfigMap(params, previousTaskDefinition);
+        taskConfiguratorHelper.populateTaskConfigMapWithActionParameters(config, params, FIELDS);
+        return config;
+    }
+
+    @Override
+    public void populateContextForEdit(@NotNull final Map<String, Object> context, @NotNull final TaskDefinition taskDefinition)
+    {
+        super.populateContextForEdit(context, taskDefinition);
+        taskConfiguratorHelper.populateContextWithConfiguration(context, taskDefinition, FIELDS);
+    }
+
+    @Override
+    public boolean taskProducesTestResults(@NotNull TaskDefinition taskDefinition)
+    {
+        return true;
+    }
+}
@@ -0,0 +1,62 @@
+package com.atlassian.bamboo.plugins.xcode.tests.sharding;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import com.atlassian.bamboo.configuration.ConfigurationMap;
+import com.atlassian.bamboo.task.TaskContext;
+import com.atlassian.bamboo.task.TaskException;
+import com.atlassian.bamboo.task.TaskResult;
+import com.atlassian.bamboo.task.TaskResultBuilder;
+import com.atlassian.bamboo.task.TaskType;
+import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reports the test results of every job of a sharded Xcode test run as the results of one job
+ */
+public class TestShardMergeTaskType implements TaskType
+{
+    @NotNull
+    @Override
+    public TaskResult execute(@NotNull TaskContext taskContext) throws TaskException
+    {
+        final TaskResultBuilder taskResultBuilder = TaskResultBuilder.newBuilder(taskContext);
+        final ConfigurationMap config = taskContext.getConfigurationMap();
+        final BuildLogger buildLogger = taskContext.getBuildLogger();
+
+        final String resultsDirectoryStr = config.get(TestShardMergeTaskConfigurator.RESULTS_DIRECTORY);
+        final File resultsDirectory = StringUtils.isNotBlank(resultsDirectoryStr)
+                                      ? new File(taskContext.getWorkingDirectory(), resultsDirectoryStr.trim())
+                                      : taskContext.getWorkingDirectory();
+        if (!resultsDirectory.isDirectory())
+        {
+            buildLogger.addErrorLogEntry("Could not find the test shard results directory '" + resultsDirectory.getAbsolutePath() + "'");
+            return taskResultBuilder.failed().build();
+        }
+
+        final TestShardResults shardResults;
+        try
+        {
+            shardResults = TestShardResults.merge(resultsDirectory);
+        }
+        catch (IOException e)
+        {
+            buildLogger.addErrorLogEntry("Could not read the test shard results in '" + resultsDirectory.getAbsolutePath() + "'", e);
+            return taskResultBuilder.failedWithError().build();
+        }
+
+        if (shardResults.getShardCount() == 0)
+        {
+            buildLogger.addErrorLogEntry("Could not find any test shard results in '" + resultsDirectory.getAbsolutePath() + "'");
+            return taskResultBuilder.failed().build();
+        }
+
+        taskContext.getBuildContext().getBuildResult().setTestResults(shardResults.getSuccessfulTestResults(), shardResults.getFailingTestResults());
+        buildLogger.addBuildLogEntry("Merged the test results of " + shardResults.getShardCount() + " shards of build " + shardResults.getRunKey() + ": "
+                                     + shardResults.getSuccessfulTestResults().size() + " successful, "
+                                     + shardResults.getFailingTestResults().size() + " failing");
+        return taskResultBuilder.checkTestFailures().build();
+    }
+}
@@ -0,0 +1,161 @@
+package com.atlassian.bamboo.plugins.xcode.tests.sharding;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits test classes into shards that are expected to take about as long as each other
+ */
+public final class TestShardPlanner
+{
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    private TestShardPlanner()
+    {
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Hands the test classes out longest first, each to the shard expected to finish first. Shards left without test
+     * classes are dropped, and the shard expected to finish first also runs every test class without history; with no
+     * history at all there is a single shard running every test.
+     *
+     * @param testClassMillis the expected duration of each test class
+     * @return at most the given number of shards
+     */
+    @NotNull
+    public static List<TestShard> balance(@NotNull Map<String, Long> testClassMillis, int shardCount)
+    {
+        return balance(testClassMillis, shardCount, true);
+    }
+
+    /**
+     * As {@link #balance(Map, int)}, with every test class to run known when {@code runUnknownTests} is false, in which
+     * case each shard runs just its own test classes
+     */
+    @NotNull
+    public static List<TestShard> balance(@NotNull Map<String, Long> testClassMillis, int shardCount, boolean runUnknownTests)
+    {
+        final List<Map.Entry<String, Long>> testClasses = Lists.newArrayList(testClassMillis.entrySet());
+        Collections.sort(testClasses, new Comparator<Map.Entry<String, Long>>()
+        {
+            @Override
+            public int compare(Map.Entry<String, Long> first, Map.Entry<String, Long> second)
+            {
+                final int byMillis = Long.compare(second.getValue(), first.getValue());
+                return byMillis != 0 ? byMillis : first.getKey().compareTo(second.getKey());
+            }
+        });
+
+        final List<TestShard> shards = Lists.newArrayList();
+        for (int i = 0; i < Math.max(1, shardCount); i++)
+        {
+            shards.add(new TestShard(i));
+        }
+        for (Map.Entry<String, Long> testClass : testClasses)
+        {
+            firstToFinish(shards).add(testClass.getKey(), testClass.getValue());
+        }
+
+        // Empty shards are always the last ones, as ties go to the first shard
+        while (shards.size() > 1 && shards.get(shards.size() - 1).getTestClasses().isEmpty())
+        {
+            shards.remove(shards.size() - 1);
+        }
+        if (runUnknownTests)
+        {
+            firstToFinish(shards).setRunningUnknownTests(true);
+        }
+        return shards;
+    }
+
+    /**
+     * Looks up the expected duration of test classes by their name without any Swift module. Test classes without
+     * history are expected to take as long as the average test class with history.
+     *
+     * @param suiteMillis the total average duration of each test suite, as kept in the test history
+     */
+    @NotNull
+    public static Map<String, Long> expectedMillis(@NotNull Collection<String> testClasses, @NotNull Map<String, Long> suiteMillis)
+    {
+        final Map<String, Long> classMillis = Maps.newHashMap();
+        for (Map.Entry<String, Long> suite : suiteMillis.entrySet())
+        {
+            classMillis.put(StringUtils.substringAfterLast("." + suite.getKey(), "."), suite.getValue());
+        }
+
+        long knownMillis = 0;
+        int knownCount = 0;
+        for (String testClass : testClasses)
+        {
+            final Long millis = classMillis.get(testClass);
+            if (millis != null)
+            {
+                knownMillis += millis;
+                knownCount++;
+            }
+        }
+
+        final Map<String, Long> expectedMillis = Maps.newLinkedHashMap();
+        for (String testClass : testClasses)
+        {
+            final Long millis = classMillis.get(testClass);
+            expectedMillis.put(testClass, millis != null ? millis : (knownCount > 0 ? knownMillis / knownCount : 0L));
+        }
+        return expectedMillis;
+    }
+
+    /**
+     * Picks the test classes one of several jobs runs. Each test class goes to the same job whichever agent the job runs
+     * on and whatever other test classes there are, and adding a job only moves test classes to the new one.
+     *
+     * @param testClasses every test class of the test target, by name without any Swift module
+     * @param shardIndex  the job to pick the test classes of, from 0
+     * @return the test classes of the job in the order given
+     */
+    @NotNull
+    public static List<String> slice(@NotNull Collection<String> testClasses, int shardIndex, int shardCount)
+    {
+        final List<String> slice = Lists.newArrayList();
+        for (String testClass : testClasses)
+        {
+            if (shardOf(testClass, shardCount) == shardIndex)
+            {
+                slice.add(testClass);
+            }
+        }
+        return slice;
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    static int shardOf(@NotNull String testClass, int shardCount)
+    {
+        return Hashing.consistentHash(Hashing.murmur3_128().hashString(testClass, StandardCharsets.UTF_8), Math.max(1, shardCount));
+    }
+
+    @NotNull
+    private static TestShard firstToFinish(@NotNull List<TestShard> shards)
+    {
+        TestShard first = shards.get(0);
+        for (TestShard shard : shards)
+        {
+            if (shard.getExpectedMillis() < first.getExpectedMillis())
+            {
+                first = shard;
+            }
+        }
+        return first;
+    }
+}
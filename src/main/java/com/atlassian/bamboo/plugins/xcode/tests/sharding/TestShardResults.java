@@ -0,0 +1,195 @@
+package com.atlassian.bamboo.plugins.xcode.tests.sharding;
+
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestResultStore;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestResultsFile;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.RegexFileFilter;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The test results of the jobs of a sharded run. Each job writes its own in the compact {@link TestResultsFile} format
+ * to a file named after its shard, which is shared as an artifact, and a later job merges the files of every shard.
+ * <p>
+ * Each file holds the result key of the build that ran the shards and the index of its shard, so that results of
+ * another build or a shard found twice are never merged, and a merge fails unless every shard is there.
+ */
+public final class TestShardResults
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    private static final Pattern FILE_NAME = Pattern.compile("xcode-test-shard-(\\d+)-of-(\\d+)\\.testresults");
+    private static final String RUN_PROPERTY = "shard.run";
+    private static final String INDEX_PROPERTY = "shard.index";
+    private static final String COUNT_PROPERTY = "shard.count";
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final TestResultStore successfulTestResults = new TestResultStore();
+    private final TestResultStore failingTestResults = new TestResultStore();
+    private final SortedSet<Integer> shardIndexes = Sets.newTreeSet();
+    private String runKey;
+    private int shardCount;
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    @NotNull
+    static String fileName(int shardIndex, int shardCount)
+    {
+        return "xcode-test-shard-" + shardIndex + "-of-" + shardCount + ".testresults";
+    }
+
+    /**
+     * Adds results of the job as they are collated
+     */
+    public synchronized void addAll(@NotNull Collection<TestResults> successfulTestResults, @NotNull Collection<TestResults> failingTestResults)
+    {
+        this.successfulTestResults.addAll(successfulTestResults);
+        this.failingTestResults.addAll(failingTestResults);
+    }
+
+    /**
+     * Writes the results added so far to the file of the job in the given directory
+     *
+     * @param runKey the result key of the build running the shards, the same for each of its jobs
+     * @return the file written
+     */
+    @NotNull
+    public synchronized File write(@NotNull File directory, @NotNull String runKey, int shardIndex, int shardCount) throws IOException
+    {
+        final File resultsFile = new File(directory, fileName(shardIndex, shardCount));
+        final Map<String, String> properties = Maps.newLinkedHashMap();
+        properties.put(RUN_PROPERTY, runKey);
+        properties.put(INDEX_PROPERTY, String.valueOf(shardIndex));
+        properties.put(COUNT_PROPERTY, String.valueOf(shardCount));
+        TestResultsFile.writeResults(resultsFile, properties, successfulTestResults.asSet(), failingTestResults.asSet());
+        return resultsFile;
+    }
+
+    /**
+     * Reads the results of every job found anywhere below the given directory
+     *
+     * @throws IOException if the files are of different builds or numbers of shards, a shard was found twice, or any
+     * shard is missing
+     */
+    @NotNull
+    public static TestShardResults merge(@NotNull File directory) throws IOException
+    {
+        final TestShardResults shardResults = new TestShardResults();
+        final List<File> resultsFiles = Lists.newArrayList(FileUtils.listFiles(directory, new RegexFileFilter(FILE_NAME), TrueFileFilter.INSTANCE));
+        Collections.sort(resultsFiles);
+        for (File resultsFile : resultsFiles)
+        {
+            final Matcher matcher = FILE_NAME.matcher(resultsFile.getName());
+            if (!matcher.matches())
+            {
+                continue;
+            }
+
+            final TestResultsFile testResults = TestResultsFile.readResults(resultsFile);
+            if (testResults == null)
+            {
+                throw new IOException("'" + resultsFile.getAbsolutePath() + "' does not hold test results");
+            }
+            final String runKey = testResults.getProperties().get(RUN_PROPERTY);
+            final String shardIndexStr = testResults.getProperties().get(INDEX_PROPERTY);
+            final String shardCountStr = testResults.getProperties().get(COUNT_PROPERTY);
+            if (runKey == null || !matcher.group(1).equals(shardIndexStr) || !matcher.group(2).equals(shardCountStr))
+            {
+                throw new IOException("'" + resultsFile.getAbsolutePath() + "' does not hold the results of the shard it is named after");
+            }
+
+            final int shardIndex = Integer.parseInt(shardIndexStr);
+            final int shardCount = Integer.parseInt(shardCountStr);
+            if (shardResults.runKey != null && !shardResults.runKey.equals(runKey))
+            {
+                throw new IOException("'" + resultsFile.getAbsolutePath() + "' holds results of build " + runKey + ", other results are of build "
+                                      + shardResults.runKey);
+            }
+            if (shardResults.shardCount != 0 && shardResults.shardCount != shardCount)
+            {
+                throw new IOException("'" + resultsFile.getAbsolutePath() + "' is one of " + shardCount + " shards, other results are of "
+                                      + shardResults.shardCount + " shards");
+            }
+            if (!shardResults.shardIndexes.add(shardIndex))
+            {
+                throw new IOException("'" + resultsFile.getAbsolutePath() + "' holds results of shard " + shardIndex + ", which were already found");
+            }
+            shardResults.runKey = runKey;
+            shardResults.shardCount = shardCount;
+            shardResults.addAll(testResults.getSuccessfulTestResults(), testResults.getFailingTestResults());
+        }
+
+        final List<Integer> missingShards = shardResults.getMissingShards();
+        if (!missingShards.isEmpty())
+        {
+            throw new IOException("The results of test shards " + StringUtils.join(missingShards, ", ") + " of " + shardResults.shardCount
+                                  + " of build " + shardResults.runKey + " are missing");
+        }
+        return shardResults;
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    @NotNull
+    private List<Integer> getMissingShards()
+    {
+        final List<Integer> missingShards = Lists.newArrayList();
+        for (int i = 0; i < shardCount; i++)
+        {
+            if (!shardIndexes.contains(i))
+            {
+                missingShards.add(i);
+            }
+        }
+        return missingShards;
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    @NotNull
+    public Set<TestResults> getSuccessfulTestResults()
+    {
+        return successfulTestResults.asSet();
+    }
+
+    @NotNull
+    public Set<TestResults> getFailingTestResults()
+    {
+        return failingTestResults.asSet();
+    }
+
+    /**
+     * @return the result key of the build which ran the shards, or null if none were found
+     */
+    @Nullable
+    public String getRunKey()
+    {
+        return runKey;
+    }
+
+    /**
+     * @return the number of shards the results were split into, or 0 if none were found
+     */
+    public int getShardCount()
+    {
+        return shardCount;
+    }
+}
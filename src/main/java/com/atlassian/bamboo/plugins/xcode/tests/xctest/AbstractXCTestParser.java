@@ -0,0 +1,268 @@
+package com.atlassian.bamboo.plugins.xcode.tests.xctest;
+
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestNameTable;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputSpill;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestResultStore;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestTimings;
+import com.atlassian.bamboo.plugins.xcode.tests.api.XcodeTestParser;
+import com.atlassian.bamboo.plugins.xcode.tests.checkpoint.TestCheckpointPager;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.atlassian.bamboo.resultsummary.tests.TestState;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What the parsers of sequential and parallel XCTest output share: the results parsed so far, the names, timings,
+ * checkpoint pager and output spill of the run, and the destination the tests run on.
+ */
+public abstract class AbstractXCTestParser implements XcodeTestParser
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    private static final String DURATION_START = " (";
+    private static final String DURATION_END = " seconds)";
+    private static final String NO_DURATION = "0";
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final TestResultStore successfulTestResults = new TestResultStore();
+    private final TestResultStore failingTestResults = new TestResultStore();
+    private final TestNameTable names;
+    private final Map<String, QuickSpecName> quickSpecNames = Maps.newHashMap();
+    private final Map<String, Long> suiteStartTimes = Maps.newHashMap();
+
+    private String destinationLabel;
+    private TestOutputSpill outputSpill;
+    private volatile TestCheckpointPager checkpointPager;
+    private volatile TestTimings timings;
+    private volatile int failedTestCount;
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    /**
+     * @param names shared with the other parsers of the same run
+     */
+    protected AbstractXCTestParser(@NotNull TestNameTable names)
+    {
+        this.names = names;
+    }
+
+    // ----------------------------------------------------------------------------------------------- Interface Methods
+
+    @Override
+    public Set<TestResults> getSuccessfulTestResults()
+    {
+        return successfulTestResults.asSet();
+    }
+
+    @Override
+    public Set<TestResults> getFailingTestResults()
+    {
+        return failingTestResults.asSet();
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    /**
+     * Stores the result of a finished test and records its duration
+     */
+    protected void addTestResults(@NotNull TestResults testResults)
+    {
+        final TestResultStore resultStore = testResults.getState() == TestState.SUCCESS ? successfulTestResults : failingTestResults;
+        resultStore.add(testResults);
+        if (testResults.getState() == TestState.FAILED)
+        {
+            failedTestCount++;
+        }
+        if (timings != null)
+        {
+            timings.testFinished(testResults.getClassName(), testResults.getDuration());
+        }
+    }
+
+    /**
+     * Records the start of a suite, or its duration once it has finished. Only called while timings are recorded.
+     */
+    protected void recordSuiteTime(@Nullable String suiteName, boolean suiteStarted, @NotNull String line)
+    {
+        final long time = TestTimings.parseSuiteTimestamp(line);
+        if (suiteStarted)
+        {
+            suiteStartTimes.put(suiteName, time);
+            return;
+        }
+
+        final Long startTime = suiteStartTimes.remove(suiteName);
+        if (startTime != null && startTime >= 0 && time >= startTime)
+        {
+            timings.suiteFinished(suiteName, time - startTime);
+        }
+    }
+
+    /**
+     * Hands a page of results on, if there is one, once a suite has finished
+     */
+    protected void suiteFinished()
+    {
+        if (checkpointPager != null)
+        {
+            checkpointPager.suiteFinished(successfulTestResults, failingTestResults);
+        }
+    }
+
+    @NotNull
+    protected TestResults newTestResults(@Nullable String suiteName, @NotNull String testName, @NotNull String duration)
+    {
+        final QuickSpecName quickSpecName = decodeQuickSpecName(testName);
+        if (quickSpecName != null)
+        {
+            return new QuickSpecTestResults(suiteName, testName, quickSpecName, duration);
+        }
+
+        return new TestResults(suiteName, testName, duration);
+    }
+
+    /**
+     * Decodes each distinct Quick spec name once per run
+     */
+    @Nullable
+    private QuickSpecName decodeQuickSpecName(@NotNull String testName)
+    {
+        QuickSpecName quickSpecName = quickSpecNames.get(testName);
+        if (quickSpecName == null)
+        {
+            quickSpecName = QuickSpecName.decode(testName);
+            if (quickSpecName != null)
+            {
+                quickSpecNames.put(testName, quickSpecName);
+            }
+        }
+        return quickSpecName;
+    }
+
+    /**
+     * The seconds between the brackets that end a test case line, as in {@code passed (0.123 seconds).}
+     */
+    @NotNull
+    static String parseDuration(@NotNull String line, int from)
+    {
+        final int start = line.indexOf(DURATION_START, from);
+        final int end = start > -1 ? line.indexOf(DURATION_END, start) : -1;
+        return end > start ? line.substring(start + DURATION_START.length(), end).trim() : NO_DURATION;
+    }
+
+    /**
+     * The device name and OS version of a destination such as {@code platform=iOS Simulator,name=iPhone 8,OS=11.2},
+     * or the destination itself if it does not name a device
+     */
+    @NotNull
+    static String destinationLabel(@NotNull String destination)
+    {
+        String name = null;
+        String os = null;
+        for (String specifier : StringUtils.split(destination, ','))
+        {
+            final String key = StringUtils.substringBefore(specifier, "=").trim();
+            final String value = StringUtils.substringAfter(specifier, "=").trim();
+            if ("name".equals(key) || ("id".equals(key) && name == null))
+            {
+                name = value;
+            }
+            else if ("OS".equals(key))
+            {
+                os = value;
+            }
+        }
+
+        if (StringUtils.isEmpty(name))
+        {
+            return destination.trim();
+        }
+        return os != null ? name + " OS " + os : name;
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    /**
+     * @return the number of failed tests parsed so far
+     */
+    public int getFailedTestCount()
+    {
+        return failedTestCount;
+    }
+
+    /**
+     * Hands results, timings and test output on to the same places as another parser of the same run
+     */
+    public void shareRunWith(@NotNull AbstractXCTestParser parser)
+    {
+        outputSpill = parser.outputSpill;
+        timings = parser.timings;
+        checkpointPager = parser.checkpointPager;
+    }
+
+    /**
+     * Keeps the output of parsed tests in the spill until it is materialized, rather than on the heap
+     */
+    public void setOutputSpill(@Nullable TestOutputSpill outputSpill)
+    {
+        this.outputSpill = outputSpill;
+    }
+
+    @Nullable
+    protected TestOutputSpill getOutputSpill()
+    {
+        return outputSpill;
+    }
+
+    /**
+     * @return whether the durations of tests and suites are recorded
+     */
+    protected boolean isTimed()
+    {
+        return timings != null;
+    }
+
+    /**
+     * Records the durations of tests and suites while parsing
+     */
+    public void setTimings(@Nullable TestTimings timings)
+    {
+        this.timings = timings;
+    }
+
+    /**
+     * Hands the results of finished suites on to the checkpoint in pages while parsing, as well as keeping them
+     */
+    public void setCheckpointPager(@Nullable TestCheckpointPager checkpointPager)
+    {
+        this.checkpointPager = checkpointPager;
+    }
+
+    /**
+     * Appends the destination the tests run on to suite names, the way OCUnit suite names carry their architecture
+     *
+     * @param destination as passed to {@code xcodebuild -destination}
+     */
+    public void setDestination(@Nullable String destination)
+    {
+        destinationLabel = destination != null ? destinationLabel(destination) : null;
+    }
+
+    @Nullable
+    protected String getDestinationLabel()
+    {
+        return destinationLabel;
+    }
+
+    @NotNull
+    protected TestNameTable getNames()
+    {
+        return names;
+    }
+}
@@ -0,0 +1,414 @@
+package com.atlassian.bamboo.plugins.xcode.tests.xctest;
+
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestNameTable;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputCapture;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputLimits;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.atlassian.bamboo.resultsummary.tests.TestState;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Parses XCTest output printed with parallel testing, where several clones of the test runner write to the same
+ * output and the lines of their tests interleave. Rather than a single current test, the tests in flight are kept by
+ * the clone running them and their own name:
+ * <ul>
+ *     <li>{@code Test Case '-[Module.Class method]' started.} and the matching {@code passed} or {@code failed} line
+ *     start and finish a test, whichever clone prints them</li>
+ *     <li>{@code Test case 'Class.method()' passed on 'Clone 1 of iPhone 8 - App (1234)' (0.100 seconds)} finishes
+ *     the test on the named clone, or reports one whose start was not printed</li>
+ *     <li>a test reported by both forms of line, once as {@code Test Case} and once as {@code Test case}, is only
+ *     counted once</li>
+ *     <li>error lines name their test, and are attributed to it</li>
+ *     <li>any other line is attributed to the test in flight if there is only one, as the test which printed it cannot
+ *     be told otherwise</li>
+ * </ul>
+ * Suite lines of different clones interleave as well, so tests are reported under their class, without its module.
+ */
+public class ParallelXCTestParser extends AbstractXCTestParser
+{
+    private static final Logger log = Logger.getLogger(ParallelXCTestParser.class);
+
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    private static final String TEST_CASE = "Test Case '";
+    private static final String PARALLEL_TEST_CASE = "Test case '";
+    private static final String TEST_SUITE = "Test Suite '";
+    private static final String PARALLEL_TEST_SUITE = "Test suite '";
+    private static final String TEST_SUCCESS = "** TEST SUCCEEDED **";
+    private static final String TEST_FAILED = "** TEST FAILED **";
+    private static final String TEST_ERROR = ": error: ";
+    private static final String STARTED = " started";
+    private static final String PASSED = " passed";
+    private static final String ON_CLONE = " on '";
+    private static final String SWIFT_METHOD_END = "()";
+    private static final int FINISHED_WINDOW = 1000;
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final TestOutputLimits outputLimits;
+    private volatile int finishedTestCount;
+    // When the first test case line and the last finished test were parsed, to measure the throughput of the clones
+    private volatile long firstTestMillis;
+    private volatile long lastFinishedTestMillis;
+
+    private final Map<String, InFlightTest> inFlightTests = Maps.newLinkedHashMap();
+    // The recently finished tests still to be reported by the other form of line, by that form and test key
+    private final Map<String, Integer> unreportedFinishes = new LinkedHashMap<String, Integer>()
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest)
+        {
+            return size() > FINISHED_WINDOW;
+        }
+    };
+    // Captures of finished tests, reset for the next ones to start
+    private final LinkedList<TestOutputCapture> freeCaptures = Lists.newLinkedList();
+
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    public ParallelXCTestParser()
+    {
+        this(TestOutputLimits.DEFAULT);
+    }
+
+    public ParallelXCTestParser(@NotNull TestOutputLimits outputLimits)
+    {
+        this(outputLimits, new TestNameTable());
+    }
+
+    /**
+     * @param names shared with the other parsers of the same run
+     */
+    public ParallelXCTestParser(@NotNull TestOutputLimits outputLimits, @NotNull TestNameTable names)
+    {
+        super(names);
+        this.outputLimits = outputLimits;
+    }
+
+    // ----------------------------------------------------------------------------------------------- Interface Methods
+
+    @Override
+    public void processLine(@NotNull String line)
+    {
+        if (line.startsWith(TEST_CASE) || line.startsWith(PARALLEL_TEST_CASE))
+        {
+            processTestCaseLine(line);
+        }
+        else if (line.startsWith(TEST_SUITE) || line.startsWith(PARALLEL_TEST_SUITE))
+        {
+            processTestSuiteLine(line);
+        }
+        else if (line.equals(TEST_FAILED) || line.equals(TEST_SUCCESS))
+        {
+            // Tests still in flight when the run ends never finished, like the current test of a sequential run
+            for (InFlightTest inFlightTest : inFlightTests.values())
+            {
+                releaseCapture(inFlightTest.output);
+            }
+            inFlightTests.clear();
+        }
+        else
+        {
+            final InFlightTest inFlightTest = findErrorTest(line);
+            if (inFlightTest != null)
+            {
+                inFlightTest.output.appendLine(line);
+            }
+            else if (inFlightTests.size() == 1)
+            {
+                inFlightTests.values().iterator().next().output.appendLine(line);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------- Helper Methods
+
+    private void processTestCaseLine(@NotNull String line)
+    {
+        final int nameStart = TEST_CASE.length();
+        final int nameEnd = line.indexOf('\'', nameStart);
+        final String testKey = nameEnd > nameStart ? testKey(line.substring(nameStart, nameEnd)) : null;
+        if (testKey == null)
+        {
+            log.warn("Could not process line '" + line + "'");
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        if (firstTestMillis == 0)
+        {
+            firstTestMillis = now;
+        }
+
+        // The clone is only named by the lines printed with parallel testing
+        String clone = null;
+        int durationFrom = nameEnd + 1;
+        final int onClone = line.indexOf(ON_CLONE, nameEnd);
+        if (onClone > -1)
+        {
+            final int cloneStart = onClone + ON_CLONE.length();
+            final int cloneEnd = line.indexOf('\'', cloneStart);
+            if (cloneEnd > cloneStart)
+            {
+                clone = line.substring(cloneStart, cloneEnd);
+                durationFrom = cloneEnd + 1;
+            }
+        }
+
+        if (line.startsWith(STARTED, nameEnd + 1))
+        {
+            final InFlightTest startedTest = new InFlightTest(testKey, acquireCapture());
+            final InFlightTest unfinishedTest = inFlightTests.put(inFlightKey(clone, testKey), startedTest);
+            if (unfinishedTest != null)
+            {
+                releaseCapture(unfinishedTest.output);
+            }
+            return;
+        }
+
+        final TestState testState = line.startsWith(PASSED, nameEnd + 1) ? TestState.SUCCESS : TestState.FAILED;
+        final boolean summaryLine = line.startsWith(PARALLEL_TEST_CASE);
+        final InFlightTest finishedTest = removeInFlightTest(clone, testKey);
+        if (finishedTest == null && takeUnreportedFinish(summaryLine, testKey))
+        {
+            // Already reported by the other form of line
+            return;
+        }
+
+        final TestResults testResults = newTestResults(suiteName(testKey), methodName(testKey), parseDuration(line, durationFrom));
+        if (finishedTest != null)
+        {
+            finishedTest.output.reportTo(testResults, getOutputSpill());
+            releaseCapture(finishedTest.output);
+        }
+        testResults.setState(testState);
+        addTestResults(testResults);
+        addUnreportedFinish(!summaryLine, testKey);
+        finishedTestCount++;
+        lastFinishedTestMillis = now;
+    }
+
+    private void addUnreportedFinish(boolean summaryLine, @NotNull String testKey)
+    {
+        final String key = finishKey(summaryLine, testKey);
+        final Integer count = unreportedFinishes.get(key);
+        unreportedFinishes.put(key, count != null ? count + 1 : 1);
+    }
+
+    /**
+     * @return whether the test had finished without being reported by this form of line yet
+     */
+    private boolean takeUnreportedFinish(boolean summaryLine, @NotNull String testKey)
+    {
+        final String key = finishKey(summaryLine, testKey);
+        final Integer count = unreportedFinishes.remove(key);
+        if (count != null && count > 1)
+        {
+            unreportedFinishes.put(key, count - 1);
+        }
+        return count != null;
+    }
+
+    @NotNull
+    private static String finishKey(boolean summaryLine, @NotNull String testKey)
+    {
+        return (summaryLine ? PARALLEL_TEST_CASE : TEST_CASE) + testKey;
+    }
+
+    private void processTestSuiteLine(@NotNull String line)
+    {
+        final int nameStart = TEST_SUITE.length();
+        final int nameEnd = line.indexOf('\'', nameStart);
+        if (nameEnd <= nameStart)
+        {
+            log.warn("Could not parse test suite line");
+            return;
+        }
+
+        final boolean suiteStarted = line.startsWith(STARTED, nameEnd + 1);
+        if (isTimed())
+        {
+            recordSuiteTime(getNames().suiteName(line.substring(nameStart, nameEnd), getDestinationLabel()), suiteStarted, line);
+        }
+
+        // Only finished tests are stored, so a page can be handed on whichever tests are still in flight
+        if (!suiteStarted)
+        {
+            suiteFinished();
+        }
+    }
+
+    /**
+     * The test finished by a line, started on the same clone or by a line which did not name its clone
+     */
+    @Nullable
+    private InFlightTest removeInFlightTest(@Nullable String clone, @NotNull String testKey)
+    {
+        InFlightTest inFlightTest = clone != null ? inFlightTests.remove(inFlightKey(clone, testKey)) : null;
+        if (inFlightTest == null)
+        {
+            inFlightTest = inFlightTests.remove(testKey);
+        }
+        if (inFlightTest == null)
+        {
+            for (Iterator<InFlightTest> iterator = inFlightTests.values().iterator(); iterator.hasNext(); )
+            {
+                final InFlightTest candidate = iterator.next();
+                if (candidate.testKey.equals(testKey))
+                {
+                    iterator.remove();
+                    return candidate;
+                }
+            }
+        }
+        return inFlightTest;
+    }
+
+    /**
+     * The test in flight named by an error line such as {@code File.swift:12: error: -[Module.Class method] : message}
+     */
+    @Nullable
+    private InFlightTest findErrorTest(@NotNull String line)
+    {
+        final int error = line.indexOf(TEST_ERROR);
+        if (error < 0 || inFlightTests.isEmpty())
+        {
+            return null;
+        }
+        final int nameStart = error + TEST_ERROR.length();
+        final int nameEnd = line.indexOf(']', nameStart);
+        final String testKey = nameEnd > nameStart ? testKey(line.substring(nameStart, nameEnd + 1)) : null;
+        if (testKey == null)
+        {
+            return null;
+        }
+
+        for (InFlightTest inFlightTest : inFlightTests.values())
+        {
+            if (inFlightTest.testKey.equals(testKey))
+            {
+                return inFlightTest;
+            }
+        }
+        return null;
+    }
+
+    @NotNull
+    private TestOutputCapture acquireCapture()
+    {
+        final TestOutputCapture capture = freeCaptures.poll();
+        return capture != null ? capture : outputLimits.newCapture("");
+    }
+
+    private void releaseCapture(@NotNull TestOutputCapture capture)
+    {
+        capture.reset();
+        freeCaptures.add(capture);
+    }
+
+    private String suiteName(@NotNull String testKey)
+    {
+        return getNames().suiteName(testKey.substring(0, testKey.indexOf(' ')), getDestinationLabel());
+    }
+
+    private String methodName(@NotNull String testKey)
+    {
+        return getNames().intern(testKey.substring(testKey.indexOf(' ') + 1));
+    }
+
+    @NotNull
+    private static String inFlightKey(@Nullable String clone, @NotNull String testKey)
+    {
+        return clone != null ? clone + '\n' + testKey : testKey;
+    }
+
+    /**
+     * The class without its module and the method of a test named as {@code -[Module.Class method]} or
+     * {@code Class.method()}, separated by a space
+     *
+     * @return null if the name is in neither form
+     */
+    @Nullable
+    static String testKey(@NotNull String testName)
+    {
+        final String className;
+        final String methodName;
+        if (testName.startsWith("-[") && testName.endsWith("]"))
+        {
+            final int space = testName.indexOf(' ');
+            if (space < 0)
+            {
+                return null;
+            }
+            className = testName.substring(2, space);
+            methodName = testName.substring(space + 1, testName.length() - 1);
+        }
+        else
+        {
+            final String selector = testName.endsWith(SWIFT_METHOD_END) ? testName.substring(0, testName.length() - SWIFT_METHOD_END.length()) : testName;
+            final int dot = selector.lastIndexOf('.');
+            if (dot < 0)
+            {
+                return null;
+            }
+            className = selector.substring(0, dot);
+            methodName = selector.substring(dot + 1);
+        }
+
+        if (className.isEmpty() || methodName.isEmpty() || methodName.indexOf(' ') > -1)
+        {
+            return null;
+        }
+        return className.substring(className.lastIndexOf('.') + 1) + ' ' + methodName;
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    /**
+     * @return the number of tests finished so far
+     */
+    public int getFinishedTestCount()
+    {
+        return finishedTestCount;
+    }
+
+    /**
+     * @return the milliseconds from parsing the first test case line to parsing the last finished test
+     */
+    public long getTestingMillis()
+    {
+        return lastFinishedTestMillis - firstTestMillis;
+    }
+
+    /**
+     * @return the number of tests started and not yet finished
+     */
+    int getInFlightTestCount()
+    {
+        return inFlightTests.size();
+    }
+
+    /**
+     * A test which has started and not yet finished, with the output attributed to it so far
+     */
+    private static final class InFlightTest
+    {
+        private final String testKey;
+        private final TestOutputCapture output;
+
+        private InFlightTest(@NotNull String testKey, @NotNull TestOutputCapture output)
+        {
+            this.testKey = testKey;
+            this.output = output;
+        }
+    }
+}
@@ -1,56 +1,187 @@
 package com.atlassian.bamboo.plugins.xcode.tests.xctest;
 
 import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
+/**
+ * The parts of a Quick spec name, {@code <describes>__<behaviour>_<file reference>_<line>}. Names are decoded by
+ * hand in a single scan, accepting exactly the names the pattern {@code ^(.+?)__(.+)(_+.+_\d+)$} matches: the first
+ * {@code __} ends what the spec describes, and the behaviour ends at the last {@code _} which leaves room for a file
+ * reference before the {@code _} preceding the trailing line number.
+ */
 class QuickSpecName
 {
-    private static final Pattern quickSpecNamePattern = Pattern.compile("^(.+?)__(.+)(_+.+_\\d+)$");
-
     // The xctest method name without the file reference at the end
     final String specKey;
 
     final String describes;
     final String behaviour;
 
+    private final String prettyName;
+
     public static boolean isValidName(String testName)
     {
-        return newTestNameMatcher(testName).matches();
+        return decode(testName) != null;
     }
 
-    private static Matcher newTestNameMatcher(String testName)
+    /**
+     * @return the decoded name, or null if the test name is not a Quick spec name
+     */
+    @Nullable
+    static QuickSpecName decode(@NotNull String methodName)
     {
-        return quickSpecNamePattern.matcher(testName);
+        final int length = methodName.length();
+
+        // The name ends with '_' and at least one digit
+        int lineNumberStart = length;
+        while (lineNumberStart > 0 && isDigit(methodName.charAt(lineNumberStart - 1)))
+        {
+            lineNumberStart--;
+        }
+        final int lineNumberSeparator = lineNumberStart - 1;
+        if (lineNumberStart == length || lineNumberSeparator < 0 || methodName.charAt(lineNumberSeparator) != '_')
+        {
+            return null;
+        }
+
+        // The behaviour ends at the last '_' with at least one character between it and the line number separator
+        final int behaviourEnd = methodName.lastIndexOf('_', lineNumberSeparator - 2);
+
+        // What the spec describes is at least one character, ending at the first "__" which leaves a behaviour
+        final int describesEnd = methodName.indexOf("__", 1);
+        if (describesEnd < 0 || describesEnd + 3 > behaviourEnd)
+        {
+            return null;
+        }
+
+        for (int i = 0; i < length; i++)
+        {
+            if (isLineTerminator(methodName.charAt(i)))
+            {
+                return null;
+            }
+        }
+
+        return new QuickSpecName(methodName, describesEnd, behaviourEnd);
     }
 
+    /**
+     * @throws IllegalArgumentException if the test name is not a Quick spec name
+     */
     public QuickSpecName(String methodName)
     {
-        final Matcher nameMatcher = newTestNameMatcher(methodName);
-        if (!nameMatcher.matches())
+        final QuickSpecName decoded = decode(methodName);
+        if (decoded == null)
         {
             throw new IllegalArgumentException("'" + methodName + "' is not a valid Quick spec name");
         }
 
-        this.specKey = nameMatcher.group(1) + "__" + nameMatcher.group(2).trim();
-        this.describes = squeezeUnderscoresToSpace(nameMatcher.group(1));
-        this.behaviour = squeezeUnderscoresToSpace(nameMatcher.group(2));
+        this.specKey = decoded.specKey;
+        this.describes = decoded.describes;
+        this.behaviour = decoded.behaviour;
+        this.prettyName = decoded.prettyName;
+    }
+
+    private QuickSpecName(String methodName, int describesEnd, int behaviourEnd)
+    {
+        final StringBuilder specKey = new StringBuilder(behaviourEnd);
+        final StringBuilder describes = new StringBuilder(describesEnd);
+        final StringBuilder behaviour = new StringBuilder(behaviourEnd - describesEnd - 2);
+        final StringBuilder prettyName = new StringBuilder(behaviourEnd + 16);
+
+        // The behaviour is trimmed in the spec key, which the pretty name is made of
+        final int behaviourStart = describesEnd + 2;
+        int trimmedStart = behaviourStart;
+        int trimmedEnd = behaviourEnd;
+        while (trimmedStart < trimmedEnd && methodName.charAt(trimmedStart) <= ' ')
+        {
+            trimmedStart++;
+        }
+        while (trimmedEnd > trimmedStart && methodName.charAt(trimmedEnd - 1) <= ' ')
+        {
+            trimmedEnd--;
+        }
+
+        boolean pendingSpace = false;
+        for (int i = 0; i < behaviourEnd; )
+        {
+            final int codePoint = methodName.codePointAt(i);
+            final int next = i + Character.charCount(codePoint);
+            final boolean inDescribes = i < describesEnd;
+            final boolean inBehaviour = i >= behaviourStart;
+
+            // Runs of '_' are squeezed into a single space
+            if (inDescribes || inBehaviour)
+            {
+                final StringBuilder part = inDescribes ? describes : behaviour;
+                if (codePoint != '_')
+                {
+                    part.appendCodePoint(codePoint);
+                }
+                else if (i == 0 || i == behaviourStart || methodName.charAt(i - 1) != '_')
+                {
+                    part.append(' ');
+                }
+            }
+
+            // Upper case letters start a word, '_' and whitespace separate words
+            if (inDescribes || !inBehaviour || (i >= trimmedStart && i < trimmedEnd))
+            {
+                specKey.appendCodePoint(codePoint);
+                if (codePoint == '_' || isWhitespace(codePoint))
+                {
+                    pendingSpace = true;
+                }
+                else
+                {
+                    if (pendingSpace || Character.getType(codePoint) == Character.UPPERCASE_LETTER)
+                    {
+                        prettyName.append(' ');
+                    }
+                    pendingSpace = false;
+                    prettyName.appendCodePoint(codePoint);
+                }
+            }
+            i = next;
+        }
+
+        this.specKey = specKey.toString();
+        this.describes = describes.toString();
+        this.behaviour = behaviour.toString();
+
+        final String wordsSeparated = prettyName.toString().toLowerCase().trim();
+        this.prettyName = StringUtils.isBlank(wordsSeparated) ? this.specKey : firstCharacterToUpper(wordsSeparated);
     }
 
     public String getPrettyName()
     {
-        String wordsSeparated = this.specKey.replaceAll("\\p{Lu}", " $0").replace('_', ' ').replaceAll("\\s+", " ").toLowerCase().trim();
-        return StringUtils.isBlank(wordsSeparated) ? this.specKey : firstCharacterToUpper(wordsSeparated);
+        return prettyName;
     }
 
-    private String firstCharacterToUpper(String str)
+    private static String firstCharacterToUpper(String str)
     {
         return str.substring(0, 1).toUpperCase() + str.substring(1);
     }
 
-    private String squeezeUnderscoresToSpace(String str)
+    private static boolean isDigit(char c)
+    {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * The characters {@code \s} matches
+     */
+    private static boolean isWhitespace(int codePoint)
+    {
+        return codePoint == ' ' || codePoint == '\t' || codePoint == '\n' || codePoint == 0x0B || codePoint == '\f' || codePoint == '\r';
+    }
+
+    /**
+     * The characters {@code .} does not match
+     */
+    private static boolean isLineTerminator(char c)
     {
-        return str.replaceAll("_+", " ");
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
     }
 }
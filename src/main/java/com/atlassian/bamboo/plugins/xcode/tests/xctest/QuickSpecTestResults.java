@@ -12,9 +12,17 @@ class QuickSpecTestResults extends TestResults
     }
 
     public QuickSpecTestResults(String className, String methodName, String duration)
+    {
+        this(className, methodName, new QuickSpecName(methodName), duration);
+    }
+
+    /**
+     * @param testName the already decoded method name
+     */
+    QuickSpecTestResults(String className, String methodName, QuickSpecName testName, String duration)
     {
         super(className, methodName, duration);
-        this.testName = new QuickSpecName(methodName);
+        this.testName = testName;
     }
 
     public QuickSpecName getQuickTestName()
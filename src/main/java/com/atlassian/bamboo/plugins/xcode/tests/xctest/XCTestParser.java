@@ -1,18 +1,18 @@
 package com.atlassian.bamboo.plugins.xcode.tests.xctest;
 
-import com.atlassian.bamboo.plugins.xcode.tests.api.XcodeTestParser;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestNameTable;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputCapture;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputLimits;
 import com.atlassian.bamboo.results.tests.TestResults;
 import com.atlassian.bamboo.resultsummary.tests.TestState;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
-import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
-import java.util.Set;
 
-public class XCTestParser implements XcodeTestParser
+public class XCTestParser extends AbstractXCTestParser
 {
     @SuppressWarnings("UnusedDeclaration")
     private static final Logger log = Logger.getLogger(XCTestParser.class);
@@ -22,36 +22,48 @@ public class XCTestParser implements XcodeTestParser
     private static final String TEST_CASE = "Test Case";
     private static final String TEST_SUCCESS = "** TEST SUCCEEDED **";
     private static final String TEST_FAILED = "** TEST FAILED **";
+    private static final String PASSED = "passed";
+    private static final String SUITE_STARTED = " started at";
+    private static final String NO_DURATION = "0";
 
     // ------------------------------------------------------------------------------------------------- Type Properties
 
-    private final Set<TestResults> successfulTestResults = Sets.newHashSet();
-    private final Set<TestResults> failingTestResults = Sets.newHashSet();
-
     private boolean testStarted;
-    private String currentTestKey;
     private String currentSuiteName;
-    private String currentTestName;
-    private String currentTestDuration = "0";
-    private StringBuilder currentTestOutput = new StringBuilder();
+    private String currentTestDuration = NO_DURATION;
+    private final TestOutputCapture currentTestOutput;
     private List<String> currentTestErrors = Lists.newLinkedList();
 
+    // Scanner state, kept as reusable buffers and ranges so that lines which don't complete a test allocate nothing
+    private final StringBuilder currentSuiteNameBuffer = new StringBuilder();
+    private final StringBuilder currentTestKey = new StringBuilder();
+    private int currentTestNameStart;
+
     // ---------------------------------------------------------------------------------------------------- Dependencies
     // ---------------------------------------------------------------------------------------------------- Constructors
-    // ----------------------------------------------------------------------------------------------- Interface Methods
 
-    @Override
-    public Set<TestResults> getSuccessfulTestResults()
+    public XCTestParser()
     {
-        return successfulTestResults;
+        this(TestOutputLimits.DEFAULT);
     }
 
-    @Override
-    public Set<TestResults> getFailingTestResults()
+    public XCTestParser(@NotNull TestOutputLimits outputLimits)
     {
-        return failingTestResults;
+        this(outputLimits, new TestNameTable());
     }
 
+    /**
+     * @param names shared with the other parsers of the same run
+     */
+    public XCTestParser(@NotNull TestOutputLimits outputLimits, @NotNull TestNameTable names)
+    {
+        super(names);
+        // XCTest output has always been reported with its lines run together
+        currentTestOutput = outputLimits.newCapture("");
+    }
+
+    // ----------------------------------------------------------------------------------------------- Interface Methods
+
     @Override
     public void processLine(@NotNull String line)
     {
@@ -59,11 +71,25 @@ public class XCTestParser implements XcodeTestParser
         if (line.startsWith(TEST_SUITE))
         {
             testStarted = true;
-            int start = line.indexOf("'");
-            int end = line.lastIndexOf("'");
-            if (start > -1 && end > -1)
+            int start = line.indexOf('\'');
+            int end = line.lastIndexOf('\'');
+            if (start > -1 && end > start)
             {
-                currentSuiteName = line.substring(start + 1, end);
+                if (!contentEquals(currentSuiteNameBuffer, line, start + 1, end))
+                {
+                    currentSuiteNameBuffer.setLength(0);
+                    currentSuiteNameBuffer.append(line, start + 1, end);
+                    currentSuiteName = null;
+                }
+                final boolean suiteStarted = line.startsWith(SUITE_STARTED, end + 1);
+                if (isTimed())
+                {
+                    recordSuiteTime(getCurrentSuiteName(), suiteStarted, line);
+                }
+                if (!suiteStarted)
+                {
+                    suiteFinished();
+                }
             }
             else
             {
@@ -74,26 +100,24 @@ public class XCTestParser implements XcodeTestParser
         {
             testStarted = true;
 
-            int start = line.indexOf("'") + 1;
-            int end = line.lastIndexOf("'");
-            if (start > -1 && end > -1)
+            // Skips the opening quote and '-', the key starts at '['
+            int start = line.indexOf('\'') + 2;
+            int end = line.lastIndexOf('\'');
+            int space = start > 1 ? line.indexOf(' ', start) : -1;
+            if (space > -1 && space < end)
             {
-                // Skips opening '['
-                String testKey = line.substring(start + 1, end);
-
-                String[] parts = testKey.split(" ");
-                String testName = parts[1].replace("]", "");
-
-                if (testKey.equals(currentTestKey))
+                if (contentEquals(currentTestKey, line, start, end))
                 {
-                    TestState testState = line.contains("passed") ? TestState.SUCCESS : TestState.FAILED;
+                    TestState testState = line.indexOf(PASSED, end) > -1 ? TestState.SUCCESS : TestState.FAILED;
+                    currentTestDuration = parseDuration(line, end);
                     createTestCaseResult(testState);
                     resetState();
                 }
                 else
                 {
-                    currentTestKey = testKey;
-                    currentTestName = testName;
+                    currentTestKey.setLength(0);
+                    currentTestKey.append(line, start, end);
+                    currentTestNameStart = space - start + 1;
                 }
             }
             else
@@ -108,7 +132,7 @@ public class XCTestParser implements XcodeTestParser
         }
         else if (testStarted)
         {
-            currentTestOutput.append(line);
+            currentTestOutput.appendLine(line);
         }
     }
 
@@ -117,34 +141,81 @@ public class XCTestParser implements XcodeTestParser
     // ------------------------------------------------------------------------------------------------- Helper Methods
     // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
 
+    @Override
+    public void setDestination(@Nullable String destination)
+    {
+        super.setDestination(destination);
+        currentSuiteName = null;
+    }
+
     private void createTestCaseResult(TestState testState)
     {
-        if (StringUtils.isNotEmpty(currentTestKey))
+        if (currentTestKey.length() > 0)
         {
             final TestResults testResults = makeTestResults();
-            testResults.setSystemOut(currentTestOutput.toString());
+            currentTestOutput.reportTo(testResults, getOutputSpill());
             testResults.setState(testState);
-            final Set<TestResults> resultSet = testState == TestState.SUCCESS ? successfulTestResults : failingTestResults;
-            resultSet.add(testResults);
+            addTestResults(testResults);
         }
     }
 
     private TestResults makeTestResults()
     {
-        if (QuickSpecTestResults.isQuickTestName(currentTestName))
+        return newTestResults(getCurrentSuiteName(), getCurrentTestName(), currentTestDuration);
+    }
+
+    @Nullable
+    private String getCurrentSuiteName()
+    {
+        if (currentSuiteName == null && currentSuiteNameBuffer.length() > 0)
         {
-            return new QuickSpecTestResults(currentSuiteName, currentTestName, currentTestDuration);
+            currentSuiteName = getNames().suiteName(currentSuiteNameBuffer.toString(), getDestinationLabel());
         }
+        return currentSuiteName;
+    }
 
-        return new TestResults(currentSuiteName, currentTestName, currentTestDuration);
+    /**
+     * The second word of the test key, without any closing brackets
+     */
+    private String getCurrentTestName()
+    {
+        final StringBuilder testName = new StringBuilder();
+        for (int i = currentTestNameStart; i < currentTestKey.length(); i++)
+        {
+            final char c = currentTestKey.charAt(i);
+            if (c == ' ')
+            {
+                break;
+            }
+            if (c != ']')
+            {
+                testName.append(c);
+            }
+        }
+        return getNames().intern(testName.toString());
     }
 
     private void resetState()
     {
         testStarted = false;
-        currentTestName = null;
-        currentTestKey = null;
-        currentTestOutput = new StringBuilder();
+        currentTestKey.setLength(0);
+        currentTestOutput.reset();
         currentTestErrors.clear();
     }
+
+    private static boolean contentEquals(CharSequence buffer, CharSequence line, int start, int end)
+    {
+        if (buffer.length() != end - start)
+        {
+            return false;
+        }
+        for (int i = 0; i < buffer.length(); i++)
+        {
+            if (buffer.charAt(i) != line.charAt(start + i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,195 @@
+package com.atlassian.bamboo.plugins.xcode.tests.xctest;
+
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestParserLogInterceptor;
+import com.atlassian.bamboo.plugins.xcode.tests.sharding.TestShard;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.atlassian.bamboo.resultsummary.tests.TestCaseResultError;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One xcodebuild run of XCTest tests, and the retries of the tests that failed in it.
+ * <p>
+ * Failed tests are run again on the same destination until they pass or the retries run out. A test which passes on
+ * a retry is flaky: its passing result stands in for the failure, which is kept at the start of its output.
+ */
+public final class XCTestRun
+{
+    // ------------------------------------------------------------------------------------------------------- Constants
+
+    private static final String ONLY_TESTING = "-only-testing:";
+
+    // ------------------------------------------------------------------------------------------------- Type Properties
+
+    private final TestParserLogInterceptor interceptor;
+    private final String destination;
+    private boolean processFailed;
+
+    // The failed tests not passed on a retry yet, read from the interceptor once the run is over
+    private List<TestResults> failingTestResults;
+    private final Set<TestResults> flakyFailures = Sets.newIdentityHashSet();
+    private final List<TestResults> flakyTestResults = Lists.newArrayList();
+
+    // ---------------------------------------------------------------------------------------------------- Dependencies
+    // ---------------------------------------------------------------------------------------------------- Constructors
+
+    /**
+     * @param destination as passed to {@code xcodebuild -destination}, or null if the run had none
+     */
+    public XCTestRun(@NotNull TestParserLogInterceptor interceptor, @Nullable String destination)
+    {
+        this.interceptor = interceptor;
+        this.destination = destination;
+    }
+
+    // -------------------------------------------------------------------------------------------------- Public Methods
+
+    /**
+     * Adds the identifiers of the tests still failing to an xcodebuild command
+     */
+    public void addTestSelection(@NotNull List<String> command, @NotNull String testTarget)
+    {
+        final Set<String> testIdentifiers = Sets.newLinkedHashSet();
+        for (TestResults failure : failingTests())
+        {
+            testIdentifiers.add(testIdentifier(testTarget, failure));
+        }
+        for (String testIdentifier : testIdentifiers)
+        {
+            command.add(ONLY_TESTING + testIdentifier);
+        }
+    }
+
+    /**
+     * Takes the passed tests of a retry: every failed test among them is flaky
+     *
+     * @return the number of tests found flaky by this retry
+     */
+    public int retried(int attempt, @NotNull Collection<TestResults> successfulTestResults)
+    {
+        final Map<String, TestResults> passedTests = Maps.newHashMap();
+        for (TestResults passed : successfulTestResults)
+        {
+            passedTests.put(testKey(passed), passed);
+        }
+
+        int flakyCount = 0;
+        for (Iterator<TestResults> failures = failingTests().iterator(); failures.hasNext(); )
+        {
+            final TestResults failure = failures.next();
+            final TestResults passed = passedTests.remove(testKey(failure));
+            if (passed != null)
+            {
+                failures.remove();
+                passed.setSystemOut(describeFailure(attempt, failure) + StringUtils.defaultString(passed.getSystemOut()));
+                flakyFailures.add(failure);
+                flakyTestResults.add(passed);
+                flakyCount++;
+            }
+        }
+        return flakyCount;
+    }
+
+    /**
+     * Whether the failure, as reported by the run's own parser, was followed by a pass on a retry
+     */
+    public boolean isFlaky(@NotNull TestResults failure)
+    {
+        return flakyFailures.contains(failure);
+    }
+
+    /**
+     * Whether the last xcodebuild process of the run failed without any test still failing to account for it, which no
+     * retry can make up for
+     */
+    public boolean isFailedWithoutTestFailures()
+    {
+        return processFailed && failingTests().isEmpty();
+    }
+
+    // -------------------------------------------------------------------------------------------------- Helper Methods
+
+    @NotNull
+    private List<TestResults> failingTests()
+    {
+        if (failingTestResults == null)
+        {
+            failingTestResults = Lists.newArrayList(interceptor.getFailingTestResults());
+        }
+        return failingTestResults;
+    }
+
+    @NotNull
+    private static String testIdentifier(@NotNull String testTarget, @NotNull TestResults testResults)
+    {
+        // Leaves out the destination appended to suite names when testing on several at once
+        final String testClass = StringUtils.substringBefore(testResults.getClassName(), " (");
+        return TestShard.testIdentifier(testTarget, testClass) + "/" + testResults.getActualMethodName();
+    }
+
+    @NotNull
+    private static String testKey(@NotNull TestResults testResults)
+    {
+        return testResults.getClassName() + "#" + testResults.getActualMethodName();
+    }
+
+    @NotNull
+    private static String describeFailure(int attempt, @NotNull TestResults failure)
+    {
+        final StringBuilder description = new StringBuilder("Flaky: failed, then passed on retry ").append(attempt).append('\n');
+        for (TestCaseResultError error : failure.getErrors())
+        {
+            description.append(error.getContent()).append('\n');
+        }
+        if (StringUtils.isNotEmpty(failure.getSystemOut()))
+        {
+            description.append(failure.getSystemOut()).append('\n');
+        }
+        return description.append('\n').toString();
+    }
+
+    // -------------------------------------------------------------------------------------- Basic Accessors / Mutators
+
+    @NotNull
+    public TestParserLogInterceptor getInterceptor()
+    {
+        return interceptor;
+    }
+
+    @Nullable
+    public String getDestination()
+    {
+        return destination;
+    }
+
+    /**
+     * @param processFailed whether the last xcodebuild process of the run, or of its latest retry, failed
+     */
+    public void setProcessFailed(boolean processFailed)
+    {
+        this.processFailed = processFailed;
+    }
+
+    @NotNull
+    public List<TestResults> getFailingTestResults()
+    {
+        return Collections.unmodifiableList(failingTests());
+    }
+
+    @NotNull
+    public List<TestResults> getFlakyTestResults()
+    {
+        return Collections.unmodifiableList(flakyTestResults);
+    }
+}
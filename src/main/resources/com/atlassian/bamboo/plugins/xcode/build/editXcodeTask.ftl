@@ -26,6 +26,25 @@
     [@ww.checkbox labelKey='xcode.run_in_ios_sim' name='run_in_ios_sim' toggle='true'/]
     [@ww.checkbox labelKey='xcode.reset_simulator' name='reset_simulator' toggle='true'/]
     [@ww.textfield labelKey='xcode.test_sim' name='test_sim' cssClass="long-field"  /]
+    [@ww.textarea labelKey='xcode.testDestinations' name='testDestinations' rows='4' cssClass="long-field"/]
+    [@ww.textfield labelKey='xcode.testDestinationConcurrency' name='testDestinationConcurrency' cssClass="short-field"/]
+    [@ww.checkbox labelKey='xcode.parallelTesting' name='parallelTesting' toggle='true'/]
+    [@ui.bambooSection dependsOn='parallelTesting' showOn='true']
+        [@ww.textfield labelKey='xcode.parallelTestingWorkers' name='parallelTestingWorkers' cssClass="short-field"/]
+    [/@ui.bambooSection]
+    [@ww.textfield labelKey='xcode.testTarget' name='testTarget' cssClass="long-field"/]
+    [@ww.textfield labelKey='xcode.retryFailedTests' name='retryFailedTests' cssClass="short-field"/]
+    [@ww.checkbox labelKey='xcode.failFastTests' name='failFastTests' toggle='true'/]
+    [@ui.bambooSection dependsOn='failFastTests' showOn='true']
+        [@ww.textfield labelKey='xcode.stopAfterTestFailures' name='stopAfterTestFailures' cssClass="short-field"/]
+    [/@ui.bambooSection]
+    [@ww.checkbox labelKey='xcode.checkpointTests' name='checkpointTests'/]
+    [@ww.checkbox labelKey='xcode.shardTests' name='shardTests' toggle='true'/]
+    [@ui.bambooSection dependsOn='shardTests' showOn='true']
+        [@ww.textarea labelKey='xcode.testShardDestinations' name='testShardDestinations' required='true' rows='4' cssClass="long-field"/]
+        [@ww.textfield labelKey='xcode.testShardIndex' name='testShardIndex' cssClass="short-field"/]
+        [@ww.textfield labelKey='xcode.testShardCount' name='testShardCount' cssClass="short-field"/]
+    [/@ui.bambooSection]
     [@ww.checkbox labelKey='xcode.build_ipa' name='build_ipa' toggle='true'/]
     [@ui.bambooSection dependsOn='build_ipa' showOn='true']
         [@ww.textfield labelKey="xcode.app_path" name="app_path" required="true" cssClass="long-field"/]
@@ -46,6 +65,11 @@
     [@ww.textfield labelKey='xcode.logfile' name='logfile' cssClass="long-field" /]
     [@ww.checkbox labelKey="xcode.cleanLogfile" name="cleanLogfile" /]
     [@ww.textfield labelKey='xcode.custom.parameters' name='customParameters' cssClass="long-field"  /]
+    [@ww.textfield labelKey='test.output.head' name='testOutputHeadKb' cssClass="short-field" /]
+    [@ww.textfield labelKey='test.output.tail' name='testOutputTailKb' cssClass="short-field" /]
+    [@ww.checkbox labelKey='test.output.spill' name='spillTestOutput' /]
+    [@ww.checkbox labelKey='xcode.parseTestsInBackground' name='parseTestsInBackground' /]
+    [@ww.checkbox labelKey='xcode.testHistory' name='testHistory' /]
 [/@ui.bambooSection]
 
 [#-- this is a patch to fix the inability for negative toggle --]
@@ -1 +1,5 @@
-[@ww.textfield labelKey="test.logFile" name="log_file" required="true" cssClass="long-field"/]
\ No newline at end of file
+[@ww.textfield labelKey="test.logFile" name="log_file" required="true" cssClass="long-field"/]
+[@ww.textfield labelKey="test.output.head" name="testOutputHeadKb" cssClass="short-field"/]
+[@ww.textfield labelKey="test.output.tail" name="testOutputTailKb" cssClass="short-field"/]
+[@ww.checkbox labelKey="test.output.spill" name="spillTestOutput"/]
+[@ww.checkbox labelKey="test.results.cache" name="cacheTestResults"/]
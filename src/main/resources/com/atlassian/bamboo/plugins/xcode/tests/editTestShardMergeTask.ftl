@@ -0,0 +1 @@
+[@ww.textfield labelKey="test.shards.resultsDirectory" name="shardResultsDirectory" cssClass="long-field"/]
@@ -0,0 +1,74 @@
+package com.atlassian.bamboo.plugins.xcode.build;
+
+import com.atlassian.bamboo.build.LogEntry;
+import com.atlassian.bamboo.build.SimpleLogEntry;
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import com.atlassian.bamboo.build.logger.LogInterceptor;
+import com.atlassian.bamboo.task.TaskContext;
+import com.google.common.collect.Lists;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ConcurrentTestRunContextTest
+{
+    @Test
+    public void testRunLoggerHandsLinesToRunInterceptorAndLogsThemUnchanged()
+    {
+        final BuildLogger buildLogger = mock(BuildLogger.class);
+        final TaskContext taskContext = mock(TaskContext.class);
+        when(taskContext.getBuildLogger()).thenReturn(buildLogger);
+        final RecordingInterceptor runInterceptor = new RecordingInterceptor();
+
+        final BuildLogger runLogger = ConcurrentTestRunContext.newRunContext(taskContext, runInterceptor).getBuildLogger();
+        final LogEntry logEntry = new SimpleLogEntry("Test Case '-[Tests testOutput]' started.");
+        runLogger.addBuildLogEntry(logEntry);
+        runLogger.addBuildLogEntry("** TEST SUCCEEDED **");
+        runLogger.addErrorLogEntry("some error");
+
+        Assert.assertEquals(Lists.newArrayList("Test Case '-[Tests testOutput]' started.", "** TEST SUCCEEDED **"), runInterceptor.lines);
+        Assert.assertEquals(Lists.newArrayList("some error"), runInterceptor.errorLines);
+        verify(buildLogger).addBuildLogEntry(logEntry);
+        verify(buildLogger).addBuildLogEntry("** TEST SUCCEEDED **");
+        verify(buildLogger).addErrorLogEntry("some error");
+    }
+
+    @Test
+    public void testRunContextForwardsEverythingElseToTaskContext()
+    {
+        final File workingDirectory = new File("build");
+        final TaskContext taskContext = mock(TaskContext.class);
+        when(taskContext.getBuildLogger()).thenReturn(mock(BuildLogger.class));
+        when(taskContext.getWorkingDirectory()).thenReturn(workingDirectory);
+
+        final TaskContext runContext = ConcurrentTestRunContext.newRunContext(taskContext, new RecordingInterceptor());
+
+        Assert.assertSame(workingDirectory, runContext.getWorkingDirectory());
+        Assert.assertNotSame(taskContext.getBuildLogger(), runContext.getBuildLogger());
+    }
+
+    private static final class RecordingInterceptor implements LogInterceptor
+    {
+        private final List<String> lines = Lists.newArrayList();
+        private final List<String> errorLines = Lists.newArrayList();
+
+        @Override
+        public void intercept(@NotNull LogEntry logEntry)
+        {
+            lines.add(logEntry.getLog());
+        }
+
+        @Override
+        public void interceptError(@NotNull LogEntry logEntry)
+        {
+            errorLines.add(logEntry.getLog());
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.atlassian.bamboo.plugins.xcode.build;
+
+import com.atlassian.bamboo.build.LogEntry;
+import com.atlassian.bamboo.build.SimpleLogEntry;
+import com.atlassian.bamboo.build.logger.LogInterceptor;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestParserLogInterceptor;
+import com.atlassian.bamboo.plugins.xcode.tests.api.XcodeTestParser;
+import com.atlassian.bamboo.plugins.xcode.tests.ocunit.OCUnitTestParser;
+import com.atlassian.bamboo.plugins.xcode.tests.xctest.ParallelXCTestParser;
+import com.atlassian.bamboo.plugins.xcode.tests.xctest.XCTestParser;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+public class XCodeLogMultiplexerTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testOCUnitOutputOnlyReachesOCUnitParser() throws IOException
+    {
+        final List<String> lines = readLines("/com/atlassian/bamboo/plugins/xcode/tests/testlog.txt");
+        final TestParserLogInterceptor expected = new TestParserLogInterceptor(new OCUnitTestParser());
+        final TestParserLogInterceptor ocUnit = new TestParserLogInterceptor(new OCUnitTestParser());
+        final TestParserLogInterceptor xcTest = new TestParserLogInterceptor(new XCTestParser());
+
+        final XCodeLogMultiplexer multiplexer = new XCodeLogMultiplexer();
+        multiplexer.setOCUnitInterceptor(ocUnit);
+        multiplexer.setXCTestInterceptor(xcTest);
+        for (String line : lines)
+        {
+            expected.intercept(new SimpleLogEntry(line));
+            multiplexer.intercept(new SimpleLogEntry(line));
+        }
+
+        Assert.assertEquals(XCodeLogMultiplexer.TestFormat.OCUNIT, multiplexer.getDetectedFormat());
+        Assert.assertFalse(ocUnit.getFailingTestResults().isEmpty());
+        Assert.assertEquals(describe(expected.getFailingTestResults()), describe(ocUnit.getFailingTestResults()));
+        Assert.assertEquals(describe(expected.getSuccessfulTestResults()), describe(ocUnit.getSuccessfulTestResults()));
+        Assert.assertTrue(xcTest.getFailingTestResults().isEmpty());
+        Assert.assertTrue(xcTest.getSuccessfulTestResults().isEmpty());
+    }
+
+    @Test
+    public void testXCTestOutputOnlyReachesXCTestParser() throws IOException
+    {
+        for (String resource : new String[] {"xctest-failed.txt", "xctest-success.txt", "xctest-quick-results.txt"})
+        {
+            final List<String> lines = readLines("/com/atlassian/bamboo/plugins/xcode/tests/" + resource);
+            final TestParserLogInterceptor expected = new TestParserLogInterceptor(new XCTestParser());
+            final TestParserLogInterceptor ocUnit = new TestParserLogInterceptor(new OCUnitTestParser());
+            final TestParserLogInterceptor xcTest = new TestParserLogInterceptor(new XCTestParser());
+
+            final XCodeLogMultiplexer multiplexer = new XCodeLogMultiplexer();
+            multiplexer.setOCUnitInterceptor(ocUnit);
+            multiplexer.setXCTestInterceptor(xcTest);
+            for (String line : lines)
+            {
+                expected.intercept(new SimpleLogEntry(line));
+                multiplexer.intercept(new SimpleLogEntry(line));
+            }
+
+            Assert.assertEquals(resource, XCodeLogMultiplexer.TestFormat.XCTEST, multiplexer.getDetectedFormat());
+            Assert.assertEquals(resource, describe(expected.getFailingTestResults()), describe(xcTest.getFailingTestResults()));
+            Assert.assertEquals(resource, describe(expected.getSuccessfulTestResults()), describe(xcTest.getSuccessfulTestResults()));
+            Assert.assertTrue(resource, ocUnit.getFailingTestResults().isEmpty());
+            Assert.assertTrue(resource, ocUnit.getSuccessfulTestResults().isEmpty());
+        }
+    }
+
+    @Test
+    public void testLinesAreRoutedToTheirConsumers() throws IOException
+    {
+        final File logfile = temporaryFolder.newFile();
+        final XCodeBuildLogInterceptor logfileWriter = new XCodeBuildLogInterceptor();
+        logfileWriter.open(logfile.getPath(), false);
+        final RecordingInterceptor errorInterceptor = new RecordingInterceptor();
+        final RecordingParser parser = new RecordingParser();
+
+        final XCodeLogMultiplexer multiplexer = new XCodeLogMultiplexer();
+        multiplexer.setLogfileWriter(logfileWriter);
+        multiplexer.setErrorInterceptor(errorInterceptor);
+        multiplexer.setXCTestInterceptor(new TestParserLogInterceptor(parser));
+
+        multiplexer.intercept(new SimpleLogEntry("CompileC build/Tests.o Tests.m normal x86_64 objective-c"));
+        multiplexer.interceptError(new SimpleLogEntry("warning: no rule to process file"));
+        multiplexer.intercept(new SimpleLogEntry("Test Suite 'Tests' started at 2015-12-22 13:49:33.737"));
+        multiplexer.intercept(new SimpleLogEntry("Test Case '-[Tests testOutput]' started."));
+        multiplexer.intercept(new SimpleLogEntry("some output"));
+        multiplexer.interceptError(new SimpleLogEntry("some error"));
+        multiplexer.intercept(new SimpleLogEntry("Test Case '-[Tests testOutput]' passed (0.001 seconds)."));
+        multiplexer.intercept(new SimpleLogEntry("Ld build/Tests normal x86_64"));
+        logfileWriter.close();
+
+        Assert.assertEquals(Lists.newArrayList("CompileC build/Tests.o Tests.m normal x86_64 objective-c",
+                                               "Test Suite 'Tests' started at 2015-12-22 13:49:33.737",
+                                               "Test Case '-[Tests testOutput]' started.",
+                                               "some output",
+                                               "Test Case '-[Tests testOutput]' passed (0.001 seconds).",
+                                               "Ld build/Tests normal x86_64"),
+                            FileUtils.readLines(logfile));
+        Assert.assertEquals(Lists.newArrayList("warning: no rule to process file", "some error"), errorInterceptor.lines);
+        Assert.assertEquals(Lists.newArrayList("Test Suite 'Tests' started at 2015-12-22 13:49:33.737",
+                                               "Test Case '-[Tests testOutput]' started.",
+                                               "some output",
+                                               "some error",
+                                               "Test Case '-[Tests testOutput]' passed (0.001 seconds)."),
+                            parser.lines);
+    }
+
+    @Test
+    public void testOutputOfParallelTestsIsRoutedUntilTheLastFinishes()
+    {
+        final RecordingParser parser = new RecordingParser();
+        final XCodeLogMultiplexer multiplexer = new XCodeLogMultiplexer();
+        multiplexer.setXCTestInterceptor(new TestParserLogInterceptor(parser));
+
+        multiplexer.intercept(new SimpleLogEntry("Test Case '-[AppTests.LoginTests testLogin]' started."));
+        multiplexer.intercept(new SimpleLogEntry("Test Case '-[AppTests.SearchTests testSearch]' started."));
+        multiplexer.intercept(new SimpleLogEntry("Test Case '-[AppTests.LoginTests testLogin]' passed (0.010 seconds)."));
+        multiplexer.intercept(new SimpleLogEntry("Searching for 'cats'"));
+        multiplexer.intercept(new SimpleLogEntry("Test Case '-[AppTests.SearchTests testSearch]' passed (0.020 seconds)."));
+        multiplexer.intercept(new SimpleLogEntry("Ld build/Tests normal x86_64"));
+        multiplexer.intercept(new SimpleLogEntry("Test case 'SearchTests.testFilter()' passed on 'Clone 1 of iPhone 8 - AppTests (4242)' (0.030 seconds)"));
+
+        Assert.assertEquals(XCodeLogMultiplexer.TestFormat.XCTEST, multiplexer.getDetectedFormat());
+        Assert.assertEquals(Lists.newArrayList("Test Case '-[AppTests.LoginTests testLogin]' started.",
+                                               "Test Case '-[AppTests.SearchTests testSearch]' started.",
+                                               "Test Case '-[AppTests.LoginTests testLogin]' passed (0.010 seconds).",
+                                               "Searching for 'cats'",
+                                               "Test Case '-[AppTests.SearchTests testSearch]' passed (0.020 seconds).",
+                                               "Test case 'SearchTests.testFilter()' passed on 'Clone 1 of iPhone 8 - AppTests (4242)' (0.030 seconds)"),
+                            parser.lines);
+    }
+
+    @Test
+    public void testOutputBetweenCloneLinesReachesTheParallelParser()
+    {
+        final ParallelXCTestParser parser = new ParallelXCTestParser();
+        final XCodeLogMultiplexer multiplexer = new XCodeLogMultiplexer();
+        multiplexer.setOCUnitInterceptor(new TestParserLogInterceptor(new OCUnitTestParser()));
+        multiplexer.setXCTestInterceptor(new TestParserLogInterceptor(parser));
+
+        multiplexer.intercept(new SimpleLogEntry("Test suite 'SearchTests' started on 'Clone 1 of iPhone 8 - AppTests (4242)'"));
+        multiplexer.intercept(new SimpleLogEntry("Test case 'SearchTests.testSearch()' started on 'Clone 1 of iPhone 8 - AppTests (4242)'"));
+        multiplexer.intercept(new SimpleLogEntry("Searching for 'cats'"));
+        multiplexer.intercept(new SimpleLogEntry("Test case 'SearchTests.testSearch()' passed on 'Clone 1 of iPhone 8 - AppTests (4242)' (0.020 seconds)"));
+        multiplexer.intercept(new SimpleLogEntry("** TEST SUCCEEDED **"));
+
+        Assert.assertEquals(XCodeLogMultiplexer.TestFormat.XCTEST, multiplexer.getDetectedFormat());
+        final TestResults success = Iterables.getOnlyElement(parser.getSuccessfulTestResults());
+        Assert.assertEquals("testSearch", success.getActualMethodName());
+        Assert.assertTrue(success.getSystemOut(), success.getSystemOut().contains("cats"));
+    }
+
+    @Test
+    public void testBuildOutputAfterParallelTestsIsNotForwarded()
+    {
+        final RecordingParser parser = new RecordingParser();
+        final XCodeLogMultiplexer multiplexer = new XCodeLogMultiplexer();
+        multiplexer.setXCTestInterceptor(new TestParserLogInterceptor(parser));
+
+        multiplexer.intercept(new SimpleLogEntry("Test case 'SearchTests.testSearch()' passed on 'Clone 1 of iPhone 8 - AppTests (4242)' (0.020 seconds)"));
+        multiplexer.intercept(new SimpleLogEntry("Searching for 'cats'"));
+        multiplexer.intercept(new SimpleLogEntry("** TEST SUCCEEDED **"));
+        multiplexer.intercept(new SimpleLogEntry("Ld build/Tests normal x86_64"));
+
+        Assert.assertEquals(Lists.newArrayList("Test case 'SearchTests.testSearch()' passed on 'Clone 1 of iPhone 8 - AppTests (4242)' (0.020 seconds)",
+                                               "Searching for 'cats'",
+                                               "** TEST SUCCEEDED **"),
+                            parser.lines);
+    }
+
+    @Test
+    public void testConcurrentRunLinesOnlyReachTheLogfileAndErrorCapture() throws IOException
+    {
+        final File logfile = temporaryFolder.newFile();
+        final XCodeBuildLogInterceptor logfileWriter = new XCodeBuildLogInterceptor();
+        logfileWriter.open(logfile.getPath(), false);
+        final RecordingInterceptor errorInterceptor = new RecordingInterceptor();
+        final RecordingParser parser = new RecordingParser();
+
+        final XCodeLogMultiplexer multiplexer = new XCodeLogMultiplexer();
+        multiplexer.setLogfileWriter(logfileWriter);
+        multiplexer.setErrorInterceptor(errorInterceptor);
+        multiplexer.setXCTestInterceptor(new TestParserLogInterceptor(parser));
+
+        multiplexer.setConcurrentRuns(true);
+        multiplexer.intercept(new SimpleLogEntry("Test Case '-[Tests testOutput]' started."));
+        multiplexer.interceptError(new SimpleLogEntry("some error"));
+        multiplexer.intercept(new SimpleLogEntry("Test Case '-[Tests testOutput]' passed (0.001 seconds)."));
+        multiplexer.setConcurrentRuns(false);
+        multiplexer.intercept(new SimpleLogEntry("Test Case '-[Tests testLate]' started."));
+        logfileWriter.close();
+
+        Assert.assertEquals(Lists.newArrayList("Test Case '-[Tests testLate]' started."), parser.lines);
+        Assert.assertEquals(Lists.newArrayList("some error"), errorInterceptor.lines);
+        Assert.assertEquals(Lists.newArrayList("Test Case '-[Tests testOutput]' started.",
+                                               "Test Case '-[Tests testOutput]' passed (0.001 seconds).",
+                                               "Test Case '-[Tests testLate]' started."),
+                            FileUtils.readLines(logfile));
+    }
+
+    private List<String> readLines(String resource) throws IOException
+    {
+        final InputStream logStream = getClass().getResourceAsStream(resource);
+        try
+        {
+            return IOUtils.readLines(logStream);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(logStream);
+        }
+    }
+
+    private static List<String> describe(Set<TestResults> testResults)
+    {
+        final List<String> descriptions = Lists.newArrayList();
+        for (TestResults testResult : testResults)
+        {
+            descriptions.add(testResult.getClassName() + "#" + testResult.getMethodName() + " " + testResult.getSystemOut());
+        }
+        Collections.sort(descriptions);
+        return descriptions;
+    }
+
+    private static final class RecordingInterceptor implements LogInterceptor
+    {
+        private final List<String> lines = Lists.newArrayList();
+
+        @Override
+        public void intercept(@NotNull LogEntry logEntry)
+        {
+            lines.add(logEntry.getLog());
+        }
+
+        @Override
+        public void interceptError(@NotNull LogEntry logEntry)
+        {
+            lines.add(logEntry.getLog());
+        }
+    }
+
+    private static final class RecordingParser implements XcodeTestParser
+    {
+        private final List<String> lines = Lists.newArrayList();
+
+        @Override
+        public Set<TestResults> getSuccessfulTestResults()
+        {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<TestResults> getFailingTestResults()
+        {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public void processLine(@NotNull String line)
+        {
+            lines.add(line);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.atlassian.bamboo.plugins.xcode.tests.api;
+
+import com.atlassian.bamboo.plugins.xcode.tests.ocunit.OCUnitTestParser;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class TestNameTableTest
+{
+    @Test
+    public void testSuiteNamesAreQualifiedWithArchitecture()
+    {
+        final TestNameTable names = new TestNameTable();
+        Assert.assertEquals("Tests (i386)", names.suiteName("Tests", "i386"));
+        Assert.assertEquals("Tests", names.suiteName("Tests", null));
+        Assert.assertEquals("Tests", names.suiteName("Tests", ""));
+        Assert.assertEquals("null (i386)", names.suiteName(null, "i386"));
+        Assert.assertNull(names.suiteName(null, null));
+        Assert.assertSame(names.suiteName("Tests", "i386"), names.suiteName(new String("Tests"), new String("i386")));
+    }
+
+    @Test
+    public void testParsedResultsShareNames()
+    {
+        final TestNameTable names = new TestNameTable();
+        final OCUnitTestParser parser = new OCUnitTestParser(TestOutputLimits.DEFAULT, names);
+        for (String architecture : new String[] {"x86_64", "i386"})
+        {
+            parser.processLine("Run unit tests for architecture '" + architecture + "' (GC OFF)");
+            parser.processLine("Test Suite 'Tests' started at 2011-07-25 02:25:43 +0000");
+            for (String test : new String[] {"testOne", "testTwo"})
+            {
+                parser.processLine("Test Case '-[Tests " + test + "]' started.");
+                parser.processLine("Tests.m:42: error: -[Tests " + test + "] : failed");
+                parser.processLine("Test Case '-[Tests " + test + "]' failed (0.001 seconds).");
+            }
+            parser.processLine("Test Suite 'Tests' finished at 2011-07-25 02:25:43 +0000.");
+        }
+
+        final List<TestResults> testResults = Lists.newArrayList(parser.getFailingTestResults());
+        Assert.assertEquals(4, testResults.size());
+        for (TestResults first : testResults)
+        {
+            for (TestResults second : testResults)
+            {
+                if (first.getClassName().equals(second.getClassName()))
+                {
+                    Assert.assertSame(first.getClassName(), second.getClassName());
+                }
+                if (first.getMethodName().equals(second.getMethodName()))
+                {
+                    Assert.assertSame(first.getMethodName(), second.getMethodName());
+                    Assert.assertSame(first.getErrors().get(0).getContent(), second.getErrors().get(0).getContent());
+                }
+            }
+        }
+    }
+}
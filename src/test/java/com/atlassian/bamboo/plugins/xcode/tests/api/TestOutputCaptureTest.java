@@ -0,0 +1,95 @@
+package com.atlassian.bamboo.plugins.xcode.tests.api;
+
+import com.atlassian.bamboo.plugins.xcode.tests.ocunit.OCUnitTestParser;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class TestOutputCaptureTest
+{
+    @Test
+    public void testKeepsAllOutputWithinLimits()
+    {
+        final TestOutputCapture capture = new TestOutputLimits(8, 8).newCapture("\n");
+        capture.appendLine("a");
+        capture.appendLine("b");
+        capture.appendLine("c");
+        Assert.assertEquals("a\nb\nc\n", capture.toString());
+        Assert.assertEquals(0, capture.getElidedLines());
+    }
+
+    @Test
+    public void testElidesLinesBetweenHeadAndTail()
+    {
+        final TestOutputCapture capture = new TestOutputLimits(4, 4).newCapture("\n");
+        for (int i = 0; i < 10; i++)
+        {
+            capture.appendLine(String.valueOf(i));
+        }
+        Assert.assertEquals("0\n1\n[... 6 lines elided ...]\n8\n9\n", capture.toString());
+        Assert.assertEquals(6, capture.getElidedLines());
+    }
+
+    @Test
+    public void testKeepsEndOfLinesLongerThanTheTail()
+    {
+        final TestOutputCapture capture = new TestOutputLimits(0, 4).newCapture("");
+        capture.appendLine("a");
+        capture.appendLine("bcdefgh");
+        Assert.assertEquals("[... 1 line elided ...]\nefgh", capture.toString());
+    }
+
+    @Test
+    public void testResetForgetsOutput()
+    {
+        final TestOutputCapture capture = new TestOutputLimits(2, 2).newCapture("\n");
+        capture.appendLine("a");
+        capture.appendLine("b");
+        capture.appendLine("c");
+        capture.reset();
+        capture.appendLine("d");
+        Assert.assertEquals("d\n", capture.toString());
+    }
+
+    @Test
+    public void testLimitsFromConfiguration()
+    {
+        Assert.assertSame(TestOutputLimits.DEFAULT, TestOutputLimits.fromConfiguration(Collections.<String, String>emptyMap()));
+
+        final TestOutputLimits limits = TestOutputLimits.fromConfiguration(ImmutableMap.of(TestOutputLimits.OUTPUT_HEAD_KB, " 1 ",
+                                                                                          TestOutputLimits.OUTPUT_TAIL_KB, ""));
+        Assert.assertEquals(1024, limits.getHeadLength());
+        Assert.assertEquals(TestOutputLimits.DEFAULT_TAIL_KB * 1024, limits.getTailLength());
+
+        Assert.assertTrue(TestOutputLimits.isValidSize(null));
+        Assert.assertTrue(TestOutputLimits.isValidSize("0"));
+        Assert.assertFalse(TestOutputLimits.isValidSize("-1"));
+        Assert.assertFalse(TestOutputLimits.isValidSize("1.5"));
+        Assert.assertFalse(TestOutputLimits.isValidSize("99999999"));
+    }
+
+    @Test
+    public void testParserBoundsOutputOfChattyTests()
+    {
+        final OCUnitTestParser parser = new OCUnitTestParser(new TestOutputLimits(1024, 1024));
+        parser.processLine("Test Suite 'Chatty' started at 2011-07-25 02:25:43 +0000");
+        parser.processLine("Test Case '-[Chatty testLogging]' started.");
+        for (int i = 0; i < 100000; i++)
+        {
+            parser.processLine(Strings.repeat("network ", 10) + i);
+        }
+        parser.processLine("Test Case '-[Chatty testLogging]' passed (0.010 seconds).");
+
+        final TestResults testResults = Iterables.getOnlyElement(parser.getSuccessfulTestResults());
+        final String systemOut = testResults.getSystemOut();
+        Assert.assertTrue(systemOut.length() < 3 * 1024);
+        Assert.assertTrue(systemOut.startsWith("Test Case '-[Chatty testLogging]' started.\n"));
+        Assert.assertTrue(systemOut.contains(" lines elided ...]\n"));
+        Assert.assertTrue(systemOut.endsWith(" 99999\n"));
+    }
+}
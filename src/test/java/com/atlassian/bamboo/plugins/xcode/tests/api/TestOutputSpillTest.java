@@ -0,0 +1,83 @@
+package com.atlassian.bamboo.plugins.xcode.tests.api;
+
+import com.atlassian.bamboo.plugins.xcode.tests.xctest.XCTestParser;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+public class TestOutputSpillTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testOutputIsMaterializedOnlyWhenAskedFor() throws IOException
+    {
+        final File file = temporaryFolder.newFile();
+        final TestOutputSpill spill = new TestOutputSpill(file, 16);
+        try
+        {
+            final TestOutputLimits limits = new TestOutputLimits(64, 64);
+            final List<TestResults> testResults = Lists.newArrayList();
+            final List<String> expectedOutput = Lists.newArrayList();
+            for (int i = 0; i < 20; i++)
+            {
+                final TestOutputCapture capture = limits.newCapture("\n");
+                for (int j = 0; j <= i; j++)
+                {
+                    // Multi-byte characters make sure encoded lines straddle the small segments
+                    capture.appendLine("line " + j + " \u00e9\u20ac\ud83d\ude00");
+                }
+                final TestResults results = new TestResults("Suite", "test" + i, "0.1");
+                capture.reportTo(results, spill);
+
+                Assert.assertNull(results.getSystemOut());
+                testResults.add(results);
+                expectedOutput.add(capture.toString());
+            }
+
+            spill.materialize();
+            for (int i = 0; i < testResults.size(); i++)
+            {
+                Assert.assertEquals(expectedOutput.get(i), testResults.get(i).getSystemOut());
+            }
+        }
+        finally
+        {
+            spill.close();
+        }
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void testParserSpillsOutput() throws IOException
+    {
+        final TestOutputSpill spill = TestOutputSpill.create();
+        try
+        {
+            final XCTestParser parser = new XCTestParser();
+            parser.setOutputSpill(spill);
+            parser.processLine("Test Suite 'Tests' started at 2015-12-22 13:49:33.737");
+            parser.processLine("Test Case '-[Tests testOutput]' started.");
+            parser.processLine("some output");
+            parser.processLine("Test Case '-[Tests testOutput]' passed (0.001 seconds).");
+
+            final TestResults testResults = Iterables.getOnlyElement(parser.getSuccessfulTestResults());
+            Assert.assertNull(testResults.getSystemOut());
+            spill.materialize();
+            Assert.assertEquals("some output", testResults.getSystemOut());
+        }
+        finally
+        {
+            spill.close();
+        }
+    }
+}
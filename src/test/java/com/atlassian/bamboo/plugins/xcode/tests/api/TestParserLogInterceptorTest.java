@@ -0,0 +1,159 @@
+package com.atlassian.bamboo.plugins.xcode.tests.api;
+
+import com.atlassian.bamboo.build.SimpleLogEntry;
+import com.atlassian.bamboo.plugins.xcode.tests.xctest.XCTestParser;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestParserLogInterceptorTest
+{
+    @Test
+    public void testAsyncParsingMatchesSynchronousParsing() throws IOException
+    {
+        final List<String> lines = readLines("/com/atlassian/bamboo/plugins/xcode/tests/xctest-consecutive-identical-test-names.txt");
+
+        final TestParserLogInterceptor synchronous = new TestParserLogInterceptor(new XCTestParser());
+        final TestParserLogInterceptor async = TestParserLogInterceptor.newAsyncInterceptor(new XCTestParser(), 8);
+        try
+        {
+            for (String line : lines)
+            {
+                synchronous.intercept(new SimpleLogEntry(line));
+                async.intercept(new SimpleLogEntry(line));
+            }
+
+            Assert.assertEquals(218, async.getSuccessfulTestResults().size());
+            Assert.assertEquals(describe(synchronous.getSuccessfulTestResults()), describe(async.getSuccessfulTestResults()));
+            Assert.assertEquals(describe(synchronous.getFailingTestResults()), describe(async.getFailingTestResults()));
+        }
+        finally
+        {
+            async.close();
+        }
+    }
+
+    @Test
+    public void testOutputAndErrorLinesAreParsedOneAtATime() throws InterruptedException
+    {
+        for (final boolean parseInBackground : new boolean[] {false, true})
+        {
+            final LineRecordingParser parser = new LineRecordingParser();
+            final TestParserLogInterceptor interceptor = parseInBackground
+                                                         ? TestParserLogInterceptor.newAsyncInterceptor(parser, 16)
+                                                         : new TestParserLogInterceptor(parser);
+            final int linesPerThread = 20000;
+            final Thread output = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < linesPerThread; i++)
+                    {
+                        interceptor.intercept(new SimpleLogEntry("out " + i));
+                    }
+                }
+            });
+            final Thread error = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < linesPerThread; i++)
+                    {
+                        interceptor.interceptError(new SimpleLogEntry("err " + i));
+                    }
+                }
+            });
+            output.start();
+            error.start();
+            output.join();
+            error.join();
+
+            interceptor.getFailingTestResults();
+            interceptor.close();
+
+            Assert.assertEquals(0, parser.concurrentCalls.get());
+            Assert.assertEquals(2 * linesPerThread, parser.lines.size());
+
+            // Lines from each stream keep their order
+            int nextOut = 0;
+            int nextErr = 0;
+            for (String line : parser.lines)
+            {
+                if (line.startsWith("out "))
+                {
+                    Assert.assertEquals("out " + nextOut++, line);
+                }
+                else
+                {
+                    Assert.assertEquals("err " + nextErr++, line);
+                }
+            }
+        }
+    }
+
+    private List<String> readLines(String resource) throws IOException
+    {
+        final InputStream logStream = getClass().getResourceAsStream(resource);
+        try
+        {
+            return IOUtils.readLines(logStream);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(logStream);
+        }
+    }
+
+    private static List<String> describe(Set<TestResults> testResults)
+    {
+        final List<String> descriptions = Lists.newArrayList();
+        for (TestResults testResult : testResults)
+        {
+            descriptions.add(testResult.getClassName() + "#" + testResult.getMethodName() + " " + testResult.getSystemOut());
+        }
+        Collections.sort(descriptions);
+        return descriptions;
+    }
+
+    private static final class LineRecordingParser implements XcodeTestParser
+    {
+        private final List<String> lines = Lists.newArrayList();
+        private final AtomicInteger activeCalls = new AtomicInteger();
+        private final AtomicInteger concurrentCalls = new AtomicInteger();
+
+        @Override
+        public Set<TestResults> getSuccessfulTestResults()
+        {
+            return Sets.newHashSet();
+        }
+
+        @Override
+        public Set<TestResults> getFailingTestResults()
+        {
+            return Sets.newHashSet();
+        }
+
+        @Override
+        public void processLine(String line)
+        {
+            if (activeCalls.incrementAndGet() > 1)
+            {
+                concurrentCalls.incrementAndGet();
+            }
+            lines.add(line);
+            activeCalls.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.atlassian.bamboo.plugins.xcode.tests.api;
+
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+public class TestResultStoreTest
+{
+    @Test
+    public void testResultsWithTheSameNameAreAllKeptInOrder()
+    {
+        final TestResults first = new TestResults("Tests", "testOne", "0.001");
+        final TestResults other = new TestResults("Tests", "testTwo", "0.001");
+        final TestResults second = new TestResults("Tests", "testOne", "0.002");
+
+        final TestResultStore store = new TestResultStore();
+        store.add(first);
+        store.add(other);
+        store.add(second);
+
+        Assert.assertEquals(3, store.size());
+        Assert.assertEquals(Arrays.asList(first, other, second), Lists.newArrayList(store.asSet()));
+        Assert.assertSame(first, store.get("Tests", "testOne", 0));
+        Assert.assertSame(second, store.get("Tests", "testOne", 1));
+        Assert.assertSame(other, store.get("Tests", "testTwo", 0));
+        Assert.assertNull(store.get("Tests", "testOne", 2));
+        Assert.assertNull(store.get("Other", "testOne", 0));
+    }
+
+    @Test
+    public void testSetViewContainsOnlyTheStoredInstances()
+    {
+        final TestResults testResults = new TestResults("Tests", "testOne", "0.001");
+        final TestResultStore store = new TestResultStore();
+        final Set<TestResults> view = store.asSet();
+        Assert.assertTrue(view.isEmpty());
+
+        view.add(testResults);
+        Assert.assertEquals(1, store.size());
+        Assert.assertTrue(view.contains(testResults));
+        Assert.assertFalse(view.contains(new TestResults("Tests", "testOne", "0.001")));
+        Assert.assertFalse(view.contains("Tests"));
+    }
+
+    @Test
+    public void testMergedResultsKeepTheOrderOfEachSource()
+    {
+        final TestResultStore ocUnit = new TestResultStore();
+        ocUnit.add(new TestResults("Tests (i386)", "testOne", "0.001"));
+        ocUnit.add(new TestResults("Tests (x86_64)", "testOne", "0.001"));
+        final TestResultStore xcTest = new TestResultStore();
+        xcTest.add(new TestResults("Tests", "testOne", "0.001"));
+        xcTest.add(new TestResults("Tests", "testOne", "0.001"));
+
+        final TestResultStore merged = new TestResultStore();
+        merged.addAll(ocUnit.asSet());
+        merged.addAll(xcTest.asSet());
+
+        final List<TestResults> expected = Lists.newArrayList(ocUnit.asSet());
+        expected.addAll(xcTest.asSet());
+        Assert.assertEquals(expected, Lists.newArrayList(merged.asSet()));
+        Assert.assertSame(expected.get(3), merged.get("Tests", "testOne", 1));
+    }
+
+    @Test
+    public void testResultsFromAnIndexAreTheOnesAddedAfterIt()
+    {
+        final TestResults first = new TestResults("Tests", "testOne", "0.001");
+        final TestResults second = new TestResults("Tests", "testOne", "0.001");
+        final TestResults third = new TestResults("OtherTests", "testTwo", "0.001");
+        final TestResultStore store = new TestResultStore();
+        store.add(first);
+        store.add(second);
+        store.add(third);
+
+        Assert.assertEquals(Lists.newArrayList(second, third), store.getResultsFrom(1));
+        Assert.assertTrue(store.getResultsFrom(3).isEmpty());
+        Assert.assertEquals(3, store.size());
+    }
+}
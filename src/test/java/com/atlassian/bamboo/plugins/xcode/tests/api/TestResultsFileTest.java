@@ -0,0 +1,138 @@
+package com.atlassian.bamboo.plugins.xcode.tests.api;
+
+import com.atlassian.bamboo.plugins.xcode.tests.ocunit.OCUnitTestParser;
+import com.atlassian.bamboo.plugins.xcode.tests.xctest.XCTestParser;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.atlassian.bamboo.resultsummary.tests.TestCaseResultError;
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+public class TestResultsFileTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testReadResultsMatchWrittenResults() throws IOException
+    {
+        final File logFile = copyLog("/com/atlassian/bamboo/plugins/xcode/tests/testlog.txt");
+        final OCUnitTestParser parser = new OCUnitTestParser();
+        for (String line : FileUtils.readLines(logFile))
+        {
+            parser.processLine(line);
+        }
+        Assert.assertFalse(parser.getFailingTestResults().isEmpty());
+
+        TestResultsFile.write(logFile, parser.getSuccessfulTestResults(), parser.getFailingTestResults());
+        final TestResultsFile testResultsFile = TestResultsFile.read(logFile);
+
+        Assert.assertNotNull(testResultsFile);
+        Assert.assertEquals(describe(parser.getSuccessfulTestResults()), describe(testResultsFile.getSuccessfulTestResults()));
+        Assert.assertEquals(describe(parser.getFailingTestResults()), describe(testResultsFile.getFailingTestResults()));
+    }
+
+    @Test
+    public void testResultsAreIgnoredOnceLogChanges() throws IOException
+    {
+        final File logFile = copyLog("/com/atlassian/bamboo/plugins/xcode/tests/xctest-success.txt");
+        final TestResults testResults = new TestResults("Suite", "testNothing", "0.001");
+        testResults.setSystemOut("output \u00e9");
+        TestResultsFile.write(logFile, Collections.singleton(testResults), Collections.<TestResults>emptySet());
+        Assert.assertNotNull(TestResultsFile.read(logFile));
+
+        FileUtils.writeStringToFile(logFile, "Test Suite 'All tests' started\n", true);
+        Assert.assertNull(TestResultsFile.read(logFile));
+    }
+
+    @Test
+    public void testUnknownFileIsIgnored() throws IOException
+    {
+        final File logFile = copyLog("/com/atlassian/bamboo/plugins/xcode/tests/xctest-success.txt");
+        Assert.assertNull(TestResultsFile.read(logFile));
+
+        FileUtils.writeStringToFile(TestResultsFile.forLog(logFile), "not test results");
+        Assert.assertNull(TestResultsFile.read(logFile));
+    }
+
+    @Test
+    public void testQuickSpecsKeepTheirMethodName() throws IOException
+    {
+        final File logFile = copyLog("/com/atlassian/bamboo/plugins/xcode/tests/xctest-quick-results.txt");
+        final XCTestParser parser = new XCTestParser();
+        for (String line : FileUtils.readLines(logFile))
+        {
+            parser.processLine(line);
+        }
+
+        TestResultsFile.write(logFile, parser.getSuccessfulTestResults(), parser.getFailingTestResults());
+        final TestResultsFile testResultsFile = TestResultsFile.read(logFile);
+
+        Assert.assertNotNull(testResultsFile);
+        Assert.assertEquals(describe(parser.getSuccessfulTestResults()), describe(testResultsFile.getSuccessfulTestResults()));
+    }
+
+    @Test
+    public void testResultsWithoutLogAreReadFromTheirOwnFile() throws IOException
+    {
+        final File resultsFile = new File(temporaryFolder.getRoot(), "shard.testresults");
+        final TestResults testResults = new TestResults("Suite", "testNothing", "0.001");
+        TestResultsFile.writeResults(resultsFile, Collections.<TestResults>emptySet(), Collections.singleton(testResults));
+
+        final TestResultsFile testResultsFile = TestResultsFile.readResults(resultsFile);
+        Assert.assertNotNull(testResultsFile);
+        Assert.assertTrue(testResultsFile.getSuccessfulTestResults().isEmpty());
+        Assert.assertEquals(describe(Collections.singleton(testResults)), describe(testResultsFile.getFailingTestResults()));
+
+        final File logFile = copyLog("/com/atlassian/bamboo/plugins/xcode/tests/xctest-success.txt");
+        TestResultsFile.write(logFile, Collections.singleton(testResults), Collections.<TestResults>emptySet());
+        Assert.assertNull(TestResultsFile.readResults(TestResultsFile.forLog(logFile)));
+    }
+
+    private File copyLog(String resource) throws IOException
+    {
+        final File logFile = temporaryFolder.newFile();
+        final InputStream logStream = getClass().getResourceAsStream(resource);
+        try
+        {
+            FileUtils.copyInputStreamToFile(logStream, logFile);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(logStream);
+        }
+        return logFile;
+    }
+
+    private static List<String> describe(Set<TestResults> testResults)
+    {
+        final List<String> descriptions = Lists.newArrayList();
+        for (TestResults testResult : testResults)
+        {
+            final StringBuilder description = new StringBuilder()
+                    .append(testResult.getClassName()).append('#').append(testResult.getMethodName())
+                    .append(" (").append(testResult.getActualMethodName()).append(')')
+                    .append(' ').append(testResult.getState())
+                    .append(' ').append(testResult.getDuration())
+                    .append(' ').append(testResult.getSystemOut());
+            for (TestCaseResultError error : testResult.getErrors())
+            {
+                description.append(" error: ").append(error.getContent());
+            }
+            descriptions.add(description.toString());
+        }
+        Collections.sort(descriptions);
+        return descriptions;
+    }
+}
@@ -0,0 +1,204 @@
+package com.atlassian.bamboo.plugins.xcode.tests.api;
+
+import com.atlassian.bamboo.plugins.xcode.tests.ocunit.OCUnitTestParser;
+import com.atlassian.bamboo.plugins.xcode.tests.xctest.XCTestParser;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+public class TestTimingsTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testSuiteTimingsAreSummarisedSlowestFirst()
+    {
+        final TestTimings timings = new TestTimings();
+        for (int duration = 1; duration <= 100; duration++)
+        {
+            timings.testFinished("Slow", duration * 10);
+        }
+        timings.testFinished("Fast", 7);
+        timings.suiteFinished("Fast", 12);
+        timings.suiteFinished("All tests", 5000);
+
+        final List<TestTimings.SuiteTiming> suiteTimings = timings.getSuiteTimings();
+        Assert.assertEquals(3, suiteTimings.size());
+
+        final TestTimings.SuiteTiming slow = suiteTimings.get(0);
+        Assert.assertEquals("Slow", slow.getSuiteName());
+        Assert.assertEquals(100, slow.getTestCount());
+        Assert.assertEquals(50500, slow.getTotalMillis());
+        Assert.assertEquals(500, slow.getP50Millis());
+        Assert.assertEquals(950, slow.getP95Millis());
+        Assert.assertEquals(1000, slow.getMaxMillis());
+        Assert.assertEquals(-1, slow.getWallTimeMillis());
+
+        final TestTimings.SuiteTiming fast = suiteTimings.get(1);
+        Assert.assertEquals(7, fast.getP50Millis());
+        Assert.assertEquals(7, fast.getP95Millis());
+        Assert.assertEquals(12, fast.getWallTimeMillis());
+
+        Assert.assertEquals(0, suiteTimings.get(2).getTestCount());
+        Assert.assertEquals(5000, suiteTimings.get(2).getWallTimeMillis());
+    }
+
+    @Test
+    public void testTimingsArePublishedAsReportAndMetadata() throws IOException
+    {
+        final TestTimings timings = new TestTimings();
+        timings.testFinished("Suite, with comma", 30);
+        timings.testFinished("Suite, with comma", 10);
+        timings.testFinished("Other", 20);
+        timings.suiteFinished("Other", 25);
+
+        final Map<String, String> metadata = Maps.newHashMap();
+        final File reportFile = timings.publish(temporaryFolder.getRoot(), metadata);
+
+        Assert.assertEquals(new File(temporaryFolder.getRoot(), TestTimings.REPORT_FILE), reportFile);
+        Assert.assertEquals("suite,tests,total_ms,p50_ms,p95_ms,max_ms,wall_ms\n"
+                            + "\"Suite, with comma\",2,40,10,30,30,\n"
+                            + "Other,1,20,20,20,20,25\n", FileUtils.readFileToString(reportFile, StandardCharsets.UTF_8.name()));
+
+        Assert.assertEquals("3", metadata.get("xcode.tests.count"));
+        Assert.assertEquals("60", metadata.get("xcode.tests.totalMillis"));
+        Assert.assertEquals("20", metadata.get("xcode.tests.p50Millis"));
+        Assert.assertEquals("30", metadata.get("xcode.tests.maxMillis"));
+        Assert.assertEquals("Suite, with comma tests=2 total=40ms p50=10ms p95=30ms max=30ms", metadata.get("xcode.tests.slowestSuite.1"));
+        Assert.assertEquals("Other tests=1 total=20ms p50=20ms p95=20ms max=20ms", metadata.get("xcode.tests.slowestSuite.2"));
+    }
+
+    @Test
+    public void testSuiteTimestampsAreParsed()
+    {
+        final long start = TestTimings.parseSuiteTimestamp("Test Suite 'All tests' started at 2011-07-25 02:25:43 +0000");
+        final long finish = TestTimings.parseSuiteTimestamp("Test Suite 'All tests' finished at 2011-07-25 02:25:52 +0000.");
+        Assert.assertEquals(1311560743000L, start);
+        Assert.assertEquals(9000, finish - start);
+
+        Assert.assertEquals(start, TestTimings.parseSuiteTimestamp("Test Suite 'All tests' started at 2011-07-25 03:25:43 +0100"));
+        Assert.assertEquals(14, TestTimings.parseSuiteTimestamp("Test Suite 'ConstantSpec' passed at 2015-12-22 13:49:33.969.")
+                                - TestTimings.parseSuiteTimestamp("Test Suite 'ConstantSpec' started at 2015-12-22 13:49:33.955"));
+
+        Assert.assertEquals(-1, TestTimings.parseSuiteTimestamp("Test Suite 'All tests' started"));
+        Assert.assertEquals(-1, TestTimings.parseSuiteTimestamp("Test Suite 'All tests' started at yesterday"));
+        Assert.assertEquals(-1, TestTimings.parseSuiteTimestamp("Test Suite 'All tests' started at 2011-07-25"));
+    }
+
+    @Test
+    public void testOCUnitParserRecordsTestAndSuiteTimes() throws IOException
+    {
+        final TestTimings timings = new TestTimings();
+        final OCUnitTestParser parser = new OCUnitTestParser();
+        parser.setTimings(timings);
+        for (String line : readLines("/com/atlassian/bamboo/plugins/xcode/tests/testlog.txt"))
+        {
+            parser.processLine(line);
+        }
+
+        final TestTimings.SuiteTiming suite = find(timings, "MyCocoaAppTests (i386)");
+        Assert.assertEquals(3, suite.getTestCount());
+        Assert.assertEquals(1103 + 3202 + 4302, suite.getTotalMillis());
+        Assert.assertEquals(3202, suite.getP50Millis());
+        Assert.assertEquals(4302, suite.getMaxMillis());
+        Assert.assertEquals(9000, suite.getWallTimeMillis());
+        Assert.assertEquals(9000, find(timings, "/Users/jdumay/Desktop/MyCocoaApp/build/Release/MyCocoaAppTests.octest(Tests) (i386)").getWallTimeMillis());
+    }
+
+    @Test
+    public void testTimingsAreRestoredFromCachedResults() throws IOException
+    {
+        final TestTimings timings = new TestTimings();
+        final OCUnitTestParser parser = new OCUnitTestParser();
+        parser.setTimings(timings);
+        for (String line : readLines("/com/atlassian/bamboo/plugins/xcode/tests/testlog.txt"))
+        {
+            parser.processLine(line);
+        }
+
+        final File logFile = temporaryFolder.newFile("test.log");
+        TestResultsFile.write(logFile, timings.toWallTimeProperties(), parser.getSuccessfulTestResults(), parser.getFailingTestResults());
+        final TestResultsFile cachedTestResults = TestResultsFile.read(logFile);
+        Assert.assertNotNull(cachedTestResults);
+
+        final TestTimings restoredTimings = new TestTimings();
+        for (TestResults testResults : Iterables.concat(cachedTestResults.getSuccessfulTestResults(), cachedTestResults.getFailingTestResults()))
+        {
+            restoredTimings.testFinished(testResults.getClassName(), testResults.getDuration());
+        }
+        restoredTimings.addWallTimes(cachedTestResults.getProperties());
+
+        final File reportFile = temporaryFolder.newFile("report.csv");
+        final File restoredReportFile = temporaryFolder.newFile("restored-report.csv");
+        timings.writeReport(reportFile);
+        restoredTimings.writeReport(restoredReportFile);
+        Assert.assertEquals(FileUtils.readFileToString(reportFile, StandardCharsets.UTF_8.name()),
+                            FileUtils.readFileToString(restoredReportFile, StandardCharsets.UTF_8.name()));
+        Assert.assertEquals(timings.toResultMetadata(), restoredTimings.toResultMetadata());
+    }
+
+    @Test
+    public void testXCTestParserRecordsTestDurations() throws IOException
+    {
+        final TestTimings timings = new TestTimings();
+        final XCTestParser parser = new XCTestParser();
+        parser.setTimings(timings);
+        for (String line : readLines("/com/atlassian/bamboo/plugins/xcode/tests/xctest-failed.txt"))
+        {
+            parser.processLine(line);
+        }
+
+        for (TestResults testResults : parser.getFailingTestResults())
+        {
+            Assert.assertEquals(2, testResults.getDuration());
+        }
+        for (TestResults testResults : parser.getSuccessfulTestResults())
+        {
+            Assert.assertEquals(293, testResults.getDuration());
+        }
+
+        final TestTimings.SuiteTiming suite = find(timings, "iOS_PipelineTests");
+        Assert.assertEquals(2, suite.getTestCount());
+        Assert.assertEquals(295, suite.getTotalMillis());
+        Assert.assertEquals(0, suite.getWallTimeMillis());
+    }
+
+    private static TestTimings.SuiteTiming find(TestTimings timings, String suiteName)
+    {
+        for (TestTimings.SuiteTiming timing : timings.getSuiteTimings())
+        {
+            if (timing.getSuiteName().equals(suiteName))
+            {
+                return timing;
+            }
+        }
+        throw new AssertionError("No timings for '" + suiteName + "'");
+    }
+
+    private List<String> readLines(String resource) throws IOException
+    {
+        final InputStream logStream = getClass().getResourceAsStream(resource);
+        try
+        {
+            return IOUtils.readLines(logStream);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(logStream);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.atlassian.bamboo.plugins.xcode.tests.checkpoint;
+
+import com.atlassian.bamboo.plugins.xcode.tests.ocunit.OCUnitTestParser;
+import com.atlassian.bamboo.plugins.xcode.tests.xctest.XCTestParser;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.collect.Lists;
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+public class TestCheckpointPagerTest
+{
+    @Test
+    public void testXCTestResultsAreHandedOnInPages() throws IOException
+    {
+        final List<String> lines = readLines("/com/atlassian/bamboo/plugins/xcode/tests/xctest-consecutive-identical-test-names.txt");
+
+        final XCTestParser unpaged = new XCTestParser();
+        final XCTestParser paged = new XCTestParser();
+        final RecordingPageHandler pages = new RecordingPageHandler();
+        final TestCheckpointPager pager = new TestCheckpointPager(pages, 10);
+        paged.setCheckpointPager(pager);
+        for (String line : lines)
+        {
+            unpaged.processLine(line);
+            paged.processLine(line);
+        }
+
+        Assert.assertTrue(pager.getPageCount() > 1);
+        Assert.assertEquals(pager.getPageCount(), pages.pageCount);
+
+        // The parser keeps every result, each of them is handed on once at most
+        Assert.assertEquals(describe(unpaged.getSuccessfulTestResults()), describe(paged.getSuccessfulTestResults()));
+        Assert.assertEquals(describe(unpaged.getFailingTestResults()), describe(paged.getFailingTestResults()));
+        final List<TestResults> successful = Lists.newArrayList(paged.getSuccessfulTestResults());
+        Assert.assertEquals(successful.subList(0, pages.successful.size()), pages.successful);
+        final List<TestResults> failing = Lists.newArrayList(paged.getFailingTestResults());
+        Assert.assertEquals(failing.subList(0, pages.failing.size()), pages.failing);
+    }
+
+    @Test
+    public void testOCUnitResultsAreHandedOnWhenSuitesFinish()
+    {
+        final OCUnitTestParser parser = new OCUnitTestParser();
+        final RecordingPageHandler pages = new RecordingPageHandler();
+        parser.setCheckpointPager(new TestCheckpointPager(pages, 2));
+        for (String suite : new String[] {"FirstTests", "SecondTests"})
+        {
+            parser.processLine("Test Suite '" + suite + "' started at 2011-07-25 02:25:43 +0000");
+            for (String test : new String[] {"testOne", "testTwo"})
+            {
+                parser.processLine("Test Case '-[" + suite + " " + test + "]' started.");
+                parser.processLine("Test Case '-[" + suite + " " + test + "]' passed (0.001 seconds).");
+                Assert.assertEquals(0, pages.successful.size() % 2);
+            }
+            parser.processLine("Test Suite '" + suite + "' finished at 2011-07-25 02:25:43 +0000.");
+        }
+
+        Assert.assertEquals(2, pages.pageCount);
+        Assert.assertEquals(Lists.newArrayList(parser.getSuccessfulTestResults()), pages.successful);
+    }
+
+    @Test
+    public void testSuitesWithFewerResultsThanAPageAreHandedOnTogether()
+    {
+        final OCUnitTestParser parser = new OCUnitTestParser();
+        final RecordingPageHandler pages = new RecordingPageHandler();
+        parser.setCheckpointPager(new TestCheckpointPager(pages, 3));
+        for (String suite : new String[] {"FirstTests", "SecondTests", "ThirdTests"})
+        {
+            parser.processLine("Test Suite '" + suite + "' started at 2011-07-25 02:25:43 +0000");
+            parser.processLine("Test Case '-[" + suite + " testOne]' started.");
+            parser.processLine("Test Case '-[" + suite + " testOne]' passed (0.001 seconds).");
+            parser.processLine("Test Suite '" + suite + "' finished at 2011-07-25 02:25:43 +0000.");
+        }
+
+        Assert.assertEquals(1, pages.pageCount);
+        Assert.assertEquals(3, pages.successful.size());
+    }
+
+    private List<String> readLines(String resource) throws IOException
+    {
+        final InputStream logStream = getClass().getResourceAsStream(resource);
+        try
+        {
+            return IOUtils.readLines(logStream);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(logStream);
+        }
+    }
+
+    private static List<String> describe(Iterable<TestResults> testResults)
+    {
+        final List<String> descriptions = Lists.newArrayList();
+        for (TestResults testResult : testResults)
+        {
+            descriptions.add(testResult.getClassName() + "#" + testResult.getMethodName() + " " + testResult.getSystemOut());
+        }
+        return descriptions;
+    }
+
+    private static final class RecordingPageHandler implements TestCheckpointPager.PageHandler
+    {
+        private final List<TestResults> successful = Lists.newArrayList();
+        private final List<TestResults> failing = Lists.newArrayList();
+        private int pageCount;
+
+        @Override
+        public void handlePage(@NotNull List<TestResults> successfulTestResults, @NotNull List<TestResults> failingTestResults)
+        {
+            successful.addAll(successfulTestResults);
+            failing.addAll(failingTestResults);
+            pageCount++;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.atlassian.bamboo.plugins.xcode.tests.checkpoint;
+
+import com.atlassian.bamboo.plugins.xcode.tests.xctest.XCTestParser;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.atlassian.bamboo.resultsummary.tests.TestState;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+
+public class TestCheckpointTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testPassedTestsOfAnEarlierAttemptAreSkipped() throws IOException
+    {
+        final File workingDirectory = temporaryFolder.getRoot();
+        final TestCheckpoint firstAttempt = TestCheckpoint.open(workingDirectory, 7);
+        Assert.assertEquals(0, firstAttempt.getPassedTestCount());
+        firstAttempt.write(Lists.newArrayList(result("AppTests.LoginTests", "testLogin", TestState.SUCCESS)),
+                           Lists.newArrayList(result("AppTests.LoginTests", "testLogout", TestState.FAILED)));
+        firstAttempt.write(Lists.newArrayList(result("SearchTests", "testSearch", TestState.SUCCESS)), Collections.<TestResults>emptyList());
+
+        final TestCheckpoint secondAttempt = TestCheckpoint.open(workingDirectory, 7);
+        Assert.assertEquals(2, secondAttempt.getPassedTestCount());
+
+        final List<String> command = Lists.newArrayList();
+        secondAttempt.addSkipArguments(command, "AppTests");
+        Assert.assertEquals(Lists.newArrayList("-skip-testing:AppTests/LoginTests/testLogin", "-skip-testing:AppTests/SearchTests/testSearch"), command);
+
+        // Tests run again by this attempt report their own results
+        secondAttempt.write(Lists.newArrayList(result("SearchTests", "testSearch", TestState.SUCCESS),
+                                               result("AppTests.LoginTests", "testLogout", TestState.SUCCESS)),
+                            Collections.<TestResults>emptyList());
+        final TestResults resumed = Iterables.getOnlyElement(secondAttempt.getResumedTestResults());
+        Assert.assertEquals("AppTests.LoginTests", resumed.getClassName());
+        Assert.assertEquals("testLogin", resumed.getMethodName());
+
+        final TestCheckpoint thirdAttempt = TestCheckpoint.open(workingDirectory, 7);
+        Assert.assertEquals(3, thirdAttempt.getPassedTestCount());
+    }
+
+    @Test
+    public void testQuickSpecsAreSkippedByTheirMethodName() throws IOException
+    {
+        final XCTestParser parser = new XCTestParser();
+        final InputStream logStream = getClass().getResourceAsStream("/com/atlassian/bamboo/plugins/xcode/tests/xctest-quick-results.txt");
+        try
+        {
+            for (String line : IOUtils.readLines(logStream))
+            {
+                parser.processLine(line);
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly(logStream);
+        }
+        final TestResults spec = Iterables.getFirst(parser.getSuccessfulTestResults(), null);
+        Assert.assertNotNull(spec);
+        Assert.assertNotEquals(spec.getActualMethodName(), spec.getMethodName());
+
+        final File workingDirectory = temporaryFolder.getRoot();
+        TestCheckpoint.open(workingDirectory, 7).write(Collections.singletonList(spec), Collections.<TestResults>emptyList());
+
+        final TestCheckpoint secondAttempt = TestCheckpoint.open(workingDirectory, 7);
+        final List<String> command = Lists.newArrayList();
+        secondAttempt.addSkipArguments(command, "JIRATests");
+        Assert.assertEquals(Lists.newArrayList("-skip-testing:JIRATests/ConstantSpec/" + spec.getActualMethodName()),
+                            command);
+
+        // The spec run again is recognised as the one passed before, and keeps its readable name
+        secondAttempt.write(Collections.singletonList(spec), Collections.<TestResults>emptyList());
+        Assert.assertTrue(secondAttempt.getResumedTestResults().isEmpty());
+        final TestResults passed = Iterables.getOnlyElement(TestCheckpoint.open(workingDirectory, 7).getResumedTestResults());
+        Assert.assertEquals(spec.getMethodName(), passed.getMethodName());
+        Assert.assertEquals(spec.getActualMethodName(), passed.getActualMethodName());
+    }
+
+    @Test
+    public void testResultsAreOnlyWrittenOnce() throws IOException
+    {
+        final File workingDirectory = temporaryFolder.getRoot();
+        final TestCheckpoint checkpoint = TestCheckpoint.open(workingDirectory, 7);
+        final List<TestResults> firstPage = Lists.newArrayList(result("LoginTests", "testLogin", TestState.SUCCESS));
+        checkpoint.write(firstPage, Collections.<TestResults>emptyList());
+
+        // The results collated at the end include the ones written while the tests ran
+        final List<TestResults> allResults = Lists.newArrayList(firstPage);
+        allResults.add(result("LoginTests", "testLogin", TestState.SUCCESS));
+        checkpoint.write(allResults, Collections.<TestResults>emptyList());
+        checkpoint.write(allResults, Collections.<TestResults>emptyList());
+
+        final File[] pageFiles = new File(workingDirectory, "xcode-test-checkpoint/build-7").listFiles();
+        Assert.assertNotNull(pageFiles);
+        Assert.assertEquals(2, pageFiles.length);
+    }
+
+    @Test
+    public void testCheckpointsOfOtherBuildsAreDeleted() throws IOException
+    {
+        final File workingDirectory = temporaryFolder.getRoot();
+        TestCheckpoint.open(workingDirectory, 7).write(Lists.newArrayList(result("LoginTests", "testLogin", TestState.SUCCESS)),
+                                                       Collections.<TestResults>emptyList());
+
+        Assert.assertEquals(0, TestCheckpoint.open(workingDirectory, 8).getPassedTestCount());
+        Assert.assertEquals(0, TestCheckpoint.open(workingDirectory, 7).getPassedTestCount());
+    }
+
+    @Test
+    public void testDeletedCheckpointIsEmpty() throws IOException
+    {
+        final File workingDirectory = temporaryFolder.getRoot();
+        final TestCheckpoint checkpoint = TestCheckpoint.open(workingDirectory, 7);
+        checkpoint.write(Lists.newArrayList(result("LoginTests", "testLogin", TestState.SUCCESS)), Collections.<TestResults>emptyList());
+        checkpoint.delete();
+
+        Assert.assertEquals(0, TestCheckpoint.open(workingDirectory, 7).getPassedTestCount());
+    }
+
+    private static TestResults result(String suiteName, String testName, TestState state)
+    {
+        final TestResults testResults = new TestResults(suiteName, testName, "0.010");
+        testResults.setState(state);
+        return testResults;
+    }
+}
@@ -0,0 +1,44 @@
+package com.atlassian.bamboo.plugins.xcode.tests.history;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FailFastOrderTest
+{
+    @Test
+    public void testSuitesFailedLastRunComeFirst()
+    {
+        final TestHistory stable = history("StableTests", "testOne", 20, 0, 0);
+        final TestHistory fragile = history("FragileTests", "testOne", 20, 6, 0x2A);
+        final TestHistory failedLastRun = history("BrokenTests", "testOne", 20, 1, 0x1);
+        final TestHistory fragileSibling = history("FragileTests", "testTwo", 20, 0, 0);
+
+        Assert.assertEquals(Lists.newArrayList("BrokenTests", "FragileTests"),
+                            FailFastOrder.riskiestSuites(Lists.newArrayList(stable, fragile, failedLastRun, fragileSibling)));
+    }
+
+    @Test
+    public void testOldFailuresAreNotRisky()
+    {
+        final TestHistory failedLongAgo = history("OldTests", "testOne", 40, 2, 1L << FailFastOrder.RECENT_RUNS);
+
+        Assert.assertEquals(0, FailFastOrder.risk(failedLongAgo), 0);
+        Assert.assertTrue(FailFastOrder.riskiestSuites(Lists.newArrayList(failedLongAgo)).isEmpty());
+    }
+
+    @Test
+    public void testMoreRecentFailuresAreRiskier()
+    {
+        final TestHistory onceFailed = history("OnceTests", "testOne", 20, 2, 0x4);
+        final TestHistory oftenFailed = history("OftenTests", "testOne", 20, 2, 0xE);
+
+        Assert.assertTrue(FailFastOrder.risk(oftenFailed) > FailFastOrder.risk(onceFailed));
+    }
+
+    private static TestHistory history(String suiteName, String testName, int runCount, int flipCount, long recentFailures)
+    {
+        return new TestHistory(suiteName, testName, runCount, Long.bitCount(recentFailures), runCount * 10L, 10, runCount, 0,
+                               flipCount, recentFailures);
+    }
+}
@@ -0,0 +1,89 @@
+package com.atlassian.bamboo.plugins.xcode.tests.history;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+public class ParallelWorkerTunerTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testWorkersAreBoundByCoresAndMemory()
+    {
+        Assert.assertEquals(8, ParallelWorkerTuner.maxWorkers(8, 16 * ParallelWorkerTuner.MEMORY_PER_WORKER));
+        Assert.assertEquals(3, ParallelWorkerTuner.maxWorkers(8, ParallelWorkerTuner.RESERVED_MEMORY + 3 * ParallelWorkerTuner.MEMORY_PER_WORKER + 1));
+        Assert.assertEquals(1, ParallelWorkerTuner.maxWorkers(8, ParallelWorkerTuner.RESERVED_MEMORY));
+        Assert.assertEquals(1, ParallelWorkerTuner.maxWorkers(8, 0));
+    }
+
+    @Test
+    public void testWorkersAreBoundByTotalMemoryWhenLittleIsFree()
+    {
+        // macOS on a large agent, with most of its memory taken by caches
+        final OperatingSystemMXBean operatingSystem = newOperatingSystem(64 * ParallelWorkerTuner.MEMORY_PER_WORKER, 200L * 1024 * 1024);
+        Assert.assertEquals(12, ParallelWorkerTuner.maxWorkers(12, operatingSystem));
+    }
+
+    @Test
+    public void testWorkerCountClimbsToTheBestThroughput() throws IOException
+    {
+        final ParallelWorkerTuner tuner = ParallelWorkerTuner.open(temporaryFolder.getRoot());
+        Assert.assertEquals(4, tuner.chooseWorkerCount(8));
+
+        // Throughput peaks at 6 workers
+        final double[] testsPerSecond = {0, 2, 4, 5, 6, 7, 7.5, 7, 6};
+        for (int build = 0; build < 6; build++)
+        {
+            final int workers = tuner.chooseWorkerCount(8);
+            tuner.record(workers, (int) (testsPerSecond[workers] * 100), 100000);
+        }
+        Assert.assertEquals(6, tuner.chooseWorkerCount(8));
+        Assert.assertEquals(7.5, tuner.getTestsPerSecond(6), 0.001);
+
+        // Less memory on the agent caps the choice
+        Assert.assertEquals(5, tuner.chooseWorkerCount(5));
+    }
+
+    @Test
+    public void testThroughputsAreKeptBetweenBuilds() throws IOException
+    {
+        final ParallelWorkerTuner tuner = ParallelWorkerTuner.open(temporaryFolder.getRoot());
+        Assert.assertEquals(2.0, tuner.record(3, 100, 50000), 0.001);
+        tuner.record(3, 400, 50000);
+
+        final ParallelWorkerTuner reopened = ParallelWorkerTuner.open(temporaryFolder.getRoot());
+        Assert.assertEquals(2.0 + 0.3 * (8.0 - 2.0), reopened.getTestsPerSecond(3), 0.001);
+        Assert.assertNull(reopened.getTestsPerSecond(4));
+        Assert.assertEquals(4, reopened.chooseWorkerCount(8));
+    }
+
+    private static OperatingSystemMXBean newOperatingSystem(final long totalMemory, final long freeMemory)
+    {
+        return (OperatingSystemMXBean) Proxy.newProxyInstance(ParallelWorkerTunerTest.class.getClassLoader(),
+                new Class<?>[] {com.sun.management.OperatingSystemMXBean.class}, new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                    {
+                        if (method.getName().equals("getTotalPhysicalMemorySize"))
+                        {
+                            return totalMemory;
+                        }
+                        if (method.getName().equals("getFreePhysicalMemorySize"))
+                        {
+                            return freeMemory;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,264 @@
+package com.atlassian.bamboo.plugins.xcode.tests.history;
+
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.atlassian.bamboo.resultsummary.tests.TestState;
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class TestHistoryStoreTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testRunsAreSummarisedPerTest() throws IOException
+    {
+        final TestHistoryStore store = TestHistoryStore.open(temporaryFolder.getRoot());
+        try
+        {
+            store.record(1, results("Suite", "testOne", 100, "Suite", "testTwo", 10), results("Other", "testThree", 5));
+            store.record(2, results("Suite", "testOne", 300), results("Suite", "testTwo", 20));
+            store.record(3, results("Suite", "testTwo", 30), Collections.<TestResults>emptyList());
+
+            Assert.assertEquals(3, store.getTestCount());
+            Assert.assertEquals(6, store.getRunCount());
+
+            final TestHistory testOne = store.getTestHistory("Suite", "testOne");
+            Assert.assertNotNull(testOne);
+            Assert.assertEquals(2, testOne.getRunCount());
+            Assert.assertEquals(0, testOne.getFailureCount());
+            Assert.assertEquals(200, testOne.getAverageMillis());
+            Assert.assertEquals(300, testOne.getLastMillis());
+            Assert.assertEquals(2, testOne.getLastBuildNumber());
+            Assert.assertEquals(0, testOne.getLastFailedBuildNumber());
+
+            final TestHistory testTwo = store.getTestHistory("Suite", "testTwo");
+            Assert.assertNotNull(testTwo);
+            Assert.assertEquals(3, testTwo.getRunCount());
+            Assert.assertEquals(1, testTwo.getFailureCount());
+            Assert.assertEquals(2, testTwo.getLastFailedBuildNumber());
+            Assert.assertEquals(2, testTwo.getFlipCount());
+            Assert.assertFalse(testTwo.isLastRunFailed());
+            Assert.assertEquals(0, testTwo.getRecentFailureCount(1));
+            Assert.assertEquals(1, testTwo.getRecentFailureCount(2));
+
+            final TestHistory testThree = store.getTestHistory("Other", "testThree");
+            Assert.assertNotNull(testThree);
+            Assert.assertTrue(testThree.isLastRunFailed());
+
+            Assert.assertNull(store.getTestHistory("Suite", "testThree"));
+            Assert.assertEquals(2, store.getTestHistories("Suite").size());
+            Assert.assertEquals(3, store.getTestHistories().size());
+
+            final Map<String, Long> suiteMillis = store.getSuiteMillis();
+            Assert.assertEquals(Long.valueOf(200 + 20), suiteMillis.get("Suite"));
+            Assert.assertEquals(Long.valueOf(5), suiteMillis.get("Other"));
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testSkippedTestsAreNotRecorded() throws IOException
+    {
+        final List<TestResults> skipped = results("Suite", "testSkipped", 0);
+        skipped.get(0).setState(TestState.SKIPPED);
+
+        final TestHistoryStore store = TestHistoryStore.open(temporaryFolder.getRoot());
+        try
+        {
+            store.record(1, skipped, Collections.<TestResults>emptyList());
+            Assert.assertEquals(0, store.getRunCount());
+            Assert.assertEquals(0, store.getTestCount());
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testHistoryIsKeptAcrossOpens() throws IOException
+    {
+        final File directory = temporaryFolder.getRoot();
+        TestHistoryStore store = TestHistoryStore.open(directory);
+        store.record(1, results("Suite", "testOne", 100), Collections.<TestResults>emptyList());
+        store.close();
+
+        store = TestHistoryStore.open(directory);
+        try
+        {
+            store.record(2, Collections.<TestResults>emptyList(), results("Suite", "testOne", 50, "Suite", "testNew", 5));
+            Assert.assertEquals(2, store.getTestCount());
+            final TestHistory testOne = store.getTestHistory("Suite", "testOne");
+            Assert.assertNotNull(testOne);
+            Assert.assertEquals(2, testOne.getRunCount());
+            Assert.assertEquals(150, testOne.getTotalMillis());
+            Assert.assertTrue(testOne.isLastRunFailed());
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testStoreIsLockedWhileOpen() throws IOException
+    {
+        final TestHistoryStore store = TestHistoryStore.open(temporaryFolder.getRoot());
+        try
+        {
+            TestHistoryStore.open(temporaryFolder.getRoot());
+            Assert.fail("A locked store should not open");
+        }
+        catch (IOException e)
+        {
+            Assert.assertTrue(e.getMessage().contains("in use"));
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testPartlyWrittenRunsAndLostIndexAreRecovered() throws IOException
+    {
+        final File directory = temporaryFolder.getRoot();
+        TestHistoryStore store = TestHistoryStore.open(directory);
+        store.record(1, results("Suite", "testOne", 100, "Suite", "testTwo", 10), Collections.<TestResults>emptyList());
+        store.record(2, results("Suite", "testOne", 200), Collections.<TestResults>emptyList());
+        store.close();
+
+        final RandomAccessFile runs = new RandomAccessFile(new File(directory, "runs.0"), "rw");
+        try
+        {
+            runs.seek(runs.length());
+            runs.write(new byte[] {0, 0, 0, 1, 0});
+        }
+        finally
+        {
+            runs.close();
+        }
+        FileUtils.forceDelete(new File(directory, "index.0"));
+
+        store = TestHistoryStore.open(directory);
+        try
+        {
+            Assert.assertEquals(3, store.getRunCount());
+            final TestHistory testOne = store.getTestHistory("Suite", "testOne");
+            Assert.assertNotNull(testOne);
+            Assert.assertEquals(2, testOne.getRunCount());
+            Assert.assertEquals(300, testOne.getTotalMillis());
+
+            store.record(3, results("Suite", "testTwo", 20), Collections.<TestResults>emptyList());
+            Assert.assertEquals(30, store.getTestHistory("Suite", "testTwo").getTotalMillis());
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testCompactionKeepsRecentRunsOfRecentTests() throws IOException
+    {
+        final File directory = temporaryFolder.getRoot();
+        TestHistoryStore store = TestHistoryStore.open(directory, 4, 5, 1024 * 1024);
+        try
+        {
+            store.record(1, results("Suite", "testRemoved", 1000), Collections.<TestResults>emptyList());
+            for (int build = 2; build <= 20; build++)
+            {
+                store.record(build, results("Suite", "testOne", build, "Suite", "testTwo", 1), Collections.<TestResults>emptyList());
+            }
+
+            Assert.assertNull(store.getTestHistory("Suite", "testRemoved"));
+            Assert.assertEquals(2, store.getTestCount());
+            Assert.assertTrue(store.getRunCount() <= 2 * 4 * 2);
+
+            store.compact();
+            final TestHistory testOne = store.getTestHistory("Suite", "testOne");
+            Assert.assertNotNull(testOne);
+            Assert.assertEquals(4, testOne.getRunCount());
+            Assert.assertEquals(17 + 18 + 19 + 20, testOne.getTotalMillis());
+            Assert.assertEquals(20, testOne.getLastBuildNumber());
+        }
+        finally
+        {
+            store.close();
+        }
+
+        Assert.assertEquals(Lists.newArrayList("CURRENT", "index." + readGeneration(directory), "lock",
+                                               "names." + readGeneration(directory), "runs." + readGeneration(directory)),
+                            sortedFileNames(directory));
+
+        store = TestHistoryStore.open(directory, 4, 5, 1024 * 1024);
+        try
+        {
+            Assert.assertEquals(8, store.getRunCount());
+            Assert.assertEquals(4, store.getTestHistory("Suite", "testTwo").getRunCount());
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testCompactionKeepsFewerRunsToFitTheDiskBudget() throws IOException
+    {
+        final TestHistoryStore store = TestHistoryStore.open(temporaryFolder.getRoot(), 64, 500, 12 * 40);
+        try
+        {
+            for (int build = 1; build <= 30; build++)
+            {
+                store.record(build, results("Suite", "testOne", 1, "Suite", "testTwo", 1), Collections.<TestResults>emptyList());
+            }
+            Assert.assertTrue(store.getRunCount() * 12 <= 12 * 40);
+            Assert.assertEquals(2, store.getTestCount());
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+
+    private static List<TestResults> results(Object... suiteTestAndMillis)
+    {
+        final List<TestResults> results = Lists.newArrayList();
+        for (int i = 0; i < suiteTestAndMillis.length; i += 3)
+        {
+            results.add(new TestResults((String) suiteTestAndMillis[i], (String) suiteTestAndMillis[i + 1],
+                                        Long.valueOf(((Integer) suiteTestAndMillis[i + 2]).longValue())));
+        }
+        return results;
+    }
+
+    private static String readGeneration(File directory) throws IOException
+    {
+        return FileUtils.readFileToString(new File(directory, "CURRENT"), "UTF-8").trim();
+    }
+
+    private static List<String> sortedFileNames(File directory)
+    {
+        final String[] names = directory.list();
+        Assert.assertNotNull(names);
+        final List<String> sorted = Lists.newArrayList(names);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,235 @@
+package com.atlassian.bamboo.plugins.xcode.tests.ocunit;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class OCUnitLineClassifierTest
+{
+    // The expressions the parser used before the classifier, kept as the reference grammar
+    private static final Pattern TEST_ARCHITECTURE = Pattern.compile("Run unit tests for architecture '(\\S+)'.*");
+    private static final Pattern START_SUITE = Pattern.compile("^.*Test Suite '(\\S+)'.*started at\\s+(.*)$");
+    private static final Pattern END_SUITE = Pattern.compile("^.*Test Suite '(\\S+)'.*finished at\\s+(.*).$");
+    private static final Pattern START_TESTCASE = Pattern.compile("^.*Test Case '-\\[\\S+\\s+(\\S+)\\]' started.$");
+    private static final Pattern SUCCESSFUL_TESTCASE = Pattern.compile("^.*Test Case '-\\[\\S+\\s+(\\S+)\\]' passed \\((.*) seconds\\).$");
+    private static final Pattern FAILED_TESTCASE = Pattern.compile("^.*Test Case '-\\[\\S+ (\\S+)\\]' failed \\((\\S+) seconds\\).$");
+    private static final Pattern ERROR_TESTCASE = Pattern.compile("^.*(.*): error: -\\[(\\S+) (\\S+)\\] : (.*)$");
+
+    private static final String[] LOGS = {
+            "/com/atlassian/bamboo/plugins/xcode/tests/testlog.txt",
+            "/com/atlassian/bamboo/plugins/xcode/tests/xctest-success.txt",
+            "/com/atlassian/bamboo/plugins/xcode/tests/xctest-failed.txt",
+            "/com/atlassian/bamboo/plugins/xcode/tests/xctest-consecutive-identical-test-names.txt",
+            "/com/atlassian/bamboo/plugins/xcode/tests/xctest-quick-results.txt",
+    };
+
+    private static final String[] EDGE_CASES = {
+            "Run unit tests for architecture 'x86_64' (GC OFF)",
+            "Run unit tests for architecture 'x86'64' (GC OFF)",
+            "Run unit tests for architecture ''",
+            "Test Suite 'All tests' started at 2011-07-25 02:25:43 +0000",
+            "Test Suite 'a'b' started at 1",
+            "Test Suite 'a'started at 1",
+            "Test Suite 'a' started at",
+            "Test Suite 'a' finished at 1",
+            "Test Suite 'a' finished at ",
+            "Test Suite 'x' started at 1 Test Suite 'y' started at 2",
+            "Test Suite 'x' Test Suite 'y z' finished at 2.",
+            "prefix Test Case '-[A b]' started.",
+            "Test Case '-[A   b]' started!",
+            "Test Case '-[A b]' started",
+            "Test Case '-[A b c]' started.",
+            "Test Case '-[A]' started.",
+            "Test Case '-[A b]' passed () seconds).",
+            "Test Case '-[A b]' passed (1.0 2.0 seconds).",
+            "Test Case '-[A b]' failed (1.0 seconds).",
+            "Test Case '-[A  b]' failed (1.0 seconds).",
+            "Test Case '-[A b]' failed ( seconds).",
+            "Test Case '-[A b]' failed (1 2 seconds).",
+            "Test Case '-[A b]' passed (1 seconds). Test Case '-[C d]' passed (2 seconds).",
+            "x.m:1: error: -[A b] : message",
+            "x.m:1: error: -[A b]: message",
+            "x.m:1: error: -[A  b] : message",
+            "x.m:1: error: -[A ] : message",
+            "x.m:1: error: -[A b : error: -[C d] : message",
+            "x.m:1: error: -[A b]] : message",
+    };
+
+    private final OCUnitLineClassifier classifier = new OCUnitLineClassifier();
+
+    @Test
+    public void testClassificationMatchesRegexGrammarOnLogs() throws IOException
+    {
+        for (String log : LOGS)
+        {
+            final InputStream logStream = getClass().getResourceAsStream(log);
+            try
+            {
+                for (String line : IOUtils.readLines(logStream))
+                {
+                    assertMatchesGrammar(line);
+                }
+            }
+            finally
+            {
+                IOUtils.closeQuietly(logStream);
+            }
+        }
+    }
+
+    @Test
+    public void testClassificationMatchesRegexGrammarOnEdgeCases()
+    {
+        for (String line : EDGE_CASES)
+        {
+            assertMatchesGrammar(line);
+        }
+    }
+
+    @Test
+    public void testExtractsFields()
+    {
+        Assert.assertEquals(OCUnitLineClassifier.Kind.TEST_FAILED, classifier.classify("Test Case '-[MyCocoaAppTests testShouldFail]' failed (3.201 seconds)."));
+        Assert.assertEquals("testShouldFail", classifier.getTestName());
+        Assert.assertEquals("3.201", classifier.getDuration());
+
+        Assert.assertEquals(OCUnitLineClassifier.Kind.ARCHITECTURE, classifier.classify("Run unit tests for architecture 'i386' (GC OFF)"));
+        Assert.assertEquals("i386", classifier.getArchitecture());
+        Assert.assertNull(classifier.getTestName());
+    }
+
+    @Test
+    public void testPathologicalLinesParseInLinearTime()
+    {
+        for (Corpus corpus : Corpus.values())
+        {
+            final String small = corpus.line(16 * 1024);
+            final String large = corpus.line(256 * 1024);
+
+            // Let the JIT settle before measuring
+            for (int i = 0; i < 20; i++)
+            {
+                classifier.classify(small);
+            }
+
+            final double smallNanosPerByte = (double) fastestClassification(small) / small.length();
+            final double largeNanosPerByte = (double) fastestClassification(large) / large.length();
+
+            // A backtracking matcher is quadratic here: sixteen times the input costs sixteen times more per byte
+            Assert.assertTrue(corpus + " costs " + largeNanosPerByte + "ns/byte, up from " + smallNanosPerByte,
+                              largeNanosPerByte < Math.max(smallNanosPerByte, 1.0) * 4);
+        }
+    }
+
+    private long fastestClassification(String line)
+    {
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++)
+        {
+            final long start = System.nanoTime();
+            classifier.classify(line);
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+        return fastest;
+    }
+
+    private void assertMatchesGrammar(String line)
+    {
+        final List<String> expected = Lists.newArrayList();
+        Matcher matcher;
+        if ((matcher = TEST_ARCHITECTURE.matcher(line)).matches())
+        {
+            expected.add("ARCHITECTURE");
+            expected.add(matcher.group(1));
+        }
+        else if ((matcher = START_SUITE.matcher(line)).matches())
+        {
+            expected.add("SUITE_STARTED");
+            expected.add(matcher.group(1));
+        }
+        else if (END_SUITE.matcher(line).matches())
+        {
+            expected.add("SUITE_FINISHED");
+        }
+        else if ((matcher = START_TESTCASE.matcher(line)).matches())
+        {
+            expected.add("TEST_STARTED");
+            expected.add(matcher.group(1));
+        }
+        else if ((matcher = SUCCESSFUL_TESTCASE.matcher(line)).matches())
+        {
+            expected.add("TEST_PASSED");
+            expected.add(matcher.group(2));
+        }
+        else if ((matcher = FAILED_TESTCASE.matcher(line)).matches())
+        {
+            expected.add("TEST_FAILED");
+            expected.add(matcher.group(2));
+        }
+        else if (ERROR_TESTCASE.matcher(line).matches())
+        {
+            expected.add("TEST_ERROR");
+        }
+        else
+        {
+            expected.add("OUTPUT");
+        }
+
+        final List<String> actual = Lists.newArrayList();
+        final OCUnitLineClassifier.Kind kind = classifier.classify(line);
+        actual.add(kind.name());
+        switch (kind)
+        {
+            case ARCHITECTURE:
+                actual.add(classifier.getArchitecture());
+                break;
+            case SUITE_STARTED:
+                actual.add(classifier.getSuiteName());
+                break;
+            case TEST_STARTED:
+                actual.add(classifier.getTestName());
+                break;
+            case TEST_PASSED:
+            case TEST_FAILED:
+                actual.add(classifier.getDuration());
+                break;
+            default:
+                break;
+        }
+
+        Assert.assertEquals("Classification of '" + line + "'", expected, actual);
+    }
+
+    /**
+     * Lines that make a backtracking matcher blow up, scaled to a requested length
+     */
+    private enum Corpus
+    {
+        BUILD_SETTING("    export OTHER_CFLAGS=\" -isystem \\\"/Users/agent/build-dir/Pods/Headers/Public/AFNetworking\\\""),
+        ERROR_MARKERS("x.m:1: error: -[A b"),
+        CASE_MARKERS("Test Case '-[A b]' "),
+        SUITE_MARKERS("Test Suite 'a'b' "),
+        QUOTES("'"),
+        WHITESPACE(" \t");
+
+        private final String fragment;
+
+        Corpus(String fragment)
+        {
+            this.fragment = fragment;
+        }
+
+        String line(int length)
+        {
+            return Strings.repeat(fragment, length / fragment.length()) + " seconds).";
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.atlassian.bamboo.plugins.xcode.tests.ocunit;
+
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestOutputLimits;
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestTimings;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+public class OCUnitLogFileParserTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testParallelParsingMatchesSequentialParsing() throws IOException
+    {
+        final List<String> testLog = readTestLog();
+        final List<String> lines = Lists.newArrayList();
+        for (int i = 0; i < 50; i++)
+        {
+            lines.addAll(testLog);
+            // Alternate architectures so that pieces have to inherit the right one
+            lines.add("Run unit tests for architecture 'arch" + (i % 3) + "' (GC OFF)");
+        }
+        final File logFile = writeLog(lines);
+
+        final OCUnitTestParser sequential = new OCUnitLogFileParser(TestOutputLimits.DEFAULT, 1).parse(logFile);
+        Assert.assertEquals(200, sequential.getFailingTestResults().size());
+        Assert.assertEquals(100, sequential.getSuccessfulTestResults().size());
+
+        for (int parallelism : new int[] {2, 3, 8, 64})
+        {
+            final OCUnitTestParser parallel = new OCUnitLogFileParser(TestOutputLimits.DEFAULT, parallelism, 0).parse(logFile);
+            assertSameResults(sequential, parallel);
+        }
+    }
+
+    @Test
+    public void testTestCasesSpanningSuitesFallBackToSequentialParsing() throws IOException
+    {
+        final List<String> lines = Lists.newArrayList();
+        for (int i = 0; i < 200; i++)
+        {
+            lines.add("Test Case '-[Tests test" + i + "]' started.");
+            lines.add(Strings.repeat("output ", 20));
+            lines.add("Test Suite 'Suite" + i + "' started at 2011-07-25 02:25:43 +0000");
+            lines.add(Strings.repeat("output ", 20));
+            lines.add("Test Case '-[Tests test" + i + "]' passed (0.001 seconds).");
+        }
+        final File logFile = writeLog(lines);
+
+        final OCUnitTestParser sequential = new OCUnitLogFileParser(TestOutputLimits.DEFAULT, 1).parse(logFile);
+        Assert.assertEquals(200, sequential.getSuccessfulTestResults().size());
+        assertSameResults(sequential, new OCUnitLogFileParser(TestOutputLimits.DEFAULT, 8, 0).parse(logFile));
+    }
+
+    @Test
+    public void testParallelParsingRecordsTheTimingsOfSequentialParsing() throws IOException
+    {
+        final List<String> lines = Lists.newArrayList();
+        lines.add("Test Suite '/build/Tests.octest(Tests)' started at 2011-07-25 02:25:43 +0000");
+        for (int i = 0; i < 200; i++)
+        {
+            lines.add("Test Suite 'Suite" + i + "' started at 2011-07-25 02:" + (26 + i / 60) + ":" + String.format("%02d", i % 60) + " +0000");
+            lines.add("Test Case '-[Suite" + i + " testSomething]' started.");
+            lines.add(Strings.repeat("output ", 20));
+            lines.add("Test Case '-[Suite" + i + " testSomething]' passed (0." + (100 + i) + " seconds).");
+            lines.add("Test Suite 'Suite" + i + "' finished at 2011-07-25 02:" + (26 + i / 60) + ":" + String.format("%02d", i % 60) + ".5 +0000.");
+        }
+        lines.add("Test Suite '/build/Tests.octest(Tests)' finished at 2011-07-25 02:30:00 +0000.");
+        final File logFile = writeLog(lines);
+
+        final TestTimings sequentialTimings = new TestTimings();
+        final OCUnitLogFileParser sequential = new OCUnitLogFileParser(TestOutputLimits.DEFAULT, 1);
+        sequential.setTimings(sequentialTimings);
+        sequential.parse(logFile);
+        Assert.assertEquals(257000, find(sequentialTimings, "/build/Tests.octest(Tests)").getWallTimeMillis());
+
+        for (int parallelism : new int[] {2, 3, 8, 64})
+        {
+            final TestTimings parallelTimings = new TestTimings();
+            final OCUnitLogFileParser parallel = new OCUnitLogFileParser(TestOutputLimits.DEFAULT, parallelism, 0);
+            parallel.setTimings(parallelTimings);
+            parallel.parse(logFile);
+            Assert.assertEquals(describe(sequentialTimings), describe(parallelTimings));
+        }
+    }
+
+    private List<String> readTestLog() throws IOException
+    {
+        final InputStream testLogStream = getClass().getResourceAsStream("/com/atlassian/bamboo/plugins/xcode/tests/testlog.txt");
+        try
+        {
+            return IOUtils.readLines(testLogStream);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(testLogStream);
+        }
+    }
+
+    private File writeLog(List<String> lines) throws IOException
+    {
+        final File logFile = temporaryFolder.newFile("test.log");
+        FileUtils.writeLines(logFile, lines);
+        return logFile;
+    }
+
+    private static void assertSameResults(OCUnitTestParser expected, OCUnitTestParser actual)
+    {
+        Assert.assertEquals(describe(expected.getSuccessfulTestResults()), describe(actual.getSuccessfulTestResults()));
+        Assert.assertEquals(describe(expected.getFailingTestResults()), describe(actual.getFailingTestResults()));
+    }
+
+    private static TestTimings.SuiteTiming find(TestTimings timings, String suiteName)
+    {
+        for (TestTimings.SuiteTiming timing : timings.getSuiteTimings())
+        {
+            if (timing.getSuiteName().equals(suiteName))
+            {
+                return timing;
+            }
+        }
+        throw new AssertionError("No timings for " + suiteName);
+    }
+
+    private static List<String> describe(TestTimings timings)
+    {
+        final List<String> descriptions = Lists.newArrayList();
+        for (TestTimings.SuiteTiming timing : timings.getSuiteTimings())
+        {
+            descriptions.add(timing.getSuiteName() + " tests=" + timing.getTestCount() + " total=" + timing.getTotalMillis()
+                             + " max=" + timing.getMaxMillis() + " wall=" + timing.getWallTimeMillis());
+        }
+        Collections.sort(descriptions);
+        return descriptions;
+    }
+
+    private static List<String> describe(Set<TestResults> testResults)
+    {
+        final List<String> descriptions = Lists.newArrayList();
+        for (TestResults testResult : testResults)
+        {
+            descriptions.add(testResult.getClassName() + "#" + testResult.getMethodName()
+                             + " " + testResult.getState() + " " + testResult.getDuration()
+                             + " errors=" + testResult.getErrors().size()
+                             + " out=" + testResult.getSystemOut());
+        }
+        Collections.sort(descriptions);
+        return descriptions;
+    }
+}
@@ -0,0 +1,23 @@
+package com.atlassian.bamboo.plugins.xcode.tests.sharding;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class TestClassEnumerationTest
+{
+    @Test
+    public void testClassesOfTheTargetAreListedOnce()
+    {
+        final Iterable<String> lines = Arrays.asList("Plan AppTests",
+                                                     "    AppTests/LoginTests/testLogin",
+                                                     "    AppTests/LoginTests/testLogout()",
+                                                     "    AppTests/CartTests/testEmptyCart",
+                                                     "    AppUITests/LaunchTests/testLaunch",
+                                                     "    MyAppTests/OtherTests/testOther");
+
+        Assert.assertEquals(Arrays.asList("CartTests", "LoginTests"),
+                            Arrays.asList(TestClassEnumeration.parseTestClasses(lines, "AppTests").toArray()));
+    }
+}
@@ -0,0 +1,126 @@
+package com.atlassian.bamboo.plugins.xcode.tests.sharding;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class TestShardPlannerTest
+{
+    @Test
+    public void testLongestClassesAreHandedOutFirst()
+    {
+        final Map<String, Long> millis = ImmutableMap.<String, Long>builder()
+                .put("A", 70L)
+                .put("B", 60L)
+                .put("C", 50L)
+                .put("D", 40L)
+                .put("E", 30L)
+                .put("F", 20L)
+                .build();
+
+        final List<TestShard> shards = TestShardPlanner.balance(millis, 3);
+        Assert.assertEquals(3, shards.size());
+        Assert.assertEquals(Arrays.asList("A", "F"), shards.get(0).getTestClasses());
+        Assert.assertEquals(Arrays.asList("B", "E"), shards.get(1).getTestClasses());
+        Assert.assertEquals(Arrays.asList("C", "D"), shards.get(2).getTestClasses());
+        Assert.assertEquals(90, shards.get(0).getExpectedMillis());
+        Assert.assertEquals(90, shards.get(1).getExpectedMillis());
+        Assert.assertEquals(90, shards.get(2).getExpectedMillis());
+
+        Assert.assertTrue(shards.get(0).isRunningUnknownTests());
+        Assert.assertFalse(shards.get(1).isRunningUnknownTests());
+        Assert.assertFalse(shards.get(2).isRunningUnknownTests());
+    }
+
+    @Test
+    public void testShardExpectedToFinishFirstRunsUnknownTests()
+    {
+        final List<TestShard> shards = TestShardPlanner.balance(ImmutableMap.of("Slow", 100L, "Fast", 10L), 2);
+
+        final List<String> fastCommand = Lists.newArrayList();
+        shards.get(1).addTestSelection(fastCommand, "AppTests", shards);
+        Assert.assertTrue(shards.get(1).isRunningUnknownTests());
+        Assert.assertEquals(Collections.singletonList("-skip-testing:AppTests/Slow"), fastCommand);
+
+        final List<String> slowCommand = Lists.newArrayList();
+        shards.get(0).addTestSelection(slowCommand, "AppTests", shards);
+        Assert.assertEquals(Collections.singletonList("-only-testing:AppTests/Slow"), slowCommand);
+    }
+
+    @Test
+    public void testUnusedShardsAreDropped()
+    {
+        final List<TestShard> shards = TestShardPlanner.balance(ImmutableMap.of("A", 10L, "B", 0L, "C", 0L), 5);
+        Assert.assertEquals(2, shards.size());
+        Assert.assertEquals(Collections.singletonList("A"), shards.get(0).getTestClasses());
+        Assert.assertEquals(Arrays.asList("B", "C"), shards.get(1).getTestClasses());
+    }
+
+    @Test
+    public void testWithoutHistoryEveryTestRunsInOneShard()
+    {
+        final List<TestShard> shards = TestShardPlanner.balance(Collections.<String, Long>emptyMap(), 4);
+        Assert.assertEquals(1, shards.size());
+        Assert.assertTrue(shards.get(0).isRunningUnknownTests());
+
+        final List<String> command = Lists.newArrayList();
+        shards.get(0).addTestSelection(command, "AppTests", shards);
+        Assert.assertTrue(command.isEmpty());
+    }
+
+    @Test
+    public void testEveryTestClassIsInExactlyOneJobShard()
+    {
+        final List<String> testClasses = Lists.newArrayList();
+        for (int i = 0; i < 200; i++)
+        {
+            testClasses.add("Test" + i);
+        }
+
+        final List<String> sliced = Lists.newArrayList();
+        for (int shardIndex = 0; shardIndex < 8; shardIndex++)
+        {
+            final List<String> slice = TestShardPlanner.slice(testClasses, shardIndex, 8);
+            Assert.assertFalse(slice.isEmpty());
+            sliced.addAll(slice);
+        }
+        Collections.sort(sliced);
+        final List<String> sortedTestClasses = Lists.newArrayList(testClasses);
+        Collections.sort(sortedTestClasses);
+        Assert.assertEquals(sortedTestClasses, sliced);
+
+        // A test class stays in its job shard whatever else is sharded
+        final String testClass = testClasses.get(0);
+        Assert.assertEquals(Collections.singletonList(testClass),
+                            TestShardPlanner.slice(Collections.singletonList(testClass), TestShardPlanner.shardOf(testClass, 8), 8));
+    }
+
+    @Test
+    public void testJobShardClassesWithoutHistoryAreExpectedToTakeTheAverage()
+    {
+        final Map<String, Long> expectedMillis = TestShardPlanner.expectedMillis(Arrays.asList("LoginTests", "NewTests", "CartTests"),
+                ImmutableMap.of("AppTests.LoginTests", 100L, "CartTests", 300L, "OtherTests", 1000L));
+        Assert.assertEquals(ImmutableMap.of("LoginTests", 100L, "NewTests", 200L, "CartTests", 300L), expectedMillis);
+
+        final List<TestShard> shards = TestShardPlanner.balance(expectedMillis, 2, false);
+        Assert.assertFalse(shards.get(0).isRunningUnknownTests());
+        Assert.assertFalse(shards.get(1).isRunningUnknownTests());
+
+        final List<String> command = Lists.newArrayList();
+        shards.get(1).addTestSelection(command, "AppTests", shards);
+        Assert.assertEquals(Arrays.asList("-only-testing:AppTests/NewTests", "-only-testing:AppTests/LoginTests"), command);
+    }
+
+    @Test
+    public void testSwiftModuleIsLeftOutOfTestIdentifiers()
+    {
+        Assert.assertEquals("AppTests/LoginTests", TestShard.testIdentifier("AppTests", "AppTests.LoginTests"));
+        Assert.assertEquals("AppTests/LoginTests", TestShard.testIdentifier("AppTests", "LoginTests"));
+    }
+}
@@ -0,0 +1,114 @@
+package com.atlassian.bamboo.plugins.xcode.tests.sharding;
+
+import com.atlassian.bamboo.results.tests.TestResults;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+public class TestShardResultsTest
+{
+    private static final String RUN_KEY = "PROJ-PLAN-12";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testResultsOfEveryShardAreMerged() throws IOException
+    {
+        writeShard(temporaryFolder.newFolder("shard0"), RUN_KEY, 0, 3, "LoginTests", "testLogin", true);
+        writeShard(temporaryFolder.newFolder("shard1"), RUN_KEY, 1, 3, "CartTests", "testEmptyCart", false);
+        writeShard(temporaryFolder.getRoot(), RUN_KEY, 2, 3, "SearchTests", "testSearch", true);
+
+        final TestShardResults shardResults = TestShardResults.merge(temporaryFolder.getRoot());
+        Assert.assertEquals(3, shardResults.getShardCount());
+        Assert.assertEquals(RUN_KEY, shardResults.getRunKey());
+        Assert.assertEquals(2, shardResults.getSuccessfulTestResults().size());
+        Assert.assertEquals(1, shardResults.getFailingTestResults().size());
+        Assert.assertEquals("CartTests", shardResults.getFailingTestResults().iterator().next().getClassName());
+    }
+
+    @Test
+    public void testMissingShardsFailTheMerge() throws IOException
+    {
+        writeShard(temporaryFolder.getRoot(), RUN_KEY, 1, 4, "LoginTests", "testLogin", true);
+        assertNotMerged("shards 0, 2, 3 of 4");
+    }
+
+    @Test
+    public void testShardsOfDifferentNumbersAreNotMerged() throws IOException
+    {
+        writeShard(temporaryFolder.getRoot(), RUN_KEY, 0, 2, "LoginTests", "testLogin", true);
+        writeShard(temporaryFolder.getRoot(), RUN_KEY, 0, 3, "LoginTests", "testLogin", true);
+        assertNotMerged("shards");
+    }
+
+    @Test
+    public void testShardsOfDifferentBuildsAreNotMerged() throws IOException
+    {
+        writeShard(temporaryFolder.newFolder("shard0"), "PROJ-PLAN-11", 0, 2, "LoginTests", "testLogin", true);
+        writeShard(temporaryFolder.newFolder("shard1"), RUN_KEY, 1, 2, "SearchTests", "testSearch", true);
+        assertNotMerged("PROJ-PLAN-11");
+    }
+
+    @Test
+    public void testShardFoundTwiceIsNotMerged() throws IOException
+    {
+        writeShard(temporaryFolder.newFolder("shard0"), RUN_KEY, 0, 2, "LoginTests", "testLogin", true);
+        writeShard(temporaryFolder.newFolder("shard0-again"), RUN_KEY, 0, 2, "LoginTests", "testLogin", false);
+        writeShard(temporaryFolder.getRoot(), RUN_KEY, 1, 2, "SearchTests", "testSearch", true);
+        assertNotMerged("shard 0");
+    }
+
+    @Test
+    public void testRenamedShardIsNotMerged() throws IOException
+    {
+        final File resultsFile = writeShard(temporaryFolder.newFolder("shard0"), RUN_KEY, 0, 2, "LoginTests", "testLogin", true);
+        FileUtils.moveFile(resultsFile, new File(temporaryFolder.getRoot(), TestShardResults.fileName(1, 2)));
+        writeShard(temporaryFolder.getRoot(), RUN_KEY, 0, 2, "SearchTests", "testSearch", true);
+        assertNotMerged("named after");
+    }
+
+    @Test
+    public void testNoResultsAreFoundInAnEmptyDirectory() throws IOException
+    {
+        FileUtils.writeStringToFile(new File(temporaryFolder.getRoot(), "other.testresults"), "not shard results");
+        Assert.assertEquals(0, TestShardResults.merge(temporaryFolder.getRoot()).getShardCount());
+    }
+
+    private void assertNotMerged(String expectedMessage)
+    {
+        try
+        {
+            TestShardResults.merge(temporaryFolder.getRoot());
+            Assert.fail("The shards should not be merged");
+        }
+        catch (IOException e)
+        {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(expectedMessage));
+        }
+    }
+
+    private static File writeShard(File directory, String runKey, int shardIndex, int shardCount, String suiteName, String testName, boolean successful)
+            throws IOException
+    {
+        final TestShardResults shardResults = new TestShardResults();
+        final TestResults testResults = new TestResults(suiteName, testName, "0.5");
+        if (successful)
+        {
+            shardResults.addAll(Collections.singleton(testResults), Collections.<TestResults>emptySet());
+        }
+        else
+        {
+            shardResults.addAll(Collections.<TestResults>emptySet(), Collections.singleton(testResults));
+        }
+        final File resultsFile = shardResults.write(directory, runKey, shardIndex, shardCount);
+        Assert.assertEquals(TestShardResults.fileName(shardIndex, shardCount), resultsFile.getName());
+        return resultsFile;
+    }
+}
@@ -0,0 +1,120 @@
+package com.atlassian.bamboo.plugins.xcode.tests.xctest;
+
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.collect.Iterables;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collection;
+
+public class ParallelXCTestParserTest
+{
+    @Test
+    public void testInterleavedTestsKeepTheirOwnOutputAndDuration()
+    {
+        final ParallelXCTestParser parser = parse(
+                "Test Suite 'LoginTests' started at 2018-10-01 10:00:00.000",
+                "Test Case '-[AppTests.LoginTests testLogin]' started.",
+                "Test Suite 'SearchTests' started at 2018-10-01 10:00:00.010",
+                "Test Case '-[AppTests.SearchTests testSearch]' started.",
+                "/src/LoginTests.swift:12: error: -[AppTests.LoginTests testLogin] : XCTAssertTrue failed",
+                "Test Case '-[AppTests.LoginTests testLogin]' failed (0.300 seconds).",
+                "Searching for 'cats'",
+                "Test Case '-[AppTests.SearchTests testSearch]' passed (0.120 seconds).",
+                "Test Suite 'SearchTests' passed at 2018-10-01 10:00:00.200.",
+                "Test Suite 'LoginTests' failed at 2018-10-01 10:00:00.400.");
+
+        final TestResults failure = Iterables.getOnlyElement(parser.getFailingTestResults());
+        Assert.assertEquals("LoginTests", failure.getClassName());
+        Assert.assertEquals("testLogin", failure.getActualMethodName());
+        Assert.assertEquals(300, failure.getDuration());
+        Assert.assertTrue(failure.getSystemOut(), failure.getSystemOut().contains("XCTAssertTrue failed"));
+        Assert.assertFalse(failure.getSystemOut(), failure.getSystemOut().contains("cats"));
+
+        final TestResults success = Iterables.getOnlyElement(parser.getSuccessfulTestResults());
+        Assert.assertEquals("SearchTests", success.getClassName());
+        Assert.assertEquals(120, success.getDuration());
+        Assert.assertTrue(success.getSystemOut(), success.getSystemOut().contains("cats"));
+        Assert.assertEquals(1, parser.getFailedTestCount());
+        Assert.assertEquals(0, parser.getInFlightTestCount());
+    }
+
+    @Test
+    public void testSameTestOnTwoClonesIsReportedForEach()
+    {
+        final ParallelXCTestParser parser = parse(
+                "Test case 'LoginTests.testLogin()' started on 'Clone 1 of iPhone 8 - AppTests (4242)'",
+                "Test case 'LoginTests.testLogin()' started on 'Clone 2 of iPhone 8 - AppTests (4343)'",
+                "Test case 'LoginTests.testLogin()' passed on 'Clone 2 of iPhone 8 - AppTests (4343)' (0.050 seconds)",
+                "Test case 'LoginTests.testLogin()' failed on 'Clone 1 of iPhone 8 - AppTests (4242)' (1.500 seconds)");
+
+        Assert.assertEquals(50, Iterables.getOnlyElement(parser.getSuccessfulTestResults()).getDuration());
+        final TestResults failure = Iterables.getOnlyElement(parser.getFailingTestResults());
+        Assert.assertEquals("LoginTests", failure.getClassName());
+        Assert.assertEquals("testLogin", failure.getActualMethodName());
+        Assert.assertEquals(1500, failure.getDuration());
+    }
+
+    @Test
+    public void testCloneSummaryLinesWithoutStartAreReported()
+    {
+        final ParallelXCTestParser parser = parse(
+                "Test suite 'LoginTests' started on 'Clone 1 of iPhone 8 - AppTests (4242)'",
+                "Test case '-[AppTests.LoginTests testLogin]' passed on 'Clone 1 of iPhone 8 - AppTests (4242)' (0.010 seconds)",
+                "Test case 'SearchTests.testSearch()' failed on 'Clone 2 of iPhone 8 - AppTests (4343)' (0.020 seconds)",
+                "Test suite 'LoginTests' passed on 'Clone 1 of iPhone 8 - AppTests (4242)'",
+                "** TEST FAILED **");
+
+        assertOnlyTest(parser.getSuccessfulTestResults(), "LoginTests", "testLogin");
+        assertOnlyTest(parser.getFailingTestResults(), "SearchTests", "testSearch");
+    }
+
+    @Test
+    public void testTestsReportedByBothFormsOfLineAreCountedOnce()
+    {
+        final ParallelXCTestParser parser = parse(
+                "Test Case '-[AppTests.LoginTests testLogin]' started.",
+                "Test Case '-[AppTests.LoginTests testLogin]' passed (0.010 seconds).",
+                "Test case 'LoginTests.testLogin()' passed on 'Clone 1 of iPhone 8 - AppTests (4242)' (0.010 seconds)",
+                "Test Case '-[AppTests.SearchTests testSearch]' started.",
+                "Test case 'SearchTests.testSearch()' failed on 'Clone 2 of iPhone 8 - AppTests (4343)' (0.020 seconds)",
+                "Test Case '-[AppTests.SearchTests testSearch]' failed (0.020 seconds).",
+                "Test case 'LogoutTests.testLogout()' passed on 'Clone 1 of iPhone 8 - AppTests (4242)' (0.030 seconds)",
+                "Test Case '-[AppTests.LoginTests testLogin]' started.",
+                "Test Case '-[AppTests.LoginTests testLogin]' passed (0.040 seconds).",
+                "Test case 'LoginTests.testLogin()' passed on 'Clone 1 of iPhone 8 - AppTests (4242)' (0.040 seconds)",
+                "** TEST FAILED **");
+
+        Assert.assertEquals(3, parser.getSuccessfulTestResults().size());
+        assertOnlyTest(parser.getFailingTestResults(), "SearchTests", "testSearch");
+        Assert.assertEquals(1, parser.getFailedTestCount());
+        Assert.assertEquals(4, parser.getFinishedTestCount());
+    }
+
+    @Test
+    public void testTestKeys()
+    {
+        Assert.assertEquals("LoginTests testLogin", ParallelXCTestParser.testKey("-[AppTests.LoginTests testLogin]"));
+        Assert.assertEquals("LoginTests testLogin", ParallelXCTestParser.testKey("-[LoginTests testLogin]"));
+        Assert.assertEquals("LoginTests testLogin", ParallelXCTestParser.testKey("AppTests.LoginTests.testLogin()"));
+        Assert.assertEquals("LoginTests testLogin", ParallelXCTestParser.testKey("LoginTests.testLogin()"));
+        Assert.assertNull(ParallelXCTestParser.testKey("All tests"));
+    }
+
+    private static void assertOnlyTest(Collection<TestResults> testResults, String suiteName, String testName)
+    {
+        final TestResults only = Iterables.getOnlyElement(testResults);
+        Assert.assertEquals(suiteName, only.getClassName());
+        Assert.assertEquals(testName, only.getActualMethodName());
+    }
+
+    private static ParallelXCTestParser parse(String... lines)
+    {
+        final ParallelXCTestParser parser = new ParallelXCTestParser();
+        for (String line : lines)
+        {
+            parser.processLine(line);
+        }
+        return parser;
+    }
+}
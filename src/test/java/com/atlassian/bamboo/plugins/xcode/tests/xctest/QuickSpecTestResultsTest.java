@@ -28,4 +28,26 @@ public class QuickSpecTestResultsTest
         Assert.assertEquals("Pretty name is correct", "Display icon text field cell with priority field has icon image view", results.getMethodName());
     }
 
+    @Test
+    public void testQuickNameDecodingMatchesSpecPattern()
+    {
+        Assert.assertNull(QuickSpecName.decode("__a_b_1"));
+        Assert.assertNull(QuickSpecName.decode("a__b_c_"));
+        Assert.assertNull(QuickSpecName.decode("a__b_c1"));
+        Assert.assertNull(QuickSpecName.decode("a__bc_1"));
+        Assert.assertNull(QuickSpecName.decode("a__b_c\n_1"));
+
+        final QuickSpecName shortest = QuickSpecName.decode("a__b_c_1");
+        Assert.assertNotNull(shortest);
+        Assert.assertEquals("a__b", shortest.specKey);
+        Assert.assertEquals("A b", shortest.getPrettyName());
+
+        // The spec describes up to the first "__", the behaviour runs up to the last '_' that leaves a file reference
+        final QuickSpecName nested = QuickSpecName.decode("_Outer__inner__ does  Thing __file_x_12");
+        Assert.assertNotNull(nested);
+        Assert.assertEquals("_Outer__inner__ does  Thing __file", nested.specKey);
+        Assert.assertEquals(" Outer", nested.describes);
+        Assert.assertEquals("inner  does  Thing  file", nested.behaviour);
+        Assert.assertEquals("Outer inner does thing file", nested.getPrettyName());
+    }
 }
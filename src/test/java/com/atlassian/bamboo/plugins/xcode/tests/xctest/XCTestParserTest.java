@@ -3,12 +3,17 @@ package com.atlassian.bamboo.plugins.xcode.tests.xctest;
 import com.atlassian.bamboo.results.tests.TestResults;
 import org.apache.commons.io.IOUtils;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.Assert;
 
+import com.sun.management.ThreadMXBean;
+
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
 import java.util.Set;
 
 public class XCTestParserTest
@@ -53,6 +58,87 @@ public class XCTestParserTest
         }
     }
 
+    @Test
+    public void testSuitesAreTaggedWithTheirDestination() throws Exception
+    {
+        xcTestParser.setDestination("platform=iOS Simulator,name=iPhone 8,OS=11.2");
+        parse("/com/atlassian/bamboo/plugins/xcode/tests/xctest-failed.txt");
+        assertSuccessfulResultCount(1);
+        assertFailingResultCount(1);
+
+        for (TestResults results : successfulTestResults) {
+            Assert.assertTrue(results.getClassName(), results.getClassName().endsWith(" (iPhone 8 OS 11.2)"));
+        }
+    }
+
+    @Test
+    public void testDestinationLabels()
+    {
+        Assert.assertEquals("iPhone 8 OS 11.2", XCTestParser.destinationLabel("platform=iOS Simulator,name=iPhone 8,OS=11.2"));
+        Assert.assertEquals("iPad Air", XCTestParser.destinationLabel("platform=iOS Simulator, name=iPad Air"));
+        Assert.assertEquals("6D8B3B5A", XCTestParser.destinationLabel("platform=iOS,id=6D8B3B5A"));
+        Assert.assertEquals("platform=macOS", XCTestParser.destinationLabel("platform=macOS"));
+    }
+
+    @Test
+    public void testLinesThatDoNotCompleteATestDoNotAllocate() throws Exception
+    {
+        final String[] lines = {
+                "Test Suite 'JIRATests.xctest' started at 2015-12-22 13:49:33.737",
+                "Test Case '-[JIRATests.AppConfigTests testCloseSession]' started.",
+                "Test Suite 'AppConfigTests' started at 2015-12-22 13:49:33.855",
+                "Test Case '-[JIRATests.AppConfigTests testOpenSession]' started.",
+        };
+        for (int i = 0; i < 10000; i++)
+        {
+            xcTestParser.processLine(lines[i % lines.length]);
+        }
+
+        assumeAllocationCounting();
+        final int lineCount = 100000;
+        final long allocated = allocatedBytes(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (int i = 0; i < lineCount; i++)
+                {
+                    xcTestParser.processLine(lines[i % lines.length]);
+                }
+            }
+        });
+
+        Assert.assertTrue("Allocated " + allocated + " bytes for " + lineCount + " lines", allocated < lineCount / 10);
+    }
+
+    @Test
+    public void testAllocationPerLine() throws Exception
+    {
+        final List<String> lines = readLines("/com/atlassian/bamboo/plugins/xcode/tests/xctest-consecutive-identical-test-names.txt");
+        for (int i = 0; i < 20; i++)
+        {
+            processLines(new XCTestParser(), lines);
+        }
+
+        assumeAllocationCounting();
+        final int passes = 20;
+        final long allocated = allocatedBytes(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (int i = 0; i < passes; i++)
+                {
+                    processLines(new XCTestParser(), lines);
+                }
+            }
+        });
+
+        // Dominated by the TestResults recorded for the 218 tests, every other line should be close to free
+        final long bytesPerLine = allocated / (passes * lines.size());
+        Assert.assertTrue("Allocated " + bytesPerLine + " bytes per line", bytesPerLine < 1024);
+    }
+
     @Before
     public void setup()
     {
@@ -68,21 +154,60 @@ public class XCTestParserTest
     }
 
     private void parse(String resource) throws IOException
+    {
+        processLines(xcTestParser, readLines(resource));
+        successfulTestResults = xcTestParser.getSuccessfulTestResults();
+        failingTestResults = xcTestParser.getFailingTestResults();
+    }
+
+    private List<String> readLines(String resource) throws IOException
     {
         InputStream testLogStream = null;
         try {
             testLogStream = getClass().getResourceAsStream(resource);
-            for (String line : IOUtils.readLines(testLogStream)) {
-                xcTestParser.processLine(line);
-            }
-            successfulTestResults = xcTestParser.getSuccessfulTestResults();
-            failingTestResults = xcTestParser.getFailingTestResults();
+            return IOUtils.readLines(testLogStream);
         }
         finally {
             IOUtils.closeQuietly(testLogStream);
         }
     }
 
+    private static void processLines(XCTestParser parser, List<String> lines)
+    {
+        for (String line : lines) {
+            parser.processLine(line);
+        }
+    }
+
+    /**
+     * Allocated bytes are only counted by the com.sun ThreadMXBean of HotSpot based JVMs
+     */
+    private static void assumeAllocationCounting()
+    {
+        boolean counting;
+        try
+        {
+            final java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            counting = threadMXBean instanceof ThreadMXBean
+                       && ((ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()
+                       && ((ThreadMXBean) threadMXBean).isThreadAllocatedMemoryEnabled();
+        }
+        catch (NoClassDefFoundError e)
+        {
+            counting = false;
+        }
+        Assume.assumeTrue("The JVM does not count the bytes allocated by a thread", counting);
+    }
+
+    private static long allocatedBytes(Runnable runnable)
+    {
+        final ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        runnable.run();
+        return threadMXBean.getThreadAllocatedBytes(threadId) - before;
+    }
+
     private void assertSuccessfulResultCount(int count) {
         Assert.assertEquals("Correct number of successful tests", count, successfulTestResults.size());
     }
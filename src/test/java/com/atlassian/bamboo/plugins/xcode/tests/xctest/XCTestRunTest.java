@@ -0,0 +1,90 @@
+package com.atlassian.bamboo.plugins.xcode.tests.xctest;
+
+import com.atlassian.bamboo.plugins.xcode.tests.api.TestParserLogInterceptor;
+import com.atlassian.bamboo.results.tests.TestResults;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class XCTestRunTest
+{
+    private static final String DESTINATION = "platform=iOS Simulator,name=iPhone 8,OS=11.2";
+
+    @Test
+    public void testFailedTestsAreSelectedWithoutTheirModuleOrDestination()
+    {
+        final XCTestRun testRun = new XCTestRun(parse(DESTINATION,
+                "Test Suite 'LoginTests' started at 2017-12-01 10:00:00.000",
+                "Test Case '-[AppTests.LoginTests testLogin]' started.",
+                "Test Case '-[AppTests.LoginTests testLogin]' failed (0.100 seconds).",
+                "Test Case '-[AppTests.LoginTests testLogout]' started.",
+                "Test Case '-[AppTests.LoginTests testLogout]' passed (0.100 seconds).",
+                "Test Suite 'LoginTests' failed at 2017-12-01 10:00:00.200."), DESTINATION);
+
+        final List<String> command = Lists.newArrayList();
+        testRun.addTestSelection(command, "AppTests");
+        Assert.assertEquals(Lists.newArrayList("-only-testing:AppTests/LoginTests/testLogin"), command);
+    }
+
+    @Test
+    public void testTestsPassingOnRetryAreFlaky()
+    {
+        final TestParserLogInterceptor interceptor = parse(null,
+                "Test Suite 'LoginTests' started at 2017-12-01 10:00:00.000",
+                "Test Case '-[AppTests.LoginTests testLogin]' started.",
+                "Test Case '-[AppTests.LoginTests testLogin]' failed (0.100 seconds).",
+                "Test Case '-[AppTests.LoginTests testLogout]' started.",
+                "Test Case '-[AppTests.LoginTests testLogout]' failed (0.100 seconds).",
+                "Test Suite 'LoginTests' failed at 2017-12-01 10:00:00.200.");
+        final XCTestRun testRun = new XCTestRun(interceptor, null);
+        testRun.setProcessFailed(true);
+        Assert.assertEquals(2, testRun.getFailingTestResults().size());
+        Assert.assertFalse(testRun.isFailedWithoutTestFailures());
+
+        final TestParserLogInterceptor retry = parse(null,
+                "Test Suite 'LoginTests' started at 2017-12-01 10:01:00.000",
+                "Test Case '-[AppTests.LoginTests testLogin]' started.",
+                "Test Case '-[AppTests.LoginTests testLogin]' passed (0.100 seconds).",
+                "Test Case '-[AppTests.LoginTests testLogout]' started.",
+                "Test Case '-[AppTests.LoginTests testLogout]' failed (0.100 seconds).",
+                "Test Suite 'LoginTests' failed at 2017-12-01 10:01:00.200.");
+        Assert.assertEquals(1, testRun.retried(1, retry.getSuccessfulTestResults()));
+
+        final TestResults flakyTest = Iterables.getOnlyElement(testRun.getFlakyTestResults());
+        Assert.assertEquals("testLogin", flakyTest.getActualMethodName());
+        Assert.assertTrue(flakyTest.getSystemOut(), flakyTest.getSystemOut().startsWith("Flaky: failed, then passed on retry 1"));
+        Assert.assertEquals("testLogout", Iterables.getOnlyElement(testRun.getFailingTestResults()).getActualMethodName());
+        for (TestResults failure : interceptor.getFailingTestResults())
+        {
+            Assert.assertEquals(failure.getActualMethodName().equals("testLogin"), testRun.isFlaky(failure));
+        }
+    }
+
+    @Test
+    public void testProcessFailingWithoutFailedTestsIsNotFlaky()
+    {
+        final XCTestRun testRun = new XCTestRun(parse(null,
+                "Test Suite 'LoginTests' started at 2017-12-01 10:00:00.000",
+                "Test Case '-[AppTests.LoginTests testLogin]' started.",
+                "Test Case '-[AppTests.LoginTests testLogin]' passed (0.100 seconds).",
+                "Test Suite 'LoginTests' passed at 2017-12-01 10:00:00.100."), null);
+        testRun.setProcessFailed(true);
+
+        Assert.assertTrue(testRun.getFailingTestResults().isEmpty());
+        Assert.assertTrue(testRun.isFailedWithoutTestFailures());
+    }
+
+    private static TestParserLogInterceptor parse(String destination, String... lines)
+    {
+        final XCTestParser parser = new XCTestParser();
+        parser.setDestination(destination);
+        for (String line : lines)
+        {
+            parser.processLine(line);
+        }
+        return new TestParserLogInterceptor(parser);
+    }
+}